@@ -2,13 +2,24 @@ package com.aerospike.txnSupport;
 
 import com.aerospike.client.*;
 import com.aerospike.client.Record;
+import com.aerospike.client.cdt.MapOperation;
+import com.aerospike.client.cdt.MapOrder;
+import com.aerospike.client.cdt.MapPolicy;
+import com.aerospike.client.cdt.MapReturnType;
+import com.aerospike.client.cdt.MapWriteFlags;
 import com.aerospike.client.policy.*;
 import com.aerospike.client.query.PredExp;
+import com.aerospike.client.util.Crypto;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
 
-public class AerospikeClientWithTxnSupport extends AerospikeClient implements TxnSupport {
+public class AerospikeClientWithTxnSupport extends AerospikeClient implements TxnSupport, AsyncTxnSupport {
     /**
      * Member variables
      */
@@ -21,26 +32,123 @@ public class AerospikeClientWithTxnSupport extends AerospikeClient implements Tx
     // If using Enterprise, we make use of durable deletes
     private boolean isEnterprise = true;
 
+    // If true, locks for a multi-record put are requested concurrently using the async client
+    private boolean parallelLockAcquisition = false;
+
+    // If true, record updates for a multi-record put are applied concurrently using the async client
+    private boolean parallelCommit = false;
+
+    // If true, locks are released concurrently using the async client once a txn completes
+    private boolean parallelLockRelease = false;
+
+    // Upper bound on the number of async commands outstanding for a single transaction
+    private int maxInFlightCommands = DEFAULT_MAX_IN_FLIGHT_COMMANDS;
+
+    // If true, previous record versions are stored in the txn record using the compact binary encoding - see TxnRecordCodec
+    private boolean compactTxnRecords = false;
+
+    // If true, record versions in txn records at least txnRecordCompressionThreshold bytes long are deflate compressed
+    private boolean compressTxnRecords = false;
+    private int txnRecordCompressionThreshold = DEFAULT_TXN_RECORD_COMPRESSION_THRESHOLD;
+
+    // If non zero, txn records holding more than this many record versions are split into chunk records
+    private int txnRecordChunkSize = 0;
+
+    // If true, locks are also written in the legacy ns::set::HEXDIGEST key form, for compatibility with older clients
+    private boolean legacyLockKeyCompatibility = false;
+
+    // How long to wait for locks held by other txns - default is not to wait
+    private LockWaitPolicy lockWaitPolicy = new LockWaitPolicy();
+
+    // Where locks are stored - separate lock records, or a bin on the record locked
+    private LockStrategy lockStrategy = LockStrategy.LOCK_RECORD;
+
+    // Age after which an inline lock whose txn has no txn record may be reclaimed
+    private long inlineLockTimeoutMillis = TransactionManager.DEFAULT_TXN_EXPIRY_PERIOD_MILLIS;
+
+    // If true, only the bins a txn writes are stored for rollback, rather than the whole record
+    private boolean binLevelUndo = false;
+
+    // If true, txn records hold new record versions and a txn commits once its txn record is written
+    private boolean redoLogging = false;
+
+    /**
+     * Order in which locks are acquired - by namespace then digest
+     * All txns acquiring locks in the same order means txns waiting on each other's locks cannot deadlock
+     */
+    static final Comparator<Key> LOCK_ORDER = (a, b) -> {
+        int namespaceComparison = a.namespace.compareTo(b.namespace);
+        if(namespaceComparison != 0) return namespaceComparison;
+        for(int i=0;i<a.digest.length && i<b.digest.length;i++){
+            int byteComparison = (a.digest[i] & 0xff) - (b.digest[i] & 0xff);
+            if(byteComparison != 0) return byteComparison;
+        }
+        return a.digest.length - b.digest.length;
+    };
+
     /**
      * Static variables to support persistence of locks and transactions
      */
     public static final String PREVIOUS_RECORD_VERSION_BIN_NAME = "prevRecordVsn";
+    public static final String NEXT_RECORD_VERSION_BIN_NAME = "nextRecordVsn";
+    public static final String TXN_RECORD_CHUNK_COUNT_BIN_NAME = "chunks";
     public static final String TXN_ID_BIN_NAME = "txnID";
     public static final String TIMESTAMP_BIN_NAME = "timestamp";
+    public static final String EXPIRY_BIN_NAME = "expiry";
     public static final String NAMESPACE_BIN_NAME = "ns";
     public static final String SET_NAME_BIN_NAME = "set";
     public static final String RECORD_KEY_BIN_NAME = "userKey";
     public static final String LOCK_TYPE = "lock";
     public static final String TXN_TYPE = "txn";
+    public static final String TXN_CHUNK_TYPE = "txnChunk";
+    public static final String LOCK_BIN_NAME = "txnLock";
+    public static final String LOCKED_GENERATIONS_BIN_NAME = "lockedGens";
+    public static final String READERS_BIN_NAME = "readers";
+
+    /**
+     * Shared lock records hold this in place of the txnID of an exclusive lock holder - see createSharedLock
+     */
+    public static final String SHARED_LOCK_TXN_ID = "*shared*";
 
     public static final String RECORD_KEY_SET_DELIMITER = "::";
 
+    /**
+     * Default values
+     */
+    public static final int DEFAULT_MAX_IN_FLIGHT_COMMANDS = 64;
+    public static final int DEFAULT_TXN_RECORD_COMPRESSION_THRESHOLD = 1024;
+
     /**
      *     Use UUIDS for lock / transaction set names to avoid namespace collisions
      */
     public static final String TRANSACTION_SET = "5b3adebd60384ebcb1ee7cdd80ab7845";
     public static final String LOCK_SET = "1d6bc26c6ca74d35a61b129be35bb24a";
 
+    /**
+     * Lock digests are formed by XORing the digest of the locked record with this mask - see lockKey
+     * The leading bytes, which determine the partition, are zero so a lock lives in the same partition as the record locked
+     */
+    private static final int DIGEST_PARTITION_BYTES = 2;
+    private static final byte[] LOCK_DIGEST_MASK = lockDigestMask();
+
+    /**
+     * Inline locks are written with CREATE_ONLY map semantics, so a lock held by another txn is never overwritten
+     */
+    private static final MapPolicy INLINE_LOCK_MAP_POLICY = new MapPolicy(MapOrder.UNORDERED, MapWriteFlags.CREATE_ONLY);
+
+    /**
+     * Expiration leaving a record's TTL as it is - used when inline locking and unlocking, so a txn which does not commit
+     * leaves the TTLs of the records it locked unchanged
+     */
+    private static final int LEAVE_TTL_UNCHANGED = -2;
+
+    /**
+     * Reads made by getCommitted before giving up on records which keep changing while being read, and the backoff before the
+     * first re-read, doubling with each further attempt
+     */
+    private static final int GET_COMMITTED_MAX_ATTEMPTS = 8;
+    private static final long GET_COMMITTED_BASE_BACKOFF_MILLIS = 2;
+
 
     private final static Logger LOGGER = Logger.getLogger(AerospikeClientWithTxnSupport.class.getName());
     /**
@@ -135,331 +243,3198 @@ public class AerospikeClientWithTxnSupport extends AerospikeClient implements Tx
     }
 
     /**
-     * set policy used for reading transaction records and locks
-     * @param txnReadPolicy policy used for reading locks and txn records
+     * Whether locks for a multi-record put are acquired in parallel
+     * @return boolean
      */
-    public void setTxnReadPolicy(Policy txnReadPolicy) {
-        this.txnReadPolicy = txnReadPolicy;
-        this.txnBatchReadPolicy = new BatchPolicy(txnReadPolicy);
+    public boolean isParallelLockAcquisition() {
+        return parallelLockAcquisition;
     }
 
     /**
-     * Save a number of records as an atomic transaction
-     * This update will be treated as being part of the transaction identified by txnID for rollback and locking purposes
-     * LockAcquireException will be thrown if exclusive locks cannot be taken out on all objects in the txn*
-     * Objects are exclusively locked for the duration of the transaction to avoid race conditions
-     * Previous state of the objects is stored to allow rollback
-     * Locks are removed after txn is complete
+     * If true, all lock writes for a multi-record put are issued concurrently and joined on, rather than one at a time
+     * Lock acquisition then costs roughly one round trip rather than one per record
+     * If any lock cannot be acquired, only the locks actually acquired are released
      *
-     * @param writePolicy - Write Policy to be used when updating records
-     * @param recordsForUpdate - records supplied as a hash in Key:Bin[] form
-     * @param generationCheckMap - key:int map allowing generationCheckMap check - useful as a check if working in environment where non-transactional writes are occurring
-     * @param txnID - transaction id
-     * @throws LockAcquireException if records updated by txn are already locked
+     * Requires the client to have been constructed with ClientPolicy.eventLoops set
+     *
+     * @param parallelLockAcquisition - boolean determining whether locks are acquired in parallel
      */
-    @Override
-    public final void put(WritePolicy writePolicy, HashMap<Key,Bin[]> recordsForUpdate, HashMap<Key,Integer> generationCheckMap, String txnID)
-            throws LockAcquireException, GenFailException{
-        Iterator<Key> txnKeys = recordsForUpdate.keySet().iterator();
-        // Lock all timedOutTxnIDs being updated
-        try {
-            while (txnKeys.hasNext()) {
-                createLock(txnKeys.next(), txnID);
-            }
-        }
-        // If a lock exception arises, unlock timedOutTxnIDs
-        catch(LockAcquireException e){
-            removeLocksForKeys(recordsForUpdate.keySet().iterator(),txnID);
-            throw e;
+    public void setParallelLockAcquisition(boolean parallelLockAcquisition) {
+        if(parallelLockAcquisition && !AsyncCommands.eventLoopsAvailable(this)){
+            throw new IllegalStateException("Parallel lock acquisition requires ClientPolicy.eventLoops to be set");
         }
+        this.parallelLockAcquisition = parallelLockAcquisition;
+    }
 
-        // Store previous versions of timedOutTxnIDs
-
-        // Get the keys in a usable form
-        Key[] keyArray = recordsForUpdate.keySet().toArray(new Key[0]);
-
-        // Then store versions of objects in a hash - using keys comprised of setName and userKey, concatenated using '::' delimiter
-        HashMap<String,Map<String,Object>> txnRecords;
-        txnRecords = existingVersionsOfRecordsForUpdate(keyArray, txnID);
-
-        createTransactionRecord(transactionNamespace,txnRecords,txnID);
-
-        // Now do the transaction itself
-        Key key = null;
-        try {
-            txnKeys = recordsForUpdate.keySet().iterator();
-            // Update the individual objects
-            while (txnKeys.hasNext()) {
-                key = txnKeys.next();
-                if(generationCheckMap.get(key) != null) {
-                    writePolicy.generationPolicy = GenerationPolicy.EXPECT_GEN_EQUAL;
-                    writePolicy.generation = generationCheckMap.get(key);
-                }
-                else{
-                    writePolicy.generationPolicy = GenerationPolicy.NONE;
-                    writePolicy.generation = 0;
-                }
-                if(recordsForUpdate.get(key) != null)
-                    put(writePolicy, key, recordsForUpdate.get(key));
-                else {
-                    if (isEnterprise) writePolicy.durableDelete = true;
-                    LOGGER.warning("Warning - non durable delete taking place as isEnterprise = false");
-                    delete(writePolicy, key);
-                }
-            }
-            postCommitRollbackTidy(recordsForUpdate.keySet().iterator(),txnID);
-        }
-        // If there is an error
-        catch(AerospikeException e){
-            rollback(transactionNamespace,txnRecords,txnID);
-            if(e.getResultCode() == ResultCode.GENERATION_ERROR ){
-                throw (new GenFailException(key,txnID));
-            }
-            else {
-                throw (new TxnException(txnID,e));
-            }
-        }
+    /**
+     * Whether record updates for a multi-record put are applied in parallel
+     * @return boolean
+     */
+    public boolean isParallelCommit() {
+        return parallelCommit;
     }
 
     /**
-     * Save a number of records as an atomic transaction
-     * This update will be treated as being part of the transaction identified by txnID for rollback and locking purposes
-     * LockAcquireException will be thrown if exclusive locks cannot be taken out on all objects in the txn*
-     * Objects are exclusively locked for the duration of the transaction to avoid race conditions
-     * Previous state of the objects is stored to allow rollback
-     * Locks are removed after txn is complete
+     * If true, once locks are held and the transaction record written, record updates are issued concurrently
+     * ( bounded by maxInFlightCommands ) rather than one at a time. Commit latency is then roughly one round trip rather than one per record
+     * On error, outstanding updates are allowed to complete before the transaction is rolled back
      *
-     * @param writePolicy - Write Policy to be used when updating records
-     * @param recordsForUpdate - records supplied as a hash in Key:Bin[] form
-     * @param txnID - transaction id
-     * @throws LockAcquireException if records updated by txn are already locked
+     * Requires the client to have been constructed with ClientPolicy.eventLoops set
+     *
+     * @param parallelCommit - boolean determining whether record updates are applied in parallel
      */
-    @Override
-    public final void put(WritePolicy writePolicy, HashMap<Key,Bin[]> recordsForUpdate, String txnID) throws LockAcquireException {
-        try {
-            put(writePolicy, recordsForUpdate, new HashMap<Key, Integer>(), txnID);
+    public void setParallelCommit(boolean parallelCommit) {
+        if(parallelCommit && !AsyncCommands.eventLoopsAvailable(this)){
+            throw new IllegalStateException("Parallel commit requires ClientPolicy.eventLoops to be set");
         }
-        // Shouldn't get gen fail with this version of put
-        catch(GenFailException e){}
+        this.parallelCommit = parallelCommit;
     }
 
     /**
-     *
-     * Save a number of records as an atomic transaction - see 'put' description above for full details
-     * This function identical except update will be treated as being a stand-alone transaction for commit / rollback and locking purposes
-     * rather than potentially being part of a larger transaction
-     *
-     * @param writePolicy - Write Policy to be used when updating records
-     * @param recordsForUpdate - records supplied as a hash in Key:Bin[] form
-     * @param generationCheckMap - key:int map allowing generationCheckMap check - useful as a check if working in environment where non-transactional writes are occurring
-     * @throws LockAcquireException if records updated by txn are already locked
-     * @throws GenFailException if current record generation of updated records does not match expected generation
+     * Whether locks are released in parallel once a transaction completes
+     * @return boolean
      */
-    @Override
-    public final void put(WritePolicy writePolicy, HashMap<Key,Bin[]> recordsForUpdate, HashMap<Key,Integer> generationCheckMap)
-            throws LockAcquireException, GenFailException{
-        String txnID = TxnSupport.uniqueTxnID();
-        put(writePolicy,recordsForUpdate,generationCheckMap,txnID);
+    public boolean isParallelLockRelease() {
+        return parallelLockRelease;
     }
 
     /**
+     * If true, once a transaction commits or is rolled back its locks are deleted concurrently ( bounded by maxInFlightCommands )
+     * rather than one at a time, shortening the time locks are held after commit
      *
-     * Save a number of records as an atomic transaction - see 'put' description above for full details
-     * This function identical except update will be treated as being a stand-alone transaction for commit / rollback and locking purposes
-     * rather than potentially being part of a larger transaction
+     * Requires the client to have been constructed with ClientPolicy.eventLoops set
      *
-     * @param writePolicy - Write Policy to be used when updating records
-     * @param recordsForUpdate - records supplied as a hash in Key:Bin[] form
-     * @throws LockAcquireException if records updated by txn are already locked
+     * @param parallelLockRelease - boolean determining whether locks are released in parallel
      */
-    @Override
-    public final void put(WritePolicy writePolicy, HashMap<Key,Bin[]> recordsForUpdate) throws LockAcquireException{
-        String txnID = TxnSupport.uniqueTxnID();
-        put(writePolicy,recordsForUpdate,txnID);
+    public void setParallelLockRelease(boolean parallelLockRelease) {
+        if(parallelLockRelease && !AsyncCommands.eventLoopsAvailable(this)){
+            throw new IllegalStateException("Parallel lock release requires ClientPolicy.eventLoops to be set");
+        }
+        this.parallelLockRelease = parallelLockRelease;
     }
 
     /**
-     * Internal utility method
-     * Creates a hash-map containing existing versions of all the timedOutTxnIDs that are going to be updated
-     * Keys in the hash are a concatenation of set and userKey with a special delimiter
+     * Maximum number of async commands a single transaction will have outstanding
+     * @return int
+     */
+    public int getMaxInFlightCommands() {
+        return maxInFlightCommands;
+    }
+
+    /**
+     * Set maximum number of async commands a single transaction will have outstanding when applying updates or releasing locks in parallel
+     * @param maxInFlightCommands - must be at least 1
+     */
+    public void setMaxInFlightCommands(int maxInFlightCommands) {
+        if(maxInFlightCommands < 1) throw new IllegalArgumentException("maxInFlightCommands must be at least 1");
+        this.maxInFlightCommands = maxInFlightCommands;
+    }
+
+    /**
+     * Whether previous record versions are stored in transaction records using the compact binary encoding
+     * @return boolean
+     */
+    public boolean isCompactTxnRecords() {
+        return compactTxnRecords;
+    }
+
+    /**
+     * If true, previous record versions are stored in transaction records using a compact binary encoding
+     * ( raw digests, with namespace, set and bin names stored once ) rather than a map keyed by namespace::set::HEXDIGEST
+     * Smaller transaction records are cheaper to write and to read back on rollback
      *
-     * Package level visibility to allow white box testing
+     * Rollback reads either encoding, so this can be changed while transactions are in flight
      *
-     * @param keysForRecordsForUpdate
-     * @param txnID
-     * @return - HashMap
+     * @param compactTxnRecords - boolean determining whether the compact encoding is used
      */
-    HashMap<String,Map<String,Object>> existingVersionsOfRecordsForUpdate(Key[] keysForRecordsForUpdate, String txnID){
-        // Get current verions of these timedOutTxnIDs
-        Record[] records;
-        try {
-            records = get(txnBatchReadPolicy, keysForRecordsForUpdate);
-        }
-        catch(AerospikeException ae){
-            throw new TxnException(txnID,ae);
-        }
+    public void setCompactTxnRecords(boolean compactTxnRecords) {
+        this.compactTxnRecords = compactTxnRecords;
+    }
 
-        // Then store them in a hash - using keys comprised of setName and userKey, concatenated using '::' delimiter
-        HashMap<String, Map<String, Object>> txnRecords = new HashMap<String, Map<String, Object>>();
-        for (int i = 0; i < keysForRecordsForUpdate.length; i++) {
-            String compoundKey = new KeyAsString(keysForRecordsForUpdate[i]).toString();
-            // Store previous record detail if it exists
-            Map<String, Object> bins = records[i] != null ? records[i].bins : null;
-            txnRecords.put(compoundKey, bins);
-        }
-        return txnRecords;
+    /**
+     * Whether record versions stored in transaction records are compressed
+     * @return boolean
+     */
+    public boolean isCompressTxnRecords() {
+        return compressTxnRecords;
     }
 
     /**
-     * Create and save transaction object - contains existing object state for all objects in transaction
-     * Timestamp allows reaping of hung transactions
+     * If true, record versions stored in transaction records are compressed using deflate, where their encoding is at least
+     * txnRecordCompressionThreshold bytes and compression makes it smaller. This trades client CPU for smaller transaction record
+     * writes, worthwhile where transactions update many or large records
      *
-     * Package level visibility to support white box testing
+     * Compression is applied to the compact binary encoding, so implies it - see setCompactTxnRecords
+     * Rollback reads compressed and uncompressed transaction records, so this can be changed while transactions are in flight
      *
-     * @param transactionNamespace
-     * @param txnRecords - previous versions of timedOutTxnIDs
-     * @param txnID - transaction ID
+     * @param compressTxnRecords - boolean determining whether compression is used
      */
-    void createTransactionRecord(String transactionNamespace,HashMap<String, Map<String, Object>> txnRecords, String txnID){
-        Bin[] txnRecordBins = new Bin[4];
-        txnRecordBins[0] = new Bin(PREVIOUS_RECORD_VERSION_BIN_NAME,txnRecords);
-        txnRecordBins[1] = new Bin(TXN_ID_BIN_NAME,txnID);
-        txnRecordBins[2] = new Bin(TIMESTAMP_BIN_NAME,System.currentTimeMillis());
-        txnRecordBins[3] = new Bin(Constants.TYPE_BIN_NAME,TXN_TYPE);
+    public void setCompressTxnRecords(boolean compressTxnRecords) {
+        this.compressTxnRecords = compressTxnRecords;
+    }
 
-        // Store existing object state in the 'transaction' record
-        try {
-            put(txnWritePolicy, keyForTxnID(txnID), txnRecordBins);
-        }
-        catch(AerospikeException e){
-            throw(new TxnException(txnID,e));
-        }
+    /**
+     * Size in bytes of encoded record versions below which they are not compressed
+     * @return int
+     */
+    public int getTxnRecordCompressionThreshold() {
+        return txnRecordCompressionThreshold;
     }
 
     /**
-     * Rollback a transaction
-     * 1) Replace new versions of timedOutTxnIDs with previous
-     * 2) tidy up ( delete transaction record and remove locks )
+     * Set size in bytes of encoded record versions below which they are not compressed - see setCompressTxnRecords
+     * Small encodings gain little from compression. Default is DEFAULT_TXN_RECORD_COMPRESSION_THRESHOLD
      *
-     * @param transactionNamespace
-     * @param txnRecords - Previous versions of the timedOutTxnIDs
-     * @param txnID - Transaction ID
+     * @param txnRecordCompressionThreshold - threshold in bytes
      */
-    private void rollback(String transactionNamespace, Map<String,Map<String,Object>> txnRecords, String txnID){
-        Iterator<String> txnKeys = txnRecords.keySet().iterator();
-        Vector<Key> asKeys = new Vector<Key>();
-        // Rollback previous commits
-        while (txnKeys.hasNext()) {
-            KeyAsString key = new KeyAsString(txnKeys.next());
-            Key asKey  = key.getKey();
-            try {
-                Map<String, Object> originalObject = txnRecords.get(key.toString());
-                if (originalObject != null)
-                    put(txnWritePolicy, asKey, mapToBins(originalObject));
-                else
-                    delete(txnWritePolicy, asKey);
-            }
-            catch(AerospikeException e){
-                throw(new TxnException(txnID,e));
-            }
-            // Build up vector of keys for tidy step
-            asKeys.addElement(asKey);
-        }
-        postCommitRollbackTidy(asKeys.iterator(),txnID);
+    public void setTxnRecordCompressionThreshold(int txnRecordCompressionThreshold) {
+        if(txnRecordCompressionThreshold < 0) throw new IllegalArgumentException("txnRecordCompressionThreshold must not be negative");
+        this.txnRecordCompressionThreshold = txnRecordCompressionThreshold;
     }
 
     /**
-     * Rollback transaction identified by txnID
+     * Maximum number of record versions held by a single txn record, or chunk of a txn record. 0 means txn records are not chunked
+     * @return int
+     */
+    public int getTxnRecordChunkSize() {
+        return txnRecordChunkSize;
+    }
+
+    /**
+     * Set maximum number of record versions held by a single txn record. 0 ( the default ) means no maximum
      *
-     * Package level visibility to support use by TransactionManager
+     * A transaction updating more records than this has its txn record split into chunk records, each holding up to txnRecordChunkSize
+     * record versions, plus a header record. This allows transactions whose record versions would together exceed the record size limit
+     * Chunks are written in parallel if the client has event loops. The header is written after the chunks and removed before them,
+     * so rollback, txnIncomplete and TransactionManager only ever see complete txn records. Chunks left without a header by a
+     * client failure are removed by TransactionManager once timed out
      *
-     * @param txnID txn to roll back
+     * Rollback reads chunked and unchunked txn records, so this can be changed while transactions are in flight
+     *
+     * @param txnRecordChunkSize - maximum record versions per txn record, or 0
      */
-    @Override
-    public void rollback(String txnID) throws LockAcquireException{
-        String rollbackTxnID = TxnSupport.uniqueTxnID();
-        createLock(keyForTxnID(txnID),rollbackTxnID);
-        Record r = get(txnReadPolicy,keyForTxnID(txnID),txnID);
-        Map<String,Map<String,Object>> retrievedTxnRecords =
-                (Map<String,Map<String,Object>>)r.getMap(AerospikeClientWithTxnSupport.PREVIOUS_RECORD_VERSION_BIN_NAME);
-        rollback(transactionNamespace, retrievedTxnRecords,txnID);
-        removeLock(keyForTxnID(txnID),rollbackTxnID);
+    public void setTxnRecordChunkSize(int txnRecordChunkSize) {
+        if(txnRecordChunkSize < 0) throw new IllegalArgumentException("txnRecordChunkSize must not be negative");
+        this.txnRecordChunkSize = txnRecordChunkSize;
     }
 
     /**
-     * Assuming rollback / commit has happened - tidy up
-     * Remove record of transaction ( signifies that commit / rollback has occurred in full )
-     * Remove locks
-     *
-     * @param keys
-     * @param txnID
+     * Whether locks are also written in the legacy key form
+     * @return boolean
      */
-    private void postCommitRollbackTidy(Iterator<Key> keys,String txnID){
-        // Remove the transaction record - this is the 'commit'
-        try {
-            delete(txnWritePolicy, keyForTxnID(txnID));
-        }
-        catch(AerospikeException ae){
-            throw new TxnException(txnID,ae);
-        }
-        // Remove locks
-        removeLocksForKeys(keys,txnID);
+    public boolean isLegacyLockKeyCompatibility() {
+        return legacyLockKeyCompatibility;
     }
 
     /**
-     * Database key for txn record
+     * Lock keys are derived directly from the digest of the record being locked. Older versions of this library
+     * used keys of the form namespace::set::HEXDIGEST. If true, locks are taken out and removed using both key forms,
+     * and lockExists checks both, so this client can safely run alongside older clients e.g. during an upgrade
      *
-     * Package level access to allow testing use
+     * Once all clients are upgraded and any legacy locks released, this can be set back to false
      *
-     * @param txnID
-     * @return Key
+     * @param legacyLockKeyCompatibility - boolean determining whether legacy lock keys are also used
      */
-    Key keyForTxnID(String txnID){
-        return new Key(transactionNamespace,TRANSACTION_SET,txnID);
+    public void setLegacyLockKeyCompatibility(boolean legacyLockKeyCompatibility) {
+        this.legacyLockKeyCompatibility = legacyLockKeyCompatibility;
     }
 
     /**
-     * Check whether there is an incomplete txn with this id
-     * @param txnID transaction being checked
-     * @return boolean
+     * Policy determining how long a multi-record put waits for locks held by other transactions
+     * @return LockWaitPolicy
      */
-    public boolean txnIncomplete(String txnID){
-        return get(txnReadPolicy,keyForTxnID(txnID)) != null;
+    public LockWaitPolicy getLockWaitPolicy() {
+        return lockWaitPolicy;
     }
 
     /**
-     * Create a lock on they object identified by key
-     * Throw an error if lock cannot be acquired
-     * Lock is associated with a transaction id
+     * Set policy determining how long a multi-record put waits for locks held by other transactions
+     * before throwing LockAcquireException. Locks are retried using exponential backoff with jitter
      *
-     * @param key Aerospike Key for record requiring lock
-     * @param txnID Transaction record is being locked for
+     * Locks are always acquired in a canonical ( namespace, digest ) order so waiting transactions cannot deadlock.
+     * If parallelLockAcquisition is set, locks acquired are released before backing off and the whole set is retried
+     *
+     * @param lockWaitPolicy - LockWaitPolicy. null restores the default of not waiting
      */
-    @Override
-    public void createLock(Key key, String txnID) throws LockAcquireException{
-        Key lockKey  = lockKey(key);
+    public void setLockWaitPolicy(LockWaitPolicy lockWaitPolicy) {
+        this.lockWaitPolicy = (lockWaitPolicy != null) ? lockWaitPolicy : new LockWaitPolicy();
+    }
 
-        Bin txnIDBin = new Bin(TXN_ID_BIN_NAME,txnID);
-        Bin[] lockBinAsArray;
-        Bin typeBin = new Bin(Constants.TYPE_BIN_NAME, LOCK_TYPE);
-        Bin namespaceBin = new Bin(NAMESPACE_BIN_NAME,key.namespace);
-        Bin setNameBin = new Bin(SET_NAME_BIN_NAME, key.setName);
-        Bin recordKeyBin = new Bin(RECORD_KEY_BIN_NAME, key.userKey.toString());
-        Bin lockTimeBin = new Bin(TIMESTAMP_BIN_NAME,System.currentTimeMillis());
-        lockBinAsArray = new Bin[]{typeBin, txnIDBin, namespaceBin,setNameBin, recordKeyBin,lockTimeBin};
-        try{
-            // Note lockPolicy is CREATE_ONLY - see setTxnWritePolicy
-            put(lockPolicy,lockKey,lockBinAsArray);
+    /**
+     * Where locks on records updated by a transaction are stored
+     * @return LockStrategy
+     */
+    public LockStrategy getLockStrategy() {
+        return lockStrategy;
+    }
+
+    /**
+     * Set where locks on records updated by a transaction are stored - see LockStrategy
+     *
+     * With LockStrategy.INLINE the lock is a map bin ( LOCK_BIN_NAME ) on the record itself. Acquiring it also returns the
+     * record generation, and each record update is applied with that generation expected and clears the lock in the same write.
+     * Locks are therefore released as each record is committed, and no lock records or tombstones are created
+     *
+     * Readers of records updated using INLINE locking will see LOCK_BIN_NAME while a transaction is in flight.
+     * Clients using different strategies do not see each other's locks, so all clients updating a set of records must use the same strategy
+     *
+     * @param lockStrategy - LockStrategy. null restores the default of LOCK_RECORD
+     */
+    public void setLockStrategy(LockStrategy lockStrategy) {
+        this.lockStrategy = (lockStrategy != null) ? lockStrategy : LockStrategy.LOCK_RECORD;
+    }
+
+    /**
+     * Age after which an inline lock left by a failed client may be reclaimed
+     * @return timeout in milliseconds
+     */
+    public long getInlineLockTimeoutMillis() {
+        return inlineLockTimeoutMillis;
+    }
+
+    /**
+     * Inline locks live on the data record, so are not removed by TransactionManager's orphan lock removal.
+     * Instead, a txn finding an inline lock older than this, held by a txn with no txn record, reclaims it
+     * Should be comfortably longer than any transaction takes to write its txn record
+     *
+     * @param inlineLockTimeoutMillis - timeout in milliseconds
+     */
+    public void setInlineLockTimeoutMillis(long inlineLockTimeoutMillis) {
+        this.inlineLockTimeoutMillis = inlineLockTimeoutMillis;
+    }
+
+    /**
+     * Whether only the bins written by a transaction are stored for rollback
+     * @return boolean
+     */
+    public boolean isBinLevelUndo() {
+        return binLevelUndo;
+    }
+
+    /**
+     * If true, the previous versions stored in a transaction record contain only the bins the transaction writes,
+     * with a null marker for any of those bins that did not exist. Rollback restores just those bins.
+     * Where transactions update a few bins of wide records this greatly reduces transaction record size,
+     * and when using LOCK_RECORD the read of previous versions is projected to those bins too
+     *
+     * Records deleted by a transaction are still stored in full. Rollback reads either form, so this can be changed while transactions are in flight
+     *
+     * @param binLevelUndo - boolean determining whether previous versions are stored at bin level
+     */
+    public void setBinLevelUndo(boolean binLevelUndo) {
+        this.binLevelUndo = binLevelUndo;
+    }
+
+    /**
+     * Whether transactions use redo logging
+     * @return boolean
+     */
+    public boolean isRedoLogging() {
+        return redoLogging;
+    }
+
+    /**
+     * If true, the transaction record holds the new versions of the records being updated rather than the previous versions.
+     * Once locks are held and generations checked, writing the transaction record is the commit point - the transaction
+     * will complete even if the client fails while applying updates, as TransactionManager rolls it forward
+     * rather than rolling it back
+     *
+     * A put which fails before the commit point has no effect. A put which fails after it is completed from the transaction record,
+     * so put returns normally, or throws TxnException with the txn left for TransactionManager to complete if that is not possible.
+     * A client rolling its own txn forward uses the policy supplied to put, while TransactionManager uses the txn write policy
+     *
+     * The record exists action of the policy supplied to put is checked before the commit point, so a put it does not allow has no
+     * effect. A predExp cannot be evaluated before the commit point, so put fails with PARAMETER_ERROR if the policy has one
+     *
+     * Redo logging stores whole new bin values, so does not make use of binLevelUndo
+     *
+     * @param redoLogging - boolean determining whether redo logging is used
+     */
+    public void setRedoLogging(boolean redoLogging) {
+        this.redoLogging = redoLogging;
+    }
+
+    /**
+     * set policy used for reading transaction records and locks
+     * @param txnReadPolicy policy used for reading locks and txn records
+     */
+    public void setTxnReadPolicy(Policy txnReadPolicy) {
+        this.txnReadPolicy = txnReadPolicy;
+        this.txnBatchReadPolicy = new BatchPolicy(txnReadPolicy);
+    }
+
+    /**
+     * Save a number of records as an atomic transaction
+     * This update will be treated as being part of the transaction identified by txnID for rollback and locking purposes
+     * LockAcquireException will be thrown if exclusive locks cannot be taken out on all objects in the txn*
+     * Objects are exclusively locked for the duration of the transaction to avoid race conditions
+     * Previous state of the objects is stored to allow rollback
+     * Locks are removed after txn is complete
+     *
+     * @param writePolicy - Write Policy to be used when updating records
+     * @param recordsForUpdate - records supplied as a hash in Key:Bin[] form
+     * @param generationCheckMap - key:int map allowing generationCheckMap check - useful as a check if working in environment where non-transactional writes are occurring
+     * @param txnID - transaction id
+     * @throws LockAcquireException if records updated by txn are already locked
+     */
+    @Override
+    public final void put(WritePolicy writePolicy, HashMap<Key,Bin[]> recordsForUpdate, HashMap<Key,Integer> generationCheckMap, String txnID)
+            throws LockAcquireException, GenFailException{
+        if(redoLogging)
+            putWithRedoLog(writePolicy, recordsForUpdate, generationCheckMap, null, txnID);
+        else
+            putWithUndoLog(writePolicy, recordsForUpdate, generationCheckMap, null, null, txnID);
+    }
+
+    /**
+     * Save a number of records as an atomic transaction, validating optimistic reads - see getForUpdate
+     *
+     * No locks are held while the transaction reads and computes its updates. At commit, reads are validated - any record
+     * whose generation has changed since it was read fails the transaction with GenFailException before locks are taken.
+     * Records being updated are then locked, and reads validated again under lock, before anything is written. Records
+     * read but not updated must also not be locked by another transaction
+     *
+     * Suited to low contention workloads, where locks are held only for the commit itself
+     *
+     * @param writePolicy - Write Policy to be used when updating records
+     * @param recordsForUpdate - records supplied as a hash in Key:Bin[] form
+     * @param readGenerations - generations of records when read, 0 if they did not exist, as recorded by getForUpdate
+     * @param txnID - transaction id
+     * @throws LockAcquireException if records updated by txn are already locked
+     * @throws GenFailException if a record has changed since it was read
+     */
+    @Override
+    public final void putOptimistic(WritePolicy writePolicy, HashMap<Key,Bin[]> recordsForUpdate, HashMap<Key,Integer> readGenerations, String txnID)
+            throws LockAcquireException, GenFailException{
+        // Fail fast, without taking locks, if a record has changed since it was read
+        validateReads(readGenerations, txnID);
+        commitOptimistic(writePolicy, recordsForUpdate, readGenerations, null, txnID);
+    }
+
+    /**
+     * Commit an optimistic transaction - records being updated are locked, and reads validated under lock, before anything is written
+     *
+     * Records read by the txn are unchanged once validated, so where supplied they are stored as the previous versions
+     * of the records being updated rather than being read again
+     *
+     * Package level visibility - used by Transaction
+     *
+     * @param writePolicy - Write Policy to be used when updating records
+     * @param recordsForUpdate - records supplied as a hash in Key:Bin[] form
+     * @param readGenerations - generations of records when read, 0 if they did not exist
+     * @param readRecords - records as read, null where they did not exist, or null if records read are not to be reused
+     * @param txnID - transaction id
+     * @throws LockAcquireException if records updated by txn are already locked
+     * @throws GenFailException if a record has changed since it was read
+     */
+    void commitOptimistic(WritePolicy writePolicy, HashMap<Key,Bin[]> recordsForUpdate, HashMap<Key,Integer> readGenerations,
+                          Map<Key,Record> readRecords, String txnID) throws LockAcquireException, GenFailException{
+        // Records which did not exist are validated separately, as generation checks do not apply to them
+        HashMap<Key,Integer> generationCheckMap = new HashMap<Key,Integer>();
+        for(Key key : recordsForUpdate.keySet()){
+            Integer generation = readGenerations.get(key);
+            if(generation != null && generation != 0) generationCheckMap.put(key, generation);
+        }
+        if(redoLogging)
+            putWithRedoLog(writePolicy, recordsForUpdate, generationCheckMap, readGenerations, txnID);
+        else
+            putWithUndoLog(writePolicy, recordsForUpdate, generationCheckMap, readGenerations, readRecords, txnID);
+    }
+
+    /**
+     * Read records for an optimistic transaction, recording the generation of each as read - 0 if it does not exist
+     * The generations are then validated when the transaction is committed by putOptimistic
+     *
+     * @param keys - keys of records to read
+     * @param readGenerations - map to which generations of records read are added
+     * @return Record[] - records read, null if they do not exist
+     */
+    @Override
+    public Record[] getForUpdate(Key[] keys, HashMap<Key,Integer> readGenerations){
+        Record[] records = get(txnBatchReadPolicy, keys);
+        for(int i=0;i<keys.length;i++){
+            readGenerations.put(keys[i], (records[i] != null) ? records[i].generation : 0);
+            records[i] = withoutLockBin(records[i]);
+        }
+        return records;
+    }
+
+    /**
+     * Begin an optimistic transaction, with reads and writes buffered by the returned Transaction until it is committed
+     *
+     * @param writePolicy - Write Policy to be used when updating records
+     * @return Transaction
+     */
+    @Override
+    public Transaction beginTransaction(WritePolicy writePolicy){
+        return new Transaction(this, writePolicy, TxnSupport.uniqueTxnID());
+    }
+
+    /**
+     * Check records are still at the generations they were read at, using a single batch read of record headers
+     * Package level visibility - used by Transaction
+     *
+     * @param readGenerations - generations of records when read, 0 if they did not exist
+     * @param txnID - transaction id
+     * @throws GenFailException if any record has changed since it was read
+     */
+    void validateReads(HashMap<Key,Integer> readGenerations, String txnID) throws GenFailException{
+        if(readGenerations.isEmpty()) return;
+        Key[] keys = readGenerations.keySet().toArray(new Key[0]);
+        Record[] headers;
+        try {
+            headers = getHeader(txnBatchReadPolicy, keys);
+        }
+        catch(AerospikeException e){
+            throw new TxnException(txnID,e);
+        }
+        for(int i=0;i<keys.length;i++){
+            int generation = (headers[i] != null) ? headers[i].generation : 0;
+            if(generation != readGenerations.get(keys[i])) throw new GenFailException(keys[i],txnID);
+        }
+    }
+
+    /**
+     * Validate optimistic reads once the records being updated are locked
+     *
+     * Inline locks check the generations of existing records as they are taken, and change them, so for those records only
+     * records read as absent are checked. Records read but not updated must be unchanged and not locked by another txn
+     *
+     * @param readGenerations - generations of records when read, 0 if they did not exist
+     * @param recordsForUpdate - records being updated, all of which are locked
+     * @param lockedRecords - records as locked, if locks are inline
+     * @param strategy - lock strategy in use for this txn
+     * @param txnID - transaction id
+     * @throws GenFailException if any record has changed since it was read
+     */
+    private void validateReadsUnderLock(HashMap<Key,Integer> readGenerations, HashMap<Key,Bin[]> recordsForUpdate, Map<Key,Record> lockedRecords,
+                                        LockStrategy strategy, String txnID) throws GenFailException{
+        HashMap<Key,Integer> unlockedReads = new HashMap<Key,Integer>();
+        for(Map.Entry<Key,Integer> entry : readGenerations.entrySet()){
+            Key key = entry.getKey();
+            if(!recordsForUpdate.containsKey(key)) unlockedReads.put(key, entry.getValue());
+            else if(strategy == LockStrategy.INLINE){
+                Record lockedRecord = lockedRecords.get(key);
+                if(entry.getValue() == 0 && lockedRecord != null && withoutLockBin(lockedRecord.bins) != null) throw new GenFailException(key, txnID);
+            }
+        }
+        validateReads(strategy == LockStrategy.INLINE ? unlockedReads : readGenerations, txnID);
+        validateNotLocked(unlockedReads.keySet(), txnID);
+    }
+
+    /**
+     * Validate the reads of a transaction which writes nothing - records must be unchanged and not locked by another txn
+     * Package level visibility - used by Transaction
+     *
+     * @param readGenerations - generations of records when read, 0 if they did not exist
+     * @param txnID - transaction id
+     * @throws GenFailException if any record has changed since it was read, or is being written by another txn
+     */
+    void validateReadOnly(HashMap<Key,Integer> readGenerations, String txnID) throws GenFailException{
+        validateReads(readGenerations, txnID);
+        validateNotLocked(readGenerations.keySet(), txnID);
+    }
+
+    /**
+     * Check records read but not updated are not locked by another txn, which may be part way through writing them
+     *
+     * @param keys - keys of records read
+     * @param txnID - transaction id
+     * @throws GenFailException if any record is exclusively locked by another txn
+     */
+    private void validateNotLocked(Collection<Key> keys, String txnID) throws GenFailException{
+        if(keys.isEmpty()) return;
+        Key[] readKeys = keys.toArray(new Key[0]);
+        String[] holders;
+        try {
+            holders = lockHolders(readKeys);
+        }
+        catch(AerospikeException e){
+            throw new TxnException(txnID,e);
+        }
+        for(int i=0;i<readKeys.length;i++){
+            // Records under shared locks are not being written
+            if(holders[i] != null && !holders[i].equals(txnID) && !holders[i].equals(SHARED_LOCK_TXN_ID)) throw new GenFailException(readKeys[i], txnID);
+        }
+    }
+
+    /**
+     * Undo logging version of put - the txn record holds previous versions of records, and an interrupted txn is rolled back
+     *
+     * @param writePolicy - Write Policy to be used when updating records
+     * @param recordsForUpdate - records supplied as a hash in Key:Bin[] form
+     * @param generationCheckMap - key:int map allowing generationCheckMap check
+     * @param readGenerations - generations of optimistic reads, validated once locked, or null if the txn is not optimistic
+     * @param readRecords - records as read by an optimistic txn, reused as previous versions once validated, or null
+     * @param txnID - transaction id
+     * @throws LockAcquireException if records updated by txn are already locked
+     * @throws GenFailException if current record generation of updated records does not match expected generation
+     */
+    private void putWithUndoLog(WritePolicy writePolicy, HashMap<Key,Bin[]> recordsForUpdate, HashMap<Key,Integer> generationCheckMap,
+                                HashMap<Key,Integer> readGenerations, Map<Key,Record> readRecords, String txnID)
+            throws LockAcquireException, GenFailException{
+        LockStrategy strategy = lockStrategy;
+        // Lock all records being updated
+        Map<Key,Record> lockedRecords = acquireLocks(recordsForUpdate.keySet(),generationCheckMap,txnID,strategy);
+        try {
+            if(strategy == LockStrategy.INLINE) checkRecordExistsAction(writePolicy, recordsForUpdate, lockedRecords, txnID);
+            if(readGenerations != null) validateReadsUnderLock(readGenerations, recordsForUpdate, lockedRecords, strategy, txnID);
+        }
+        catch(GenFailException | RuntimeException e){
+            removeLocksForKeys(recordsForUpdate.keySet().iterator(),txnID,strategy);
+            throw e;
+        }
+        Map<Key,Integer> lockedGenerations = generations(lockedRecords);
+        // Inline locks are released by the update itself, which must find the record as it was when locked
+        HashMap<Key,Integer> commitGenerations = (strategy == LockStrategy.INLINE) ? new HashMap<Key,Integer>(lockedGenerations) : generationCheckMap;
+
+        // Store previous versions of timedOutTxnIDs
+
+        // Get the keys in a usable form
+        Key[] keyArray = recordsForUpdate.keySet().toArray(new Key[0]);
+
+        // Then store versions of objects in a hash - using keys comprised of setName and userKey, concatenated using '::' delimiter
+        // Inline locks are taken and the records read in the same operation, so no separate read is needed
+        HashMap<Key,Bin[]> undoBins = binLevelUndo ? recordsForUpdate : null;
+        HashMap<String,Map<String,Object>> txnRecords;
+        if(strategy == LockStrategy.INLINE)
+            txnRecords = txnRecordsFromRecords(keyArray, lockedRecords, undoBins);
+        else {
+            try {
+                txnRecords = (readRecords != null) ? existingVersionsOfRecordsForUpdate(keyArray, readRecords, undoBins, txnID) :
+                        existingVersionsOfRecordsForUpdate(keyArray, undoBins, txnID);
+            }
+            // Nothing has been written, so locks can be released
+            catch(RuntimeException e){
+                removeLocksForKeys(recordsForUpdate.keySet().iterator(),txnID,strategy);
+                throw e;
+            }
+        }
+
+        Map<Key,Integer> rollbackGenerations = (strategy == LockStrategy.INLINE) ? lockedGenerations : null;
+        int chunkCount = createTransactionRecord(txnRecords,rollbackGenerations,txnID);
+
+        // Now do the transaction itself
+        try {
+            applyRecordUpdates(writePolicy, recordsForUpdate, commitGenerations, txnID, strategy);
+            postCommitRollbackTidy(recordsForUpdate.keySet().iterator(),txnID,strategy,chunkCount);
+        }
+        // If there is an error
+        catch(GenFailException e){
+            rollback(keyedPreviousVersions(txnRecords),rollbackGenerations,txnID,chunkCount);
+            throw e;
+        }
+        catch(AerospikeException e){
+            rollback(keyedPreviousVersions(txnRecords),rollbackGenerations,txnID,chunkCount);
+            throw (new TxnException(txnID,e));
+        }
+    }
+
+    /**
+     * Redo logging version of put - see setRedoLogging
+     *
+     * 1) Lock records, checking generations
+     * 2) Write the txn record, holding the new record versions. This is the commit point
+     * 3) Apply the updates, then remove the txn record and locks
+     *
+     * Failure before the commit point releases locks and leaves records untouched. Once the txn record is written
+     * the txn is complete as far as the caller is concerned - if an update fails, the txn is rolled forward from the txn record,
+     * and if that fails too it is left for TransactionManager to complete
+     *
+     * @param writePolicy - Write Policy to be used when updating records
+     * @param recordsForUpdate - records supplied as a hash in Key:Bin[] form
+     * @param generationCheckMap - key:int map allowing generationCheckMap check
+     * @param readGenerations - generations of optimistic reads, validated once locked, or null if the txn is not optimistic
+     * @param txnID - transaction id
+     * @throws LockAcquireException if records updated by txn are already locked
+     * @throws GenFailException if current record generation of updated records does not match expected generation
+     */
+    private void putWithRedoLog(WritePolicy writePolicy, HashMap<Key,Bin[]> recordsForUpdate, HashMap<Key,Integer> generationCheckMap,
+                                HashMap<Key,Integer> readGenerations, String txnID) throws LockAcquireException, GenFailException{
+        checkRedoWritePolicy(writePolicy, txnID);
+        LockStrategy strategy = lockStrategy;
+        // Lock all records being updated
+        Map<Key,Record> lockedRecords = acquireLocks(recordsForUpdate.keySet(),generationCheckMap,txnID,strategy);
+        Map<Key,Integer> lockedGenerations = (strategy == LockStrategy.INLINE) ? generations(lockedRecords) : null;
+        Map<Key,Map<String,Object>> nextVersions = redoVersions(recordsForUpdate);
+
+        int chunkCount;
+        try {
+            if(readGenerations != null) validateReadsUnderLock(readGenerations, recordsForUpdate, lockedRecords, strategy, txnID);
+            // Inline locks check generations as they are taken
+            if(strategy == LockStrategy.INLINE) checkRecordExistsAction(writePolicy, recordsForUpdate, lockedRecords, txnID);
+            // Optimistic txns have their generations checked when reads are validated
+            else checkRecordHeaders((readGenerations != null) ? new HashMap<Key,Integer>() : generationCheckMap, writePolicy, recordsForUpdate, txnID);
+            // Commit point
+            chunkCount = createRedoTransactionRecord(nextVersions, lockedGenerations, txnID);
+        }
+        catch(GenFailException | RuntimeException e){
+            abandonRedoTxn(recordsForUpdate.keySet(), txnID, strategy, txnRecordChunkCount(nextVersions.size()));
+            throw e;
+        }
+
+        // Generations have been checked, so only inline locks need the generation when locked to be expected
+        HashMap<Key,Integer> commitGenerations = (lockedGenerations != null) ? new HashMap<Key,Integer>(lockedGenerations) : new HashMap<Key,Integer>();
+        try {
+            applyRecordUpdates(writePolicy, recordsForUpdate, commitGenerations, txnID, strategy);
+            postCommitRollbackTidy(recordsForUpdate.keySet().iterator(),txnID,strategy,chunkCount);
+        }
+        // Txn is committed, so complete it from the txn record
+        catch(GenFailException | AerospikeException e){
+            LOGGER.warning("Update failed for committed txn " + txnID + " - rolling forward : " + e.getMessage());
+            rollForward(writePolicy, nextVersions, lockedGenerations, txnID, chunkCount);
+        }
+    }
+
+    /**
+     * Apply all updates for a transaction - either serially or in parallel depending on parallelCommit
+     *
+     * @param writePolicy - Write Policy to be used when updating records
+     * @param recordsForUpdate - records supplied as a hash in Key:Bin[] form
+     * @param generationCheckMap - key:int map of expected generations
+     * @param txnID - transaction id
+     * @param strategy - lock strategy in use for this txn
+     * @throws GenFailException if current record generation of an updated record does not match expected generation
+     */
+    private void applyRecordUpdates(WritePolicy writePolicy, HashMap<Key,Bin[]> recordsForUpdate, HashMap<Key,Integer> generationCheckMap, String txnID,
+                                    LockStrategy strategy) throws GenFailException{
+        if(parallelCommit){
+            applyRecordUpdatesInParallel(writePolicy, recordsForUpdate, generationCheckMap, txnID, strategy);
+            return;
+        }
+        // Update the individual objects
+        for (Map.Entry<Key,Bin[]> entry : recordsForUpdate.entrySet()) {
+            Key key = entry.getKey();
+            Bin[] bins = entry.getValue();
+            WritePolicy recordWritePolicy = recordWritePolicy(writePolicy, generationCheckMap, key, bins == null, strategy);
+            try {
+                if (bins != null)
+                    put(recordWritePolicy, key, commitBins(bins, strategy));
+                else
+                    delete(recordWritePolicy, key);
+            }
+            catch(AerospikeException e){
+                if(e.getResultCode() == ResultCode.GENERATION_ERROR) throw new GenFailException(key,txnID);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * New record versions to store in a redo transaction record
+     *
+     * @param recordsForUpdate - records supplied as a hash in Key:Bin[] form
+     * @return map of Key to new bins, null meaning the record is to be deleted
+     */
+    static Map<Key,Map<String,Object>> redoVersions(HashMap<Key,Bin[]> recordsForUpdate){
+        Map<Key,Map<String,Object>> nextVersions = new HashMap<Key,Map<String,Object>>(recordsForUpdate.size() * 2);
+        for(Map.Entry<Key,Bin[]> entry : recordsForUpdate.entrySet()){
+            Map<String,Object> bins = null;
+            if(entry.getValue() != null){
+                bins = new HashMap<String,Object>(entry.getValue().length * 2);
+                // Bins set to null are recorded as null, so rolling forward removes them
+                for(Bin bin : entry.getValue()) bins.put(bin.name, bin.value.getObject());
+            }
+            nextVersions.put(entry.getKey(), bins);
+        }
+        return nextVersions;
+    }
+
+    /**
+     * Check records are at their expected generations, and allowed by the record exists action of the write policy, using a
+     * single batch read of record headers. Used by redo txns with lock records, as once the txn record is written updates the
+     * write policy does not allow can no longer be undone
+     * Records which do not exist are not generation checked
+     *
+     * @param generationCheckMap - key:int map of expected generations
+     * @param writePolicy - Write Policy supplied for the transaction
+     * @param recordsForUpdate - records supplied as a hash in Key:Bin[] form
+     * @param txnID - transaction id
+     * @throws GenFailException if any record is not at its expected generation
+     * @throws TxnException with result code KEY_EXISTS_ERROR or KEY_NOT_FOUND_ERROR if the record exists action does not allow an update
+     */
+    private void checkRecordHeaders(HashMap<Key,Integer> generationCheckMap, WritePolicy writePolicy, HashMap<Key,Bin[]> recordsForUpdate,
+                                    String txnID) throws GenFailException{
+        Key[] keys = headerCheckKeys(generationCheckMap, writePolicy, recordsForUpdate);
+        if(keys.length == 0) return;
+        Record[] headers;
+        try {
+            headers = getHeader(txnBatchReadPolicy, keys);
+        }
+        catch(AerospikeException e){
+            throw new TxnException(txnID,e);
+        }
+        Key genFailKey = generationMismatch(keys, headers, generationCheckMap);
+        if(genFailKey != null) throw new GenFailException(genFailKey,txnID);
+        checkRecordExistsAction(writePolicy, recordsForUpdate, headersByKey(keys, headers), txnID);
+    }
+
+    /**
+     * Keys whose record headers are read by checkRecordHeaders - those generation checked, plus all records being updated if the
+     * write policy has a record exists action which needs checking
+     *
+     * @param generationCheckMap - key:int map of expected generations
+     * @param writePolicy - Write Policy supplied for the transaction
+     * @param recordsForUpdate - records supplied as a hash in Key:Bin[] form
+     * @return Key[]
+     */
+    private static Key[] headerCheckKeys(HashMap<Key,Integer> generationCheckMap, WritePolicy writePolicy, HashMap<Key,Bin[]> recordsForUpdate){
+        Set<Key> keys = new LinkedHashSet<Key>(generationCheckMap.keySet());
+        if(checksRecordExists(writePolicy)) keys.addAll(recordsForUpdate.keySet());
+        return keys.toArray(new Key[0]);
+    }
+
+    /**
+     * Record headers keyed by record key, omitting records which do not exist
+     *
+     * @param keys - keys read
+     * @param headers - record headers, in the same order as keys
+     * @return Map
+     */
+    private static Map<Key,Record> headersByKey(Key[] keys, Record[] headers){
+        Map<Key,Record> headersByKey = new HashMap<Key,Record>(keys.length * 2);
+        for(int i=0;i<keys.length;i++) if(headers[i] != null) headersByKey.put(keys[i], headers[i]);
+        return headersByKey;
+    }
+
+    /**
+     * First key whose record header shows a generation other than expected, or null if there is none
+     * Keys with no expected generation are not checked
+     *
+     * @param keys - keys checked
+     * @param headers - record headers, in the same order as keys
+     * @param generationCheckMap - key:int map of expected generations
+     * @return Key
+     */
+    private static Key generationMismatch(Key[] keys, Record[] headers, HashMap<Key,Integer> generationCheckMap){
+        for(int i=0;i<keys.length;i++){
+            Integer generation = generationCheckMap.get(keys[i]);
+            if(generation != null && headers[i] != null && headers[i].generation != generation) return keys[i];
+        }
+        return null;
+    }
+
+    /**
+     * Reject write policies redo txns cannot honour - a predExp cannot be evaluated before the commit point, and once the txn
+     * record is written an update it filters out can no longer be undone
+     *
+     * @param writePolicy - Write Policy supplied for the transaction
+     * @param txnID - transaction id
+     * @throws TxnException with result code PARAMETER_ERROR if the write policy has a predExp
+     */
+    private static void checkRedoWritePolicy(WritePolicy writePolicy, String txnID){
+        if(writePolicy.predExp != null)
+            throw new TxnException(txnID, new AerospikeException(ResultCode.PARAMETER_ERROR, "predExp is not supported with redo logging"));
+    }
+
+    /**
+     * Create and save a redo transaction record - contains new object state for all objects in transaction
+     * Once this is written the transaction is committed
+     *
+     * Package level visibility to support white box testing
+     *
+     * @param nextVersions - new versions of records, null meaning the record is deleted
+     * @param lockedGenerations - generations of records when inline locked, or null if locks are not inline
+     * @param txnID - transaction ID
+     * @return number of chunk records written, 0 if the transaction record is not chunked
+     */
+    int createRedoTransactionRecord(Map<Key,Map<String,Object>> nextVersions, Map<Key,Integer> lockedGenerations, String txnID){
+        return writeTxnRecord(nextVersionsBins(nextVersions), lockedGenerations, txnID);
+    }
+
+    /**
+     * Abandon a redo txn which failed before its commit point - remove its txn record, if written, then its locks
+     * If the txn record cannot be removed, locks are left in place so TransactionManager can complete the txn
+     *
+     * @param keys - keys locked by the txn
+     * @param txnID - transaction ID
+     * @param strategy - lock strategy in use for this txn
+     * @param chunkCount - number of chunk records the txn record was to have
+     */
+    private void abandonRedoTxn(Set<Key> keys, String txnID, LockStrategy strategy, int chunkCount){
+        try {
+            delete(txnWritePolicy, keyForTxnID(txnID));
+            removeTxnRecordChunks(txnID, chunkCount);
+            removeLocksForKeys(keys.iterator(), txnID, strategy);
+        }
+        catch(RuntimeException e){
+            LOGGER.warning("Unable to abandon txn " + txnID + " - leaving for TransactionManager : " + e.getMessage());
+        }
+    }
+
+    /**
+     * Roll a committed redo transaction forward
+     * 1) Write new versions of records
+     * 2) tidy up ( delete transaction record and remove locks )
+     *
+     * If locks were inline, each write expects the generation the record was locked at. Any other generation means
+     * the update has already been applied, so the record is left as is
+     *
+     * A record which cannot be written however often the write is retried - see cannotRetryWrite - is skipped, and once the
+     * txn is tidied up the failure is reported. The txn is then only partly applied, but is not left holding locks while
+     * TransactionManager retries it indefinitely. Any other failure leaves the txn for TransactionManager to complete
+     *
+     * @param writePolicy - Write Policy the txn was committed with - txnWritePolicy if completing a txn from another client
+     * @param nextVersions - new versions of the records, null meaning the record is deleted
+     * @param lockedGenerations - generations of records when inline locked, or null if locks were not inline
+     * @param txnID - Transaction ID
+     * @param chunkCount - number of chunk records in the txn record, 0 if it is not chunked
+     * @throws TxnException if a record could not be written
+     */
+    private void rollForward(WritePolicy writePolicy, Map<Key,Map<String,Object>> nextVersions, Map<Key,Integer> lockedGenerations, String txnID, int chunkCount){
+        LockStrategy strategy = lockStrategyUsed(lockedGenerations);
+        HashMap<Key,Integer> commitGenerations = (lockedGenerations != null) ? new HashMap<Key,Integer>(lockedGenerations) : new HashMap<Key,Integer>();
+        AerospikeException skipped = null;
+        for (Map.Entry<Key,Map<String,Object>> entry : nextVersions.entrySet()) {
+            Key key = entry.getKey();
+            WritePolicy policy = recordWritePolicy(writePolicy, commitGenerations, key, entry.getValue() == null, strategy);
+            try {
+                writeVersion(policy, key, entry.getValue(), strategy);
+            }
+            catch(AerospikeException e){
+                if(lockedGenerations != null && e.getResultCode() == ResultCode.GENERATION_ERROR) continue;
+                if(!cannotRetryWrite(e.getResultCode())) throw(new TxnException(txnID,e));
+                LOGGER.severe("Record " + key + " cannot be written for committed txn " + txnID + " - skipped : " + e.getMessage());
+                if(skipped == null) skipped = e;
+            }
+        }
+        postCommitRollbackTidy(nextVersions.keySet().iterator(),txnID,strategy,chunkCount);
+        if(skipped != null) throw new TxnException(txnID,skipped);
+    }
+
+    /**
+     * Whether a write failed for a reason retrying the same write cannot fix - the record or a bin is invalid for the namespace,
+     * or the write policy does not allow the write
+     *
+     * @param resultCode - result code of the failed write
+     * @return boolean
+     */
+    private static boolean cannotRetryWrite(int resultCode){
+        switch(resultCode){
+            case ResultCode.KEY_NOT_FOUND_ERROR:
+            case ResultCode.PARAMETER_ERROR:
+            case ResultCode.KEY_EXISTS_ERROR:
+            case ResultCode.BIN_EXISTS_ERROR:
+            case ResultCode.BIN_TYPE_ERROR:
+            case ResultCode.RECORD_TOO_BIG:
+            case ResultCode.UNSUPPORTED_FEATURE:
+            case ResultCode.BIN_NOT_FOUND:
+            case ResultCode.KEY_MISMATCH:
+            case ResultCode.BIN_NAME_TOO_LONG:
+            case ResultCode.FAIL_FORBIDDEN:
+            case ResultCode.FILTERED_OUT:
+            case ResultCode.ROLE_VIOLATION:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Save a number of records as an atomic transaction
+     * This update will be treated as being part of the transaction identified by txnID for rollback and locking purposes
+     * LockAcquireException will be thrown if exclusive locks cannot be taken out on all objects in the txn*
+     * Objects are exclusively locked for the duration of the transaction to avoid race conditions
+     * Previous state of the objects is stored to allow rollback
+     * Locks are removed after txn is complete
+     *
+     * @param writePolicy - Write Policy to be used when updating records
+     * @param recordsForUpdate - records supplied as a hash in Key:Bin[] form
+     * @param txnID - transaction id
+     * @throws LockAcquireException if records updated by txn are already locked
+     */
+    @Override
+    public final void put(WritePolicy writePolicy, HashMap<Key,Bin[]> recordsForUpdate, String txnID) throws LockAcquireException {
+        try {
+            put(writePolicy, recordsForUpdate, new HashMap<Key, Integer>(), txnID);
+        }
+        // Shouldn't get gen fail with this version of put
+        catch(GenFailException e){}
+    }
+
+    /**
+     *
+     * Save a number of records as an atomic transaction - see 'put' description above for full details
+     * This function identical except update will be treated as being a stand-alone transaction for commit / rollback and locking purposes
+     * rather than potentially being part of a larger transaction
+     *
+     * @param writePolicy - Write Policy to be used when updating records
+     * @param recordsForUpdate - records supplied as a hash in Key:Bin[] form
+     * @param generationCheckMap - key:int map allowing generationCheckMap check - useful as a check if working in environment where non-transactional writes are occurring
+     * @throws LockAcquireException if records updated by txn are already locked
+     * @throws GenFailException if current record generation of updated records does not match expected generation
+     */
+    @Override
+    public final void put(WritePolicy writePolicy, HashMap<Key,Bin[]> recordsForUpdate, HashMap<Key,Integer> generationCheckMap)
+            throws LockAcquireException, GenFailException{
+        String txnID = TxnSupport.uniqueTxnID();
+        put(writePolicy,recordsForUpdate,generationCheckMap,txnID);
+    }
+
+    /**
+     *
+     * Save a number of records as an atomic transaction - see 'put' description above for full details
+     * This function identical except update will be treated as being a stand-alone transaction for commit / rollback and locking purposes
+     * rather than potentially being part of a larger transaction
+     *
+     * @param writePolicy - Write Policy to be used when updating records
+     * @param recordsForUpdate - records supplied as a hash in Key:Bin[] form
+     * @throws LockAcquireException if records updated by txn are already locked
+     */
+    @Override
+    public final void put(WritePolicy writePolicy, HashMap<Key,Bin[]> recordsForUpdate) throws LockAcquireException{
+        String txnID = TxnSupport.uniqueTxnID();
+        put(writePolicy,recordsForUpdate,txnID);
+    }
+
+    /**
+     * Non-blocking version of put(WritePolicy, HashMap, HashMap, String) - see that method for details
+     * Each stage is issued via the async API so no thread is blocked while the transaction is in flight
+     * Locks are acquired in parallel, and record updates applied in parallel bounded by maxInFlightCommands
+     *
+     * @param writePolicy - Write Policy to be used when updating records
+     * @param recordsForUpdate - records supplied as a hash in Key:Bin[] form
+     * @param generationCheckMap - key:int map allowing generationCheckMap check
+     * @param txnID - transaction id
+     * @return future completing when the transaction is complete
+     */
+    @Override
+    public CompletableFuture<Void> putAsync(WritePolicy writePolicy, HashMap<Key,Bin[]> recordsForUpdate, HashMap<Key,Integer> generationCheckMap, String txnID){
+        if(redoLogging) return putWithRedoLogAsync(writePolicy, recordsForUpdate, generationCheckMap, txnID);
+        Key[] keyArray = recordsForUpdate.keySet().toArray(new Key[0]);
+        LockStrategy strategy = lockStrategy;
+        return acquireLocksAsync(recordsForUpdate.keySet(), generationCheckMap, txnID, strategy)
+                .thenCompose(lockedRecords -> {
+                    boolean inline = strategy == LockStrategy.INLINE;
+                    Map<Key,Integer> lockedGenerations = generations(lockedRecords);
+                    HashMap<Key,Integer> commitGenerations = inline ? new HashMap<Key,Integer>(lockedGenerations) : generationCheckMap;
+                    Map<Key,Integer> rollbackGenerations = inline ? lockedGenerations : null;
+                    // Inline locks are taken and the records read in the same operation, so no separate read is needed
+                    HashMap<Key,Bin[]> undoBins = binLevelUndo ? recordsForUpdate : null;
+                    CompletableFuture<HashMap<String,Map<String,Object>>> existingVersions = inline ?
+                            CompletableFuture.completedFuture(lockedRecords).thenApply(records -> {
+                                checkRecordExistsAction(writePolicy, recordsForUpdate, records, txnID);
+                                return txnRecordsFromRecords(keyArray, records, undoBins);
+                            }) :
+                            existingVersionsOfRecordsForUpdateAsync(keyArray, undoBins, txnID);
+                    return existingVersions
+                            // Nothing has been written, so if previous versions cannot be read release locks then report the error
+                            .handle((txnRecords,e) -> e == null ? CompletableFuture.completedFuture(txnRecords) :
+                                    removeLocksAsync(recordsForUpdate.keySet().iterator(), txnID, strategy)
+                                            .<HashMap<String,Map<String,Object>>>handle((r,t) -> { throw new CompletionException(asTxnFailure(e, txnID)); }))
+                            .thenCompose(f -> f)
+                            .thenCompose(txnRecords -> createTransactionRecordAsync(txnRecords, rollbackGenerations, txnID)
+                                    .thenCompose(chunkCount -> applyRecordUpdatesAsync(writePolicy, recordsForUpdate, commitGenerations, txnID, strategy)
+                                            // If there is an error applying updates, roll back then report the original error
+                                            .handle((v,e) -> e == null ? postCommitRollbackTidyAsync(recordsForUpdate.keySet().iterator(), txnID, strategy, chunkCount) :
+                                                    rollbackAsync(keyedPreviousVersions(txnRecords), rollbackGenerations, txnID, chunkCount).thenCompose(r -> AsyncCommands.<Void>failed(asTxnFailure(e, txnID))))
+                                            .thenCompose(f -> f)));
+                });
+    }
+
+    /**
+     * Async version of putWithRedoLog
+     *
+     * @param writePolicy - Write Policy to be used when updating records
+     * @param recordsForUpdate - records supplied as a hash in Key:Bin[] form
+     * @param generationCheckMap - key:int map allowing generationCheckMap check
+     * @param txnID - transaction id
+     * @return future completing when the transaction is complete
+     */
+    private CompletableFuture<Void> putWithRedoLogAsync(WritePolicy writePolicy, HashMap<Key,Bin[]> recordsForUpdate, HashMap<Key,Integer> generationCheckMap, String txnID){
+        try {
+            checkRedoWritePolicy(writePolicy, txnID);
+        }
+        catch(TxnException e){
+            return AsyncCommands.failed(e);
+        }
+        LockStrategy strategy = lockStrategy;
+        Map<Key,Map<String,Object>> nextVersions = redoVersions(recordsForUpdate);
+        return acquireLocksAsync(recordsForUpdate.keySet(), generationCheckMap, txnID, strategy)
+                .thenCompose(lockedRecords -> {
+                    Map<Key,Integer> lockedGenerations = (strategy == LockStrategy.INLINE) ? generations(lockedRecords) : null;
+                    // Inline locks check generations as they are taken
+                    CompletableFuture<Void> generationCheck = (strategy == LockStrategy.INLINE) ?
+                            CompletableFuture.completedFuture(lockedRecords).thenAccept(records -> checkRecordExistsAction(writePolicy, recordsForUpdate, records, txnID)) :
+                            checkRecordHeadersAsync(generationCheckMap, writePolicy, recordsForUpdate, txnID);
+                    return generationCheck
+                            // Commit point
+                            .thenCompose(v -> createRedoTransactionRecordAsync(nextVersions, lockedGenerations, txnID))
+                            .handle((chunkCount,e) -> e == null ? CompletableFuture.completedFuture(chunkCount) :
+                                    abandonRedoTxnAsync(recordsForUpdate.keySet(), txnID, strategy, txnRecordChunkCount(nextVersions.size()))
+                                            .thenCompose(r -> AsyncCommands.<Integer>failed(asTxnFailure(e, txnID))))
+                            .thenCompose(f -> f)
+                            .thenCompose(chunkCount -> {
+                                HashMap<Key,Integer> commitGenerations = (lockedGenerations != null) ? new HashMap<Key,Integer>(lockedGenerations) : new HashMap<Key,Integer>();
+                                return applyRecordUpdatesAsync(writePolicy, recordsForUpdate, commitGenerations, txnID, strategy)
+                                        .thenCompose(u -> postCommitRollbackTidyAsync(recordsForUpdate.keySet().iterator(), txnID, strategy, chunkCount))
+                                        // Txn is committed, so complete it from the txn record
+                                        .handle((u,e) -> {
+                                            if(e == null) return CompletableFuture.<Void>completedFuture(null);
+                                            LOGGER.warning("Update failed for committed txn " + txnID + " - rolling forward : " + AsyncCommands.unwrap(e).getMessage());
+                                            return rollForwardAsync(writePolicy, nextVersions, lockedGenerations, txnID, chunkCount);
+                                        })
+                                        .thenCompose(f -> f);
+                            });
+                });
+    }
+
+    /**
+     * Async version of checkRecordHeaders
+     *
+     * @param generationCheckMap - key:int map of expected generations
+     * @param writePolicy - Write Policy supplied for the transaction
+     * @param recordsForUpdate - records supplied as a hash in Key:Bin[] form
+     * @param txnID - transaction id
+     * @return future completing when headers are checked. Fails with GenFailException if any record is not at its expected generation,
+     * or TxnException if the record exists action does not allow an update
+     */
+    private CompletableFuture<Void> checkRecordHeadersAsync(HashMap<Key,Integer> generationCheckMap, WritePolicy writePolicy,
+                                                            HashMap<Key,Bin[]> recordsForUpdate, String txnID){
+        Key[] keys = headerCheckKeys(generationCheckMap, writePolicy, recordsForUpdate);
+        if(keys.length == 0) return CompletableFuture.completedFuture(null);
+        return AsyncCommands.getHeader(this, txnBatchReadPolicy, keys).handle((headers,e) -> {
+            if(e != null) throw new CompletionException(asTxnRuntimeException(AsyncCommands.unwrap(e), txnID));
+            Key genFailKey = generationMismatch(keys, headers, generationCheckMap);
+            if(genFailKey != null) throw new CompletionException(new GenFailException(genFailKey,txnID));
+            checkRecordExistsAction(writePolicy, recordsForUpdate, headersByKey(keys, headers), txnID);
+            return null;
+        });
+    }
+
+    /**
+     * Async version of createRedoTransactionRecord
+     *
+     * @param nextVersions - new versions of records, null meaning the record is deleted
+     * @param lockedGenerations - generations of records when inline locked, or null if locks are not inline
+     * @param txnID - transaction ID
+     * @return future completing with the number of chunk records written when the transaction record is written
+     */
+    private CompletableFuture<Integer> createRedoTransactionRecordAsync(Map<Key,Map<String,Object>> nextVersions, Map<Key,Integer> lockedGenerations, String txnID){
+        return writeTxnRecordAsync(nextVersionsBins(nextVersions), lockedGenerations, txnID);
+    }
+
+    /**
+     * Async version of abandonRedoTxn
+     *
+     * @param keys - keys locked by the txn
+     * @param txnID - transaction ID
+     * @param strategy - lock strategy in use for this txn
+     * @param chunkCount - number of chunk records the txn record was to have
+     * @return future completing when the txn is abandoned, or left for TransactionManager. Does not fail
+     */
+    private CompletableFuture<Void> abandonRedoTxnAsync(Set<Key> keys, String txnID, LockStrategy strategy, int chunkCount){
+        return AsyncCommands.delete(this, txnWritePolicy, keyForTxnID(txnID))
+                .thenCompose(d -> removeTxnRecordChunksAsync(txnID, chunkCount))
+                .thenCompose(v -> removeLocksAsync(keys.iterator(), txnID, strategy))
+                .exceptionally(e -> {
+                    LOGGER.warning("Unable to abandon txn " + txnID + " - leaving for TransactionManager : " + AsyncCommands.unwrap(e).getMessage());
+                    return null;
+                });
+    }
+
+    /**
+     * Async version of rollForward
+     * New record versions are written concurrently, bounded by maxInFlightCommands, before tidying up
+     *
+     * @param writePolicy - Write Policy the txn was committed with - txnWritePolicy if completing a txn from another client
+     * @param nextVersions - new versions of the records, null meaning the record is deleted
+     * @param lockedGenerations - generations of records when inline locked, or null if locks were not inline
+     * @param txnID - Transaction ID
+     * @param chunkCount - number of chunk records in the txn record, 0 if it is not chunked
+     * @return future completing when roll forward is complete, or exceptionally with TxnException if a record could not be written
+     */
+    private CompletableFuture<Void> rollForwardAsync(WritePolicy writePolicy, Map<Key,Map<String,Object>> nextVersions, Map<Key,Integer> lockedGenerations,
+                                                     String txnID, int chunkCount){
+        LockStrategy strategy = lockStrategyUsed(lockedGenerations);
+        HashMap<Key,Integer> commitGenerations = (lockedGenerations != null) ? new HashMap<Key,Integer>(lockedGenerations) : new HashMap<Key,Integer>();
+        AtomicReference<AerospikeException> skipped = new AtomicReference<AerospikeException>();
+        List<Supplier<? extends CompletableFuture<?>>> writes = new ArrayList<Supplier<? extends CompletableFuture<?>>>(nextVersions.size());
+        for (Map.Entry<Key,Map<String,Object>> entry : nextVersions.entrySet()) {
+            Key key = entry.getKey();
+            WritePolicy policy = recordWritePolicy(writePolicy, commitGenerations, key, entry.getValue() == null, strategy);
+            writes.add(() -> writeVersionAsync(policy, key, entry.getValue(), strategy).exceptionally(e -> {
+                // If locks were inline, a generation error means the update has already been applied
+                if(lockedGenerations != null && AsyncCommands.hasResultCode(e, ResultCode.GENERATION_ERROR)) return null;
+                Throwable cause = AsyncCommands.unwrap(e);
+                if(!(cause instanceof AerospikeException) || !cannotRetryWrite(((AerospikeException)cause).getResultCode())) throw new CompletionException(cause);
+                LOGGER.severe("Record " + key + " cannot be written for committed txn " + txnID + " - skipped : " + cause.getMessage());
+                skipped.compareAndSet(null, (AerospikeException)cause);
+                return null;
+            }));
+        }
+        return AsyncCommands.runWindowed(writes, maxInFlightCommands)
+                .exceptionally(e -> { throw new CompletionException(asTxnRuntimeException(AsyncCommands.unwrap(e), txnID)); })
+                .thenCompose(v -> postCommitRollbackTidyAsync(nextVersions.keySet().iterator(), txnID, strategy, chunkCount))
+                .thenRun(() -> { if(skipped.get() != null) throw new CompletionException(new TxnException(txnID, skipped.get())); });
+    }
+
+    /**
+     * Lock all the supplied keys for txnID - either serially or in parallel depending on parallelLockAcquisition
+     * If a lock is held by another txn, acquisition is retried as per lockWaitPolicy
+     * If any lock cannot be acquired, locks taken are released and LockAcquireException thrown
+     *
+     * @param keys - keys requiring locks
+     * @param generationCheckMap - key:int map of expected generations. Only checked at this point if locks are inline
+     * @param txnID - transaction the locks are for
+     * @param strategy - lock strategy in use for this txn
+     * @return records as they were when locked - empty unless locks are inline
+     * @throws LockAcquireException if any of the keys are already locked by a different txn
+     * @throws GenFailException if locks are inline and the generation of a record does not match its expected generation
+     */
+    private Map<Key,Record> acquireLocks(Set<Key> keys, HashMap<Key,Integer> generationCheckMap, String txnID, LockStrategy strategy)
+            throws LockAcquireException, GenFailException{
+        if(parallelLockAcquisition){
+            return acquireLocksInParallel(keys, generationCheckMap, txnID, strategy);
+        }
+        // Locks acquired in canonical order so txns holding locks while waiting for others cannot deadlock
+        List<Key> orderedKeys = lockOrder(keys);
+        LockWaitPolicy waitPolicy = lockWaitPolicy;
+        long giveUpTime = waitPolicy.giveUpTime(System.currentTimeMillis());
+        Map<Key,Record> lockedRecords = new HashMap<Key,Record>();
+        try {
+            for (Key key : orderedKeys) {
+                Record lockedRecord = lock(key, generationCheckMap.get(key), txnID, strategy, waitPolicy, giveUpTime);
+                if(lockedRecord != null) lockedRecords.put(key, lockedRecord);
+            }
+        }
+        // If a lock exception arises, unlock records
+        catch(LockAcquireException | GenFailException e){
+            removeLocksForKeys(orderedKeys.iterator(),txnID,strategy);
+            throw e;
+        }
+        return lockedRecords;
+    }
+
+    /**
+     * Lock key for txnID, retrying with backoff while the lock is held by another txn, until giveUpTime
+     *
+     * @param key Aerospike Key for record requiring lock
+     * @param expectedGeneration expected generation of the record, or null if none
+     * @param txnID Transaction record is being locked for
+     * @param strategy lock strategy in use for this txn
+     * @param waitPolicy determines backoff
+     * @param giveUpTime time after which LockAcquireException is thrown
+     * @return the record as locked - null unless the lock is inline
+     * @throws LockAcquireException if the lock is still held by a different txn at giveUpTime
+     * @throws GenFailException if the lock is inline and the record generation does not match expectedGeneration
+     */
+    private Record lock(Key key, Integer expectedGeneration, String txnID, LockStrategy strategy, LockWaitPolicy waitPolicy, long giveUpTime)
+            throws LockAcquireException, GenFailException{
+        for(int retry=0;;retry++){
+            try {
+                if(strategy == LockStrategy.INLINE) return createInlineLock(key, expectedGeneration, txnID);
+                createRecordLock(key, txnID);
+                return null;
+            }
+            catch(LockAcquireException e){
+                long backoff = waitPolicy.waits() ? waitPolicy.nextBackoffMillis(retry, giveUpTime) : -1;
+                if(backoff < 0) throw e;
+                try {
+                    Thread.sleep(backoff);
+                }
+                catch(InterruptedException ie){
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Keys sorted into the order in which locks should be acquired
+     *
+     * @param keys - keys requiring locks
+     * @return List of keys sorted as per LOCK_ORDER
+     */
+    static List<Key> lockOrder(Collection<Key> keys){
+        List<Key> orderedKeys = new ArrayList<Key>(keys);
+        orderedKeys.sort(LOCK_ORDER);
+        return orderedKeys;
+    }
+
+    /**
+     * Issue all lock writes concurrently then join on the results
+     * On failure, release only the locks that were acquired and re-throw the first failure encountered
+     *
+     * @param keys - keys requiring locks
+     * @param generationCheckMap - key:int map of expected generations. Only checked at this point if locks are inline
+     * @param txnID - transaction the locks are for
+     * @param strategy - lock strategy in use for this txn
+     * @return records as they were when locked - empty unless locks are inline
+     * @throws LockAcquireException if any of the keys are already locked by a different txn
+     * @throws GenFailException if locks are inline and the generation of a record does not match its expected generation
+     */
+    private Map<Key,Record> acquireLocksInParallel(Set<Key> keys, HashMap<Key,Integer> generationCheckMap, String txnID, LockStrategy strategy)
+            throws LockAcquireException, GenFailException{
+        try {
+            return acquireLocksAsync(keys, generationCheckMap, txnID, strategy).join();
+        }
+        catch(CompletionException e){
+            Throwable cause = AsyncCommands.unwrap(e);
+            if(cause instanceof LockAcquireException) throw (LockAcquireException)cause;
+            if(cause instanceof GenFailException) throw (GenFailException)cause;
+            throw asTxnRuntimeException(cause, txnID);
+        }
+    }
+
+    /**
+     * Async version of acquireLocksInParallel
+     * If a lock is held by another txn, locks acquired are released and the whole set retried as per lockWaitPolicy
+     * Holding locks while waiting could otherwise deadlock, as parallel acquisition has no ordering
+     *
+     * @param keys - keys requiring locks
+     * @param generationCheckMap - key:int map of expected generations. Only checked at this point if locks are inline
+     * @param txnID - transaction the locks are for
+     * @param strategy - lock strategy in use for this txn
+     * @return future completing with the records as they were when locked ( empty unless locks are inline ),
+     * or exceptionally once acquired locks have been released
+     */
+    private CompletableFuture<Map<Key,Record>> acquireLocksAsync(Set<Key> keys, HashMap<Key,Integer> generationCheckMap, String txnID, LockStrategy strategy){
+        Key[] keyArray = lockOrder(keys).toArray(new Key[0]);
+        LockWaitPolicy waitPolicy = lockWaitPolicy;
+        return acquireLocksAsync(keyArray, generationCheckMap, txnID, strategy, waitPolicy, waitPolicy.giveUpTime(System.currentTimeMillis()), 0);
+    }
+
+    /**
+     * Attempt to acquire locks, backing off and retrying on LockAcquireException until giveUpTime
+     *
+     * @param keyArray - keys requiring locks
+     * @param generationCheckMap - key:int map of expected generations
+     * @param txnID - transaction the locks are for
+     * @param strategy - lock strategy in use for this txn
+     * @param waitPolicy - determines backoff
+     * @param giveUpTime - time after which LockAcquireException is reported
+     * @param retry - number of retries already made
+     * @return future completing with the records as they were when locked
+     */
+    private CompletableFuture<Map<Key,Record>> acquireLocksAsync(Key[] keyArray, HashMap<Key,Integer> generationCheckMap, String txnID, LockStrategy strategy,
+                                                                 LockWaitPolicy waitPolicy, long giveUpTime, int retry){
+        Map<Key,Integer> unlockedGenerations = new ConcurrentHashMap<Key,Integer>();
+        return tryAcquireLocksAsync(keyArray, generationCheckMap, txnID, strategy, unlockedGenerations).handle((lockedRecords,e) -> {
+            if(e == null) return CompletableFuture.completedFuture(lockedRecords);
+            Throwable cause = AsyncCommands.unwrap(e);
+            long backoff = (cause instanceof LockAcquireException && waitPolicy.waits()) ? waitPolicy.nextBackoffMillis(retry, giveUpTime) : -1;
+            if(backoff < 0) return AsyncCommands.<Map<Key,Record>>failed(cause);
+            HashMap<Key,Integer> retryGenerationCheckMap = retryGenerations(generationCheckMap, unlockedGenerations);
+            return AsyncCommands.delay(this, backoff).thenCompose(d ->
+                    acquireLocksAsync(keyArray, retryGenerationCheckMap, txnID, strategy, waitPolicy, giveUpTime, retry + 1));
+        }).thenCompose(f -> f);
+    }
+
+    /**
+     * Expected generations for a retry of lock acquisition
+     * Taking and releasing an inline lock each change the generation of a record, so a record whose generation check passed
+     * when it was locked is expected at the generation it was unlocked at. A change made since then still fails the check
+     *
+     * @param generationCheckMap - key:int map of expected generations for the failed attempt
+     * @param unlockedGenerations - generations of records as inline locks taken by the failed attempt were released
+     * @return key:int map of expected generations
+     */
+    private static HashMap<Key,Integer> retryGenerations(HashMap<Key,Integer> generationCheckMap, Map<Key,Integer> unlockedGenerations){
+        HashMap<Key,Integer> retryGenerations = new HashMap<Key,Integer>(generationCheckMap);
+        for(Map.Entry<Key,Integer> entry : unlockedGenerations.entrySet()){
+            Integer expectedGeneration = generationCheckMap.get(entry.getKey());
+            // A record which did not exist is removed again when unlocked, so is still expected not to exist
+            if(expectedGeneration != null && expectedGeneration != 0) retryGenerations.put(entry.getKey(), entry.getValue());
+        }
+        return retryGenerations;
+    }
+
+    /**
+     * Issue lock writes for all keys concurrently
+     * On failure, release only the locks that were acquired and report the first failure encountered
+     *
+     * @param keyArray - keys requiring locks
+     * @param generationCheckMap - key:int map of expected generations
+     * @param txnID - transaction the locks are for
+     * @param strategy - lock strategy in use for this txn
+     * @param unlockedGenerations - map to which generations of records are added as inline locks acquired are released
+     * @return future completing with the records as they were when locked, or exceptionally once acquired locks have been released
+     */
+    private CompletableFuture<Map<Key,Record>> tryAcquireLocksAsync(Key[] keyArray, HashMap<Key,Integer> generationCheckMap, String txnID, LockStrategy strategy,
+                                                                    Map<Key,Integer> unlockedGenerations){
+        List<CompletableFuture<Record>> lockFutures = new ArrayList<CompletableFuture<Record>>(keyArray.length);
+        for (Key key : keyArray) {
+            lockFutures.add(lockAsync(key, generationCheckMap.get(key), txnID, strategy));
+        }
+
+        return CompletableFuture.allOf(lockFutures.toArray(new CompletableFuture<?>[0])).handle((v,e) -> {
+            if(e == null){
+                Map<Key,Record> lockedRecords = new HashMap<Key,Record>();
+                for (int i = 0; i < keyArray.length; i++) {
+                    Record lockedRecord = lockFutures.get(i).join();
+                    if(lockedRecord != null) lockedRecords.put(keyArray[i], lockedRecord);
+                }
+                return CompletableFuture.completedFuture(lockedRecords);
+            }
+            Vector<Key> acquiredLocks = new Vector<Key>();
+            Throwable failure = null;
+            for (int i = 0; i < keyArray.length; i++) {
+                CompletableFuture<Record> lockFuture = lockFutures.get(i);
+                if(!lockFuture.isCompletedExceptionally()) acquiredLocks.addElement(keyArray[i]);
+                else if(failure == null) failure = AsyncCommands.unwrap(lockFuture.handle((r,t) -> t).join());
+            }
+            Throwable firstFailure = failure;
+            // Release what we acquired then report the first failure
+            return removeLocksAsync(acquiredLocks.iterator(), txnID, strategy, unlockedGenerations).<Map<Key,Record>>handle((r,t) -> { throw new CompletionException(firstFailure); });
+        }).thenCompose(f -> f);
+    }
+
+    /**
+     * Async lock of key for txnID using the given strategy
+     *
+     * @param key Aerospike Key for record requiring lock
+     * @param expectedGeneration expected generation of the record, or null if none
+     * @param txnID Transaction record is being locked for
+     * @param strategy lock strategy in use for this txn
+     * @return future completing with the record as locked - null unless the lock is inline
+     */
+    private CompletableFuture<Record> lockAsync(Key key, Integer expectedGeneration, String txnID, LockStrategy strategy){
+        if(strategy == LockStrategy.INLINE) return createInlineLockAsync(key, expectedGeneration, txnID, 0);
+        return createRecordLockAsync(key, txnID).thenApply(v -> null);
+    }
+
+    /**
+     * Generations of locked records
+     *
+     * @param lockedRecords - records as they were when locked
+     * @return map of Key to generation
+     */
+    private static Map<Key,Integer> generations(Map<Key,Record> lockedRecords){
+        Map<Key,Integer> generations = new HashMap<Key,Integer>(lockedRecords.size() * 2);
+        for(Map.Entry<Key,Record> entry : lockedRecords.entrySet()){
+            generations.put(entry.getKey(), entry.getValue().generation);
+        }
+        return generations;
+    }
+
+    /**
+     * Apply all updates for a transaction concurrently, with at most maxInFlightCommands outstanding
+     * Safe as all records are locked at this point, so the writes are independent
+     * Returns / throws only once no writes remain in flight, so the caller can safely roll back
+     *
+     * @param writePolicy - Write Policy to be used when updating records
+     * @param recordsForUpdate - records supplied as a hash in Key:Bin[] form
+     * @param generationCheckMap - key:int map of expected generations
+     * @param txnID - transaction id
+     * @param strategy - lock strategy in use for this txn
+     * @throws GenFailException if current record generation of an updated record does not match expected generation
+     */
+    private void applyRecordUpdatesInParallel(WritePolicy writePolicy, HashMap<Key,Bin[]> recordsForUpdate, HashMap<Key,Integer> generationCheckMap, String txnID,
+                                              LockStrategy strategy) throws GenFailException{
+        try {
+            applyRecordUpdatesAsync(writePolicy, recordsForUpdate, generationCheckMap, txnID, strategy).join();
+        }
+        catch(CompletionException e){
+            Throwable cause = AsyncCommands.unwrap(e);
+            if(cause instanceof GenFailException) throw (GenFailException)cause;
+            if(cause instanceof AerospikeException) throw (AerospikeException)cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Async version of applyRecordUpdatesInParallel
+     * Generation check failures are reported as GenFailException, other failures as the underlying AerospikeException
+     *
+     * @param writePolicy - Write Policy to be used when updating records
+     * @param recordsForUpdate - records supplied as a hash in Key:Bin[] form
+     * @param generationCheckMap - key:int map of expected generations
+     * @param txnID - transaction id
+     * @param strategy - lock strategy in use for this txn
+     * @return future completing once no writes remain in flight
+     */
+    private CompletableFuture<Void> applyRecordUpdatesAsync(WritePolicy writePolicy, HashMap<Key,Bin[]> recordsForUpdate, HashMap<Key,Integer> generationCheckMap, String txnID,
+                                                            LockStrategy strategy){
+        List<Supplier<? extends CompletableFuture<?>>> writes = new ArrayList<Supplier<? extends CompletableFuture<?>>>(recordsForUpdate.size());
+        for (Map.Entry<Key,Bin[]> entry : recordsForUpdate.entrySet()) {
+            Key key = entry.getKey();
+            Bin[] bins = (entry.getValue() != null) ? commitBins(entry.getValue(), strategy) : null;
+            WritePolicy recordWritePolicy = recordWritePolicy(writePolicy, generationCheckMap, key, bins == null, strategy);
+            writes.add(() -> {
+                CompletableFuture<?> write = (bins != null) ? AsyncCommands.put(this, recordWritePolicy, key, bins) : AsyncCommands.delete(this, recordWritePolicy, key);
+                return write.exceptionally(e -> {
+                    Throwable cause = AsyncCommands.unwrap(e);
+                    if(cause instanceof AerospikeException && ((AerospikeException)cause).getResultCode() == ResultCode.GENERATION_ERROR)
+                        throw new CompletionException(new GenFailException(key,txnID));
+                    throw new CompletionException(cause);
+                });
+            });
+        }
+        return AsyncCommands.runWindowed(writes, maxInFlightCommands);
+    }
+
+    /**
+     * Bins written when applying an update within a transaction
+     * For inline locks the lock bin is cleared in the same write, releasing the lock as the update is applied
+     *
+     * @param bins - bins supplied for the update
+     * @param strategy - lock strategy in use for this txn
+     * @return Bin[]
+     */
+    private static Bin[] commitBins(Bin[] bins, LockStrategy strategy){
+        if(strategy != LockStrategy.INLINE) return bins;
+        Bin[] commitBins = Arrays.copyOf(bins, bins.length + 1);
+        commitBins[bins.length] = Bin.asNull(LOCK_BIN_NAME);
+        return commitBins;
+    }
+
+    /**
+     * Check the record exists action of the write policy against records as they were when locked - either as inline locked, or
+     * their headers once locked by lock records
+     * Must be called before anything is written, as with inline locks the updates themselves cannot apply the action - see
+     * recordWritePolicy - and with redo logging an update the action does not allow cannot be undone
+     * Records being deleted are not checked
+     *
+     * @param writePolicy - Write Policy supplied for the transaction
+     * @param recordsForUpdate - records supplied as a hash in Key:Bin[] form
+     * @param lockedRecords - records as they were when locked, including any lock bin, absent if they did not exist
+     * @param txnID - transaction id
+     * @throws TxnException with result code KEY_EXISTS_ERROR or KEY_NOT_FOUND_ERROR if the action does not allow an update
+     */
+    private static void checkRecordExistsAction(WritePolicy writePolicy, HashMap<Key,Bin[]> recordsForUpdate, Map<Key,Record> lockedRecords, String txnID){
+        if(!checksRecordExists(writePolicy)) return;
+        boolean createOnly = writePolicy.recordExistsAction == RecordExistsAction.CREATE_ONLY;
+        for(Map.Entry<Key,Bin[]> entry : recordsForUpdate.entrySet()){
+            if(entry.getValue() == null) continue;
+            Record lockedRecord = lockedRecords.get(entry.getKey());
+            // Headers have no bins. A record holding only the lock bin was created by the lock
+            boolean existed = lockedRecord != null && (lockedRecord.bins == null || withoutLockBin(lockedRecord.bins) != null);
+            if(createOnly && existed)
+                throw new TxnException(txnID, new AerospikeException(ResultCode.KEY_EXISTS_ERROR, "Record exists " + entry.getKey()));
+            if(!createOnly && !existed)
+                throw new TxnException(txnID, new AerospikeException(ResultCode.KEY_NOT_FOUND_ERROR, "Record not found " + entry.getKey()));
+        }
+    }
+
+    /**
+     * Whether the record exists action of the write policy depends on whether records exist
+     *
+     * @param writePolicy - Write Policy supplied for the transaction
+     * @return boolean
+     */
+    private static boolean checksRecordExists(WritePolicy writePolicy){
+        RecordExistsAction action = writePolicy.recordExistsAction;
+        return action == RecordExistsAction.CREATE_ONLY || action == RecordExistsAction.UPDATE_ONLY || action == RecordExistsAction.REPLACE_ONLY;
+    }
+
+    /**
+     * Write policy for an individual record update within a transaction
+     * A copy of the supplied policy with the generation check ( if any ) for this record applied
+     *
+     * An inline lock creates the record if it does not exist, so with inline locks the record exists action is checked against
+     * the records as they were when locked - see checkRecordExistsAction - and the update itself only creates, updates or replaces
+     *
+     * @param writePolicy - Write Policy supplied for the transaction
+     * @param generationCheckMap - key:int map of expected generations
+     * @param key - record being updated
+     * @param isDelete - whether the record is being deleted
+     * @param strategy - lock strategy in use for this txn
+     * @return WritePolicy
+     */
+    private WritePolicy recordWritePolicy(WritePolicy writePolicy, HashMap<Key,Integer> generationCheckMap, Key key, boolean isDelete, LockStrategy strategy){
+        WritePolicy recordWritePolicy = new WritePolicy(writePolicy);
+        if(strategy == LockStrategy.INLINE){
+            if(writePolicy.recordExistsAction == RecordExistsAction.UPDATE_ONLY) recordWritePolicy.recordExistsAction = RecordExistsAction.UPDATE;
+            else if(writePolicy.recordExistsAction == RecordExistsAction.CREATE_ONLY || writePolicy.recordExistsAction == RecordExistsAction.REPLACE_ONLY)
+                recordWritePolicy.recordExistsAction = RecordExistsAction.REPLACE;
+        }
+        Integer generation = generationCheckMap.get(key);
+        if(generation != null) {
+            recordWritePolicy.generationPolicy = GenerationPolicy.EXPECT_GEN_EQUAL;
+            recordWritePolicy.generation = generation;
+        }
+        else{
+            recordWritePolicy.generationPolicy = GenerationPolicy.NONE;
+            recordWritePolicy.generation = 0;
+        }
+        if(isDelete){
+            if (isEnterprise) recordWritePolicy.durableDelete = true;
+            else LOGGER.warning("Warning - non durable delete taking place as isEnterprise = false");
+        }
+        return recordWritePolicy;
+    }
+
+    /**
+     * Internal utility method
+     * Creates a hash-map containing existing versions of all the timedOutTxnIDs that are going to be updated
+     * Keys in the hash are a concatenation of set and userKey with a special delimiter
+     *
+     * Package level visibility to allow white box testing
+     *
+     * @param keysForRecordsForUpdate
+     * @param txnID
+     * @return - HashMap
+     */
+    HashMap<String,Map<String,Object>> existingVersionsOfRecordsForUpdate(Key[] keysForRecordsForUpdate, String txnID){
+        return existingVersionsOfRecordsForUpdate(keysForRecordsForUpdate, null, txnID);
+    }
+
+    /**
+     * As above, but if undoBins is supplied only the bins to be written are read and stored - see setBinLevelUndo
+     *
+     * Package level visibility to allow white box testing
+     *
+     * @param keysForRecordsForUpdate
+     * @param undoBins - bins to be written by the txn, or null if whole records are to be stored
+     * @param txnID
+     * @return - HashMap
+     */
+    HashMap<String,Map<String,Object>> existingVersionsOfRecordsForUpdate(Key[] keysForRecordsForUpdate, HashMap<Key,Bin[]> undoBins, String txnID){
+        // Get current verions of these timedOutTxnIDs
+        Record[] records;
+        try {
+            if(undoBins == null) {
+                records = get(txnBatchReadPolicy, keysForRecordsForUpdate);
+            }
+            else{
+                List<BatchRead> batchReads = undoBatchReads(keysForRecordsForUpdate, undoBins);
+                get(txnBatchReadPolicy, batchReads);
+                records = batchReadRecords(batchReads);
+            }
+        }
+        catch(AerospikeException ae){
+            throw new TxnException(txnID,ae);
+        }
+
+        return txnRecordsFromRecords(keysForRecordsForUpdate, records, undoBins);
+    }
+
+    /**
+     * As above, but records already read by an optimistic txn, and validated as unchanged since, are used as they are
+     * Only records written without being read are read from the database
+     *
+     * @param keysForRecordsForUpdate
+     * @param readRecords - records as read, null where they did not exist
+     * @param undoBins - bins to be written by the txn, or null if whole records are to be stored
+     * @param txnID
+     * @return - HashMap
+     */
+    private HashMap<String,Map<String,Object>> existingVersionsOfRecordsForUpdate(Key[] keysForRecordsForUpdate, Map<Key,Record> readRecords,
+                                                                                   HashMap<Key,Bin[]> undoBins, String txnID){
+        List<Key> unreadKeys = new ArrayList<Key>();
+        for(Key key : keysForRecordsForUpdate) if(!readRecords.containsKey(key)) unreadKeys.add(key);
+        HashMap<String,Map<String,Object>> txnRecords = unreadKeys.isEmpty() ? new HashMap<String,Map<String,Object>>() :
+                existingVersionsOfRecordsForUpdate(unreadKeys.toArray(new Key[0]), undoBins, txnID);
+
+        List<Key> readKeys = new ArrayList<Key>();
+        for(Key key : keysForRecordsForUpdate) if(readRecords.containsKey(key)) readKeys.add(key);
+        Record[] records = new Record[readKeys.size()];
+        for(int i=0;i<records.length;i++) records[i] = readRecords.get(readKeys.get(i));
+        txnRecords.putAll(txnRecordsFromRecords(readKeys.toArray(new Key[0]), records, undoBins));
+        return txnRecords;
+    }
+
+    /**
+     * Async version of existingVersionsOfRecordsForUpdate
+     *
+     * @param keysForRecordsForUpdate
+     * @param undoBins - bins to be written by the txn, or null if whole records are to be stored
+     * @param txnID
+     * @return future completing with HashMap of previous record versions
+     */
+    private CompletableFuture<HashMap<String,Map<String,Object>>> existingVersionsOfRecordsForUpdateAsync(Key[] keysForRecordsForUpdate, HashMap<Key,Bin[]> undoBins,
+                                                                                                         String txnID){
+        CompletableFuture<Record[]> records = (undoBins == null) ? AsyncCommands.get(this, txnBatchReadPolicy, keysForRecordsForUpdate) :
+                AsyncCommands.get(this, txnBatchReadPolicy, undoBatchReads(keysForRecordsForUpdate, undoBins)).thenApply(batchReads -> batchReadRecords(batchReads));
+        return records.handle((r,e) -> {
+            if(e != null) throw new CompletionException(asTxnRuntimeException(AsyncCommands.unwrap(e), txnID));
+            return txnRecordsFromRecords(keysForRecordsForUpdate, r, undoBins);
+        });
+    }
+
+    /**
+     * Batch reads projected to the bins each record update writes. Records being deleted are read in full
+     *
+     * @param keys - keys of records
+     * @param undoBins - bins to be written by the txn
+     * @return List of BatchRead in key order
+     */
+    private static List<BatchRead> undoBatchReads(Key[] keys, HashMap<Key,Bin[]> undoBins){
+        List<BatchRead> batchReads = new ArrayList<BatchRead>(keys.length);
+        for (Key key : keys) {
+            Bin[] bins = undoBins.get(key);
+            if(bins == null){
+                batchReads.add(new BatchRead(key, true));
+            }
+            else{
+                String[] binNames = new String[bins.length];
+                for(int i=0;i<bins.length;i++) binNames[i] = bins[i].name;
+                batchReads.add(new BatchRead(key, binNames));
+            }
+        }
+        return batchReads;
+    }
+
+    /**
+     * Records from completed batch reads
+     *
+     * @param batchReads - completed batch reads
+     * @return Record[] in batch read order, null where a record does not exist
+     */
+    private static Record[] batchReadRecords(List<BatchRead> batchReads){
+        Record[] records = new Record[batchReads.size()];
+        for(int i=0;i<records.length;i++) records[i] = batchReads.get(i).record;
+        return records;
+    }
+
+    /**
+     * Store existing record versions, as returned when taking inline locks, in a hash
+     *
+     * @param keys - keys of records
+     * @param lockedRecords - records as they were when locked
+     * @param undoBins - bins to be written by the txn, or null if whole records are to be stored
+     * @return HashMap
+     */
+    private static HashMap<String,Map<String,Object>> txnRecordsFromRecords(Key[] keys, Map<Key,Record> lockedRecords, HashMap<Key,Bin[]> undoBins){
+        Record[] records = new Record[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            Record lockedRecord = lockedRecords.get(keys[i]);
+            // A record consisting only of the lock was created by locking it
+            records[i] = (lockedRecord != null && withoutLockBin(lockedRecord.bins) != null) ? lockedRecord : null;
+        }
+        return txnRecordsFromRecords(keys, records, undoBins);
+    }
+
+    /**
+     * Store existing record versions in a hash - using keys comprised of setName and userKey, concatenated using '::' delimiter
+     * Inline locks are not part of the record version, so are excluded
+     *
+     * @param keys - keys of records
+     * @param records - records as read from the database, in key order
+     * @param undoBins - bins to be written by the txn, or null if whole records are to be stored
+     * @return HashMap
+     */
+    private static HashMap<String,Map<String,Object>> txnRecordsFromRecords(Key[] keys, Record[] records, HashMap<Key,Bin[]> undoBins){
+        HashMap<String, Map<String, Object>> txnRecords = new HashMap<String, Map<String, Object>>();
+        for (int i = 0; i < keys.length; i++) {
+            String compoundKey = new KeyAsString(keys[i]).toString();
+            Bin[] binsWritten = (undoBins != null) ? undoBins.get(keys[i]) : null;
+            // Store previous record detail if it exists
+            Map<String, Object> bins;
+            if(records[i] == null) bins = null;
+            else if(binsWritten == null) bins = withoutLockBin(records[i].bins);
+            else bins = undoBins(records[i], binsWritten);
+            txnRecords.put(compoundKey, bins);
+        }
+        return txnRecords;
+    }
+
+    /**
+     * Previous values of the bins written to an existing record, null marking a bin that did not exist
+     * Restoring these bins, null values deleting bins, undoes the write
+     *
+     * @param record - record as read from the database
+     * @param binsWritten - bins written by the txn
+     * @return Map of bin name to previous value
+     */
+    private static Map<String,Object> undoBins(Record record, Bin[] binsWritten){
+        Map<String,Object> undoBins = new HashMap<String,Object>(binsWritten.length * 2);
+        for(Bin bin : binsWritten){
+            undoBins.put(bin.name, (record.bins != null) ? record.bins.get(bin.name) : null);
+        }
+        return undoBins;
+    }
+
+    /**
+     * Record bins excluding any inline lock
+     *
+     * @param bins - bins as read from the database
+     * @return bins, or null if the record consists only of a lock
+     */
+    private static Map<String,Object> withoutLockBin(Map<String,Object> bins){
+        if(bins == null || !bins.containsKey(LOCK_BIN_NAME)) return bins;
+        Map<String,Object> recordBins = new HashMap<String,Object>(bins);
+        recordBins.remove(LOCK_BIN_NAME);
+        return recordBins.isEmpty() ? null : recordBins;
+    }
+
+    /**
+     * Create and save transaction object - contains existing object state for all objects in transaction
+     * Timestamp allows reaping of hung transactions
+     *
+     * Package level visibility to support white box testing
+     *
+     * @param transactionNamespace
+     * @param txnRecords - previous versions of timedOutTxnIDs
+     * @param txnID - transaction ID
+     */
+    void createTransactionRecord(String transactionNamespace,HashMap<String, Map<String, Object>> txnRecords, String txnID){
+        createTransactionRecord(txnRecords, null, txnID);
+    }
+
+    /**
+     * Create and save transaction object, additionally recording the generations of inline locked records
+     * If there are more than txnRecordChunkSize records, the transaction record is chunked - see setTxnRecordChunkSize
+     *
+     * Package level visibility to support white box testing
+     *
+     * @param txnRecords - previous versions of records
+     * @param lockedGenerations - generations of records when inline locked, or null if locks are not inline
+     * @param txnID - transaction ID
+     * @return number of chunk records written, 0 if the transaction record is not chunked
+     */
+    int createTransactionRecord(HashMap<String, Map<String, Object>> txnRecords, Map<Key,Integer> lockedGenerations, String txnID){
+        // Store existing object state in the 'transaction' record
+        return writeTxnRecord(previousVersionsBins(txnRecords), lockedGenerations, txnID);
+    }
+
+    /**
+     * Async version of createTransactionRecord
+     *
+     * @param txnRecords - previous versions of records
+     * @param lockedGenerations - generations of records when inline locked, or null if locks are not inline
+     * @param txnID - transaction ID
+     * @return future completing with the number of chunk records written when the transaction record is written
+     */
+    private CompletableFuture<Integer> createTransactionRecordAsync(HashMap<String, Map<String, Object>> txnRecords, Map<Key,Integer> lockedGenerations, String txnID){
+        return writeTxnRecordAsync(previousVersionsBins(txnRecords), lockedGenerations, txnID);
+    }
+
+    /**
+     * Bins holding previous record versions, one per txn record chunk
+     * Previous record versions are encoded as per compactTxnRecords and compressTxnRecords
+     *
+     * @param txnRecords - previous versions of records
+     * @return List of Bin
+     */
+    private List<Bin> previousVersionsBins(HashMap<String, Map<String, Object>> txnRecords){
+        List<Bin> versionsBins = new ArrayList<Bin>();
+        for(Map<String,Map<String,Object>> chunk : chunks(txnRecords)){
+            versionsBins.add((compactTxnRecords || compressTxnRecords) ?
+                    new Bin(PREVIOUS_RECORD_VERSION_BIN_NAME,encodeVersions(keyedPreviousVersions(chunk))) :
+                    new Bin(PREVIOUS_RECORD_VERSION_BIN_NAME,chunk));
+        }
+        return versionsBins;
+    }
+
+    /**
+     * Bins holding new record versions for a redo transaction record, one per txn record chunk - see setRedoLogging
+     * New record versions are encoded as per compactTxnRecords and compressTxnRecords
+     *
+     * @param nextVersions - new versions of records, null meaning the record is deleted
+     * @return List of Bin
+     */
+    private List<Bin> nextVersionsBins(Map<Key,Map<String,Object>> nextVersions){
+        List<Bin> versionsBins = new ArrayList<Bin>();
+        for(Map<Key,Map<String,Object>> chunk : chunks(nextVersions)){
+            if(compactTxnRecords || compressTxnRecords){
+                versionsBins.add(new Bin(NEXT_RECORD_VERSION_BIN_NAME,encodeVersions(chunk)));
+            }
+            else {
+                Map<String,Map<String,Object>> versions = new HashMap<String,Map<String,Object>>(chunk.size() * 2);
+                for(Map.Entry<Key,Map<String,Object>> entry : chunk.entrySet()){
+                    versions.put(new KeyAsString(entry.getKey()).toString(), entry.getValue());
+                }
+                versionsBins.add(new Bin(NEXT_RECORD_VERSION_BIN_NAME,versions));
+            }
+        }
+        return versionsBins;
+    }
+
+    /**
+     * Record versions in the compact binary encoding, compressed if compressTxnRecords is set and the encoding reaches the threshold
+     *
+     * @param versions - map of Key to bins
+     * @return byte[]
+     */
+    private byte[] encodeVersions(Map<Key,Map<String,Object>> versions){
+        byte[] encoded = TxnRecordCodec.encode(versions);
+        return compressTxnRecords ? TxnRecordCodec.compress(encoded, txnRecordCompressionThreshold) : encoded;
+    }
+
+    /**
+     * Split a map into chunks of at most txnRecordChunkSize entries
+     * The map itself is returned as the only chunk if chunking is not enabled, or not needed
+     *
+     * @param map - map to split
+     * @return List of maps
+     */
+    private <K,V> List<Map<K,V>> chunks(Map<K,V> map){
+        int chunkSize = txnRecordChunkSize;
+        if(chunkSize == 0 || map.size() <= chunkSize) return Collections.<Map<K,V>>singletonList(map);
+        List<Map<K,V>> chunks = new ArrayList<Map<K,V>>(map.size() / chunkSize + 1);
+        Map<K,V> chunk = null;
+        for(Map.Entry<K,V> entry : map.entrySet()){
+            if(chunk == null || chunk.size() == chunkSize){
+                chunk = new HashMap<K,V>(chunkSize * 2);
+                chunks.add(chunk);
+            }
+            chunk.put(entry.getKey(), entry.getValue());
+        }
+        return chunks;
+    }
+
+    /**
+     * Write a transaction record holding the given versions bins
+     *
+     * A single versions bin is written as a single txn record. Otherwise each is written to its own chunk record, in parallel
+     * if the client has event loops, before the header record is written under the txn key. The header is what makes
+     * the txn record visible to rollback, txnIncomplete and TransactionManager, so a txn record is never seen with chunks missing
+     *
+     * @param versionsBins - bins holding previous or next record versions, one per chunk
+     * @param lockedGenerations - generations of records when inline locked, or null if locks are not inline
+     * @param txnID - transaction ID
+     * @return number of chunk records written, 0 if the transaction record is not chunked
+     */
+    private int writeTxnRecord(List<Bin> versionsBins, Map<Key,Integer> lockedGenerations, String txnID){
+        try {
+            if(versionsBins.size() == 1){
+                put(txnWritePolicy, keyForTxnID(txnID), txnRecordBins(versionsBins.get(0), lockedGenerations, txnID));
+                return 0;
+            }
+            List<Bin[]> chunks = txnRecordChunks(versionsBins, lockedGenerations, txnID);
+            if(AsyncCommands.eventLoopsAvailable(this)){
+                writeTxnRecordChunksAsync(chunks, txnID).join();
+            }
+            else {
+                try {
+                    for(int i=0;i<chunks.size();i++) put(txnWritePolicy, keyForTxnChunk(txnID, i), chunks.get(i));
+                }
+                catch(AerospikeException e){
+                    try {
+                        removeTxnRecordChunks(txnID, chunks.size());
+                    }
+                    catch(AerospikeException removeError){
+                        LOGGER.warning("Unable to remove chunks of txn record for " + txnID + " : " + removeError.getMessage());
+                    }
+                    throw e;
+                }
+            }
+            put(txnWritePolicy, keyForTxnID(txnID), chunkedTxnRecordHeaderBins(chunks.size(), txnID));
+            return chunks.size();
+        }
+        catch(AerospikeException e){
+            throw(new TxnException(txnID,e));
+        }
+        catch(CompletionException e){
+            throw asTxnRuntimeException(AsyncCommands.unwrap(e), txnID);
+        }
+    }
+
+    /**
+     * Async version of writeTxnRecord
+     *
+     * @param versionsBins - bins holding previous or next record versions, one per chunk
+     * @param lockedGenerations - generations of records when inline locked, or null if locks are not inline
+     * @param txnID - transaction ID
+     * @return future completing with the number of chunk records written, 0 if the transaction record is not chunked
+     */
+    private CompletableFuture<Integer> writeTxnRecordAsync(List<Bin> versionsBins, Map<Key,Integer> lockedGenerations, String txnID){
+        CompletableFuture<Integer> written;
+        if(versionsBins.size() == 1){
+            written = AsyncCommands.put(this, txnWritePolicy, keyForTxnID(txnID), txnRecordBins(versionsBins.get(0), lockedGenerations, txnID))
+                    .thenApply(k -> 0);
+        }
+        else {
+            List<Bin[]> chunks = txnRecordChunks(versionsBins, lockedGenerations, txnID);
+            written = writeTxnRecordChunksAsync(chunks, txnID)
+                    .thenCompose(v -> AsyncCommands.put(this, txnWritePolicy, keyForTxnID(txnID), chunkedTxnRecordHeaderBins(chunks.size(), txnID)))
+                    .thenApply(k -> chunks.size());
+        }
+        return written.exceptionally(e -> { throw new CompletionException(asTxnRuntimeException(AsyncCommands.unwrap(e), txnID)); });
+    }
+
+    /**
+     * Write chunk records concurrently, bounded by maxInFlightCommands. If any write fails, chunks are removed before failing
+     *
+     * @param chunks - bins for each chunk record
+     * @param txnID - transaction ID
+     * @return future completing when all chunks are written
+     */
+    private CompletableFuture<Void> writeTxnRecordChunksAsync(List<Bin[]> chunks, String txnID){
+        List<Supplier<? extends CompletableFuture<?>>> writes = new ArrayList<Supplier<? extends CompletableFuture<?>>>(chunks.size());
+        for(int i=0;i<chunks.size();i++){
+            Key chunkKey = keyForTxnChunk(txnID, i);
+            Bin[] chunk = chunks.get(i);
+            writes.add(() -> AsyncCommands.put(this, txnWritePolicy, chunkKey, chunk));
+        }
+        return AsyncCommands.runWindowed(writes, maxInFlightCommands)
+                .handle((v,e) -> e == null ? CompletableFuture.<Void>completedFuture(null) :
+                        removeTxnRecordChunksAsync(txnID, chunks.size()).handle((r,e2) -> null).thenCompose(r -> AsyncCommands.<Void>failed(AsyncCommands.unwrap(e))))
+                .thenCompose(f -> f);
+    }
+
+    /**
+     * Bins for each chunk record of a chunked transaction record
+     * Locked generations are spread across the chunks, and merged again when read
+     * Chunks are typed and timestamped, so chunks left by a client failing before writing the header can be found and removed
+     * by TransactionManager - see TransactionManager.removeOrphanTxnRecordChunks
+     *
+     * @param versionsBins - bins holding previous or next record versions, one per chunk
+     * @param lockedGenerations - generations of records when inline locked, or null if locks are not inline
+     * @param txnID - transaction ID
+     * @return List of Bin[], one per chunk
+     */
+    private List<Bin[]> txnRecordChunks(List<Bin> versionsBins, Map<Key,Integer> lockedGenerations, String txnID){
+        List<Map<Key,Integer>> chunkGenerations = new ArrayList<Map<Key,Integer>>(versionsBins.size());
+        if(lockedGenerations != null){
+            for(int i=0;i<versionsBins.size();i++) chunkGenerations.add(new HashMap<Key,Integer>());
+            int i = 0;
+            for(Map<Key,Integer> generations : chunks(lockedGenerations)) chunkGenerations.get(i++ % versionsBins.size()).putAll(generations);
+        }
+        List<Bin[]> chunks = new ArrayList<Bin[]>(versionsBins.size());
+        Bin txnIDBin = new Bin(TXN_ID_BIN_NAME,txnID);
+        Bin timestampBin = new Bin(TIMESTAMP_BIN_NAME,System.currentTimeMillis());
+        Bin typeBin = new Bin(Constants.TYPE_BIN_NAME,TXN_CHUNK_TYPE);
+        for(int i=0;i<versionsBins.size();i++){
+            if(lockedGenerations == null)
+                chunks.add(new Bin[]{versionsBins.get(i), txnIDBin, timestampBin, typeBin});
+            else
+                chunks.add(new Bin[]{versionsBins.get(i), txnIDBin, timestampBin, typeBin, lockedGenerationsBin(chunkGenerations.get(i))});
+        }
+        return chunks;
+    }
+
+    /**
+     * Bins making up the header record of a chunked transaction record
+     * As for an unchunked txn record, but with a count of chunks in place of record versions
+     *
+     * @param chunkCount - number of chunk records
+     * @param txnID - transaction ID
+     * @return Bin[]
+     */
+    private static Bin[] chunkedTxnRecordHeaderBins(int chunkCount, String txnID){
+        return new Bin[]{
+                new Bin(TXN_RECORD_CHUNK_COUNT_BIN_NAME,chunkCount),
+                new Bin(TXN_ID_BIN_NAME,txnID),
+                new Bin(TIMESTAMP_BIN_NAME,System.currentTimeMillis()),
+                new Bin(Constants.TYPE_BIN_NAME,TXN_TYPE)
+        };
+    }
+
+    /**
+     * Bin holding generations of inline locked records, keyed by KeyAsString strings
+     *
+     * @param lockedGenerations - generations of records when inline locked
+     * @return Bin
+     */
+    private static Bin lockedGenerationsBin(Map<Key,Integer> lockedGenerations){
+        Map<String,Integer> generations = new HashMap<String,Integer>(lockedGenerations.size() * 2);
+        for(Map.Entry<Key,Integer> entry : lockedGenerations.entrySet()){
+            generations.put(new KeyAsString(entry.getKey()).toString(), entry.getValue());
+        }
+        return new Bin(LOCKED_GENERATIONS_BIN_NAME,generations);
+    }
+
+    /**
+     * Bins making up a transaction record, given the bin holding record versions
+     * If locks are inline, the generation of each record when locked is also stored, so rollback can tell whether a record
+     * has been changed since by a non-transactional write
+     *
+     * @param versionsBin - bin holding previous or next record versions
+     * @param lockedGenerations - generations of records when inline locked, or null if locks are not inline
+     * @param txnID - transaction ID
+     * @return Bin[]
+     */
+    private static Bin[] txnRecordBins(Bin versionsBin, Map<Key,Integer> lockedGenerations, String txnID){
+        Bin[] txnRecordBins = new Bin[lockedGenerations != null ? 5 : 4];
+        txnRecordBins[0] = versionsBin;
+        txnRecordBins[1] = new Bin(TXN_ID_BIN_NAME,txnID);
+        txnRecordBins[2] = new Bin(TIMESTAMP_BIN_NAME,System.currentTimeMillis());
+        txnRecordBins[3] = new Bin(Constants.TYPE_BIN_NAME,TXN_TYPE);
+        if(lockedGenerations != null) txnRecordBins[4] = lockedGenerationsBin(lockedGenerations);
+        return txnRecordBins;
+    }
+
+    /**
+     * Rollback a transaction
+     * 1) Replace new versions of records with previous
+     * 2) tidy up ( delete transaction record and remove locks )
+     *
+     * If locks were inline, each restore expects either the generation the record was locked at ( update not yet applied )
+     * or the one following ( update applied ). Any other generation means a non-transactional write has happened since
+     * commit, in which case the record is left as is rather than overwriting that write
+     *
+     * @param previousVersions - Previous versions of the records, null meaning the record did not exist
+     * @param lockedGenerations - generations of records when inline locked, or null if locks were not inline
+     * @param txnID - Transaction ID
+     * @param chunkCount - number of chunk records in the txn record, 0 if it is not chunked
+     */
+    private void rollback(Map<Key,Map<String,Object>> previousVersions, Map<Key,Integer> lockedGenerations, String txnID, int chunkCount){
+        Vector<Key> asKeys = new Vector<Key>();
+        // Rollback previous commits
+        for (Map.Entry<Key,Map<String,Object>> entry : previousVersions.entrySet()) {
+            Key asKey  = entry.getKey();
+            try {
+                Map<String, Object> originalObject = entry.getValue();
+                if (lockedGenerations == null)
+                    writeVersion(txnWritePolicy, asKey, originalObject, LockStrategy.LOCK_RECORD);
+                else
+                    restoreInlineLocked(asKey, originalObject, lockedGenerations.get(asKey), txnID);
+            }
+            catch(AerospikeException e){
+                throw(new TxnException(txnID,e));
+            }
+            // Build up vector of keys for tidy step
+            asKeys.addElement(asKey);
+        }
+        postCommitRollbackTidy(asKeys.iterator(),txnID,lockStrategyUsed(lockedGenerations),chunkCount);
+    }
+
+    /**
+     * Write a version of a record, as stored in a txn record - used to restore previous versions and to roll forward
+     *
+     * @param policy - write policy for the write
+     * @param key - record being written
+     * @param version - bins, null meaning the record should not exist
+     * @param strategy - lock strategy the record was locked with. If INLINE the lock is cleared by the write
+     */
+    private void writeVersion(WritePolicy policy, Key key, Map<String,Object> version, LockStrategy strategy){
+        if (version != null)
+            put(policy, key, commitBins(mapToBins(version), strategy));
+        else
+            delete(policy, key);
+    }
+
+    /**
+     * Restore the previous version of an inline locked record, provided it has not been changed by a non-transactional write since
+     *
+     * @param key - record being restored
+     * @param originalObject - previous bins, null meaning the record did not exist
+     * @param lockedGeneration - generation of the record when locked, null if not known
+     * @param txnID - Transaction ID
+     */
+    private void restoreInlineLocked(Key key, Map<String,Object> originalObject, Integer lockedGeneration, String txnID){
+        if(lockedGeneration == null){
+            writeVersion(txnWritePolicy, key, originalObject, LockStrategy.INLINE);
+            return;
+        }
+        // Record either still as locked, or our update was the last write to it
+        for(int generation = lockedGeneration; generation <= lockedGeneration + 1; generation++){
+            try {
+                writeVersion(expectGenerationPolicy(generation), key, originalObject, LockStrategy.INLINE);
+                return;
+            }
+            catch(AerospikeException e){
+                if(e.getResultCode() != ResultCode.GENERATION_ERROR) throw e;
+            }
+        }
+        LOGGER.warning("Record " + key + " updated outside txn " + txnID + " since commit - not rolled back");
+    }
+
+    /**
+     * Policy for writing an inline locked record expected to be at the given generation
+     *
+     * @param generation - expected generation
+     * @return WritePolicy
+     */
+    private WritePolicy expectGenerationPolicy(int generation){
+        WritePolicy restorePolicy = new WritePolicy(txnWritePolicy);
+        restorePolicy.generationPolicy = GenerationPolicy.EXPECT_GEN_EQUAL;
+        restorePolicy.generation = generation;
+        return restorePolicy;
+    }
+
+    /**
+     * Record versions held in the given bin of a transaction record, merged across chunks if the transaction record is chunked
+     *
+     * @param txnRecordParts - transaction record, or chunk records of a chunked transaction record
+     * @param binName - bin holding the versions
+     * @return map of Key to bins
+     */
+    private static Map<Key,Map<String,Object>> recordVersions(Record[] txnRecordParts, String binName){
+        if(txnRecordParts.length == 1) return recordVersions(txnRecordParts[0], binName);
+        Map<Key,Map<String,Object>> versions = new HashMap<Key,Map<String,Object>>();
+        for(Record part : txnRecordParts) versions.putAll(recordVersions(part, binName));
+        return versions;
+    }
+
+    /**
+     * Record versions held in the given bin of a transaction record
+     *
+     * @param txnRecord - transaction record
+     * @param binName - bin holding the versions
+     * @return map of Key to bins
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<Key,Map<String,Object>> recordVersions(Record txnRecord, String binName){
+        Object versions = txnRecord.getValue(binName);
+        if(versions instanceof byte[]) return TxnRecordCodec.decode((byte[])versions);
+        return keyedPreviousVersions((Map<String,Map<String,Object>>)versions);
+    }
+
+    /**
+     * Whether a transaction record was written using redo logging, in which case the txn has committed
+     *
+     * @param txnRecord - transaction record
+     * @return boolean
+     */
+    private static boolean isRedoRecord(Record txnRecord){
+        return txnRecord.getValue(NEXT_RECORD_VERSION_BIN_NAME) != null;
+    }
+
+    /**
+     * Lock strategy a txn used, as implied by the presence of locked generations in its txn record
+     *
+     * @param lockedGenerations - generations of records when inline locked, or null
+     * @return LockStrategy
+     */
+    private static LockStrategy lockStrategyUsed(Map<Key,Integer> lockedGenerations){
+        return (lockedGenerations == null) ? LockStrategy.LOCK_RECORD : LockStrategy.INLINE;
+    }
+
+    /**
+     * Generations of inline locked records from a transaction record, merged across chunks if the transaction record is chunked
+     *
+     * @param txnRecordParts - transaction record, or chunk records of a chunked transaction record
+     * @return map of Key to generation when locked, or null if the txn did not use inline locks
+     */
+    private static Map<Key,Integer> lockedGenerations(Record[] txnRecordParts){
+        Map<Key,Integer> lockedGenerations = null;
+        for(Record part : txnRecordParts){
+            Map<Key,Integer> partGenerations = lockedGenerations(part);
+            if(partGenerations == null) continue;
+            if(lockedGenerations == null) lockedGenerations = partGenerations;
+            else lockedGenerations.putAll(partGenerations);
+        }
+        return lockedGenerations;
+    }
+
+    /**
+     * Generations of inline locked records from a transaction record
+     *
+     * @param txnRecord - transaction record
+     * @return map of Key to generation when locked, or null if the txn did not use inline locks
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<Key,Integer> lockedGenerations(Record txnRecord){
+        Map<String,Object> generations = (Map<String,Object>)txnRecord.getValue(LOCKED_GENERATIONS_BIN_NAME);
+        if(generations == null) return null;
+        Map<Key,Integer> lockedGenerations = new HashMap<Key,Integer>(generations.size() * 2);
+        for (Map.Entry<String,Object> entry : generations.entrySet()) {
+            lockedGenerations.put(new KeyAsString(entry.getKey()).getKey(), ((Number)entry.getValue()).intValue());
+        }
+        return lockedGenerations;
+    }
+
+    /**
+     * Convert previous record versions keyed by KeyAsString strings to previous versions keyed by Key
+     *
+     * @param txnRecords - previous record versions keyed by KeyAsString strings
+     * @return map of Key to previous bins
+     */
+    private static Map<Key,Map<String,Object>> keyedPreviousVersions(Map<String,Map<String,Object>> txnRecords){
+        Map<Key,Map<String,Object>> previousVersions = new LinkedHashMap<Key,Map<String,Object>>(txnRecords.size() * 2);
+        for (Map.Entry<String,Map<String,Object>> entry : txnRecords.entrySet()) {
+            previousVersions.put(new KeyAsString(entry.getKey()).getKey(), entry.getValue());
+        }
+        return previousVersions;
+    }
+
+    /**
+     * Async version of rollback(Map, Map, String)
+     * Previous record versions are restored concurrently, bounded by maxInFlightCommands, before tidying up
+     *
+     * @param previousVersions - Previous versions of the records, null meaning the record did not exist
+     * @param lockedGenerations - generations of records when inline locked, or null if locks were not inline
+     * @param txnID - Transaction ID
+     * @param chunkCount - number of chunk records in the txn record, 0 if it is not chunked
+     * @return future completing when rollback is complete
+     */
+    private CompletableFuture<Void> rollbackAsync(Map<Key,Map<String,Object>> previousVersions, Map<Key,Integer> lockedGenerations, String txnID, int chunkCount){
+        Vector<Key> asKeys = new Vector<Key>();
+        List<Supplier<? extends CompletableFuture<?>>> restores = new ArrayList<Supplier<? extends CompletableFuture<?>>>(previousVersions.size());
+        for (Map.Entry<Key,Map<String,Object>> entry : previousVersions.entrySet()) {
+            Key asKey = entry.getKey();
+            Map<String, Object> originalObject = entry.getValue();
+            restores.add(() -> (lockedGenerations == null) ?
+                    writeVersionAsync(txnWritePolicy, asKey, originalObject, LockStrategy.LOCK_RECORD) :
+                    restoreInlineLockedAsync(asKey, originalObject, lockedGenerations.get(asKey), txnID));
+            asKeys.addElement(asKey);
+        }
+        return AsyncCommands.runWindowed(restores, maxInFlightCommands)
+                .exceptionally(e -> { throw new CompletionException(asTxnRuntimeException(AsyncCommands.unwrap(e), txnID)); })
+                .thenCompose(v -> postCommitRollbackTidyAsync(asKeys.iterator(), txnID, lockStrategyUsed(lockedGenerations), chunkCount));
+    }
+
+    /**
+     * Async version of writeVersion
+     *
+     * @param policy - write policy for the write
+     * @param key - record being written
+     * @param version - bins, null meaning the record should not exist
+     * @param strategy - lock strategy the record was locked with
+     * @return future completing when the record is written
+     */
+    private CompletableFuture<Void> writeVersionAsync(WritePolicy policy, Key key, Map<String,Object> version, LockStrategy strategy){
+        CompletableFuture<?> write = (version != null) ?
+                AsyncCommands.put(this, policy, key, commitBins(mapToBins(version), strategy)) : AsyncCommands.delete(this, policy, key);
+        return write.thenApply(v -> null);
+    }
+
+    /**
+     * Async version of restoreInlineLocked
+     *
+     * @param key - record being restored
+     * @param originalObject - previous bins, null meaning the record did not exist
+     * @param lockedGeneration - generation of the record when locked, null if not known
+     * @param txnID - Transaction ID
+     * @return future completing when the record is restored, or found to have been updated outside the txn
+     */
+    private CompletableFuture<Void> restoreInlineLockedAsync(Key key, Map<String,Object> originalObject, Integer lockedGeneration, String txnID){
+        if(lockedGeneration == null) return writeVersionAsync(txnWritePolicy, key, originalObject, LockStrategy.INLINE);
+        // Record either still as locked, or our update was the last write to it
+        return writeVersionAsync(expectGenerationPolicy(lockedGeneration), key, originalObject, LockStrategy.INLINE)
+                .handle((r,e) -> {
+                    if(e == null) return CompletableFuture.<Void>completedFuture(null);
+                    if(!AsyncCommands.hasResultCode(e, ResultCode.GENERATION_ERROR)) return AsyncCommands.<Void>failed(AsyncCommands.unwrap(e));
+                    return writeVersionAsync(expectGenerationPolicy(lockedGeneration + 1), key, originalObject, LockStrategy.INLINE)
+                            .exceptionally(e2 -> {
+                                if(!AsyncCommands.hasResultCode(e2, ResultCode.GENERATION_ERROR)) throw new CompletionException(AsyncCommands.unwrap(e2));
+                                LOGGER.warning("Record " + key + " updated outside txn " + txnID + " since commit - not rolled back");
+                                return null;
+                            });
+                })
+                .thenCompose(f -> f);
+    }
+
+    /**
+     * Async version of rollback(String)
+     *
+     * @param txnID txn to roll back
+     * @return future completing when rollback is complete. Fails with LockAcquireException if the txn is already being rolled back
+     * or with TxnException, result code KEY_NOT_FOUND_ERROR, if the txn record does not exist
+     */
+    @Override
+    public CompletableFuture<Void> rollbackAsync(String txnID){
+        String rollbackTxnID = TxnSupport.uniqueTxnID();
+        Key txnKey = keyForTxnID(txnID);
+        // Txn records are always locked using lock records - they are not data records
+        return createRecordLockAsync(txnKey,rollbackTxnID)
+                .thenCompose(v -> AsyncCommands.get(this,txnReadPolicy,txnKey))
+                .thenCompose(r -> {
+                    // As rollback(String) - release the rollback lock and report that there is no such txn
+                    if(r == null) return removeLocksAsync(Collections.singletonList(txnKey).iterator(),rollbackTxnID,LockStrategy.LOCK_RECORD)
+                            .<Void>handle((v,e) -> { throw new CompletionException(txnRecordNotFound(txnID)); });
+                    int chunkCount = chunkCount(r);
+                    CompletableFuture<Record[]> parts = (chunkCount == 0) ?
+                            CompletableFuture.completedFuture(new Record[]{r}) : readTxnRecordChunksAsync(txnID, chunkCount);
+                    return parts.thenCompose(p -> {
+                        // A redo txn has committed once its txn record exists, so is completed rather than undone
+                        if(isRedoRecord(p[0])) return rollForwardAsync(txnWritePolicy,recordVersions(p,NEXT_RECORD_VERSION_BIN_NAME),lockedGenerations(p),txnID,chunkCount);
+                        return rollbackAsync(recordVersions(p,PREVIOUS_RECORD_VERSION_BIN_NAME),lockedGenerations(p),txnID,chunkCount);
+                    });
+                })
+                .thenCompose(v -> removeLocksAsync(Collections.singletonList(txnKey).iterator(),rollbackTxnID,LockStrategy.LOCK_RECORD))
+                .exceptionally(e -> { throw new CompletionException(asTxnFailure(e, txnID)); });
+    }
+
+    /**
+     * Rollback transaction identified by txnID
+     * A txn whose txn record was written using redo logging has reached its commit point, so is rolled forward instead
+     *
+     * Package level visibility to support use by TransactionManager
+     *
+     * @param txnID txn to roll back
+     * @throws TxnException with result code KEY_NOT_FOUND_ERROR if the txn record does not exist
+     */
+    @Override
+    public void rollback(String txnID) throws LockAcquireException{
+        String rollbackTxnID = TxnSupport.uniqueTxnID();
+        // Txn records are always locked using lock records - they are not data records
+        createRecordLock(keyForTxnID(txnID),rollbackTxnID);
+        Record r = get(txnReadPolicy,keyForTxnID(txnID),txnID);
+        if(r == null){
+            removeRecordLock(keyForTxnID(txnID),rollbackTxnID);
+            throw txnRecordNotFound(txnID);
+        }
+        int chunkCount = chunkCount(r);
+        Record[] parts = (chunkCount == 0) ? new Record[]{r} : readTxnRecordChunks(txnID, chunkCount);
+        if(isRedoRecord(parts[0]))
+            rollForward(txnWritePolicy,recordVersions(parts,NEXT_RECORD_VERSION_BIN_NAME),lockedGenerations(parts),txnID,chunkCount);
+        else
+            rollback(recordVersions(parts,PREVIOUS_RECORD_VERSION_BIN_NAME),lockedGenerations(parts),txnID,chunkCount);
+        removeRecordLock(keyForTxnID(txnID),rollbackTxnID);
+    }
+
+    /**
+     * Error reported when rolling back a txn whose txn record does not exist - it has completed, or never got as far as writing it
+     *
+     * @param txnID - Transaction ID
+     * @return TxnException with result code KEY_NOT_FOUND_ERROR
+     */
+    private static TxnException txnRecordNotFound(String txnID){
+        return new TxnException(txnID, new AerospikeException(ResultCode.KEY_NOT_FOUND_ERROR, "Txn record not found"));
+    }
+
+    /**
+     * Number of chunk records a txn record has been split into, 0 if it is not chunked
+     *
+     * @param txnRecord - transaction record, or header record of a chunked transaction record
+     * @return int
+     */
+    private static int chunkCount(Record txnRecord){
+        Object chunkCount = txnRecord.getValue(TXN_RECORD_CHUNK_COUNT_BIN_NAME);
+        return (chunkCount == null) ? 0 : ((Number)chunkCount).intValue();
+    }
+
+    /**
+     * Read the chunk records of a chunked txn record using a single batch read
+     *
+     * @param txnID - Transaction ID
+     * @param chunkCount - number of chunk records
+     * @return Record[] - chunk records in order
+     * @throws TxnException if any chunk cannot be read
+     */
+    private Record[] readTxnRecordChunks(String txnID, int chunkCount){
+        Key[] chunkKeys = txnRecordChunkKeys(txnID, chunkCount);
+        Record[] chunks;
+        try {
+            chunks = get(txnBatchReadPolicy, chunkKeys);
+        }
+        catch(AerospikeException e){
+            throw new TxnException(txnID,e);
+        }
+        checkTxnRecordChunks(chunks, txnID);
+        return chunks;
+    }
+
+    /**
+     * Async version of readTxnRecordChunks
+     *
+     * @param txnID - Transaction ID
+     * @param chunkCount - number of chunk records
+     * @return future completing with the chunk records in order
+     */
+    private CompletableFuture<Record[]> readTxnRecordChunksAsync(String txnID, int chunkCount){
+        return AsyncCommands.get(this, txnBatchReadPolicy, txnRecordChunkKeys(txnID, chunkCount)).handle((chunks,e) -> {
+            if(e != null) throw new CompletionException(asTxnRuntimeException(AsyncCommands.unwrap(e), txnID));
+            checkTxnRecordChunks(chunks, txnID);
+            return chunks;
+        });
+    }
+
+    /**
+     * Keys of the chunk records of a chunked txn record
+     *
+     * @param txnID - Transaction ID
+     * @param chunkCount - number of chunk records
+     * @return Key[]
+     */
+    private Key[] txnRecordChunkKeys(String txnID, int chunkCount){
+        Key[] chunkKeys = new Key[chunkCount];
+        for(int i=0;i<chunkCount;i++) chunkKeys[i] = keyForTxnChunk(txnID, i);
+        return chunkKeys;
+    }
+
+    /**
+     * Chunks are written before their header and removed after it, so a missing chunk means the txn record cannot be trusted
+     *
+     * @param chunks - chunk records as read
+     * @param txnID - Transaction ID
+     * @throws TxnException if any chunk is missing
+     */
+    private static void checkTxnRecordChunks(Record[] chunks, String txnID){
+        for(int i=0;i<chunks.length;i++){
+            if(chunks[i] == null){
+                throw new TxnException(txnID,new AerospikeException(ResultCode.KEY_NOT_FOUND_ERROR,"Chunk " + i + " of txn record for " + txnID + " not found"));
+            }
+        }
+    }
+
+    /**
+     * Assuming rollback / commit has happened - tidy up
+     * Remove record of transaction ( signifies that commit / rollback has occurred in full )
+     * Remove locks. Inline locks have already been cleared by the writes to the records themselves
+     *
+     * @param keys
+     * @param txnID
+     * @param strategy lock strategy used by the txn
+     * @param chunkCount number of chunk records in the txn record, 0 if it is not chunked
+     */
+    private void postCommitRollbackTidy(Iterator<Key> keys,String txnID,LockStrategy strategy,int chunkCount){
+        // Remove the transaction record - this is the 'commit'
+        // For a chunked txn record, removing the header is the commit, so chunks are removed after it
+        try {
+            delete(txnWritePolicy, keyForTxnID(txnID));
+            removeTxnRecordChunks(txnID, chunkCount);
+        }
+        catch(AerospikeException ae){
+            throw new TxnException(txnID,ae);
+        }
+        // Remove locks
+        if(strategy != LockStrategy.INLINE) removeLocksForKeys(keys,txnID,strategy);
+    }
+
+    /**
+     * Async version of postCommitRollbackTidy
+     *
+     * @param keys
+     * @param txnID
+     * @param strategy lock strategy used by the txn
+     * @param chunkCount number of chunk records in the txn record, 0 if it is not chunked
+     * @return future completing when txn record and locks have been removed
+     */
+    private CompletableFuture<Void> postCommitRollbackTidyAsync(Iterator<Key> keys,String txnID,LockStrategy strategy,int chunkCount){
+        // Remove the transaction record - this is the 'commit'
+        CompletableFuture<Void> txnRecordRemoved = AsyncCommands.delete(this, txnWritePolicy, keyForTxnID(txnID))
+                .thenCompose(d -> removeTxnRecordChunksAsync(txnID, chunkCount))
+                .exceptionally(e -> { throw new CompletionException(asTxnRuntimeException(AsyncCommands.unwrap(e), txnID)); });
+        if(strategy == LockStrategy.INLINE) return txnRecordRemoved;
+        // Remove locks
+        return txnRecordRemoved.thenCompose(v -> removeLocksAsync(keys, txnID, strategy));
+    }
+
+    /**
+     * Database key for txn record
+     *
+     * Package level access to allow testing use
+     *
+     * @param txnID
+     * @return Key
+     */
+    Key keyForTxnID(String txnID){
+        return new Key(transactionNamespace,TRANSACTION_SET,txnID);
+    }
+
+    /**
+     * Database key for a chunk record of a chunked txn record
+     *
+     * Package level access to allow testing use
+     *
+     * @param txnID
+     * @param chunk - chunk index
+     * @return Key
+     */
+    Key keyForTxnChunk(String txnID, int chunk){
+        return new Key(transactionNamespace,TRANSACTION_SET,txnID + RECORD_KEY_SET_DELIMITER + chunk);
+    }
+
+    /**
+     * Number of chunk records a txn record holding versionCount record versions is split into, 0 if it is not chunked
+     *
+     * @param versionCount - number of record versions
+     * @return int
+     */
+    private int txnRecordChunkCount(int versionCount){
+        int chunkSize = txnRecordChunkSize;
+        if(chunkSize == 0 || versionCount <= chunkSize) return 0;
+        return (versionCount + chunkSize - 1) / chunkSize;
+    }
+
+    /**
+     * Remove the chunk records of a chunked txn record - in parallel if the client has event loops
+     *
+     * @param txnID
+     * @param chunkCount - number of chunk records
+     */
+    private void removeTxnRecordChunks(String txnID, int chunkCount){
+        if(chunkCount == 0) return;
+        if(AsyncCommands.eventLoopsAvailable(this)){
+            try {
+                removeTxnRecordChunksAsync(txnID, chunkCount).join();
+            }
+            catch(CompletionException e){
+                Throwable cause = AsyncCommands.unwrap(e);
+                if(cause instanceof AerospikeException) throw (AerospikeException)cause;
+                throw new IllegalStateException(cause);
+            }
+            return;
+        }
+        for(int i=0;i<chunkCount;i++) delete(txnWritePolicy, keyForTxnChunk(txnID, i));
+    }
+
+    /**
+     * Async version of removeTxnRecordChunks
+     *
+     * @param txnID
+     * @param chunkCount - number of chunk records
+     * @return future completing when the chunk records have been removed
+     */
+    private CompletableFuture<Void> removeTxnRecordChunksAsync(String txnID, int chunkCount){
+        if(chunkCount == 0) return CompletableFuture.completedFuture(null);
+        List<Supplier<? extends CompletableFuture<?>>> deletes = new ArrayList<Supplier<? extends CompletableFuture<?>>>(chunkCount);
+        for(int i=0;i<chunkCount;i++){
+            Key chunkKey = keyForTxnChunk(txnID, i);
+            deletes.add(() -> AsyncCommands.delete(this, txnWritePolicy, chunkKey));
+        }
+        return AsyncCommands.runWindowed(deletes, maxInFlightCommands);
+    }
+
+    /**
+     * Check whether there is an incomplete txn with this id
+     * @param txnID transaction being checked
+     * @return boolean
+     */
+    public boolean txnIncomplete(String txnID){
+        return get(txnReadPolicy,keyForTxnID(txnID)) != null;
+    }
+
+    /**
+     * Async version of txnIncomplete
+     * @param txnID transaction being checked
+     * @return future completing with boolean
+     */
+    @Override
+    public CompletableFuture<Boolean> txnIncompleteAsync(String txnID){
+        return AsyncCommands.exists(this,txnReadPolicy,keyForTxnID(txnID));
+    }
+
+    /**
+     * Extend the lease on a transaction, so neither it nor its locks are treated as expired by a TransactionManager until
+     * leaseMillis from now, whatever the TransactionManager timeout. Sets the timestamp and expiry of the txn record, and of the
+     * locks on lockedKeys held by txnID
+     *
+     * The txn record and locks may not all exist yet - those which do not, or locks held by another txn, are left alone
+     * Inline locks are not updated, as writing them would change the generation of the locked record. An inline lock is only
+     * reclaimed once its txn record is gone, so the txn record lease covers them once written
+     *
+     * @param txnID Transaction to renew the lease of
+     * @param lockedKeys Keys of records locked by the transaction
+     * @param leaseMillis Lease length in ms
+     */
+    @Override
+    public void renewLease(String txnID, Collection<Key> lockedKeys, long leaseMillis){
+        Bin[] leaseBins = leaseBins(leaseMillis);
+        renewLease(renewLeasePolicy(), keyForTxnID(txnID), leaseBins, txnID);
+        if(lockStrategy == LockStrategy.INLINE) return;
+        WritePolicy renewLockPolicy = renewLockLeasePolicy(txnID);
+        for(Key key : lockedKeys){
+            renewLease(renewLockPolicy, lockKey(key), leaseBins, txnID);
+            if(legacyLockKeyCompatibility) renewLease(renewLockPolicy, legacyLockKey(key), leaseBins, txnID);
+        }
+    }
+
+    /**
+     * Non-blocking version of renewLease - see that method for details
+     * The txn record and locks are updated concurrently, bounded by maxInFlightCommands
+     *
+     * @param txnID Transaction to renew the lease of
+     * @param lockedKeys Keys of records locked by the transaction
+     * @param leaseMillis Lease length in ms
+     * @return future completing when the lease is renewed
+     */
+    @Override
+    public CompletableFuture<Void> renewLeaseAsync(String txnID, Collection<Key> lockedKeys, long leaseMillis){
+        Bin[] leaseBins;
+        try {
+            leaseBins = leaseBins(leaseMillis);
+        }
+        catch(IllegalArgumentException e){
+            return AsyncCommands.failed(e);
+        }
+        List<Supplier<? extends CompletableFuture<?>>> renewals = new ArrayList<Supplier<? extends CompletableFuture<?>>>();
+        WritePolicy renewPolicy = renewLeasePolicy();
+        renewals.add(() -> renewLeaseAsync(renewPolicy, keyForTxnID(txnID), leaseBins, txnID));
+        if(lockStrategy != LockStrategy.INLINE){
+            WritePolicy renewLockPolicy = renewLockLeasePolicy(txnID);
+            for(Key key : lockedKeys){
+                renewals.add(() -> renewLeaseAsync(renewLockPolicy, lockKey(key), leaseBins, txnID));
+                if(legacyLockKeyCompatibility) renewals.add(() -> renewLeaseAsync(renewLockPolicy, legacyLockKey(key), leaseBins, txnID));
+            }
+        }
+        return AsyncCommands.runWindowed(renewals, maxInFlightCommands);
+    }
+
+    /**
+     * Timestamp and expiry bins for a lease starting now
+     *
+     * @param leaseMillis Lease length in ms
+     * @return Bin[]
+     */
+    private static Bin[] leaseBins(long leaseMillis){
+        if(leaseMillis < 1) throw new IllegalArgumentException("leaseMillis must be at least 1");
+        long now = System.currentTimeMillis();
+        return new Bin[]{new Bin(TIMESTAMP_BIN_NAME, now), new Bin(EXPIRY_BIN_NAME, now + leaseMillis)};
+    }
+
+    /**
+     * Policy for renewing the lease on a txn record, which is left alone if it does not exist
+     *
+     * @return WritePolicy
+     */
+    private WritePolicy renewLeasePolicy(){
+        WritePolicy renewPolicy = new WritePolicy(txnWritePolicy);
+        renewPolicy.recordExistsAction = RecordExistsAction.UPDATE_ONLY;
+        return renewPolicy;
+    }
+
+    /**
+     * Policy for renewing the lease on locks held by txnID
+     * As for lock removal, the predicate means a lock is only updated if it is held by txnID
+     *
+     * @param txnID Transaction locks are held by
+     * @return WritePolicy
+     */
+    private WritePolicy renewLockLeasePolicy(String txnID){
+        WritePolicy renewLockPolicy = lockDeletePolicy(txnID);
+        renewLockPolicy.recordExistsAction = RecordExistsAction.UPDATE_ONLY;
+        return renewLockPolicy;
+    }
+
+    /**
+     * Write lease bins to a txn or lock record, if it exists and satisfies the policy predicate
+     *
+     * @param renewPolicy UPDATE_ONLY policy
+     * @param key txn record or lock key
+     * @param leaseBins timestamp and expiry bins
+     * @param txnID Transaction lease is being renewed for
+     */
+    private void renewLease(WritePolicy renewPolicy, Key key, Bin[] leaseBins, String txnID){
+        try {
+            put(renewPolicy, key, leaseBins);
+        }
+        catch(AerospikeException ae){
+            if(ae.getResultCode() != ResultCode.KEY_NOT_FOUND_ERROR && ae.getResultCode() != ResultCode.FILTERED_OUT) throw new TxnException(txnID, ae);
+        }
+    }
+
+    /**
+     * Async version of renewLease(WritePolicy, Key, Bin[], String)
+     *
+     * @param renewPolicy UPDATE_ONLY policy
+     * @param key txn record or lock key
+     * @param leaseBins timestamp and expiry bins
+     * @param txnID Transaction lease is being renewed for
+     * @return future completing when the lease bins are written, or the record is found not to need them
+     */
+    private CompletableFuture<Void> renewLeaseAsync(WritePolicy renewPolicy, Key key, Bin[] leaseBins, String txnID){
+        return AsyncCommands.put(this, renewPolicy, key, leaseBins).handle((k,e) -> {
+            if(e != null && !AsyncCommands.hasResultCode(e, ResultCode.KEY_NOT_FOUND_ERROR) && !AsyncCommands.hasResultCode(e, ResultCode.FILTERED_OUT))
+                throw new CompletionException(asTxnRuntimeException(AsyncCommands.unwrap(e), txnID));
+            return null;
+        });
+    }
+
+    /**
+     * Renew a transaction's lease in the background every leaseMillis / 3 until the returned heartbeat is closed
+     * See startHeartbeat(String, Collection, long, long)
+     *
+     * @param txnID Transaction to renew the lease of
+     * @param lockedKeys Keys of records locked by the transaction
+     * @param leaseMillis Lease length in ms
+     * @return TxnHeartbeat - close once the transaction has completed
+     */
+    public TxnHeartbeat startHeartbeat(String txnID, Collection<Key> lockedKeys, long leaseMillis){
+        return startHeartbeat(txnID, lockedKeys, leaseMillis, Math.max(1, leaseMillis / 3));
+    }
+
+    /**
+     * Renew a transaction's lease in the background every intervalMillis until the returned heartbeat is closed
+     * The lease is renewed once before returning - see renewLease. Failed renewals are logged and retried on the next beat
+     * Renewals use the async API if the client has event loops, so do not tie up a thread while in flight
+     *
+     * Locks taken after the heartbeat starts are only leased from the next beat - until then they expire with the
+     * TransactionManager timeout from when they were taken. intervalMillis should therefore be well inside that timeout,
+     * as well as inside leaseMillis
+     *
+     * @param txnID Transaction to renew the lease of
+     * @param lockedKeys Keys of records locked by the transaction
+     * @param leaseMillis Lease length in ms
+     * @param intervalMillis Time between renewals in ms
+     * @return TxnHeartbeat - close once the transaction has completed
+     */
+    public TxnHeartbeat startHeartbeat(String txnID, Collection<Key> lockedKeys, long leaseMillis, long intervalMillis){
+        if(intervalMillis < 1) throw new IllegalArgumentException("intervalMillis must be at least 1");
+        List<Key> keys = new ArrayList<Key>(lockedKeys);
+        renewLease(txnID, keys, leaseMillis);
+        Supplier<CompletableFuture<Void>> renewal = AsyncCommands.eventLoopsAvailable(this) ?
+                () -> renewLeaseAsync(txnID, keys, leaseMillis) :
+                () -> CompletableFuture.runAsync(() -> renewLease(txnID, keys, leaseMillis), TxnHeartbeat.BLOCKING_RENEWALS);
+        return new TxnHeartbeat(renewal, txnID, intervalMillis);
+    }
+
+    /**
+     * Create a lock on they object identified by key
+     * Throw an error if lock cannot be acquired
+     * Lock is associated with a transaction id
+     * The lock is stored as per lockStrategy
+     *
+     * @param key Aerospike Key for record requiring lock
+     * @param txnID Transaction record is being locked for
+     */
+    @Override
+    public void createLock(Key key, String txnID) throws LockAcquireException{
+        if(lockStrategy == LockStrategy.INLINE){
+            try {
+                createInlineLock(key, null, txnID);
+            }
+            // Not possible without an expected generation
+            catch(GenFailException e){
+                throw new IllegalStateException(e);
+            }
+            return;
+        }
+        createRecordLock(key, txnID);
+    }
+
+    /**
+     * Create a lock record for the object identified by key, in both key forms if legacyLockKeyCompatibility is set
+     *
+     * @param key Aerospike Key for record requiring lock
+     * @param txnID Transaction record is being locked for
+     * @throws LockAcquireException if the lock is held by a different txn
+     */
+    private void createRecordLock(Key key, String txnID) throws LockAcquireException{
+        if(!legacyLockKeyCompatibility){
+            createLock(key, lockKey(key), txnID);
+            return;
+        }
+        // Legacy lock taken first, so this client and older clients contend on the same record
+        createLock(key, legacyLockKey(key), txnID);
+        try {
+            createLock(key, lockKey(key), txnID);
+        }
+        catch(LockAcquireException e){
+            removeRecordLock(key, txnID);
+            throw e;
+        }
+    }
+
+    /**
+     * Create lock record lockKey for the object identified by key
+     *
+     * @param key Aerospike Key for record requiring lock
+     * @param lockKey Key for the lock record
+     * @param txnID Transaction record is being locked for
+     * @throws LockAcquireException if the lock is held by a different txn
+     */
+    private void createLock(Key key, Key lockKey, String txnID) throws LockAcquireException{
+        try{
+            // Note lockPolicy is CREATE_ONLY - see setTxnWritePolicy
+            put(lockPolicy,lockKey,lockBins(key,txnID));
+        }
+        catch(AerospikeException ae){
+            if(ae.getResultCode() == ResultCode.KEY_EXISTS_ERROR){
+                Record r = get(txnReadPolicy,lockKey,txnID);
+                // Throw an error if lock is held by a different txn
+                if(r == null || ! r.getString(TXN_ID_BIN_NAME).equals(txnID)) throw new LockAcquireException(key, txnID);
+            }
+            else{
+                throw new TxnException(txnID,ae);
+            }
+        }
+    }
+
+    /**
+     * Async equivalent of createLock
+     * Future completes exceptionally with LockAcquireException if the lock is held by a different txn
+     *
+     * @param key Aerospike Key for record requiring lock
+     * @param txnID Transaction record is being locked for
+     * @return future completing when lock is held
+     */
+    @Override
+    public CompletableFuture<Void> createLockAsync(Key key, String txnID){
+        if(lockStrategy == LockStrategy.INLINE) return createInlineLockAsync(key, null, txnID, 0).thenApply(g -> null);
+        return createRecordLockAsync(key, txnID);
+    }
+
+    /**
+     * Async version of createRecordLock
+     *
+     * @param key Aerospike Key for record requiring lock
+     * @param txnID Transaction record is being locked for
+     * @return future completing when lock is held
+     */
+    private CompletableFuture<Void> createRecordLockAsync(Key key, String txnID){
+        if(!legacyLockKeyCompatibility) return createLockAsync(key, lockKey(key), txnID);
+        // Legacy lock taken first, so this client and older clients contend on the same record
+        return createLockAsync(key, legacyLockKey(key), txnID)
+                .thenCompose(v -> createLockAsync(key, lockKey(key), txnID).handle((r,e) -> {
+                    if(e == null) return CompletableFuture.<Void>completedFuture(null);
+                    Throwable cause = AsyncCommands.unwrap(e);
+                    if(!(cause instanceof LockAcquireException)) return AsyncCommands.<Void>failed(cause);
+                    return removeLocksAsync(Collections.singletonList(key).iterator(), txnID, LockStrategy.LOCK_RECORD)
+                            .<Void>handle((released,releaseError) -> { throw new CompletionException(cause); });
+                }))
+                .thenCompose(f -> f);
+    }
+
+    /**
+     * Async version of createLock(Key, Key, String)
+     *
+     * @param key Aerospike Key for record requiring lock
+     * @param lockKey Key for the lock record
+     * @param txnID Transaction record is being locked for
+     * @return future completing when lock is held
+     */
+    private CompletableFuture<Void> createLockAsync(Key key, Key lockKey, String txnID){
+        // Note lockPolicy is CREATE_ONLY - see setTxnWritePolicy
+        return AsyncCommands.put(this,lockPolicy,lockKey,lockBins(key,txnID))
+                .handle((k,e) -> {
+                    if(e == null) return CompletableFuture.<Void>completedFuture(null);
+                    Throwable cause = AsyncCommands.unwrap(e);
+                    if(cause instanceof AerospikeException && ((AerospikeException)cause).getResultCode() == ResultCode.KEY_EXISTS_ERROR){
+                        // Lock exists - OK if it is held by this txn
+                        return AsyncCommands.get(this,txnReadPolicy,lockKey).<Void>handle((r,readError) -> {
+                            if(readError != null) throw new CompletionException(new TxnException(txnID,(AerospikeException)AsyncCommands.unwrap(readError)));
+                            if(r == null || ! txnID.equals(r.getString(TXN_ID_BIN_NAME))) throw new CompletionException(new LockAcquireException(key, txnID));
+                            return null;
+                        });
+                    }
+                    if(cause instanceof AerospikeException) return AsyncCommands.<Void>failed(new TxnException(txnID,(AerospikeException)cause));
+                    return AsyncCommands.<Void>failed(cause);
+                })
+                .thenCompose(f -> f);
+    }
+
+    /**
+     * Bins making up a lock record
+     * Lock records identify the locking txn and the record locked, together with a timestamp used to identify orphan locks
+     *
+     * @param key Aerospike Key for record requiring lock
+     * @param txnID Transaction record is being locked for
+     * @return Bin[]
+     */
+    private static Bin[] lockBins(Key key, String txnID){
+        Bin typeBin = new Bin(Constants.TYPE_BIN_NAME, LOCK_TYPE);
+        Bin txnIDBin = new Bin(TXN_ID_BIN_NAME,txnID);
+        Bin namespaceBin = new Bin(NAMESPACE_BIN_NAME,key.namespace);
+        Bin setNameBin = new Bin(SET_NAME_BIN_NAME, key.setName);
+        Bin recordKeyBin = new Bin(RECORD_KEY_BIN_NAME, key.userKey.toString());
+        Bin lockTimeBin = new Bin(TIMESTAMP_BIN_NAME,System.currentTimeMillis());
+        return new Bin[]{typeBin, txnIDBin, namespaceBin,setNameBin, recordKeyBin,lockTimeBin};
+    }
+
+    /**
+     * Create an inline lock on the record identified by key - a map bin ( LOCK_BIN_NAME ) holding the txnID and a timestamp
+     * The lock is written with CREATE_ONLY map semantics, so only succeeds if the record is not already locked,
+     * and the record itself is returned from the same operation - lock and pre-image read cost a single round trip
+     *
+     * An inline lock held by a txn with no txn record, older than inlineLockTimeoutMillis, is assumed orphaned and reclaimed
+     *
+     * @param key Aerospike Key for record requiring lock
+     * @param expectedGeneration expected generation of the record, or null if none
+     * @param txnID Transaction record is being locked for
+     * @return the record as locked, including the lock bin
+     * @throws LockAcquireException if the record is locked by a different txn
+     * @throws GenFailException if the record generation does not match expectedGeneration
+     */
+    private Record createInlineLock(Key key, Integer expectedGeneration, String txnID) throws LockAcquireException, GenFailException{
+        WritePolicy inlineLockPolicy = inlineLockPolicy(expectedGeneration);
+        for(int attempt=0;;attempt++){
+            try {
+                return operate(inlineLockPolicy, key, inlineLockOperations(txnID));
+            }
+            catch(AerospikeException ae){
+                if(ae.getResultCode() == ResultCode.GENERATION_ERROR) throw new GenFailException(key, txnID);
+                if(ae.getResultCode() != ResultCode.ELEMENT_EXISTS) throw new TxnException(txnID, ae);
+            }
+            // Lock exists - OK if it is held by this txn
+            Record r = readInlineLock(key, txnID);
+            String holder = inlineLockHolder(r);
+            if(txnID.equals(holder)){
+                if(expectedGeneration != null && r.generation != expectedGeneration) throw new GenFailException(key, txnID);
+                return r;
+            }
+            // Lock released since our attempt, or reclaimed from an orphaned txn - try once more
+            if(attempt > 0 || (holder != null && !reclaimOrphanInlineLock(key, r, txnID))) throw new LockAcquireException(key, txnID);
+        }
+    }
+
+    /**
+     * Async version of createInlineLock
+     *
+     * @param key Aerospike Key for record requiring lock
+     * @param expectedGeneration expected generation of the record, or null if none
+     * @param txnID Transaction record is being locked for
+     * @param attempt number of attempts already made
+     * @return future completing with the record as locked, including the lock bin
+     */
+    private CompletableFuture<Record> createInlineLockAsync(Key key, Integer expectedGeneration, String txnID, int attempt){
+        return AsyncCommands.operate(this, inlineLockPolicy(expectedGeneration), key, inlineLockOperations(txnID))
+                .handle((record,e) -> {
+                    if(e == null) return CompletableFuture.completedFuture(record);
+                    if(AsyncCommands.hasResultCode(e, ResultCode.GENERATION_ERROR)) return AsyncCommands.<Record>failed(new GenFailException(key, txnID));
+                    if(!AsyncCommands.hasResultCode(e, ResultCode.ELEMENT_EXISTS)) return AsyncCommands.<Record>failed(asTxnRuntimeException(AsyncCommands.unwrap(e), txnID));
+                    // Lock exists - OK if it is held by this txn
+                    return AsyncCommands.get(this, txnReadPolicy, key)
+                            .exceptionally(readError -> { throw new CompletionException(asTxnRuntimeException(AsyncCommands.unwrap(readError), txnID)); })
+                            .thenCompose(r -> {
+                                String holder = inlineLockHolder(r);
+                                if(txnID.equals(holder)){
+                                    if(expectedGeneration != null && r.generation != expectedGeneration) return AsyncCommands.<Record>failed(new GenFailException(key, txnID));
+                                    return CompletableFuture.completedFuture(r);
+                                }
+                                if(attempt > 0) return AsyncCommands.<Record>failed(new LockAcquireException(key, txnID));
+                                // Lock released since our attempt, or reclaimed from an orphaned txn - try once more
+                                CompletableFuture<Boolean> retry = (holder == null) ? CompletableFuture.completedFuture(true) : reclaimOrphanInlineLockAsync(key, r, txnID);
+                                return retry.thenCompose(retrying -> retrying ? createInlineLockAsync(key, expectedGeneration, txnID, attempt + 1) :
+                                        AsyncCommands.<Record>failed(new LockAcquireException(key, txnID)));
+                            });
+                })
+                .thenCompose(f -> f);
+    }
+
+    /**
+     * Policy for acquiring an inline lock, with the generation check applied if required
+     *
+     * @param expectedGeneration expected generation of the record, or null if none
+     * @return WritePolicy
+     */
+    private WritePolicy inlineLockPolicy(Integer expectedGeneration){
+        WritePolicy inlineLockPolicy = new WritePolicy(txnWritePolicy);
+        inlineLockPolicy.expiration = LEAVE_TTL_UNCHANGED;
+        if(expectedGeneration != null){
+            inlineLockPolicy.generationPolicy = GenerationPolicy.EXPECT_GEN_EQUAL;
+            inlineLockPolicy.generation = expectedGeneration;
+        }
+        return inlineLockPolicy;
+    }
+
+    /**
+     * Operations acquiring an inline lock and returning the record
+     * The lock bin in the result holds the results of both operations, so should be disregarded
+     *
+     * @param txnID Transaction record is being locked for
+     * @return Operation[]
+     */
+    private static Operation[] inlineLockOperations(String txnID){
+        Map<Value,Value> lock = new HashMap<Value,Value>();
+        lock.put(Value.get(TXN_ID_BIN_NAME), Value.get(txnID));
+        lock.put(Value.get(TIMESTAMP_BIN_NAME), Value.get(System.currentTimeMillis()));
+        return new Operation[]{MapOperation.putItems(INLINE_LOCK_MAP_POLICY, LOCK_BIN_NAME, lock), Operation.get()};
+    }
+
+    /**
+     * Read a record together with its inline lock
+     *
+     * @param key Aerospike Key for record whose lock is required
+     * @param txnID Transaction the read is for
+     * @return Record, or null if the record does not exist
+     */
+    private Record readInlineLock(Key key, String txnID){
+        try{
+            return get(txnReadPolicy, key);
+        }
+        catch(AerospikeException ae){
+            throw new TxnException(txnID,ae);
+        }
+    }
+
+    /**
+     * Txn holding an inline lock
+     *
+     * @param r Record as read by readInlineLock
+     * @return txnID, or null if the record is not locked
+     */
+    @SuppressWarnings("unchecked")
+    private static String inlineLockHolder(Record r){
+        Map<Object,Object> lock = (r != null) ? (Map<Object,Object>)r.getValue(LOCK_BIN_NAME) : null;
+        return (lock != null) ? (String)lock.get(TXN_ID_BIN_NAME) : null;
+    }
+
+    /**
+     * Time an inline lock was taken
+     *
+     * @param r Record as read by readInlineLock, which must be locked
+     * @return time as per System.currentTimeMillis()
+     */
+    @SuppressWarnings("unchecked")
+    private static long inlineLockTime(Record r){
+        Map<Object,Object> lock = (Map<Object,Object>)r.getValue(LOCK_BIN_NAME);
+        Object timestamp = lock.get(TIMESTAMP_BIN_NAME);
+        return (timestamp != null) ? ((Number)timestamp).longValue() : 0;
+    }
+
+    /**
+     * Remove an inline lock if it is older than inlineLockTimeoutMillis and its txn has no txn record
+     * The removal expects the generation the lock was read at, so cannot remove a lock taken since
+     *
+     * @param key Aerospike Key for locked record
+     * @param r Record as read by readInlineLock
+     * @param txnID Transaction attempting to take the lock
+     * @return true if the lock was reclaimed, or the record has changed since it was read
+     */
+    private boolean reclaimOrphanInlineLock(Key key, Record r, String txnID){
+        if(!inlineLockExpired(r) || txnIncomplete(inlineLockHolder(r))) return false;
+        try {
+            operate(reclaimPolicy(r), key, Operation.put(Bin.asNull(LOCK_BIN_NAME)));
+            LOGGER.info("Reclaimed orphan lock on " + key + " held by txn " + inlineLockHolder(r));
+        }
+        catch(AerospikeException ae){
+            if(ae.getResultCode() != ResultCode.GENERATION_ERROR && ae.getResultCode() != ResultCode.KEY_NOT_FOUND_ERROR) throw new TxnException(txnID, ae);
+        }
+        return true;
+    }
+
+    /**
+     * Async version of reclaimOrphanInlineLock
+     *
+     * @param key Aerospike Key for locked record
+     * @param r Record as read by readInlineLock
+     * @param txnID Transaction attempting to take the lock
+     * @return future completing with true if the lock was reclaimed, or the record has changed since it was read
+     */
+    private CompletableFuture<Boolean> reclaimOrphanInlineLockAsync(Key key, Record r, String txnID){
+        if(!inlineLockExpired(r)) return CompletableFuture.completedFuture(false);
+        return txnIncompleteAsync(inlineLockHolder(r)).thenCompose(incomplete -> {
+            if(incomplete) return CompletableFuture.completedFuture(false);
+            return AsyncCommands.operate(this, reclaimPolicy(r), key, Operation.put(Bin.asNull(LOCK_BIN_NAME))).handle((reclaimed,e) -> {
+                if(e == null) LOGGER.info("Reclaimed orphan lock on " + key + " held by txn " + inlineLockHolder(r));
+                else if(!AsyncCommands.hasResultCode(e, ResultCode.GENERATION_ERROR) && !AsyncCommands.hasResultCode(e, ResultCode.KEY_NOT_FOUND_ERROR)){
+                    throw new CompletionException(asTxnRuntimeException(AsyncCommands.unwrap(e), txnID));
+                }
+                return true;
+            });
+        });
+    }
+
+    /**
+     * Whether an inline lock is older than inlineLockTimeoutMillis
+     *
+     * @param r Record as read by readInlineLock, which must be locked
+     * @return boolean
+     */
+    private boolean inlineLockExpired(Record r){
+        return inlineLockTime(r) < System.currentTimeMillis() - inlineLockTimeoutMillis;
+    }
+
+    /**
+     * Policy for removing an orphaned inline lock - only succeeds if the record is unchanged since the lock was read
+     *
+     * @param r Record as read by readInlineLock
+     * @return WritePolicy
+     */
+    private WritePolicy reclaimPolicy(Record r){
+        WritePolicy reclaimPolicy = new WritePolicy(txnWritePolicy);
+        reclaimPolicy.expiration = LEAVE_TTL_UNCHANGED;
+        reclaimPolicy.recordExistsAction = RecordExistsAction.UPDATE_ONLY;
+        reclaimPolicy.generationPolicy = GenerationPolicy.EXPECT_GEN_EQUAL;
+        reclaimPolicy.generation = r.generation;
+        return reclaimPolicy;
+    }
+
+    /**
+     * Create a shared lock on the object identified by key, so it can be read consistently while preventing writes
+     * Any number of transactions may hold shared locks on a record at once, but not while it is exclusively locked,
+     * and an exclusive lock cannot be taken while shared locks are held - createLock throws LockAcquireException
+     *
+     * Shared locks are lock records holding SHARED_LOCK_TXN_ID in place of a txnID, together with a map of the txnIDs of
+     * the readers holding them ( READERS_BIN_NAME ), updated atomically with map operations. Readers need not have txn records,
+     * so the TransactionManager removes shared locks once the timeout has elapsed since the most recent reader locked the record
+     * Only supported with LockStrategy.LOCK_RECORD
+     *
+     * @param key Aerospike Key for record requiring lock
+     * @param txnID Transaction record is being locked for
+     * @throws LockAcquireException if the record is exclusively locked
+     */
+    @Override
+    public void createSharedLock(Key key, String txnID) throws LockAcquireException{
+        if(lockStrategy == LockStrategy.INLINE) throw new IllegalStateException("Shared locks require LockStrategy.LOCK_RECORD");
+        if(!legacyLockKeyCompatibility){
+            createSharedLock(key, lockKey(key), txnID);
+            return;
         }
-        catch(AerospikeException ae){
-            if(ae.getResultCode() == ResultCode.KEY_EXISTS_ERROR){
-                Record r = get(txnReadPolicy,lockKey,txnID);
-                // Throw an error if lock is held by a different txn
-                if(r == null || ! r.getString(TXN_ID_BIN_NAME).equals(txnID)) throw new LockAcquireException(key, txnID);
+        // Legacy lock taken first, as for exclusive locks. Older clients see a lock held by another txn
+        createSharedLock(key, legacyLockKey(key), txnID);
+        try {
+            createSharedLock(key, lockKey(key), txnID);
+        }
+        catch(LockAcquireException e){
+            removeSharedLock(key, txnID);
+            throw e;
+        }
+    }
+
+    /**
+     * Add txnID to the readers of shared lock record lockKey, creating it if it does not exist
+     *
+     * @param key Aerospike Key for record requiring lock
+     * @param lockKey Key for the lock record
+     * @param txnID Transaction record is being locked for
+     * @throws LockAcquireException if the record is exclusively locked
+     */
+    private void createSharedLock(Key key, Key lockKey, String txnID) throws LockAcquireException{
+        WritePolicy createPolicy = new WritePolicy(txnWritePolicy);
+        createPolicy.recordExistsAction = RecordExistsAction.CREATE_ONLY;
+        WritePolicy joinPolicy = sharedLockPolicy();
+        for(int attempt=0;;attempt++){
+            Operation[] operations = sharedLockOperations(key, txnID);
+            try {
+                operate(createPolicy, lockKey, operations);
+                return;
             }
-            else{
-                throw new TxnException(txnID,ae);
+            catch(AerospikeException ae){
+                if(ae.getResultCode() != ResultCode.KEY_EXISTS_ERROR) throw new TxnException(txnID, ae);
+            }
+            // Lock exists - join it if shared
+            try {
+                operate(joinPolicy, lockKey, operations);
+                return;
             }
+            catch(AerospikeException ae){
+                if(ae.getResultCode() == ResultCode.FILTERED_OUT) throw new LockAcquireException(key, txnID);
+                if(ae.getResultCode() != ResultCode.KEY_NOT_FOUND_ERROR) throw new TxnException(txnID, ae);
+            }
+            // Lock released since our attempt - try once more
+            if(attempt > 0) throw new LockAcquireException(key, txnID);
+        }
+    }
+
+    /**
+     * Operations creating, or adding a reader to, a shared lock record
+     * The timestamp records the most recent reader, so the lock expires only once every reader's lock has
+     *
+     * @param key Aerospike Key for record requiring lock
+     * @param txnID Transaction record is being locked for
+     * @return Operation[]
+     */
+    private static Operation[] sharedLockOperations(Key key, String txnID){
+        long now = System.currentTimeMillis();
+        return new Operation[]{
+                MapOperation.put(MapPolicy.Default, READERS_BIN_NAME, Value.get(txnID), Value.get(now)),
+                Operation.put(new Bin(Constants.TYPE_BIN_NAME, LOCK_TYPE)),
+                Operation.put(new Bin(TXN_ID_BIN_NAME, SHARED_LOCK_TXN_ID)),
+                Operation.put(new Bin(NAMESPACE_BIN_NAME, key.namespace)),
+                Operation.put(new Bin(SET_NAME_BIN_NAME, key.setName)),
+                Operation.put(new Bin(RECORD_KEY_BIN_NAME, key.userKey.toString())),
+                Operation.put(new Bin(TIMESTAMP_BIN_NAME, now))
+        };
+    }
+
+    /**
+     * Policy for updating an existing shared lock record
+     * The predicate means the update fails with FILTERED_OUT if the lock is exclusive
+     *
+     * @return WritePolicy
+     */
+    private WritePolicy sharedLockPolicy(){
+        WritePolicy sharedLockPolicy = new WritePolicy(txnWritePolicy);
+        sharedLockPolicy.recordExistsAction = RecordExistsAction.UPDATE_ONLY;
+        sharedLockPolicy.predExp = new PredExp[]{PredExp.stringBin(TXN_ID_BIN_NAME),PredExp.stringValue(SHARED_LOCK_TXN_ID),PredExp.stringEqual()};
+        return sharedLockPolicy;
+    }
+
+    /**
+     * Remove txnID's shared lock on the object identified by key. The lock record is deleted once it has no readers
+     * If txnID does not hold a shared lock, no action is taken
+     *
+     * @param key Aerospike Key for record requiring lock removal
+     * @param txnID Transaction record was locked
+     */
+    @Override
+    public void removeSharedLock(Key key, String txnID){
+        removeSharedLock(lockKey(key), txnID, sharedLockPolicy());
+        if(legacyLockKeyCompatibility) removeSharedLock(legacyLockKey(key), txnID, sharedLockPolicy());
+    }
+
+    /**
+     * Remove txnID from the readers of shared lock record lockKey, deleting the record if none remain
+     *
+     * @param lockKey Key for the lock record
+     * @param txnID Transaction record was locked
+     * @param unlockPolicy policy from sharedLockPolicy()
+     */
+    private void removeSharedLock(Key lockKey, String txnID, WritePolicy unlockPolicy){
+        try {
+            // Results of both operations are returned as a list - readers removed, then readers remaining
+            Record r = operate(unlockPolicy, lockKey,
+                    MapOperation.removeByKey(READERS_BIN_NAME, Value.get(txnID), MapReturnType.COUNT),
+                    MapOperation.size(READERS_BIN_NAME));
+            if(((Number)r.getList(READERS_BIN_NAME).get(1)).longValue() > 0) return;
+            // Only delete if no reader has joined since
+            WritePolicy deletePolicy = sharedLockPolicy();
+            deletePolicy.generationPolicy = GenerationPolicy.EXPECT_GEN_EQUAL;
+            deletePolicy.generation = r.generation;
+            delete(deletePolicy, lockKey);
+        }
+        catch(AerospikeException ae){
+            if(ae.getResultCode() != ResultCode.KEY_NOT_FOUND_ERROR && ae.getResultCode() != ResultCode.FILTERED_OUT &&
+                    ae.getResultCode() != ResultCode.GENERATION_ERROR) throw new TxnException(txnID, ae);
         }
     }
 
@@ -471,20 +3446,100 @@ public class AerospikeClientWithTxnSupport extends AerospikeClient implements Tx
      * @param txnID Transaction record was locked
      */
     public void removeLock(Key key,String txnID){
-        Key lockKey  = lockKey(key);
+        if(lockStrategy == LockStrategy.INLINE) removeInlineLock(key,txnID,inlineUnlockPolicy(txnID));
+        else removeRecordLock(key,txnID);
+    }
+
+    /**
+     * Remove lock record(s) for a given key/txnID combination
+     *
+     * @param key Aerospike Key for record requiring lock removal
+     * @param txnID Transaction record was locked
+     */
+    private void removeRecordLock(Key key,String txnID){
+        removeLock(key,txnID,lockDeletePolicy(txnID));
+    }
+
+    /**
+     * Remove lock using a delete policy previously obtained from lockDeletePolicy(txnID)
+     * Allows the policy to be shared when removing many locks for the same txn
+     *
+     * @param key Aerospike Key for record requiring lock removal
+     * @param txnID Transaction record was locked
+     * @param deleteLockPolicy policy from lockDeletePolicy(txnID)
+     */
+    private void removeLock(Key key,String txnID,WritePolicy deleteLockPolicy){
+        try {
+            delete(deleteLockPolicy, lockKey(key));
+            if(legacyLockKeyCompatibility) delete(deleteLockPolicy, legacyLockKey(key));
+        }
+        catch(AerospikeException ae){
+            throw new TxnException(txnID,ae);
+        }
+    }
+
+    /**
+     * Policy for deleting locks held by txnID
+     * The predicate means a lock is only deleted if it is held by txnID
+     *
+     * @param txnID Transaction locks are held by
+     * @return WritePolicy
+     */
+    private WritePolicy lockDeletePolicy(String txnID){
         PredExp[] txnEqual = {PredExp.stringBin(TXN_ID_BIN_NAME),PredExp.stringValue(txnID),PredExp.stringEqual()};
         WritePolicy deleteLockPolicy = new WritePolicy(txnWritePolicy);
         deleteLockPolicy.predExp = txnEqual;
+        return deleteLockPolicy;
+    }
+
+    /**
+     * Remove an inline lock using a policy previously obtained from inlineUnlockPolicy(txnID)
+     * No action is taken if the record does not exist or is not locked by txnID
+     *
+     * @param key Aerospike Key for record requiring lock removal
+     * @param txnID Transaction record was locked
+     * @param unlockPolicy policy from inlineUnlockPolicy(txnID)
+     */
+    private void removeInlineLock(Key key,String txnID,WritePolicy unlockPolicy){
         try {
-            delete(deleteLockPolicy, lockKey);
+            operate(unlockPolicy, key, Operation.put(Bin.asNull(LOCK_BIN_NAME)));
         }
         catch(AerospikeException ae){
-            throw new TxnException(txnID,ae);
+            if(!inlineLockAbsent(ae)) throw new TxnException(txnID,ae);
         }
     }
 
+    /**
+     * Policy for removing inline locks held by txnID
+     * The predicate means the lock bin is only cleared if it is held by txnID
+     *
+     * @param txnID Transaction locks are held by
+     * @return WritePolicy
+     */
+    private WritePolicy inlineUnlockPolicy(String txnID){
+        PredExp[] lockHeldByTxn = {
+                PredExp.stringVar("v"),PredExp.stringValue(txnID),PredExp.stringEqual(),
+                PredExp.mapBin(LOCK_BIN_NAME),PredExp.mapValIterateOr("v")};
+        WritePolicy unlockPolicy = new WritePolicy(txnWritePolicy);
+        unlockPolicy.expiration = LEAVE_TTL_UNCHANGED;
+        unlockPolicy.recordExistsAction = RecordExistsAction.UPDATE_ONLY;
+        unlockPolicy.predExp = lockHeldByTxn;
+        return unlockPolicy;
+    }
+
+    /**
+     * Whether an inline unlock failed only because there was no lock to remove
+     *
+     * @param t failure
+     * @return boolean
+     */
+    private static boolean inlineLockAbsent(Throwable t){
+        return AsyncCommands.hasResultCode(t, ResultCode.KEY_NOT_FOUND_ERROR) || AsyncCommands.hasResultCode(t, ResultCode.FILTERED_OUT);
+    }
+
     /**
      * Returns a key for a lock on the object identifed by the 'key' parameter
+     * The lock digest is derived directly from the digest of 'key' - no strings are built and no second hash is computed
      *
      * Package level access to allow white box testing
      *
@@ -492,9 +3547,38 @@ public class AerospikeClientWithTxnSupport extends AerospikeClient implements Tx
      * @return key to a lock object
      */
     static Key lockKey(Key key){
+        byte[] lockDigest = new byte[key.digest.length];
+        for(int i=0;i<lockDigest.length;i++){
+            lockDigest[i] = (byte)(key.digest[i] ^ LOCK_DIGEST_MASK[i]);
+        }
+        return new Key(key.namespace,lockDigest,LOCK_SET,null);
+    }
+
+    /**
+     * Returns a key for a lock on the object identified by the 'key' parameter, as used by older versions of this library
+     * See setLegacyLockKeyCompatibility
+     *
+     * Package level access to allow white box testing
+     *
+     * @param key Aerospike Key for record whose lock is required
+     * @return key to a lock object
+     */
+    static Key legacyLockKey(Key key){
         return new Key(key.namespace,LOCK_SET,new KeyAsString(key).toString());
     }
 
+    /**
+     * Mask used to derive lock digests from record digests
+     * Fixed for all clients, as it is computed from LOCK_SET. Partition bytes are left unmasked
+     *
+     * @return byte[]
+     */
+    private static byte[] lockDigestMask(){
+        byte[] mask = Crypto.computeDigest(LOCK_SET, Value.get(LOCK_TYPE));
+        for(int i=0;i<DIGEST_PARTITION_BYTES;i++) mask[i] = 0;
+        return mask;
+    }
+
     /**
      * Is there currently a lock on the object identified by 'key'
      *
@@ -502,18 +3586,358 @@ public class AerospikeClientWithTxnSupport extends AerospikeClient implements Tx
      * @return boolean
      */
     public boolean lockExists(Key key) {
+        if(lockStrategy == LockStrategy.INLINE) return inlineLockHolder(get(txnReadPolicy, key, LOCK_BIN_NAME)) != null;
+        if(legacyLockKeyCompatibility && exists(txnReadPolicy, legacyLockKey(key))) return true;
         return get(txnReadPolicy, lockKey(key)) != null;
     }
 
+    /**
+     * Async version of lockExists
+     *
+     * @param key Aerospike Key for record whose lock is being checked
+     * @return future completing with boolean
+     */
+    @Override
+    public CompletableFuture<Boolean> lockExistsAsync(Key key) {
+        if(lockStrategy == LockStrategy.INLINE) return AsyncCommands.get(this, txnReadPolicy, key, LOCK_BIN_NAME).thenApply(r -> inlineLockHolder(r) != null);
+        if(!legacyLockKeyCompatibility) return AsyncCommands.exists(this, txnReadPolicy, lockKey(key));
+        return AsyncCommands.exists(this, txnReadPolicy, legacyLockKey(key))
+                .thenCompose(exists -> exists ? CompletableFuture.completedFuture(true) : AsyncCommands.exists(this, txnReadPolicy, lockKey(key)));
+    }
+
+    /**
+     * Which of the objects identified by 'keys' are currently locked, using a single batch read
+     *
+     * @param keys Aerospike Keys for records whose locks are being checked
+     * @return BitSet - bit i is set if keys[i] is locked
+     */
+    @Override
+    public BitSet lockExists(Key[] keys) {
+        BitSet locked = new BitSet(keys.length);
+        if(lockStrategy == LockStrategy.INLINE){
+            Record[] records = get(txnBatchReadPolicy, keys, LOCK_BIN_NAME);
+            for(int i=0;i<keys.length;i++) if(inlineLockHolder(records[i]) != null) locked.set(i);
+            return locked;
+        }
+        boolean[] exists = exists(txnBatchReadPolicy, lockKeys(keys));
+        // With legacy lock key compatibility, the legacy lock keys follow the current ones
+        for(int i=0;i<exists.length;i++) if(exists[i]) locked.set(i % keys.length);
+        return locked;
+    }
+
+    /**
+     * Transactions holding locks on the objects identified by 'keys', using a single batch read
+     *
+     * @param keys Aerospike Keys for records whose locks are being checked
+     * @return String[] - element i is the txnID holding the lock on keys[i], SHARED_LOCK_TXN_ID if shared, or null if keys[i] is not locked
+     */
+    @Override
+    public String[] lockHolders(Key[] keys) {
+        String[] holders = new String[keys.length];
+        if(lockStrategy == LockStrategy.INLINE){
+            Record[] records = get(txnBatchReadPolicy, keys, LOCK_BIN_NAME);
+            for(int i=0;i<keys.length;i++) holders[i] = inlineLockHolder(records[i]);
+            return holders;
+        }
+        Record[] locks = get(txnBatchReadPolicy, lockKeys(keys), TXN_ID_BIN_NAME);
+        for(int i=0;i<locks.length;i++){
+            if(locks[i] != null && holders[i % keys.length] == null) holders[i % keys.length] = locks[i].getString(TXN_ID_BIN_NAME);
+        }
+        return holders;
+    }
+
+    /**
+     * Lock record keys for the objects identified by 'keys' - followed by the legacy lock keys if legacyLockKeyCompatibility is set
+     *
+     * @param keys Aerospike Keys for locked records
+     * @return Key[]
+     */
+    private Key[] lockKeys(Key[] keys){
+        Key[] lockKeys = new Key[legacyLockKeyCompatibility ? keys.length * 2 : keys.length];
+        for(int i=0;i<keys.length;i++){
+            lockKeys[i] = lockKey(keys[i]);
+            if(legacyLockKeyCompatibility) lockKeys[keys.length + i] = legacyLockKey(keys[i]);
+        }
+        return lockKeys;
+    }
+
+    /**
+     * Read records as last committed, without waiting for locks
+     *
+     * A record locked by an in-flight transaction is returned as it was before the transaction, taken from the transaction record,
+     * rather than as partly written by it. If the transaction has committed using redo logging, the new version is returned
+     * Records locked with inline locks are written and unlocked in the same operation, so are returned as read. Records which do
+     * not exist, or did not exist before the in-flight transaction, are returned as null
+     *
+     * Reads are batched - one batch read for the records, one for their locks, one for record generations, and one txn record
+     * read per locking transaction
+     * A record may be read part way through a transaction which then completes before its lock is read - for instance it is rolled
+     * back. So records found unlocked, or locked by a transaction with no transaction record, have their generations checked once the
+     * locks are read. A lock held without a transaction record means either nothing has been written yet, or the writes are complete
+     * and the locks being removed, so such records are returned as read if unchanged. Records which have changed are read again,
+     * backing off between attempts
+     *
+     * @param keys Aerospike Keys for records to read
+     * @return Record[] - element i is the committed version of keys[i], or null
+     * @throws AerospikeException with result code MAX_RETRIES_EXCEEDED if records keep changing while being read
+     */
+    @Override
+    public Record[] getCommitted(Key[] keys){
+        Record[] records = new Record[keys.length];
+        BitSet unread = new BitSet(keys.length);
+        unread.set(0, keys.length);
+        for(int attempt=1;!unread.isEmpty();attempt++){
+            if(attempt > GET_COMMITTED_MAX_ATTEMPTS)
+                throw new AerospikeException(ResultCode.MAX_RETRIES_EXCEEDED, "Records changed while being read " + GET_COMMITTED_MAX_ATTEMPTS + " times");
+            if(attempt > 1){
+                try {
+                    Thread.sleep(GET_COMMITTED_BASE_BACKOFF_MILLIS << (attempt - 2));
+                }
+                catch(InterruptedException e){
+                    Thread.currentThread().interrupt();
+                    throw new AerospikeException(ResultCode.MAX_RETRIES_EXCEEDED, "Interrupted while re-reading records which changed while being read");
+                }
+            }
+            int[] indexes = unread.stream().toArray();
+            Key[] unreadKeys = new Key[indexes.length];
+            for(int j=0;j<indexes.length;j++) unreadKeys[j] = keys[indexes[j]];
+            Record[] read = new Record[indexes.length];
+            BitSet changed = readCommitted(unreadKeys, read);
+            unread.clear();
+            for(int j=0;j<indexes.length;j++){
+                if(changed.get(j)) unread.set(indexes[j]);
+                else records[indexes[j]] = read[j];
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Single attempt at getCommitted
+     *
+     * @param keys Aerospike Keys for records to read
+     * @param records - array to which the committed version of keys[i] is written as element i
+     * @return BitSet - bit i is set if keys[i] changed while being read, so records[i] is not to be relied on
+     */
+    private BitSet readCommitted(Key[] keys, Record[] records){
+        BitSet changed = new BitSet(keys.length);
+        Record[] read = get(txnBatchReadPolicy, keys);
+        String[] holders = lockHolders(keys);
+        Map<String,List<Integer>> lockedByTxn = new HashMap<String,List<Integer>>();
+        // Records returned as read, provided they are unchanged once locks and txn records are read
+        List<Integer> unverified = new ArrayList<Integer>();
+        for(int i=0;i<keys.length;i++){
+            records[i] = withoutLockBin(read[i]);
+            // Records under shared locks are not being written
+            if(holders[i] == null || holders[i].equals(SHARED_LOCK_TXN_ID)) unverified.add(i);
+            else lockedByTxn.computeIfAbsent(holders[i], txnID -> new ArrayList<Integer>()).add(i);
+        }
+        for(Map.Entry<String,List<Integer>> entry : lockedByTxn.entrySet()){
+            String txnID = entry.getKey();
+            List<Integer> locked = entry.getValue();
+            Record[] parts = readTxnRecordParts(txnID);
+            if(parts == null){
+                // Txn has not yet written its txn record, or has completed and is removing its locks
+                unverified.addAll(locked);
+                continue;
+            }
+            Map<Key,Map<String,Object>> versions;
+            if(isRedoRecord(parts[0])) versions = recordVersions(parts, NEXT_RECORD_VERSION_BIN_NAME);
+            // Inline locked records still locked have not been written
+            else if(lockedGenerations(parts) == null) versions = recordVersions(parts, PREVIOUS_RECORD_VERSION_BIN_NAME);
+            else continue;
+            for(int i : locked){
+                if(versions.containsKey(keys[i])) records[i] = committedVersion(records[i], versions.get(keys[i]));
+            }
+        }
+        // Such records may have been read part way through a txn which has since completed
+        if(!unverified.isEmpty()){
+            Key[] unverifiedKeys = new Key[unverified.size()];
+            for(int j=0;j<unverifiedKeys.length;j++) unverifiedKeys[j] = keys[unverified.get(j)];
+            Record[] headers = getHeader(txnBatchReadPolicy, unverifiedKeys);
+            for(int j=0;j<unverifiedKeys.length;j++){
+                Record r = read[unverified.get(j)];
+                if((r == null) != (headers[j] == null) || (r != null && r.generation != headers[j].generation)) changed.set(unverified.get(j));
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Read a txn record, together with its chunks if chunked
+     *
+     * @param txnID - Transaction ID
+     * @return Record[] - txn record, or its chunk records in order, or null if the txn record does not exist
+     */
+    private Record[] readTxnRecordParts(String txnID){
+        Record r;
+        try {
+            r = get(txnReadPolicy, keyForTxnID(txnID));
+        }
+        catch(AerospikeException e){
+            throw new TxnException(txnID, e);
+        }
+        if(r == null) return null;
+        int chunkCount = chunkCount(r);
+        if(chunkCount == 0) return new Record[]{r};
+        try {
+            return readTxnRecordChunks(txnID, chunkCount);
+        }
+        catch(TxnException e){
+            // Chunks removed as the txn completed
+            if(e.getResultCode() == ResultCode.KEY_NOT_FOUND_ERROR) return null;
+            throw e;
+        }
+    }
+
+    /**
+     * A record with a version from a txn record applied, as rollback or roll forward would write it
+     * Versions are written as updates, so bins absent from the version keep their current values, and null values remove bins
+     * Package level visibility - used by Transaction
+     *
+     * @param current - record as read, or null if it does not exist
+     * @param version - record version, or null if the record did not exist / is deleted
+     * @return Record, or null if the record does not exist in this version
+     */
+    static Record committedVersion(Record current, Map<String,Object> version){
+        if(version == null) return null;
+        Map<String,Object> bins = (current != null && current.bins != null) ? new HashMap<String,Object>(current.bins) : new HashMap<String,Object>();
+        for(Map.Entry<String,Object> bin : version.entrySet()){
+            if(bin.getValue() == null) bins.remove(bin.getKey());
+            else bins.put(bin.getKey(), bin.getValue());
+        }
+        if(bins.isEmpty()) return null;
+        return (current != null) ? new Record(bins, current.generation, current.expiration) : new Record(bins, 0, 0);
+    }
+
+    /**
+     * Record excluding any inline lock
+     *
+     * @param r - record as read from the database
+     * @return Record, or null if the record does not exist or consists only of a lock
+     */
+    private static Record withoutLockBin(Record r){
+        if(r == null || r.bins == null || !r.bins.containsKey(LOCK_BIN_NAME)) return r;
+        Map<String,Object> bins = withoutLockBin(r.bins);
+        return (bins != null) ? new Record(bins, r.generation, r.expiration) : null;
+    }
+
     /**
      * Remove locks for a given list of keys associated with a given transaction id
      * @param keys - keys requiring lock removal
      * @param txnID - transaction these keys are part of
+     * @param strategy - lock strategy used by the txn
+     */
+    private void removeLocksForKeys(Iterator<Key> keys,String txnID,LockStrategy strategy){
+        if(parallelLockRelease){
+            removeLocksInParallel(keys,txnID,strategy);
+            return;
+        }
+        if(strategy == LockStrategy.INLINE){
+            WritePolicy unlockPolicy = inlineUnlockPolicy(txnID);
+            while (keys.hasNext()) {
+                removeInlineLock(keys.next(), txnID, unlockPolicy);
+            }
+            return;
+        }
+        WritePolicy deleteLockPolicy = lockDeletePolicy(txnID);
+        while (keys.hasNext()) {
+            removeLock(keys.next(), txnID, deleteLockPolicy);
+        }
+    }
+
+    /**
+     * Remove locks for the given keys concurrently, with at most maxInFlightCommands outstanding
+     * All the deletes share a single policy carrying the txnID predicate
+     *
+     * @param keys - keys requiring lock removal
+     * @param txnID - transaction these keys are part of
+     * @param strategy - lock strategy used by the txn
+     */
+    private void removeLocksInParallel(Iterator<Key> keys,String txnID,LockStrategy strategy){
+        try {
+            removeLocksAsync(keys, txnID, strategy).join();
+        }
+        catch(CompletionException e){
+            throw asTxnRuntimeException(AsyncCommands.unwrap(e), txnID);
+        }
+    }
+
+    /**
+     * Async version of removeLocksInParallel
+     *
+     * @param keys - keys requiring lock removal
+     * @param txnID - transaction these keys are part of
+     * @param strategy - lock strategy used by the txn
+     * @return future completing when all locks have been removed
+     */
+    private CompletableFuture<Void> removeLocksAsync(Iterator<Key> keys,String txnID,LockStrategy strategy){
+        return removeLocksAsync(keys, txnID, strategy, null);
+    }
+
+    /**
+     * Async version of removeLocksInParallel, recording the generations of records as inline locks are removed
+     *
+     * @param keys - keys requiring lock removal
+     * @param txnID - transaction these keys are part of
+     * @param strategy - lock strategy used by the txn
+     * @param unlockedGenerations - map to which generations of records are added as inline locks are removed, or null
+     * @return future completing when all locks have been removed
      */
-    private void removeLocksForKeys(Iterator<Key> keys,String txnID){
+    private CompletableFuture<Void> removeLocksAsync(Iterator<Key> keys,String txnID,LockStrategy strategy,Map<Key,Integer> unlockedGenerations){
+        WritePolicy deleteLockPolicy = (strategy == LockStrategy.INLINE) ? inlineUnlockPolicy(txnID) : lockDeletePolicy(txnID);
+        List<Supplier<? extends CompletableFuture<?>>> deletes = new ArrayList<Supplier<? extends CompletableFuture<?>>>();
         while (keys.hasNext()) {
-            removeLock(keys.next(), txnID);
+            Key key = keys.next();
+            if(strategy == LockStrategy.INLINE){
+                deletes.add(() -> AsyncCommands.operate(this, deleteLockPolicy, key, Operation.put(Bin.asNull(LOCK_BIN_NAME))).handle((unlocked,e) -> {
+                    if(e == null){
+                        if(unlockedGenerations != null && unlocked != null) unlockedGenerations.put(key, unlocked.generation);
+                        return null;
+                    }
+                    if(inlineLockAbsent(e)) return null;
+                    throw new CompletionException(AsyncCommands.unwrap(e));
+                }));
+                continue;
+            }
+            Key lockKey = lockKey(key);
+            deletes.add(() -> AsyncCommands.delete(this, deleteLockPolicy, lockKey));
+            if(legacyLockKeyCompatibility){
+                Key legacyLockKey = legacyLockKey(key);
+                deletes.add(() -> AsyncCommands.delete(this, deleteLockPolicy, legacyLockKey));
+            }
         }
+        return AsyncCommands.runWindowed(deletes, maxInFlightCommands).exceptionally(e -> {
+            throw new CompletionException(asTxnRuntimeException(AsyncCommands.unwrap(e), txnID));
+        });
+    }
+
+    /**
+     * Failure to report from an async transaction - checked txn exceptions are passed through, others converted as per asTxnRuntimeException
+     *
+     * @param t failure
+     * @param txnID transaction the failure occurred in
+     * @return Throwable
+     */
+    private static Throwable asTxnFailure(Throwable t, String txnID){
+        Throwable cause = AsyncCommands.unwrap(t);
+        if(cause instanceof LockAcquireException || cause instanceof GenFailException) return cause;
+        return asTxnRuntimeException(cause, txnID);
+    }
+
+    /**
+     * Convert a failure from an async stage into the runtime exception the synchronous API would throw
+     * Aerospike errors are wrapped in TxnException so the txnID is available to the caller
+     *
+     * @param t failure
+     * @param txnID transaction the failure occurred in
+     * @return RuntimeException
+     */
+    private static RuntimeException asTxnRuntimeException(Throwable t, String txnID){
+        if(t instanceof TxnException) return (TxnException)t;
+        if(t instanceof AerospikeException) return new TxnException(txnID,(AerospikeException)t);
+        if(t instanceof RuntimeException) return (RuntimeException)t;
+        return new IllegalStateException(t);
     }
 
     private Record get(Policy p,Key key,String txnID){
@@ -546,17 +3970,49 @@ public class AerospikeClientWithTxnSupport extends AerospikeClient implements Tx
         return bins;
     }
 
+    /**
+     * Lookup tables for hex conversion
+     */
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+    private static final byte[] HEX_VALUES = hexValues();
+
+    private static byte[] hexValues(){
+        byte[] hexValues = new byte[128];
+        Arrays.fill(hexValues,(byte)-1);
+        for(int i=0;i<10;i++) hexValues['0' + i] = (byte)i;
+        for(int i=0;i<6;i++){
+            hexValues['A' + i] = (byte)(10 + i);
+            hexValues['a' + i] = (byte)(10 + i);
+        }
+        return hexValues;
+    }
+
     /**
      * Convert a byte array into a hexadecimal string representation
      * @param byteArray
      * @return String
      */
     static String byteArrayToString(byte[] byteArray){
-        String[] s = new String[byteArray.length];
-        for(int i=0;i<byteArray.length;i++){
-            s[i] = String.format("%02X",Byte.toUnsignedInt(byteArray[i]));
+        char[] chars = new char[byteArray.length * 2];
+        writeHex(byteArray,chars,0);
+        return new String(chars);
+    }
+
+    /**
+     * Write the hexadecimal representation of a byte array into a char array
+     * Allows callers to build strings containing hex without intermediate allocation
+     *
+     * @param byteArray bytes to convert
+     * @param chars destination - must have room for 2 chars per byte from offset
+     * @param offset position in chars to start writing
+     * @return position in chars after the last char written
+     */
+    static int writeHex(byte[] byteArray, char[] chars, int offset){
+        for(byte b : byteArray){
+            chars[offset++] = HEX_DIGITS[(b >> 4) & 0x0F];
+            chars[offset++] = HEX_DIGITS[b & 0x0F];
         }
-        return String.join("",s);
+        return offset;
     }
 
     /**
@@ -567,12 +4023,33 @@ public class AerospikeClientWithTxnSupport extends AerospikeClient implements Tx
     static byte[] stringToByteArray(String byteArrayAsString){
         if(byteArrayAsString.length() %2 != 0) throw new IllegalArgumentException("Input string must contain an even number of characters");
         byte[] bytes = new byte[byteArrayAsString.length() /2];
-        for(int i=0;i<byteArrayAsString.length() / 2;i++){
-            bytes[i] = (byte)Integer.parseInt(byteArrayAsString.substring(i*2,i*2+2),16);
-        }
+        readHex(byteArrayAsString,0,byteArrayAsString.length(),bytes,0);
         return bytes;
     }
 
+    /**
+     * Read hexadecimal characters from start ( inclusive ) to end ( exclusive ) of a string into a byte array
+     *
+     * @param hex string containing hexadecimal characters
+     * @param start position of first hex character
+     * @param end position after last hex character - ( end - start ) must be even
+     * @param bytes destination - must have room for ( end - start ) / 2 bytes from offset
+     * @param offset position in bytes to start writing
+     * @throws IllegalArgumentException if a non hexadecimal character is encountered
+     */
+    static void readHex(CharSequence hex, int start, int end, byte[] bytes, int offset){
+        for(int i=start;i<end;i+=2){
+            bytes[offset++] = (byte)((hexValue(hex,i) << 4) | hexValue(hex,i+1));
+        }
+    }
+
+    private static int hexValue(CharSequence hex, int index){
+        char c = hex.charAt(index);
+        int value = c < HEX_VALUES.length ? HEX_VALUES[c] : -1;
+        if(value < 0) throw new IllegalArgumentException("Invalid hexadecimal character '" + c + "' at position " + index);
+        return value;
+    }
+
     /**
      * Utility class to marshal keys into strings and back again
      *
@@ -603,13 +4080,25 @@ public class AerospikeClientWithTxnSupport extends AerospikeClient implements Tx
          */
         // Note namespace and set cannot contain ':' so should '::' delimiter be encountered more than twice this is tractable
         KeyAsString(String key) throws KeyFormatException{
-            String[] parts = key.split(RECORD_KEY_SET_DELIMITER);
+            int namespaceEnd = key.indexOf(RECORD_KEY_SET_DELIMITER);
+            int setEnd = namespaceEnd < 0 ? -1 : key.indexOf(RECORD_KEY_SET_DELIMITER, namespaceEnd + RECORD_KEY_SET_DELIMITER.length());
+            if(setEnd < 0 || setEnd + RECORD_KEY_SET_DELIMITER.length() == key.length()) throw new KeyFormatException(key);
 
-            if(parts.length < 3) throw new KeyFormatException(key);
-            String lastPart = String.join("",Arrays.copyOfRange(parts,2,parts.length));
-            namespace = parts[0];
-            set = parts[1];
-            digest = stringToByteArray(lastPart);
+            namespace = key.substring(0, namespaceEnd);
+            set = key.substring(namespaceEnd + RECORD_KEY_SET_DELIMITER.length(), setEnd);
+            int digestStart = setEnd + RECORD_KEY_SET_DELIMITER.length();
+            try {
+                if(key.indexOf(RECORD_KEY_SET_DELIMITER, digestStart) < 0) {
+                    if((key.length() - digestStart) % 2 != 0) throw new IllegalArgumentException("Input string must contain an even number of characters");
+                    digest = new byte[(key.length() - digestStart) / 2];
+                    readHex(key, digestStart, key.length(), digest, 0);
+                }
+                // Any further delimiters are ignored
+                else digest = stringToByteArray(key.substring(digestStart).replace(RECORD_KEY_SET_DELIMITER,""));
+            }
+            catch(IllegalArgumentException e){
+                throw new KeyFormatException(key);
+            }
         }
 
         /**
@@ -618,7 +4107,20 @@ public class AerospikeClientWithTxnSupport extends AerospikeClient implements Tx
          * @return Key as String
          */
         public String toString(){
-            return namespace + RECORD_KEY_SET_DELIMITER + set + RECORD_KEY_SET_DELIMITER + byteArrayToString(digest);
+            String setName = String.valueOf(set);
+            int delimiterLength = RECORD_KEY_SET_DELIMITER.length();
+            char[] chars = new char[namespace.length() + setName.length() + 2 * delimiterLength + digest.length * 2];
+            int offset = 0;
+            namespace.getChars(0, namespace.length(), chars, offset);
+            offset += namespace.length();
+            RECORD_KEY_SET_DELIMITER.getChars(0, delimiterLength, chars, offset);
+            offset += delimiterLength;
+            setName.getChars(0, setName.length(), chars, offset);
+            offset += setName.length();
+            RECORD_KEY_SET_DELIMITER.getChars(0, delimiterLength, chars, offset);
+            offset += delimiterLength;
+            writeHex(digest, chars, offset);
+            return new String(chars);
         }
 
         /**
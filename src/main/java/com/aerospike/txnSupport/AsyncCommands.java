@@ -0,0 +1,340 @@
+package com.aerospike.txnSupport;
+
+import com.aerospike.client.*;
+import com.aerospike.client.Record;
+import com.aerospike.client.async.EventLoop;
+import com.aerospike.client.async.EventLoops;
+import com.aerospike.client.listener.*;
+import com.aerospike.client.policy.BatchPolicy;
+import com.aerospike.client.policy.Policy;
+import com.aerospike.client.policy.WritePolicy;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Internal utility class
+ * Adapts the listener based Aerospike async API to CompletableFuture so that commands can be issued in parallel and joined on
+ *
+ * Requires the client to have been created with ClientPolicy.eventLoops set
+ */
+final class AsyncCommands {
+
+    private AsyncCommands(){}
+
+    /**
+     * Whether the client has been configured with event loops, which are required for async commands
+     * @param client AerospikeClient
+     * @return boolean
+     */
+    static boolean eventLoopsAvailable(AerospikeClient client){
+        return client.getCluster().eventLoops != null;
+    }
+
+    /**
+     * Async version of AerospikeClient.put
+     * @return future completing with the key written
+     */
+    static CompletableFuture<Key> put(AerospikeClient client, WritePolicy policy, Key key, Bin... bins){
+        CompletableFuture<Key> future = new CompletableFuture<Key>();
+        try {
+            client.put(nextEventLoop(client), new WriteListener() {
+                public void onSuccess(Key k) { future.complete(k); }
+                public void onFailure(AerospikeException e) { future.completeExceptionally(e); }
+            }, policy, key, bins);
+        }
+        catch(AerospikeException e){
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Async version of AerospikeClient.delete
+     * @return future completing with whether the record existed
+     */
+    static CompletableFuture<Boolean> delete(AerospikeClient client, WritePolicy policy, Key key){
+        CompletableFuture<Boolean> future = new CompletableFuture<Boolean>();
+        try {
+            client.delete(nextEventLoop(client), new DeleteListener() {
+                public void onSuccess(Key k, boolean existed) { future.complete(existed); }
+                public void onFailure(AerospikeException e) { future.completeExceptionally(e); }
+            }, policy, key);
+        }
+        catch(AerospikeException e){
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Async version of AerospikeClient.get
+     * @return future completing with the record, or null if it does not exist
+     */
+    static CompletableFuture<Record> get(AerospikeClient client, Policy policy, Key key){
+        CompletableFuture<Record> future = new CompletableFuture<Record>();
+        try {
+            client.get(nextEventLoop(client), new RecordListener() {
+                public void onSuccess(Key k, Record record) { future.complete(record); }
+                public void onFailure(AerospikeException e) { future.completeExceptionally(e); }
+            }, policy, key);
+        }
+        catch(AerospikeException e){
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Async version of AerospikeClient.get, reading only the named bins
+     * @return future completing with the record, or null if it does not exist
+     */
+    static CompletableFuture<Record> get(AerospikeClient client, Policy policy, Key key, String... binNames){
+        CompletableFuture<Record> future = new CompletableFuture<Record>();
+        try {
+            client.get(nextEventLoop(client), new RecordListener() {
+                public void onSuccess(Key k, Record record) { future.complete(record); }
+                public void onFailure(AerospikeException e) { future.completeExceptionally(e); }
+            }, policy, key, binNames);
+        }
+        catch(AerospikeException e){
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Async version of AerospikeClient.operate
+     * @return future completing with the record returned by the operations
+     */
+    static CompletableFuture<Record> operate(AerospikeClient client, WritePolicy policy, Key key, Operation... operations){
+        CompletableFuture<Record> future = new CompletableFuture<Record>();
+        try {
+            client.operate(nextEventLoop(client), new RecordListener() {
+                public void onSuccess(Key k, Record record) { future.complete(record); }
+                public void onFailure(AerospikeException e) { future.completeExceptionally(e); }
+            }, policy, key, operations);
+        }
+        catch(AerospikeException e){
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Async version of AerospikeClient batch get
+     * @return future completing with records in key order, null where a record does not exist
+     */
+    static CompletableFuture<Record[]> get(AerospikeClient client, BatchPolicy policy, Key[] keys){
+        CompletableFuture<Record[]> future = new CompletableFuture<Record[]>();
+        try {
+            client.get(nextEventLoop(client), new RecordArrayListener() {
+                public void onSuccess(Key[] k, Record[] records) { future.complete(records); }
+                public void onFailure(AerospikeException e) { future.completeExceptionally(e); }
+            }, policy, keys);
+        }
+        catch(AerospikeException e){
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Async version of AerospikeClient batch getHeader
+     * @return future completing with record headers in key order, null where a record does not exist
+     */
+    static CompletableFuture<Record[]> getHeader(AerospikeClient client, BatchPolicy policy, Key[] keys){
+        CompletableFuture<Record[]> future = new CompletableFuture<Record[]>();
+        try {
+            client.getHeader(nextEventLoop(client), new RecordArrayListener() {
+                public void onSuccess(Key[] k, Record[] records) { future.complete(records); }
+                public void onFailure(AerospikeException e) { future.completeExceptionally(e); }
+            }, policy, keys);
+        }
+        catch(AerospikeException e){
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Async version of AerospikeClient batch get for a list of BatchRead, allowing bins to be specified per key
+     * @return future completing with the BatchReads, their record fields set where records exist
+     */
+    static CompletableFuture<List<BatchRead>> get(AerospikeClient client, BatchPolicy policy, List<BatchRead> records){
+        CompletableFuture<List<BatchRead>> future = new CompletableFuture<List<BatchRead>>();
+        try {
+            client.get(nextEventLoop(client), new BatchListListener() {
+                public void onSuccess(List<BatchRead> r) { future.complete(r); }
+                public void onFailure(AerospikeException e) { future.completeExceptionally(e); }
+            }, policy, records);
+        }
+        catch(AerospikeException e){
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Async version of AerospikeClient.exists
+     * @return future completing with whether the record exists
+     */
+    static CompletableFuture<Boolean> exists(AerospikeClient client, Policy policy, Key key){
+        CompletableFuture<Boolean> future = new CompletableFuture<Boolean>();
+        try {
+            client.exists(nextEventLoop(client), new ExistsListener() {
+                public void onSuccess(Key k, boolean exists) { future.complete(exists); }
+                public void onFailure(AerospikeException e) { future.completeExceptionally(e); }
+            }, policy, key);
+        }
+        catch(AerospikeException e){
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Future completing after the given delay, scheduled on one of the client's event loops
+     * Allows async commands to back off without blocking a thread
+     *
+     * @return future completing after delayMillis
+     */
+    static CompletableFuture<Void> delay(AerospikeClient client, long delayMillis){
+        CompletableFuture<Void> future = new CompletableFuture<Void>();
+        try {
+            nextEventLoop(client).schedule(() -> future.complete(null), delayMillis, TimeUnit.MILLISECONDS);
+        }
+        catch(AerospikeException e){
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Run the supplied commands with at most maxInFlight outstanding at any one time
+     * As each command completes the next is started
+     *
+     * Once a command fails no further commands are started. The returned future completes once all started commands
+     * have completed, exceptionally with the first failure if there was one. This means callers can safely take
+     * remedial action ( e.g. rollback ) knowing no commands remain in flight
+     *
+     * @param commands - commands to run, each supplying a future
+     * @param maxInFlight - maximum number of commands outstanding
+     * @return future completing when all started commands have completed
+     */
+    static CompletableFuture<Void> runWindowed(List<Supplier<? extends CompletableFuture<?>>> commands, int maxInFlight){
+        CompletableFuture<Void> result = new CompletableFuture<Void>();
+        if(commands.isEmpty()){
+            result.complete(null);
+            return result;
+        }
+        WindowedRun run = new WindowedRun(commands, result);
+        run.start(Math.min(Math.max(maxInFlight,1), commands.size()));
+        return result;
+    }
+
+    /**
+     * State for runWindowed
+     *
+     * outstanding counts commands in flight plus any thread currently deciding whether to start a command
+     * so that it can only reach zero once there is nothing running and nothing left to start
+     */
+    private static class WindowedRun{
+        private final List<Supplier<? extends CompletableFuture<?>>> commands;
+        private final CompletableFuture<Void> result;
+        private final AtomicInteger nextCommand = new AtomicInteger(0);
+        private final AtomicInteger outstanding = new AtomicInteger(0);
+        private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        WindowedRun(List<Supplier<? extends CompletableFuture<?>>> commands, CompletableFuture<Void> result){
+            this.commands = commands;
+            this.result = result;
+        }
+
+        void start(int initialCommands){
+            outstanding.incrementAndGet();
+            for(int i=0;i<initialCommands;i++) startNext();
+            release();
+        }
+
+        private void startNext(){
+            outstanding.incrementAndGet();
+            int index = failure.get() == null ? nextCommand.getAndIncrement() : commands.size();
+            if(index >= commands.size()){
+                release();
+                return;
+            }
+            CompletableFuture<?> future;
+            try {
+                future = commands.get(index).get();
+            }
+            catch(RuntimeException e){
+                future = failed(e);
+            }
+            future.whenComplete((r,e) -> {
+                if(e != null) failure.compareAndSet(null, unwrap(e));
+                startNext();
+                release();
+            });
+        }
+
+        private void release(){
+            if(outstanding.decrementAndGet() == 0) finish();
+        }
+
+        private void finish(){
+            Throwable t = failure.get();
+            if(t == null) result.complete(null);
+            else result.completeExceptionally(t);
+        }
+    }
+
+    /**
+     * The next event loop to issue a command on - the client round-robins across its event loops
+     */
+    private static EventLoop nextEventLoop(AerospikeClient client){
+        EventLoops eventLoops = client.getCluster().eventLoops;
+        if(eventLoops == null) throw new AerospikeException("Async operation requires ClientPolicy.eventLoops to be set");
+        return eventLoops.next();
+    }
+
+    /**
+     * Future which has failed with the supplied exception
+     * Checked exceptions are wrapped in a CompletionException so they can be thrown from within stages
+     *
+     * @param t failure cause
+     * @param <T> future type
+     * @return failed future
+     */
+    static <T> CompletableFuture<T> failed(Throwable t){
+        CompletableFuture<T> future = new CompletableFuture<T>();
+        future.completeExceptionally(t);
+        return future;
+    }
+
+    /**
+     * Whether a failure from a future is an AerospikeException with the given result code
+     * @param t throwable from a future
+     * @param resultCode result code to check for
+     * @return boolean
+     */
+    static boolean hasResultCode(Throwable t, int resultCode){
+        Throwable cause = unwrap(t);
+        return cause instanceof AerospikeException && ((AerospikeException)cause).getResultCode() == resultCode;
+    }
+
+    /**
+     * Strip CompletionException wrappers added by CompletableFuture stages
+     * @param t throwable from a future
+     * @return underlying cause
+     */
+    static Throwable unwrap(Throwable t){
+        while(t instanceof CompletionException && t.getCause() != null) t = t.getCause();
+        return t;
+    }
+}
@@ -0,0 +1,111 @@
+package com.aerospike.txnSupport;
+
+import com.aerospike.client.Bin;
+import com.aerospike.client.Key;
+import com.aerospike.client.policy.WritePolicy;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non-blocking equivalent of TxnSupport
+ *
+ * Each method returns immediately with a CompletableFuture. Errors are delivered by completing the future exceptionally
+ * with the exception the synchronous equivalent would have thrown ( LockAcquireException, GenFailException, TxnException )
+ *
+ * Implementations make use of the Aerospike async API, so require ClientPolicy.eventLoops to be set
+ */
+public interface AsyncTxnSupport {
+    /**
+     * Support atomic put of multiple records - supplied as a HashMap
+     * Additionally supports generation check where we non-transactional updates may be taking place
+     *
+     * @param policy - write policy
+     * @param recordsForUpdate - HashMap of records for update
+     * @param generationMap - key:int map allowing generation check - useful as a check if working in environment where non-transactional writes are occurring
+     * @param txnID - if part of a larger transaction
+     * @return future completing when the transaction is complete. Fails with LockAcquireException if records updated by txn are already locked,
+     * GenFailException if current record generation of updated records does not match expected generation
+     */
+    CompletableFuture<Void> putAsync(WritePolicy policy, HashMap<Key,Bin[]> recordsForUpdate, HashMap<Key,Integer> generationMap, String txnID);
+
+    /**
+     * Support atomic put of multiple records - supplied as a HashMap
+     *
+     * @param policy - write policy
+     * @param recordsForUpdate - HashMap of records for update
+     * @param txnID - if part of a larger transaction
+     * @return future completing when the transaction is complete. Fails with LockAcquireException if records updated by txn are already locked
+     */
+    default CompletableFuture<Void> putAsync(WritePolicy policy, HashMap<Key,Bin[]> recordsForUpdate, String txnID){
+        return putAsync(policy, recordsForUpdate, new HashMap<Key,Integer>(), txnID);
+    }
+
+    /**
+     * As above but without txnID parameter - this transaction is self-contained and atomic
+     *
+     * @param policy - write policy
+     * @param recordsForUpdate - HashMap of records for update
+     * @param generationMap - key:int map allowing generation check
+     * @return future completing when the transaction is complete
+     */
+    default CompletableFuture<Void> putAsync(WritePolicy policy, HashMap<Key,Bin[]> recordsForUpdate, HashMap<Key,Integer> generationMap){
+        return putAsync(policy, recordsForUpdate, generationMap, TxnSupport.uniqueTxnID());
+    }
+
+    /**
+     * As above but without txnID parameter - this transaction is self-contained and atomic
+     *
+     * @param policy - write policy
+     * @param recordsForUpdate - HashMap of records for update
+     * @return future completing when the transaction is complete
+     */
+    default CompletableFuture<Void> putAsync(WritePolicy policy, HashMap<Key,Bin[]> recordsForUpdate){
+        return putAsync(policy, recordsForUpdate, new HashMap<Key,Integer>(), TxnSupport.uniqueTxnID());
+    }
+
+    /**
+     * Rollback a transaction identified by txnID
+     *
+     * @param txnID txn to roll back
+     * @return future completing when rollback is complete. Fails with LockAcquireException if the txn is already being rolled back
+     * or with TxnException, result code KEY_NOT_FOUND_ERROR, if the txn record does not exist
+     */
+    CompletableFuture<Void> rollbackAsync(String txnID);
+
+    /**
+     * Create a lock on they object identified by key
+     * Lock is associated with a transaction id
+     *
+     * @param key Aerospike Key for record requiring lock
+     * @param txnID Transaction record is being locked for
+     * @return future completing when the lock is held. Fails with LockAcquireException if the record is locked by a different txn
+     */
+    CompletableFuture<Void> createLockAsync(Key key, String txnID);
+
+    /**
+     * Is there currently a lock on the object identified by 'key'
+     *
+     * @param key Aerospike Key for record whose lock is being checked
+     * @return future completing with boolean
+     */
+    CompletableFuture<Boolean> lockExistsAsync(Key key);
+
+    /**
+     * Check whether there is an incomplete txn with this id
+     * @param txnID transaction being checked
+     * @return future completing with boolean
+     */
+    CompletableFuture<Boolean> txnIncompleteAsync(String txnID);
+
+    /**
+     * Extend the lease on a transaction and its locks, so they are not treated as expired until leaseMillis from now
+     *
+     * @param txnID Transaction to renew the lease of
+     * @param lockedKeys Keys of records locked by the transaction
+     * @param leaseMillis Lease length in ms
+     * @return future completing when the lease is renewed
+     */
+    CompletableFuture<Void> renewLeaseAsync(String txnID, Collection<Key> lockedKeys, long leaseMillis);
+}
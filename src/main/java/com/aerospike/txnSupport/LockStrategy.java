@@ -0,0 +1,18 @@
+package com.aerospike.txnSupport;
+
+/**
+ * Determines where locks on records updated by a transaction are stored
+ */
+public enum LockStrategy {
+    /**
+     * Each lock is a separate record in LOCK_SET, deleted once the transaction completes
+     */
+    LOCK_RECORD,
+
+    /**
+     * Each lock is stored in a reserved bin ( AerospikeClientWithTxnSupport.LOCK_BIN_NAME ) on the record being locked
+     * The lock is acquired with a single operate, and cleared in the same write that applies the transaction's update
+     * to the record, so no additional records or tombstones are created
+     */
+    INLINE
+}
@@ -0,0 +1,116 @@
+package com.aerospike.txnSupport;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Determines how long a multi-record put will wait for locks held by other transactions before giving up with LockAcquireException
+ *
+ * While waiting, lock acquisition is retried with exponential backoff. Jitter is applied to each backoff so that
+ * transactions contending for the same records do not retry in lock-step
+ *
+ * The default policy ( maxWaitMillis == 0 ) does not wait - LockAcquireException is thrown as soon as a lock is found to be held
+ */
+public class LockWaitPolicy {
+    /**
+     * Maximum time in milliseconds to spend waiting for locks. 0 means do not wait
+     */
+    public long maxWaitMillis = 0;
+
+    /**
+     * Absolute time ( as per System.currentTimeMillis() ) after which no further attempts are made to acquire locks
+     * Useful where a transaction is part of a request with its own deadline. 0 means no deadline
+     */
+    public long deadline = 0;
+
+    /**
+     * Backoff before the first retry, in milliseconds
+     */
+    public long initialBackoffMillis = 2;
+
+    /**
+     * Upper bound on the backoff between retries, in milliseconds
+     */
+    public long maxBackoffMillis = 100;
+
+    /**
+     * Factor by which backoff increases after each unsuccessful retry
+     */
+    public double backoffMultiplier = 2.0;
+
+    /**
+     * Proportion of each backoff which is randomised - 0 means no jitter, 1 means backoff is uniformly distributed between 0 and its nominal value
+     */
+    public double jitter = 0.5;
+
+    /**
+     * Default constructor - does not wait for locks
+     */
+    public LockWaitPolicy(){}
+
+    /**
+     * Policy waiting up to maxWaitMillis for locks, using default backoff settings
+     * @param maxWaitMillis maximum time to wait for locks
+     */
+    public LockWaitPolicy(long maxWaitMillis){
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    /**
+     * Copy constructor
+     * @param other policy to copy
+     */
+    public LockWaitPolicy(LockWaitPolicy other){
+        this.maxWaitMillis = other.maxWaitMillis;
+        this.deadline = other.deadline;
+        this.initialBackoffMillis = other.initialBackoffMillis;
+        this.maxBackoffMillis = other.maxBackoffMillis;
+        this.backoffMultiplier = other.backoffMultiplier;
+        this.jitter = other.jitter;
+    }
+
+    /**
+     * Whether this policy permits any waiting
+     * @return boolean
+     */
+    boolean waits(){
+        return maxWaitMillis > 0 || deadline > 0;
+    }
+
+    /**
+     * Time after which lock acquisition started at startTime should give up
+     *
+     * @param startTime time lock acquisition started
+     * @return absolute time as per System.currentTimeMillis()
+     */
+    long giveUpTime(long startTime){
+        long giveUpTime = maxWaitMillis > 0 ? startTime + maxWaitMillis : Long.MAX_VALUE;
+        return deadline > 0 ? Math.min(giveUpTime, deadline) : giveUpTime;
+    }
+
+    /**
+     * Backoff to use for the given retry, with jitter applied
+     *
+     * @param retry number of retries already made
+     * @return backoff in milliseconds
+     */
+    long backoffMillis(int retry){
+        double nominal = initialBackoffMillis * Math.pow(backoffMultiplier, retry);
+        nominal = Math.min(nominal, maxBackoffMillis);
+        double jittered = nominal * (1 - jitter * ThreadLocalRandom.current().nextDouble());
+        return Math.max(1, Math.round(jittered));
+    }
+
+    /**
+     * Calculate how long to back off for before the given retry, or -1 if waiting would pass the give up time
+     * Backoff is truncated so as not to overrun the give up time
+     *
+     * @param retry number of retries already made
+     * @param giveUpTime as returned by giveUpTime
+     * @return backoff in milliseconds, or -1 if no further retries should be made
+     */
+    long nextBackoffMillis(int retry, long giveUpTime){
+        long remaining = giveUpTime - System.currentTimeMillis();
+        if(remaining <= 0) return -1;
+        return Math.min(backoffMillis(retry), remaining);
+    }
+}
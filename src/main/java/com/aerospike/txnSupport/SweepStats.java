@@ -0,0 +1,86 @@
+package com.aerospike.txnSupport;
+
+/**
+ * Outcome of a single TransactionManager sweep - rollback of expired transactions followed by removal of orphan locks and txn record chunks
+ */
+public class SweepStats {
+    /**
+     * Time the sweep started, as per System.currentTimeMillis()
+     */
+    public final long startTime;
+
+    /**
+     * Time taken by the sweep in milliseconds
+     */
+    public final long durationMillis;
+
+    /**
+     * Expired transactions rolled back ( or rolled forward, if committed using redo logging )
+     */
+    public final int rolledBackTxns;
+
+    /**
+     * Expired transactions skipped because they were already being rolled back by another process
+     */
+    public final int skippedTxns;
+
+    /**
+     * Expired transactions which could not be rolled back. These are retried by the next sweep
+     */
+    public final int failedTxns;
+
+    /**
+     * Orphan locks removed
+     */
+    public final int removedOrphanLocks;
+
+    /**
+     * Orphan txn record chunks removed
+     */
+    public final int removedOrphanChunks;
+
+    /**
+     * Shards claimed and swept by this sweep - 0 if sweeps are not sharded
+     */
+    public final int claimedShards;
+
+    /**
+     * False if nothing was swept because leader election is in use and another instance is leader
+     */
+    public final boolean active;
+
+    /**
+     * Error which ended the sweep early, or null if it ran to completion
+     */
+    public final Throwable failure;
+
+    SweepStats(long startTime, long durationMillis, int rolledBackTxns, int skippedTxns, int failedTxns, int removedOrphanLocks, int removedOrphanChunks,
+               int claimedShards, boolean active, Throwable failure){
+        this.startTime = startTime;
+        this.durationMillis = durationMillis;
+        this.rolledBackTxns = rolledBackTxns;
+        this.skippedTxns = skippedTxns;
+        this.failedTxns = failedTxns;
+        this.removedOrphanLocks = removedOrphanLocks;
+        this.removedOrphanChunks = removedOrphanChunks;
+        this.claimedShards = claimedShards;
+        this.active = active;
+        this.failure = failure;
+    }
+
+    /**
+     * Whether the sweep ran to completion
+     * @return boolean
+     */
+    public boolean succeeded(){
+        return failure == null;
+    }
+
+    @Override
+    public String toString(){
+        return "SweepStats{durationMillis=" + durationMillis + ", rolledBackTxns=" + rolledBackTxns + ", skippedTxns=" + skippedTxns +
+                ", failedTxns=" + failedTxns + ", removedOrphanLocks=" + removedOrphanLocks + ", removedOrphanChunks=" + removedOrphanChunks +
+                ", claimedShards=" + claimedShards + ", active=" + active +
+                (failure != null ? ", failure=" + failure : "") + "}";
+    }
+}
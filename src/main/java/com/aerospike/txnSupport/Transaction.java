@@ -0,0 +1,186 @@
+package com.aerospike.txnSupport;
+
+import com.aerospike.client.Bin;
+import com.aerospike.client.Key;
+import com.aerospike.client.Record;
+import com.aerospike.client.policy.WritePolicy;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An optimistic transaction, built up by reading and writing records and then committed atomically
+ * - see AerospikeClientWithTxnSupport.beginTransaction
+ *
+ * Nothing is written, and no locks are taken, until commit. Writes are buffered, multiple writes to a record being coalesced
+ * into a single update, and reads see the transaction's own writes. At commit reads are validated as for putOptimistic, and
+ * records already read are stored as the previous versions needed for rollback rather than being read again
+ *
+ * Not thread safe - a Transaction should be used by a single thread
+ */
+public class Transaction {
+    private final AerospikeClientWithTxnSupport client;
+    private final WritePolicy writePolicy;
+    private final String txnID;
+
+    // Generations of records as read, 0 if they did not exist
+    private final HashMap<Key,Integer> readGenerations = new HashMap<Key,Integer>();
+    // Records as read, null where they did not exist
+    private final HashMap<Key,Record> readRecords = new HashMap<Key,Record>();
+    // Buffered writes - bins keyed by name, later writes of a bin replacing earlier ones. A null value marks a delete
+    private final LinkedHashMap<Key,LinkedHashMap<String,Bin>> writes = new LinkedHashMap<Key,LinkedHashMap<String,Bin>>();
+
+    private boolean active = true;
+
+    Transaction(AerospikeClientWithTxnSupport client, WritePolicy writePolicy, String txnID){
+        this.client = client;
+        this.writePolicy = writePolicy;
+        this.txnID = txnID;
+    }
+
+    /**
+     * Transaction id - used for the txn record and locks when committing
+     * @return txnID
+     */
+    public String getTxnID() {
+        return txnID;
+    }
+
+    /**
+     * Whether the transaction can still be used - false once committed or aborted
+     * @return boolean
+     */
+    public boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Read a record, as it would be if the transaction were committed now
+     *
+     * @param key - key of record to read
+     * @return Record, or null if the record does not exist
+     */
+    public Record read(Key key){
+        return read(new Key[]{key})[0];
+    }
+
+    /**
+     * Read records, as they would be if the transaction were committed now
+     * Records not already read by this transaction are read using a single batch read. Each record is read from the
+     * database at most once, and must be unchanged when the transaction commits
+     *
+     * @param keys - keys of records to read
+     * @return Record[] - records in key order, null where they do not exist
+     */
+    public Record[] read(Key... keys){
+        checkActive();
+        List<Key> unreadKeys = new ArrayList<Key>();
+        for(Key key : keys) if(!readRecords.containsKey(key) && !unreadKeys.contains(key)) unreadKeys.add(key);
+        if(!unreadKeys.isEmpty()){
+            Key[] keysToRead = unreadKeys.toArray(new Key[0]);
+            Record[] records = client.getForUpdate(keysToRead, readGenerations);
+            for(int i=0;i<keysToRead.length;i++) readRecords.put(keysToRead[i], records[i]);
+        }
+        Record[] records = new Record[keys.length];
+        for(int i=0;i<keys.length;i++){
+            Record record = readRecords.get(keys[i]);
+            records[i] = writes.containsKey(keys[i]) ? AerospikeClientWithTxnSupport.committedVersion(record, version(writes.get(keys[i]))) : record;
+        }
+        return records;
+    }
+
+    /**
+     * Write bins to a record when the transaction commits
+     * Bins not written keep their current values. A bin written more than once takes the last value written
+     *
+     * @param key - key of record to write
+     * @param bins - bins to write
+     * @return this Transaction
+     */
+    public Transaction write(Key key, Bin... bins){
+        checkActive();
+        LinkedHashMap<String,Bin> bufferedBins = writes.get(key);
+        if(bufferedBins == null){
+            bufferedBins = new LinkedHashMap<String,Bin>();
+            // Writes are applied as updates, so if deleted earlier in this txn the bins the record has in the database are removed
+            if(writes.containsKey(key)){
+                read(key);
+                Record record = readRecords.get(key);
+                if(record != null) for(String binName : record.bins.keySet()) bufferedBins.put(binName, Bin.asNull(binName));
+            }
+            writes.put(key, bufferedBins);
+        }
+        for(Bin bin : bins) bufferedBins.put(bin.name, bin);
+        return this;
+    }
+
+    /**
+     * Delete a record when the transaction commits, replacing any writes to it made so far
+     *
+     * @param key - key of record to delete
+     * @return this Transaction
+     */
+    public Transaction delete(Key key){
+        checkActive();
+        writes.put(key, null);
+        return this;
+    }
+
+    /**
+     * Commit the transaction - buffered writes are applied atomically, provided records read are unchanged
+     *
+     * Records written are locked and reads validated under lock before anything is written, so unlike putOptimistic
+     * reads are not validated beforehand - the batch read that would need is saved. A transaction which only read
+     * records validates them using a single batch read of record headers, then checks none is locked by another transaction
+     *
+     * The transaction is no longer active once commit is called, whether or not it succeeds
+     *
+     * @throws LockAcquireException if records written are locked by another transaction
+     * @throws GenFailException if a record has changed since it was read
+     */
+    public void commit() throws TxnSupport.LockAcquireException, TxnSupport.GenFailException{
+        checkActive();
+        active = false;
+        if(writes.isEmpty()){
+            client.validateReadOnly(readGenerations, txnID);
+            return;
+        }
+        HashMap<Key,Bin[]> recordsForUpdate = new HashMap<Key,Bin[]>();
+        for(Map.Entry<Key,LinkedHashMap<String,Bin>> write : writes.entrySet()){
+            LinkedHashMap<String,Bin> bins = write.getValue();
+            recordsForUpdate.put(write.getKey(), (bins != null) ? bins.values().toArray(new Bin[0]) : null);
+        }
+        client.commitOptimistic(writePolicy, recordsForUpdate, readGenerations, readRecords, txnID);
+    }
+
+    /**
+     * Abandon the transaction, discarding buffered writes. No locks are held before commit, so nothing needs releasing
+     * Has no effect if the transaction has already been committed or aborted
+     */
+    public void abort(){
+        active = false;
+        writes.clear();
+        readRecords.clear();
+        readGenerations.clear();
+    }
+
+    /**
+     * Buffered bins as a record version - see AerospikeClientWithTxnSupport.committedVersion
+     *
+     * @param bins - bins written, or null if the record is deleted
+     * @return Map of bin name to value, null values removing bins
+     */
+    private static Map<String,Object> version(LinkedHashMap<String,Bin> bins){
+        if(bins == null) return null;
+        Map<String,Object> version = new HashMap<String,Object>();
+        for(Bin bin : bins.values()) version.put(bin.name, bin.value.getObject());
+        return version;
+    }
+
+    private void checkActive(){
+        if(!active) throw new IllegalStateException("Transaction " + txnID + " has already been committed or aborted");
+    }
+}
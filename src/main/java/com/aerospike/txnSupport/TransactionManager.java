@@ -1,19 +1,40 @@
 package com.aerospike.txnSupport;
 
 import com.aerospike.client.*;
+import com.aerospike.client.cluster.Node;
+import com.aerospike.client.cluster.Partition;
+import com.aerospike.client.policy.BatchPolicy;
+import com.aerospike.client.policy.GenerationPolicy;
 import com.aerospike.client.policy.Policy;
 import com.aerospike.client.policy.QueryPolicy;
+import com.aerospike.client.policy.RecordExistsAction;
 import com.aerospike.client.policy.WritePolicy;
 import com.aerospike.client.query.*;
 import com.aerospike.client.task.IndexTask;
 
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.UUID;
 import java.util.Vector;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * This class is responsible for rollback of expired transactions
+ * ( or roll forward, if the transaction was committed using redo logging )
  * and release of expired locks
+ *
+ * Sweeps can be invoked directly, or run periodically in the background between start() and stop()
  */
 public class TransactionManager {
     /**
@@ -24,11 +45,43 @@ public class TransactionManager {
     private final Policy indexCreateCheckReadPolicy;
     private final WritePolicy writePolicy;
     private final QueryPolicy queryPolicy =  new QueryPolicy();
+    private final BatchPolicy batchPolicy;
+
+    // Number of expired locks checked against txn records at a time when removing orphan locks
+    private int orphanLockPageSize = DEFAULT_ORPHAN_LOCK_PAGE_SIZE;
+
+    // Background sweeping - see start()
+    private long sweepIntervalMillis = DEFAULT_SWEEP_INTERVAL_MILLIS;
+    private double sweepJitter = DEFAULT_SWEEP_JITTER;
+    private ScheduledExecutorService sweepScheduler = null;
+    private volatile SweepStats lastSweepStats = null;
+    private final AtomicLong sweepCount = new AtomicLong();
+    private final AtomicLong failedSweepCount = new AtomicLong();
+
+    // Number of threads rolling back expired txns concurrently - 1 means one at a time
+    private int rollbackWorkers = 1;
+    // Created when first needed, and shared by all sweeps. Idle workers exit, so the pool needs no shutdown
+    private ThreadPoolExecutor rollbackExecutor = null;
+
+    // Partition sharding of sweeps across TransactionManager instances - see setShardCount. 0 means unsharded
+    private int shardCount = 0;
+    private long shardLeaseMillis = DEFAULT_SHARD_LEASE_MILLIS;
+    private final String instanceID = UUID.randomUUID().toString();
+
+    // Leader election - see setLeaderElection
+    private boolean leaderElection = false;
+    private long leaderLeaseMillis = DEFAULT_LEADER_LEASE_MILLIS;
+    private volatile boolean leader = false;
 
     /**
      * Default values
      */
     public static final int DEFAULT_TXN_EXPIRY_PERIOD_MILLIS = 30000;
+    public static final long DEFAULT_SWEEP_INTERVAL_MILLIS = 5000;
+    public static final double DEFAULT_SWEEP_JITTER = 0.2;
+    public static final int DEFAULT_ORPHAN_LOCK_PAGE_SIZE = 1000;
+    public static final long DEFAULT_SHARD_LEASE_MILLIS = DEFAULT_SWEEP_INTERVAL_MILLIS;
+    public static final long DEFAULT_LEADER_LEASE_MILLIS = 3 * DEFAULT_SWEEP_INTERVAL_MILLIS;
 
     /**
      * Implementation detail - we maintain a record of whether indices have been created
@@ -42,6 +95,21 @@ public class TransactionManager {
 
     private static final String VALUE_BIN_NAME = "value";
 
+    /**
+     * Leases - shard claims and leadership. One record per lease, recording the instance holding it and when it expires
+     */
+    public final static String LEASE_SET = "txn-lease";
+    public final static String LEASE_TYPE = "lease";
+    public final static String LEASE_OWNER_BIN_NAME = "owner";
+    public final static String LEASE_EXPIRY_BIN_NAME = "leaseExpiry";
+    public final static String LEADER_LEASE_KEY = "leader";
+
+    private static final String SWEEP_THREAD_NAME = "txn-sweeper";
+    private static final String ROLLBACK_THREAD_NAME = "txn-rollback-worker";
+    private static final long ROLLBACK_WORKER_KEEP_ALIVE_SECONDS = 60;
+
+    private final static Logger LOGGER = Logger.getLogger(TransactionManager.class.getName());
+
 
     /**
      * TransactionManager constructor
@@ -51,6 +119,7 @@ public class TransactionManager {
         this.client = client;
         indexCreateCheckReadPolicy = client.getTxnReadPolicy();
         writePolicy = client.getTxnWritePolicy();
+        batchPolicy = new BatchPolicy(client.getTxnReadPolicy());
         setup();
     }
 
@@ -64,19 +133,603 @@ public class TransactionManager {
 
     /**
      * Set transaction timeout
+     * Transactions whose lease has been renewed ( see AerospikeClientWithTxnSupport.renewLease ) expire when their lease does instead
      * @param transactionTimeOutMillis txn timeout in ms
      */
     public void setTransactionTimeOutMillis(int transactionTimeOutMillis) {
         this.transactionTimeOutMillis = transactionTimeOutMillis;
     }
 
+    /**
+     * Get number of expired transactions rolled back concurrently
+     * @return int
+     */
+    public int getRollbackWorkers() {
+        return rollbackWorkers;
+    }
+
+    /**
+     * Set number of expired transactions rolled back concurrently. Default is 1 - one at a time
+     *
+     * With more than one worker, expired txn IDs are streamed from the query to a pool of rollbackWorkers threads as they arrive,
+     * so recovery after an outage leaving many expired transactions is not limited by the latency of one rollback at a time
+     * Transactions already being rolled back by another process are skipped rather than failing the whole run
+     * Workers are created when first needed and shared by all sweeps run by this instance. Workers idle for a minute exit
+     *
+     * @param rollbackWorkers number of worker threads
+     */
+    public void setRollbackWorkers(int rollbackWorkers) {
+        if(rollbackWorkers < 1) throw new IllegalArgumentException("rollbackWorkers must be at least 1");
+        this.rollbackWorkers = rollbackWorkers;
+    }
+
+    /**
+     * Get number of expired locks, or txn record chunks, checked at a time when removing orphans
+     * @return int
+     */
+    public int getOrphanLockPageSize() {
+        return orphanLockPageSize;
+    }
+
+    /**
+     * Set number of expired locks, or txn record chunks, checked against txn records at a time when removing orphans
+     * - see removeOrphanLocks and removeOrphanTxnRecordChunks
+     * Larger pages mean fewer, larger batch reads
+     *
+     * @param orphanLockPageSize page size
+     */
+    public void setOrphanLockPageSize(int orphanLockPageSize) {
+        if(orphanLockPageSize < 1) throw new IllegalArgumentException("orphanLockPageSize must be at least 1");
+        this.orphanLockPageSize = orphanLockPageSize;
+    }
+
+    /**
+     * Get number of shards sweep work is divided into
+     * @return int - 0 if sweeps are not sharded
+     */
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    /**
+     * Divide sweep work between TransactionManager instances by partition
+     *
+     * The namespace's partitions are split into shardCount contiguous ranges. Each sweep claims, using a short lived lease record
+     * in LEASE_SET, every shard whose lease has expired, and rolls back only the txns, and removes only the orphan locks, in the
+     * partitions of the shards it claimed. A claimed shard is not released when its sweep completes, so it is swept by one instance
+     * per lease period and rollback work scales horizontally with the number of instances. Every instance sharing a namespace must
+     * use the same shard count
+     *
+     * Expired txn and lock records are still found using the type indexes, once per sweep, with records outside the claimed
+     * partitions skipped - an index query cannot be restricted to a partition range, and scanning each shard instead would read
+     * every record in the set. A sweep which claims no shards does not query the indexes
+     *
+     * Lease records are written with a TTL slightly longer than the lease, so the namespace must allow TTLs to be set
+     *
+     * 0 or 1 means unsharded - each sweep examines every txn and lock record, as before
+     *
+     * @param shardCount number of shards, between 0 and the number of partitions
+     */
+    public void setShardCount(int shardCount) {
+        if(shardCount < 0 || shardCount > Node.PARTITIONS) throw new IllegalArgumentException("shardCount must be between 0 and " + Node.PARTITIONS);
+        this.shardCount = shardCount;
+    }
+
+    /**
+     * Get length of shard leases
+     * @return lease in ms
+     */
+    public long getShardLeaseMillis() {
+        return shardLeaseMillis;
+    }
+
+    /**
+     * Set length of the lease taken on a shard when it is claimed. No other instance sweeps the shard until the lease expires
+     * This should be close to sweepIntervalMillis. Shorter, and shards may be swept more than once per interval. Longer, and expired
+     * transactions wait longer to be rolled back if the instance holding the lease stops
+     * A lease which expires during a long sweep may be claimed by another instance - this is safe, as rollback locks the txn record and
+     * orphan locks are only removed if unchanged, but duplicates work
+     *
+     * @param shardLeaseMillis lease in ms
+     */
+    public void setShardLeaseMillis(long shardLeaseMillis) {
+        if(shardLeaseMillis < 1) throw new IllegalArgumentException("shardLeaseMillis must be at least 1");
+        this.shardLeaseMillis = shardLeaseMillis;
+    }
+
+    /**
+     * Whether only the elected leader among TransactionManager instances sweeps
+     * @return boolean
+     */
+    public boolean isLeaderElection() {
+        return leaderElection;
+    }
+
+    /**
+     * Only sweep while leader - an alternative to sharding, where exactly one TransactionManager sharing the namespace is active at a time
+     *
+     * Leadership is a lease record in LEASE_SET, created if absent using CREATE_ONLY. The leader renews its lease on each sweep,
+     * and another instance takes over once the lease has expired without being renewed. Other instances' sweeps do nothing, so the
+     * type indexes are queried once per sweep interval rather than once per instance. Leadership is released by stop()
+     *
+     * @param leaderElection true to sweep only while leader
+     */
+    public void setLeaderElection(boolean leaderElection) {
+        this.leaderElection = leaderElection;
+    }
+
+    /**
+     * Get length of the leadership lease
+     * @return lease in ms
+     */
+    public long getLeaderLeaseMillis() {
+        return leaderLeaseMillis;
+    }
+
+    /**
+     * Set length of the leadership lease. This must exceed sweepIntervalMillis plus the duration of a sweep, or leadership will
+     * lapse between renewals. Longer leases mean a longer pause in sweeping if the leader stops without calling stop()
+     *
+     * @param leaderLeaseMillis lease in ms
+     */
+    public void setLeaderLeaseMillis(long leaderLeaseMillis) {
+        if(leaderLeaseMillis < 1) throw new IllegalArgumentException("leaderLeaseMillis must be at least 1");
+        this.leaderLeaseMillis = leaderLeaseMillis;
+    }
+
+    /**
+     * Whether this instance held the leadership lease as of its most recent sweep
+     * @return boolean
+     */
+    public boolean isLeader() {
+        return leader;
+    }
+
+    /**
+     * Identifier recorded in the leases held by this instance
+     * @return String
+     */
+    public String getInstanceID() {
+        return instanceID;
+    }
+
+    /**
+     * Get interval between background sweeps
+     * @return interval in ms
+     */
+    public long getSweepIntervalMillis() {
+        return sweepIntervalMillis;
+    }
+
+    /**
+     * Set interval between the end of one background sweep and the start of the next
+     * Locks held by failed transactions are released up to transactionTimeOutMillis + sweepIntervalMillis after the transaction started,
+     * so this should be small relative to the transaction timeout. Takes effect from the next sweep
+     *
+     * @param sweepIntervalMillis interval in ms
+     */
+    public void setSweepIntervalMillis(long sweepIntervalMillis) {
+        if(sweepIntervalMillis < 1) throw new IllegalArgumentException("sweepIntervalMillis must be at least 1");
+        this.sweepIntervalMillis = sweepIntervalMillis;
+    }
+
+    /**
+     * Get proportion of the sweep interval which is randomised
+     * @return jitter
+     */
+    public double getSweepJitter() {
+        return sweepJitter;
+    }
+
+    /**
+     * Set proportion of the sweep interval which is randomised - 0 means no jitter, 1 means intervals are uniformly distributed
+     * between 0 and sweepIntervalMillis. Jitter stops TransactionManagers started together in different processes sweeping in lock-step
+     *
+     * @param sweepJitter jitter, between 0 and 1
+     */
+    public void setSweepJitter(double sweepJitter) {
+        if(sweepJitter < 0 || sweepJitter > 1) throw new IllegalArgumentException("sweepJitter must be between 0 and 1");
+        this.sweepJitter = sweepJitter;
+    }
+
+    /**
+     * Start sweeping in the background - rolling back expired transactions and removing orphan locks every sweepIntervalMillis
+     * Sweeps run on a single daemon thread, so never overlap. A failed sweep is logged and recorded in its SweepStats, and does
+     * not stop subsequent sweeps
+     *
+     * @throws IllegalStateException if already started
+     */
+    public synchronized void start(){
+        if(sweepScheduler != null) throw new IllegalStateException("TransactionManager already started");
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, SWEEP_THREAD_NAME);
+            thread.setDaemon(true);
+            return thread;
+        });
+        // The next sweep is always scheduled - stop() discards it rather than waiting for it to run
+        scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        sweepScheduler = scheduler;
+        scheduleSweep(sweepScheduler);
+    }
+
+    /**
+     * Stop background sweeping. A sweep in progress is allowed to complete, waiting up to timeoutMillis for it to do so
+     * Sweeps scheduled but not yet started do not run
+     * If leader, leadership is then released so another instance can take over without waiting for the lease to expire. If the
+     * timeout elapses first, leadership is released when the sweep in progress completes
+     *
+     * @param timeoutMillis maximum time to wait for a sweep in progress
+     * @return true if no sweep is still running, false if the timeout elapsed first
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean stop(long timeoutMillis) throws InterruptedException{
+        ScheduledExecutorService scheduler;
+        synchronized(this){
+            scheduler = sweepScheduler;
+            sweepScheduler = null;
+        }
+        if(scheduler == null) return true;
+        scheduler.shutdown();
+        boolean terminated = scheduler.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+        if(terminated && leader) releaseLeadership();
+        return terminated;
+    }
+
+    /**
+     * Whether background sweeping is running
+     * @return boolean
+     */
+    public synchronized boolean isRunning(){
+        return sweepScheduler != null;
+    }
+
+    /**
+     * Stats for the most recent sweep, whether run in the background or via sweep()
+     * @return SweepStats, or null if there has been no sweep
+     */
+    public SweepStats getLastSweepStats() {
+        return lastSweepStats;
+    }
+
+    /**
+     * Number of sweeps run
+     * @return long
+     */
+    public long getSweepCount() {
+        return sweepCount.get();
+    }
+
+    /**
+     * Number of sweeps ended early by an error
+     * @return long
+     */
+    public long getFailedSweepCount() {
+        return failedSweepCount.get();
+    }
+
+    /**
+     * Run a single sweep - roll back expired transactions, then remove orphan locks and orphan txn record chunks
+     * Unlike rollbackExpiredTxns, a transaction which cannot be rolled back does not prevent the others being rolled back
+     * If sharded, only the shards this instance is able to claim are swept - see setShardCount
+     * If using leader election, nothing is swept unless this instance is leader - see setLeaderElection
+     *
+     * Leases are claimed as a side effect, whether the sweep is run in the background or called directly. With leader election,
+     * a sweep takes leadership if it is free or has expired, and renews it if already held, so an instance calling sweep()
+     * periodically without start() may become, and stay, leader. Leadership taken this way is only released by stop() if start()
+     * was called - otherwise it lapses once the lease expires. Shards claimed are held until their lease expires
+     *
+     * @return SweepStats
+     */
+    public SweepStats sweep(){
+        long startTime = System.currentTimeMillis();
+        RollbackCounts counts = new RollbackCounts();
+        int removedOrphanLocks = 0;
+        int removedOrphanChunks = 0;
+        int claimedShards = 0;
+        boolean active = true;
+        Throwable failure = null;
+        try {
+            if(leaderElection){
+                leader = claimLease(leaderLeaseKey(), leaderLeaseMillis, true);
+                active = leader;
+            }
+            int shards = active ? shardCount : 0;
+            if(shards > 1){
+                BitSet partitions = new BitSet(Node.PARTITIONS);
+                // Start at a random shard, so instances sweeping at the same time mostly try different shards first
+                int firstShard = ThreadLocalRandom.current().nextInt(shards);
+                for(int i=0;i<shards;i++){
+                    int shard = (firstShard + i) % shards;
+                    if(!claimShard(shard, shards)) continue;
+                    claimedShards++;
+                    partitions.set(firstPartitionOfShard(shard, shards), firstPartitionOfShard(shard + 1, shards));
+                }
+                if(claimedShards > 0){
+                    rollbackExpiredTxns(counts, partitions);
+                    removedOrphanLocks = removeOrphanLocks(partitions);
+                    removedOrphanChunks = removeOrphanTxnRecordChunks(partitions);
+                }
+            }
+            else if(active) {
+                rollbackExpiredTxns(counts, null);
+                removedOrphanLocks = removeOrphanLocks(null);
+                removedOrphanChunks = removeOrphanTxnRecordChunks(null);
+            }
+        }
+        catch(RuntimeException e){
+            LOGGER.log(Level.WARNING, "Txn sweep failed", e);
+            failure = e;
+            failedSweepCount.incrementAndGet();
+        }
+        SweepStats stats = new SweepStats(startTime, System.currentTimeMillis() - startTime, counts.rolledBack.get(), counts.skipped.get(),
+                counts.failed.get(), removedOrphanLocks, removedOrphanChunks, claimedShards, active, failure);
+        sweepCount.incrementAndGet();
+        lastSweepStats = stats;
+        return stats;
+    }
+
+    /**
+     * Claim a shard for this instance, if no other instance holds an unexpired lease on it
+     * A lease held by this instance is not renewed, so a shard is swept at most once per lease
+     *
+     * @param shard shard to claim
+     * @param shards number of shards
+     * @return true if claimed
+     */
+    private boolean claimShard(int shard, int shards){
+        return claimLease(shardClaimKey(shard, shards), shardLeaseMillis, false);
+    }
+
+    /**
+     * Take a lease for this instance if it is free or has expired, or, if renewOwn is set, renew it if already held by this instance
+     * Package level visibility to allow white box testing
+     *
+     * @param leaseKey lease record
+     * @param leaseMillis lease length
+     * @param renewOwn whether to renew an unexpired lease held by this instance
+     * @return true if the lease was taken or renewed
+     */
+    boolean claimLease(Key leaseKey, long leaseMillis, boolean renewOwn){
+        long now = System.currentTimeMillis();
+        Record lease = client.get(indexCreateCheckReadPolicy, leaseKey);
+        WritePolicy leasePolicy = new WritePolicy(writePolicy);
+        // Lease records expire soon after the lease, so claims by stopped instances, or made using another shard count, do not remain
+        leasePolicy.expiration = (int)((leaseMillis + 999) / 1000) + 1;
+        if(lease == null){
+            leasePolicy.recordExistsAction = RecordExistsAction.CREATE_ONLY;
+        }
+        else if(lease.getLong(LEASE_EXPIRY_BIN_NAME) > now && !(renewOwn && instanceID.equals(lease.getString(LEASE_OWNER_BIN_NAME)))){
+            return false;
+        }
+        else {
+            // Only take over or renew the lease if no other instance has done so since it was read
+            leasePolicy.generationPolicy = GenerationPolicy.EXPECT_GEN_EQUAL;
+            leasePolicy.generation = lease.generation;
+        }
+        try {
+            client.put(leasePolicy, leaseKey, new Bin(Constants.TYPE_BIN_NAME, LEASE_TYPE),
+                    new Bin(LEASE_OWNER_BIN_NAME, instanceID), new Bin(LEASE_EXPIRY_BIN_NAME, now + leaseMillis));
+            return true;
+        }
+        catch(AerospikeException e){
+            // Taken by another instance first
+            if(e.getResultCode() == ResultCode.KEY_EXISTS_ERROR || e.getResultCode() == ResultCode.GENERATION_ERROR) return false;
+            throw e;
+        }
+    }
+
+    /**
+     * Give up leadership, if still held by this instance, so another instance can take over immediately
+     * Failure is logged - the lease then expires as normal
+     */
+    private void releaseLeadership(){
+        leader = false;
+        Key leaseKey = leaderLeaseKey();
+        try {
+            Record lease = client.get(indexCreateCheckReadPolicy, leaseKey);
+            if(lease == null || !instanceID.equals(lease.getString(LEASE_OWNER_BIN_NAME))) return;
+            WritePolicy unchangedPolicy = new WritePolicy(writePolicy);
+            unchangedPolicy.generationPolicy = GenerationPolicy.EXPECT_GEN_EQUAL;
+            unchangedPolicy.generation = lease.generation;
+            client.delete(unchangedPolicy, leaseKey);
+        }
+        catch(AerospikeException e){
+            if(e.getResultCode() != ResultCode.GENERATION_ERROR && e.getResultCode() != ResultCode.KEY_NOT_FOUND_ERROR) {
+                LOGGER.log(Level.WARNING, "Unable to release txn sweep leadership", e);
+            }
+        }
+    }
+
+    /**
+     * Key of the leadership lease record. Package level visibility to allow white box testing
+     * @return Key
+     */
+    Key leaderLeaseKey(){
+        return new Key(client.getTransactionNamespace(), LEASE_SET, LEADER_LEASE_KEY);
+    }
+
+    /**
+     * Key of the claim record for a shard. The shard count forms part of the key, so claims made using a different shard count are ignored
+     * Package level visibility to allow white box testing
+     *
+     * @param shard shard
+     * @param shards number of shards
+     * @return Key
+     */
+    Key shardClaimKey(int shard, int shards){
+        return new Key(client.getTransactionNamespace(), LEASE_SET, "shard-" + shard + "-of-" + shards);
+    }
+
+    /**
+     * First partition belonging to a shard. Shards are contiguous ranges, with sizes differing by at most one partition
+     * Package level visibility to allow white box testing
+     *
+     * @param shard shard - shards gives the partition count
+     * @param shards number of shards
+     * @return partition id
+     */
+    static int firstPartitionOfShard(int shard, int shards){
+        return shard * Node.PARTITIONS / shards;
+    }
+
+    /**
+     * Roll back expired txns, in parallel if rollbackWorkers is more than 1, counting outcomes
+     *
+     * @param counts outcome counts
+     * @param partitions partitions to examine, or null for all
+     */
+    private void rollbackExpiredTxns(RollbackCounts counts, BitSet partitions){
+        if(rollbackWorkers > 1) {
+            rollbackExpiredTxnsInParallel(counts, partitions);
+        }
+        else {
+            for (String txnID : getExpiredTxnIDs(partitions)) rollbackExpiredTxn(txnID, counts);
+        }
+    }
+
+    /**
+     * Roll back expired txns using rollbackWorkers threads, streaming txn IDs from the query to the workers as they arrive
+     * The number of txn IDs read but not yet rolled back is bounded, so memory use does not grow with the number of expired txns
+     * Returns once all txns found have been dealt with
+     *
+     * @param counts outcome counts, updated as txns are dealt with
+     * @param partitions partitions to examine, or null for all
+     */
+    private void rollbackExpiredTxnsInParallel(RollbackCounts counts, BitSet partitions){
+        int workers = rollbackWorkers;
+        ThreadPoolExecutor executor = rollbackExecutor(workers);
+        // Bounds the txns queued or being rolled back by this run. Once every permit is back, all its txns have been dealt with
+        int permits = workers * 2;
+        Semaphore queued = new Semaphore(permits);
+        try (RecordSet txnRecords = queryExpired(AerospikeClientWithTxnSupport.TRANSACTION_SET, AerospikeClientWithTxnSupport.TXN_TYPE)) {
+            while(txnRecords.next()){
+                if(!inPartitions(txnRecords.getKey(), partitions)) continue;
+                String txnID = txnRecords.getRecord().getString(AerospikeClientWithTxnSupport.TXN_ID_BIN_NAME);
+                queued.acquireUninterruptibly();
+                executor.execute(() -> {
+                    try {
+                        rollbackExpiredTxn(txnID, counts);
+                    }
+                    finally {
+                        queued.release();
+                    }
+                });
+            }
+        }
+        finally {
+            queued.acquireUninterruptibly(permits);
+        }
+    }
+
+    /**
+     * Pool of rollback workers, created if need be and sized to the current number of workers
+     *
+     * @param workers number of worker threads
+     * @return ThreadPoolExecutor
+     */
+    private synchronized ThreadPoolExecutor rollbackExecutor(int workers){
+        if(rollbackExecutor == null){
+            rollbackExecutor = new ThreadPoolExecutor(workers, workers, ROLLBACK_WORKER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), r -> {
+                Thread thread = new Thread(r, ROLLBACK_THREAD_NAME);
+                thread.setDaemon(true);
+                return thread;
+            });
+            rollbackExecutor.allowCoreThreadTimeOut(true);
+        }
+        // Core size may not exceed maximum size, so resize in the order which keeps it within bounds
+        else if(workers > rollbackExecutor.getMaximumPoolSize()){
+            rollbackExecutor.setMaximumPoolSize(workers);
+            rollbackExecutor.setCorePoolSize(workers);
+        }
+        else if(workers < rollbackExecutor.getMaximumPoolSize()){
+            rollbackExecutor.setCorePoolSize(workers);
+            rollbackExecutor.setMaximumPoolSize(workers);
+        }
+        return rollbackExecutor;
+    }
+
+    /**
+     * Roll back a single expired txn, counting the outcome
+     * A txn already being rolled back by another process is skipped. Other failures are logged - the txn is retried next time
+     *
+     * @param txnID txn to roll back
+     * @param counts outcome counts
+     */
+    private void rollbackExpiredTxn(String txnID, RollbackCounts counts){
+        try {
+            client.rollback(txnID);
+            counts.rolledBack.incrementAndGet();
+        }
+        // Another process is rolling this txn back
+        catch(TxnSupport.LockAcquireException e){
+            counts.skipped.incrementAndGet();
+        }
+        // Completed, or rolled back by another process, since it was found
+        catch(TxnSupport.TxnException e){
+            if(e.getResultCode() == ResultCode.KEY_NOT_FOUND_ERROR) {
+                counts.skipped.incrementAndGet();
+            }
+            else {
+                LOGGER.log(Level.WARNING, "Unable to roll back expired txn " + txnID, e);
+                counts.failed.incrementAndGet();
+            }
+        }
+        catch(RuntimeException e){
+            LOGGER.log(Level.WARNING, "Unable to roll back expired txn " + txnID, e);
+            counts.failed.incrementAndGet();
+        }
+    }
+
+    /**
+     * Outcome counts for rolling back expired txns - updated concurrently by rollback workers
+     */
+    private static class RollbackCounts{
+        final AtomicInteger rolledBack = new AtomicInteger();
+        final AtomicInteger skipped = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+    }
+
+    /**
+     * Schedule the next background sweep, after a jittered interval. Each sweep schedules its successor once complete
+     *
+     * @param scheduler scheduler to run the sweep on
+     */
+    private void scheduleSweep(ScheduledExecutorService scheduler){
+        long delay = Math.max(1, Math.round(sweepIntervalMillis * (1 - sweepJitter * ThreadLocalRandom.current().nextDouble())));
+        scheduler.schedule(() -> {
+            try {
+                sweep();
+            }
+            finally {
+                if(!scheduler.isShutdown()) scheduleSweep(scheduler);
+                // Stopped while sweeping
+                else if(leader) releaseLeadership();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
     /**
      * Rollback expired transactions ( those with a timestamp lt NOW - time out )
+     * Transactions written using redo logging have committed, so are rolled forward instead
+     * If rollbackWorkers is more than 1, transactions are rolled back concurrently - see setRollbackWorkers
+     *
+     * Failures are handled differently in the two modes. One at a time, the first failure stops the run and is thrown to the caller.
+     * Concurrently, transactions being rolled back by another process are skipped, and other failures are logged rather than thrown,
+     * so every expired transaction is attempted - failed transactions are not counted, and are retried next time
+     *
      * @return count of rolled back transactions
+     * @throws TxnSupport.LockAcquireException if rolling back one at a time and a transaction is being rolled back by another process
      */
     public int rollbackExpiredTxns() throws TxnSupport.LockAcquireException {
+        // In parallel, txns being rolled back elsewhere are skipped, and failures logged, so other txns are still rolled back
+        if(rollbackWorkers > 1){
+            RollbackCounts counts = new RollbackCounts();
+            rollbackExpiredTxnsInParallel(counts, null);
+            return counts.rolledBack.get();
+        }
         int rolledBackTxns = 0;
-        for (String s : getExpiredTxnIDs()) {
+        for (String s : getExpiredTxnIDs(null)) {
             client.rollback(s);
             rolledBackTxns++;
         }
@@ -87,61 +740,158 @@ public class TransactionManager {
 
     /**
      * Remove all timed out orphan locks ( those not associated with an existing txn record )
+     *
+     * Expired locks are streamed from the query and processed in pages of orphanLockPageSize. The txn records for each page
+     * are checked using a single batch exists, so memory use is bounded by the page size rather than the number of transactions
+     * Each lock is removed only if unchanged since it was read, so a lock released and re-taken during the sweep is left alone
+     *
      * @return count of removed locks
      */
     public int removeOrphanLocks(){
-        int orphanLocks = 0;
-        // Get list of all current txns and put it in a hash
-        Statement txnStmt = new Statement();
-        txnStmt.setNamespace(client.getTransactionNamespace());
-        txnStmt.setSetName(AerospikeClientWithTxnSupport.TRANSACTION_SET);
-        txnStmt.setBinNames(AerospikeClientWithTxnSupport.TXN_ID_BIN_NAME);
-        txnStmt.setFilter(Filter.equal(Constants.TYPE_BIN_NAME,AerospikeClientWithTxnSupport.TXN_TYPE));
+        return removeOrphanLocks(null);
+    }
 
-        Iterator<KeyRecord> txnRecords = client.query(queryPolicy, txnStmt).iterator();
-        HashMap<String,Integer> txnHash = new HashMap<String,Integer>();
-        while(txnRecords.hasNext()){
-            txnHash.put(txnRecords.next().record.getString(AerospikeClientWithTxnSupport.TXN_ID_BIN_NAME),1);
+    /**
+     * Remove timed out orphan locks in the given partitions
+     *
+     * @param partitions partitions to examine, or null for all
+     * @return count of removed locks
+     */
+    private int removeOrphanLocks(BitSet partitions){
+        return removeOrphans(AerospikeClientWithTxnSupport.LOCK_SET, AerospikeClientWithTxnSupport.LOCK_TYPE, partitions);
+    }
+
+    /**
+     * Remove all timed out orphan txn record chunks - chunks of a chunked txn record whose header does not exist
+     * These are left if a client fails after writing chunks but before writing the header, or while removing a txn record
+     * See AerospikeClientWithTxnSupport.setTxnRecordChunkSize
+     *
+     * @return count of removed chunks
+     */
+    public int removeOrphanTxnRecordChunks(){
+        return removeOrphanTxnRecordChunks(null);
+    }
+
+    /**
+     * Remove timed out orphan txn record chunks in the given partitions
+     *
+     * @param partitions partitions to examine, or null for all
+     * @return count of removed chunks
+     */
+    private int removeOrphanTxnRecordChunks(BitSet partitions){
+        return removeOrphans(AerospikeClientWithTxnSupport.TRANSACTION_SET, AerospikeClientWithTxnSupport.TXN_CHUNK_TYPE, partitions);
+    }
+
+    /**
+     * Remove timed out records of the given type, in the given partitions, whose txn record does not exist
+     *
+     * @param setName LOCK_SET or TRANSACTION_SET
+     * @param type LOCK_TYPE or TXN_CHUNK_TYPE
+     * @param partitions partitions to examine, or null for all
+     * @return count of removed records
+     */
+    private int removeOrphans(String setName, String type, BitSet partitions){
+        int orphans = 0;
+        int pageSize = orphanLockPageSize;
+        List<KeyRecord> page = new ArrayList<KeyRecord>(pageSize);
+        // Get expired records
+        try (RecordSet expired = queryExpired(setName, type)) {
+            while(expired.next()){
+                if(!inPartitions(expired.getKey(), partitions)) continue;
+                page.add(new KeyRecord(expired.getKey(), expired.getRecord()));
+                if(page.size() == pageSize){
+                    orphans += removeOrphansInPage(page);
+                    page.clear();
+                }
+            }
         }
+        if(!page.isEmpty()) orphans += removeOrphansInPage(page);
+        return orphans;
+    }
 
-        // Get all locks
-        Statement stmt = new Statement();
-        stmt.setNamespace(client.getTransactionNamespace());
-        stmt.setSetName(AerospikeClientWithTxnSupport.LOCK_SET);
-        stmt.setFilter(Filter.equal(Constants.TYPE_BIN_NAME,AerospikeClientWithTxnSupport.LOCK_TYPE));
-        stmt.setPredExp(PredExp.integerBin(AerospikeClientWithTxnSupport.TIMESTAMP_BIN_NAME),PredExp.integerValue(System.currentTimeMillis() - transactionTimeOutMillis),PredExp.integerLess());
+    /**
+     * Remove those locks or chunks in a page whose txn does not exist
+     *
+     * @param page expired locks or chunks, with the txn ID bin
+     * @return count of removed records
+     */
+    private int removeOrphansInPage(List<KeyRecord> page){
+        Key[] txnKeys = new Key[page.size()];
+        for(int i=0;i<page.size();i++){
+            txnKeys[i] = client.keyForTxnID(page.get(i).record.getString(AerospikeClientWithTxnSupport.TXN_ID_BIN_NAME));
+        }
+        boolean[] txnExists = client.exists(batchPolicy, txnKeys);
 
         // If the txn they are associated with does not exist remove them
-        for (KeyRecord r : client.query(queryPolicy, stmt)) {
-            String txnID = r.record.getString(AerospikeClientWithTxnSupport.TXN_ID_BIN_NAME);
-            if (txnHash.get(txnID) == null) {
-                client.delete(writePolicy, r.key);
-                orphanLocks++;
+        int orphans = 0;
+        for(int i=0;i<page.size();i++){
+            if(txnExists[i]) continue;
+            KeyRecord orphan = page.get(i);
+            WritePolicy unchangedPolicy = new WritePolicy(writePolicy);
+            unchangedPolicy.generationPolicy = GenerationPolicy.EXPECT_GEN_EQUAL;
+            unchangedPolicy.generation = orphan.record.generation;
+            try {
+                if(client.delete(unchangedPolicy, orphan.key)) orphans++;
+            }
+            catch(AerospikeException e){
+                // Lock released, or released and re-taken, or chunk removed, since it was read
+                if(e.getResultCode() != ResultCode.GENERATION_ERROR && e.getResultCode() != ResultCode.KEY_NOT_FOUND_ERROR) throw e;
             }
         }
-        return orphanLocks;
+        return orphans;
     }
 
     /**
-     * Get a list of all expired transaction ids
+     * Get a list of expired transaction ids
+     * @param partitions partitions to examine, or null for all
      * @return
      */
-    private Vector<String> getExpiredTxnIDs(){
+    private Vector<String> getExpiredTxnIDs(BitSet partitions){
         Vector<String> txnIDList = new Vector<String>();
-        // Get list of all current txns and put it in a hash
-        Statement txnStmt = new Statement();
-        txnStmt.setNamespace(client.getTransactionNamespace());
-        txnStmt.setSetName(AerospikeClientWithTxnSupport.TRANSACTION_SET);
-        txnStmt.setBinNames(AerospikeClientWithTxnSupport.TXN_ID_BIN_NAME);
-        txnStmt.setFilter(Filter.equal(Constants.TYPE_BIN_NAME,AerospikeClientWithTxnSupport.TXN_TYPE));
-        txnStmt.setPredExp(PredExp.integerBin(AerospikeClientWithTxnSupport.TIMESTAMP_BIN_NAME),PredExp.integerValue(System.currentTimeMillis() - transactionTimeOutMillis),PredExp.integerLess());
-
-        for (KeyRecord keyRecord : client.query(queryPolicy, txnStmt)) {
-            txnIDList.addElement(keyRecord.record.getString(AerospikeClientWithTxnSupport.TXN_ID_BIN_NAME));
+        try (RecordSet txnRecords = queryExpired(AerospikeClientWithTxnSupport.TRANSACTION_SET, AerospikeClientWithTxnSupport.TXN_TYPE)) {
+            while(txnRecords.next()){
+                if(!inPartitions(txnRecords.getKey(), partitions)) continue;
+                txnIDList.addElement(txnRecords.getRecord().getString(AerospikeClientWithTxnSupport.TXN_ID_BIN_NAME));
+            }
         }
         return txnIDList;
     }
 
+    /**
+     * Find expired txn or lock records, returning the txn ID bin
+     * A record is expired if its lease has expired, or if it has no lease and its timestamp is lt NOW - time out - see renewLease
+     *
+     * @param setName TRANSACTION_SET or LOCK_SET
+     * @param type TXN_TYPE, TXN_CHUNK_TYPE or LOCK_TYPE
+     * @return RecordSet
+     */
+    private RecordSet queryExpired(String setName, String type){
+        Statement stmt = new Statement();
+        stmt.setNamespace(client.getTransactionNamespace());
+        stmt.setSetName(setName);
+        stmt.setBinNames(AerospikeClientWithTxnSupport.TXN_ID_BIN_NAME);
+        stmt.setFilter(Filter.equal(Constants.TYPE_BIN_NAME, type));
+        long now = System.currentTimeMillis();
+        // Comparisons against a missing expiry bin are false, so records without a lease fall back to the timestamp
+        stmt.setPredExp(
+                PredExp.integerBin(AerospikeClientWithTxnSupport.EXPIRY_BIN_NAME), PredExp.integerValue(now), PredExp.integerLess(),
+                PredExp.integerBin(AerospikeClientWithTxnSupport.TIMESTAMP_BIN_NAME), PredExp.integerValue(now - transactionTimeOutMillis), PredExp.integerLess(),
+                PredExp.integerBin(AerospikeClientWithTxnSupport.EXPIRY_BIN_NAME), PredExp.integerValue(now), PredExp.integerGreaterEq(), PredExp.not(),
+                PredExp.and(2),
+                PredExp.or(2));
+        return client.query(queryPolicy, stmt);
+    }
+
+    /**
+     * Whether a record belongs to one of the partitions being examined
+     *
+     * @param key key of record, with digest
+     * @param partitions partitions to examine, or null for all
+     * @return boolean
+     */
+    private static boolean inPartitions(Key key, BitSet partitions){
+        return partitions == null || partitions.get(Partition.getPartitionId(key.digest));
+    }
 
     /**
      * We need indices to find lock and txn records
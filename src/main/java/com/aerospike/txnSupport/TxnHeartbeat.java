@@ -0,0 +1,120 @@
+package com.aerospike.txnSupport;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Periodic renewal of a transaction's lease - see AerospikeClientWithTxnSupport.startHeartbeat
+ * A single shared daemon thread schedules the renewals of all heartbeats but does not run them. Renewals are issued using
+ * the async API if the client has event loops, otherwise on a small shared pool, so a slow renewal does not hold up other
+ * heartbeats. Close once the transaction has completed
+ */
+public class TxnHeartbeat implements AutoCloseable {
+    private static final String HEARTBEAT_THREAD_NAME = "txn-heartbeat";
+    private static final String RENEWAL_THREAD_NAME = "txn-heartbeat-renewal";
+    private static final int BLOCKING_RENEWAL_THREADS = 4;
+    private static final long BLOCKING_RENEWAL_KEEP_ALIVE_SECONDS = 60;
+
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, HEARTBEAT_THREAD_NAME);
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Pool running renewals made using the synchronous API, for clients without event loops
+     */
+    static final ThreadPoolExecutor BLOCKING_RENEWALS = blockingRenewalPool();
+
+    private final static Logger LOGGER = Logger.getLogger(TxnHeartbeat.class.getName());
+
+    private final String txnID;
+    private final Supplier<CompletableFuture<Void>> renewal;
+    private final long intervalMillis;
+    private volatile boolean closed = false;
+    private volatile ScheduledFuture<?> nextBeat;
+    private volatile RuntimeException lastFailure = null;
+
+    TxnHeartbeat(Supplier<CompletableFuture<Void>> renewal, String txnID, long intervalMillis){
+        this.txnID = txnID;
+        this.renewal = renewal;
+        this.intervalMillis = intervalMillis;
+        scheduleBeat();
+    }
+
+    /**
+     * Transaction whose lease is being renewed
+     * @return txnID
+     */
+    public String getTxnID() {
+        return txnID;
+    }
+
+    /**
+     * Error from the most recent renewal
+     * @return RuntimeException, or null if the most recent renewal succeeded
+     */
+    public RuntimeException getLastFailure() {
+        return lastFailure;
+    }
+
+    /**
+     * Stop renewing the lease. A renewal in progress is allowed to complete
+     */
+    @Override
+    public void close(){
+        closed = true;
+        ScheduledFuture<?> beat = nextBeat;
+        if(beat != null) beat.cancel(false);
+    }
+
+    /**
+     * Schedule the next renewal for intervalMillis from now
+     * Each renewal is scheduled once the previous one completes, so renewals of a lease never overlap
+     */
+    private void scheduleBeat(){
+        if(!closed) nextBeat = SCHEDULER.schedule(this::beat, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Issue a renewal, recording its outcome and scheduling the next when it completes
+     */
+    private void beat(){
+        if(closed) return;
+        CompletableFuture<Void> renewed;
+        try {
+            renewed = renewal.get();
+        }
+        catch(RuntimeException e){
+            renewed = AsyncCommands.failed(e);
+        }
+        renewed.whenComplete((v,e) -> {
+            if(e == null) lastFailure = null;
+            else {
+                Throwable cause = AsyncCommands.unwrap(e);
+                LOGGER.log(Level.WARNING, "Unable to renew lease for txn " + txnID, cause);
+                lastFailure = (cause instanceof RuntimeException) ? (RuntimeException)cause : new IllegalStateException(cause);
+            }
+            scheduleBeat();
+        });
+    }
+
+    private static ThreadPoolExecutor blockingRenewalPool(){
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(BLOCKING_RENEWAL_THREADS, BLOCKING_RENEWAL_THREADS, BLOCKING_RENEWAL_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), r -> {
+            Thread thread = new Thread(r, RENEWAL_THREAD_NAME);
+            thread.setDaemon(true);
+            return thread;
+        });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+}
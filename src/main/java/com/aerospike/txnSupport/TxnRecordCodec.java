@@ -0,0 +1,238 @@
+package com.aerospike.txnSupport;
+
+import com.aerospike.client.AerospikeException;
+import com.aerospike.client.Key;
+import com.aerospike.client.ResultCode;
+import com.aerospike.client.util.Packer;
+import com.aerospike.client.util.Unpacker;
+
+import java.io.ByteArrayOutputStream;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Internal utility class
+ * Compact binary encoding of the previous record versions stored in a transaction record
+ *
+ * The default encoding stores a map keyed by namespace::set::HEXDIGEST strings, with full bin names for every record
+ * This encoding instead stores
+ *
+ * 1) A format byte, allowing the encoding to be recognised and evolved
+ * 2) A msgpack array of [namespaces, sets, bin names, entries]
+ *
+ * Namespaces, sets and bin names are each stored once and referred to by index. Each entry is
+ * [namespace index, set index, 20 byte digest, bins] where bins is nil if the record did not exist,
+ * otherwise a flat array of bin name index / value pairs
+ *
+ * Values are packed exactly as the server packs them when the default map encoding is used, so values round trip identically
+ *
+ * Encoded versions may additionally be compressed. Compressed form is
+ *
+ * 1) FORMAT_DEFLATE format byte
+ * 2) 4 byte big endian length of the uncompressed encoding
+ * 3) The uncompressed encoding, deflated
+ *
+ * decode recognises either form, so callers need not know whether compression was applied
+ */
+final class TxnRecordCodec {
+    /**
+     * Format byte for the current encoding
+     */
+    static final byte FORMAT_V1 = 1;
+
+    /**
+     * Format byte for a deflate compressed encoding
+     */
+    static final byte FORMAT_DEFLATE = 2;
+
+    /**
+     * Size of the compressed form header - format byte and uncompressed length
+     */
+    private static final int DEFLATE_HEADER_LENGTH = 5;
+
+    /**
+     * Upper bound on the uncompressed length recorded in a compressed form header, so a corrupt header cannot cause a huge allocation
+     * Deflate cannot compress by more than MAX_DEFLATE_RATIO, and no txn record encoding approaches MAX_DECOMPRESSED_LENGTH
+     */
+    private static final int MAX_DEFLATE_RATIO = 1032;
+    static final int MAX_DECOMPRESSED_LENGTH = 128 * 1024 * 1024;
+
+    private TxnRecordCodec(){}
+
+    /**
+     * Encode previous record versions
+     *
+     * @param previousVersions - map of Key to bins, null bins meaning the record did not exist
+     * @return byte[]
+     */
+    static byte[] encode(Map<Key,Map<String,Object>> previousVersions){
+        Map<String,Integer> namespaces = new LinkedHashMap<String,Integer>();
+        Map<String,Integer> sets = new LinkedHashMap<String,Integer>();
+        Map<String,Integer> binNames = new LinkedHashMap<String,Integer>();
+
+        // First pass builds the tables, so they can be written ahead of the entries referring to them
+        for(Map.Entry<Key,Map<String,Object>> entry : previousVersions.entrySet()){
+            Key key = entry.getKey();
+            intern(namespaces, key.namespace);
+            intern(sets, key.setName);
+            if(entry.getValue() != null){
+                for(String binName : entry.getValue().keySet()) intern(binNames, binName);
+            }
+        }
+
+        Packer packer = new Packer();
+        packer.packByte(FORMAT_V1);
+        packer.packArrayBegin(4);
+        packTable(packer, namespaces);
+        packTable(packer, sets);
+        packTable(packer, binNames);
+        packer.packArrayBegin(previousVersions.size());
+        for(Map.Entry<Key,Map<String,Object>> entry : previousVersions.entrySet()){
+            Key key = entry.getKey();
+            Map<String,Object> bins = entry.getValue();
+            packer.packArrayBegin(4);
+            packer.packInt(namespaces.get(key.namespace));
+            packer.packInt(sets.get(key.setName));
+            packer.packBytes(key.digest);
+            if(bins == null){
+                packer.packNil();
+            }
+            else{
+                packer.packArrayBegin(bins.size() * 2);
+                for(Map.Entry<String,Object> bin : bins.entrySet()){
+                    packer.packInt(binNames.get(bin.getKey()));
+                    packer.packObject(bin.getValue());
+                }
+            }
+        }
+        return packer.toByteArray();
+    }
+
+    /**
+     * Decode previous record versions encoded using encode
+     *
+     * @param encoded - bytes as produced by encode
+     * @return map of Key to bins, null bins meaning the record did not exist
+     * @throws AerospikeException if the format is not recognised
+     */
+    @SuppressWarnings("unchecked")
+    static Map<Key,Map<String,Object>> decode(byte[] encoded){
+        if(encoded.length > 0 && encoded[0] == FORMAT_DEFLATE) encoded = decompress(encoded);
+        if(encoded.length == 0 || encoded[0] != FORMAT_V1){
+            throw new AerospikeException(ResultCode.PARSE_ERROR, "Unrecognised transaction record format");
+        }
+        List<Object> parts = (List<Object>)Unpacker.unpackObjectList(encoded, 1, encoded.length - 1);
+        List<Object> namespaces = (List<Object>)parts.get(0);
+        List<Object> sets = (List<Object>)parts.get(1);
+        List<Object> binNames = (List<Object>)parts.get(2);
+        List<Object> entries = (List<Object>)parts.get(3);
+
+        Map<Key,Map<String,Object>> previousVersions = new LinkedHashMap<Key,Map<String,Object>>(entries.size() * 2);
+        for(Object e : entries){
+            List<Object> entry = (List<Object>)e;
+            String namespace = (String)namespaces.get(((Number)entry.get(0)).intValue());
+            String set = (String)sets.get(((Number)entry.get(1)).intValue());
+            byte[] digest = (byte[])entry.get(2);
+            List<Object> packedBins = (List<Object>)entry.get(3);
+            Map<String,Object> bins = null;
+            if(packedBins != null){
+                bins = new HashMap<String,Object>(packedBins.size());
+                for(int i=0;i<packedBins.size();i+=2){
+                    bins.put((String)binNames.get(((Number)packedBins.get(i)).intValue()), packedBins.get(i+1));
+                }
+            }
+            previousVersions.put(new Key(namespace,digest,set,null), bins);
+        }
+        return previousVersions;
+    }
+
+    /**
+     * Compress an encoding produced by encode, if it is at least threshold bytes long and compression makes it smaller
+     *
+     * @param encoded - bytes as produced by encode
+     * @param threshold - size in bytes below which encodings are left uncompressed
+     * @return byte[] - compressed form, or encoded unchanged
+     */
+    static byte[] compress(byte[] encoded, int threshold){
+        if(encoded.length < threshold) return encoded;
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(encoded);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(encoded.length / 2 + DEFLATE_HEADER_LENGTH);
+            out.write(FORMAT_DEFLATE);
+            out.write(encoded.length >>> 24);
+            out.write(encoded.length >>> 16);
+            out.write(encoded.length >>> 8);
+            out.write(encoded.length);
+            byte[] buffer = new byte[Math.max(64, Math.min(encoded.length, 8192))];
+            while(!deflater.finished()){
+                out.write(buffer, 0, deflater.deflate(buffer));
+                // No point continuing once compression is not a saving
+                if(out.size() >= encoded.length) return encoded;
+            }
+            return out.toByteArray();
+        }
+        finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Decompress the compressed form produced by compress
+     *
+     * @param compressed - bytes as produced by compress
+     * @return byte[] - the encoding compressed
+     * @throws AerospikeException if the compressed form is corrupt, or its header gives an implausible uncompressed length
+     */
+    static byte[] decompress(byte[] compressed){
+        if(compressed.length < DEFLATE_HEADER_LENGTH){
+            throw new AerospikeException(ResultCode.PARSE_ERROR, "Truncated compressed transaction record");
+        }
+        int length = ((compressed[1] & 0xFF) << 24) | ((compressed[2] & 0xFF) << 16) | ((compressed[3] & 0xFF) << 8) | (compressed[4] & 0xFF);
+        if(length < 0 || length > MAX_DECOMPRESSED_LENGTH || length > (long)(compressed.length - DEFLATE_HEADER_LENGTH) * MAX_DEFLATE_RATIO){
+            throw new AerospikeException(ResultCode.PARSE_ERROR, "Invalid uncompressed length " + length + " in compressed transaction record");
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed, DEFLATE_HEADER_LENGTH, compressed.length - DEFLATE_HEADER_LENGTH);
+            byte[] encoded = new byte[length];
+            int inflated = 0;
+            while(inflated < length && !inflater.finished()){
+                int count = inflater.inflate(encoded, inflated, length - inflated);
+                if(count == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                inflated += count;
+            }
+            if(inflated != length || !inflater.finished()){
+                throw new AerospikeException(ResultCode.PARSE_ERROR, "Corrupt compressed transaction record");
+            }
+            return encoded;
+        }
+        catch(DataFormatException e){
+            throw new AerospikeException(ResultCode.PARSE_ERROR, "Corrupt compressed transaction record");
+        }
+        finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Add value to table if not already present
+     */
+    private static void intern(Map<String,Integer> table, String value){
+        if(!table.containsKey(value)) table.put(value, table.size());
+    }
+
+    /**
+     * Pack table values in index order
+     */
+    private static void packTable(Packer packer, Map<String,Integer> table){
+        packer.packArrayBegin(table.size());
+        for(String value : table.keySet()){
+            if(value != null) packer.packString(value);
+            else packer.packNil();
+        }
+    }
+}
@@ -3,8 +3,11 @@ package com.aerospike.txnSupport;
 import com.aerospike.client.AerospikeException;
 import com.aerospike.client.Bin;
 import com.aerospike.client.Key;
+import com.aerospike.client.Record;
 import com.aerospike.client.policy.WritePolicy;
 
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.UUID;
 
@@ -55,9 +58,41 @@ public interface TxnSupport {
      * Rollback a transaction identified by txnID
      *
      * @param txnID txn to roll back
+     * @throws TxnException with result code KEY_NOT_FOUND_ERROR if the txn record does not exist
      */
     void rollback(String txnID) throws LockAcquireException;
 
+    /**
+     * Save a number of records as an atomic transaction, validating optimistic reads made using getForUpdate
+     * Locks are held only while committing. Reads are validated before any record is written
+     * Records read but not updated are validated but not locked, so may change before the commit completes - write skew is possible
+     *
+     * @param policy - write policy
+     * @param recordsForUpdate - HashMap of records for update
+     * @param readGenerations - generations of records when read, 0 if they did not exist
+     * @param txnID - transaction id
+     * @throws LockAcquireException if records updated by txn are already locked
+     * @throws GenFailException if a record has changed since it was read
+     */
+    void putOptimistic(WritePolicy policy, HashMap<Key,Bin[]> recordsForUpdate, HashMap<Key,Integer> readGenerations, String txnID) throws LockAcquireException, GenFailException;
+
+    /**
+     * Read records for an optimistic transaction, recording the generation of each as read
+     *
+     * @param keys - keys of records to read
+     * @param readGenerations - map to which generations of records read are added - 0 for records which do not exist
+     * @return Record[] - records read, null if they do not exist
+     */
+    Record[] getForUpdate(Key[] keys, HashMap<Key,Integer> readGenerations);
+
+    /**
+     * Begin an optimistic transaction - reads and writes are buffered until the transaction is committed
+     *
+     * @param policy - write policy
+     * @return Transaction
+     */
+    Transaction beginTransaction(WritePolicy policy);
+
     /**
      * Create a lock on they object identified by key
      * Throw an error if lock cannot be acquired
@@ -78,6 +113,25 @@ public interface TxnSupport {
      */
     void removeLock(Key key,String txnID);
 
+    /**
+     * Create a shared lock on the object identified by key
+     * Any number of transactions may hold shared locks on an object, but not while it is exclusively locked
+     *
+     * @param key Aerospike Key for record requiring lock
+     * @param txnID Transaction record is being locked for
+     * @throws LockAcquireException if the record is exclusively locked
+     */
+    void createSharedLock(Key key, String txnID) throws LockAcquireException;
+
+    /**
+     * Remove shared lock for a given key/txnID combination
+     * If combination does not exist, no action is taken
+     *
+     * @param key Aerospike Key for record requiring lock removal
+     * @param txnID Transaction record was locked
+     */
+    void removeSharedLock(Key key, String txnID);
+
     /**
      * Is there currently a lock on the object identified by 'key'
      *
@@ -86,6 +140,31 @@ public interface TxnSupport {
      */
     boolean lockExists(Key key);
 
+    /**
+     * Which of the objects identified by 'keys' are currently locked
+     *
+     * @param keys Aerospike Keys for records whose locks are being checked
+     * @return BitSet - bit i is set if keys[i] is locked
+     */
+    BitSet lockExists(Key[] keys);
+
+    /**
+     * Transactions currently holding locks on the objects identified by 'keys'
+     *
+     * @param keys Aerospike Keys for records whose locks are being checked
+     * @return String[] - element i is the txnID holding the lock on keys[i], AerospikeClientWithTxnSupport.SHARED_LOCK_TXN_ID if shared, or null if keys[i] is not locked
+     */
+    String[] lockHolders(Key[] keys);
+
+    /**
+     * Read records as last committed, without waiting for locks
+     * Records locked by an in-flight transaction are returned as they were before it, using its transaction record
+     *
+     * @param keys Aerospike Keys for records to read
+     * @return Record[] - element i is the committed version of keys[i], or null if it does not exist
+     */
+    Record[] getCommitted(Key[] keys);
+
     /**
      * Utility method to get string uuid
      *
@@ -102,6 +181,16 @@ public interface TxnSupport {
      */
     boolean txnIncomplete(String txnID);
 
+    /**
+     * Extend the lease on a transaction and its locks, so they are not treated as expired until leaseMillis from now
+     * Allows long running transactions to hold locks beyond the TransactionManager timeout
+     *
+     * @param txnID Transaction to renew the lease of
+     * @param lockedKeys Keys of records locked by the transaction
+     * @param leaseMillis Lease length in ms
+     */
+    void renewLease(String txnID, Collection<Key> lockedKeys, long leaseMillis);
+
 
     /**
      * Error thrown when a Key cannot be locked due to it being locked already
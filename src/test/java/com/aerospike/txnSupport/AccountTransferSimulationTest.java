@@ -198,6 +198,35 @@ public class AccountTransferSimulationTest {
         client.put(SIMULATION_WRITE_POLICY,recordsForUpdate,txnID);
     }
 
+    /**
+     * Transfer amountPence atomically from fromAccount to toAccount, optimistically
+     * Balances are read without locking, and the transfer fails if either account has changed by the time it commits
+     *
+     * @param fromAccount - account from which money will be transferred
+     * @param toAccount - account to which money will be transferred
+     * @param amountPence - transfer amount
+     * @throws AerospikeClientWithTxnSupport.LockAcquireException if either of the accounts is locked when committing
+     * @throws AerospikeClientWithTxnSupport.GenFailException if either of the accounts has changed since read
+     */
+    public void transferOptimistic(String fromAccount,String toAccount,int amountPence)
+            throws AerospikeClientWithTxnSupport.LockAcquireException, AerospikeClientWithTxnSupport.GenFailException {
+        String txnID = TxnSupport.uniqueTxnID();
+        Key fromAccountKey = accountKey(fromAccount);
+        Key toAccountKey = accountKey(toAccount);
+
+        HashMap<Key,Integer> readGenerations = new HashMap<Key,Integer>();
+        Record[] accountRecords = client.getForUpdate(new Key[]{fromAccountKey,toAccountKey},readGenerations);
+
+        long fromAccountBalance = accountRecords[0].getInt(BALANCE_PENCE_BIN_NAME) - amountPence;
+        long toAccountBalance = accountRecords[1].getInt(BALANCE_PENCE_BIN_NAME) + amountPence;
+
+        HashMap<Key,Bin[]> recordsForUpdate = new HashMap<Key,Bin[]>();
+        recordsForUpdate.put(fromAccountKey,new Bin[]{new Bin(ACCOUNT_ID_BIN_NAME,fromAccount),new Bin(BALANCE_PENCE_BIN_NAME,fromAccountBalance)});
+        recordsForUpdate.put(toAccountKey,new Bin[]{new Bin(ACCOUNT_ID_BIN_NAME,toAccount),new Bin(BALANCE_PENCE_BIN_NAME,toAccountBalance)});
+
+        client.putOptimistic(SIMULATION_WRITE_POLICY,recordsForUpdate,readGenerations,txnID);
+    }
+
     /**
      * Get total money in simulation ( sum all balances )
      * @return total amount of money summed across all accounts in simulation
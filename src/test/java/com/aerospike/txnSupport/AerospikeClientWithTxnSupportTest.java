@@ -2,19 +2,31 @@ package com.aerospike.txnSupport;
 
 import com.aerospike.client.*;
 import com.aerospike.client.Record;
+import com.aerospike.client.async.NioEventLoops;
+import com.aerospike.client.cluster.Node;
 import com.aerospike.client.policy.*;
+import com.aerospike.client.query.PredExp;
 import org.junit.*;
 
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
 import java.util.Vector;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class AerospikeClientWithTxnSupportTest {
 
     // Client object we will use for the test
     private static ClientPolicy clientPolicy = new ClientPolicy();
 
+    // Event loops are needed to test the parallel / async features
+    static {
+        clientPolicy.eventLoops = new NioEventLoops(1);
+    }
+
     private static AerospikeClientWithTxnSupport aerospikeClientWithTxnSupport =
             new AerospikeClientWithTxnSupport(clientPolicy, TestConstants.AEROSPIKE_SERVER_IP, TestConstants.AEROSPIKE_SERVER_PORT, TestConstants.TEST_TXN_NAMESPACE);
 
@@ -38,6 +50,19 @@ public class AerospikeClientWithTxnSupportTest {
         aerospikeClientWithTxnSupport.truncate(new InfoPolicy(),
                 TestConstants.TEST_NAMESPACE,AerospikeClientWithTxnSupport.LOCK_SET,null);
         aerospikeClientWithTxnSupport.setEnterprise(false);
+        aerospikeClientWithTxnSupport.setParallelLockAcquisition(false);
+        aerospikeClientWithTxnSupport.setParallelCommit(false);
+        aerospikeClientWithTxnSupport.setParallelLockRelease(false);
+        aerospikeClientWithTxnSupport.setLockWaitPolicy(null);
+        aerospikeClientWithTxnSupport.setCompactTxnRecords(false);
+        aerospikeClientWithTxnSupport.setLegacyLockKeyCompatibility(false);
+        aerospikeClientWithTxnSupport.setLockStrategy(null);
+        aerospikeClientWithTxnSupport.setInlineLockTimeoutMillis(TransactionManager.DEFAULT_TXN_EXPIRY_PERIOD_MILLIS);
+        aerospikeClientWithTxnSupport.setBinLevelUndo(false);
+        aerospikeClientWithTxnSupport.setRedoLogging(false);
+        aerospikeClientWithTxnSupport.setCompressTxnRecords(false);
+        aerospikeClientWithTxnSupport.setTxnRecordCompressionThreshold(AerospikeClientWithTxnSupport.DEFAULT_TXN_RECORD_COMPRESSION_THRESHOLD);
+        aerospikeClientWithTxnSupport.setTxnRecordChunkSize(0);
     }
 
     @After
@@ -49,6 +74,19 @@ public class AerospikeClientWithTxnSupportTest {
         aerospikeClientWithTxnSupport.truncate(new InfoPolicy(),
                 TestConstants.TEST_NAMESPACE,AerospikeClientWithTxnSupport.LOCK_SET,null);
         aerospikeClientWithTxnSupport.setEnterprise(false);
+        aerospikeClientWithTxnSupport.setParallelLockAcquisition(false);
+        aerospikeClientWithTxnSupport.setParallelCommit(false);
+        aerospikeClientWithTxnSupport.setParallelLockRelease(false);
+        aerospikeClientWithTxnSupport.setLockWaitPolicy(null);
+        aerospikeClientWithTxnSupport.setCompactTxnRecords(false);
+        aerospikeClientWithTxnSupport.setLegacyLockKeyCompatibility(false);
+        aerospikeClientWithTxnSupport.setLockStrategy(null);
+        aerospikeClientWithTxnSupport.setInlineLockTimeoutMillis(TransactionManager.DEFAULT_TXN_EXPIRY_PERIOD_MILLIS);
+        aerospikeClientWithTxnSupport.setBinLevelUndo(false);
+        aerospikeClientWithTxnSupport.setRedoLogging(false);
+        aerospikeClientWithTxnSupport.setCompressTxnRecords(false);
+        aerospikeClientWithTxnSupport.setTxnRecordCompressionThreshold(AerospikeClientWithTxnSupport.DEFAULT_TXN_RECORD_COMPRESSION_THRESHOLD);
+        aerospikeClientWithTxnSupport.setTxnRecordChunkSize(0);
     }
     /**
      * Check you can't lock the same record twice with different txn ids
@@ -1109,4 +1147,1691 @@ public class AerospikeClientWithTxnSupportTest {
             Assert.fail("An error was thrown that was not a TxnException - investigate");
         }
     }
+
+    /**
+     * Parallel lock acquisition should give the same result as serial acquisition for a successful txn
+     */
+    @Test
+    public void checkCorrectResultWithParallelLockAcquisition() throws TxnSupport.LockAcquireException{
+        aerospikeClientWithTxnSupport.setParallelLockAcquisition(true);
+
+        HashMap<Key,Bin[]> recordUpdates = new HashMap<Key, Bin[]>();
+        recordUpdates.put(TEST_KEY_1,new Bin[]{new Bin("Bin-01",1)});
+        recordUpdates.put(TEST_KEY_2,new Bin[]{new Bin("Bin-01",2)});
+        recordUpdates.put(TEST_KEY_3,new Bin[]{new Bin("Bin-01",3)});
+
+        aerospikeClientWithTxnSupport.put(testWritePolicy, recordUpdates);
+
+        Assert.assertFalse(aerospikeClientWithTxnSupport.lockExists(TEST_KEY_1));
+        Assert.assertFalse(aerospikeClientWithTxnSupport.lockExists(TEST_KEY_2));
+        Assert.assertFalse(aerospikeClientWithTxnSupport.lockExists(TEST_KEY_3));
+        Assert.assertTrue(getTransactions(aerospikeClientWithTxnSupport).size() == 0);
+
+        Assert.assertTrue(aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_1).getInt("Bin-01") == 1);
+        Assert.assertTrue(aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_2).getInt("Bin-01") == 2);
+        Assert.assertTrue(aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_3).getInt("Bin-01") == 3);
+    }
+
+    /**
+     * If one lock cannot be acquired when acquiring in parallel, the locks that were acquired should be released
+     * and the lock held by the other txn left in place
+     */
+    @Test
+    public void acquiredLocksReleasedWhenParallelLockAcquisitionFails() throws TxnSupport.LockAcquireException{
+        aerospikeClientWithTxnSupport.setParallelLockAcquisition(true);
+
+        String differentTxnID = TxnSupport.uniqueTxnID();
+        aerospikeClientWithTxnSupport.createLock(TEST_KEY_2,differentTxnID);
+
+        HashMap<Key,Bin[]> recordUpdates = new HashMap<Key, Bin[]>();
+        recordUpdates.put(TEST_KEY_1,new Bin[]{new Bin("Bin-01",1)});
+        recordUpdates.put(TEST_KEY_2,new Bin[]{new Bin("Bin-01",2)});
+        recordUpdates.put(TEST_KEY_3,new Bin[]{new Bin("Bin-01",3)});
+
+        try {
+            aerospikeClientWithTxnSupport.put(testWritePolicy, recordUpdates);
+            Assert.fail("Should throw a Lock Exception - did not - test failed");
+        }
+        catch(TxnSupport.LockAcquireException e){
+            Assert.assertTrue(e.getKey().equals(TEST_KEY_2));
+        }
+
+        Assert.assertFalse(aerospikeClientWithTxnSupport.lockExists(TEST_KEY_1));
+        Assert.assertTrue(aerospikeClientWithTxnSupport.lockExists(TEST_KEY_2));
+        Assert.assertFalse(aerospikeClientWithTxnSupport.lockExists(TEST_KEY_3));
+        Assert.assertTrue(aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_1) == null);
+
+        aerospikeClientWithTxnSupport.removeLock(TEST_KEY_2,differentTxnID);
+    }
+
+    /**
+     * Parallel commit should apply all updates, with a window smaller than the number of records
+     */
+    @Test
+    public void checkCorrectResultWithParallelCommit() throws TxnSupport.LockAcquireException{
+        aerospikeClientWithTxnSupport.setParallelCommit(true);
+        aerospikeClientWithTxnSupport.setMaxInFlightCommands(2);
+
+        Key[] keys = new Key[]{TEST_KEY_1,TEST_KEY_2,TEST_KEY_3,TEST_KEY_4,TEST_KEY_5,TEST_KEY_6};
+        HashMap<Key,Bin[]> recordUpdates = new HashMap<Key, Bin[]>();
+        for(int i=0;i<keys.length;i++){
+            recordUpdates.put(keys[i],new Bin[]{new Bin("Bin-01",i)});
+        }
+
+        try {
+            aerospikeClientWithTxnSupport.put(testWritePolicy, recordUpdates);
+        }
+        finally {
+            aerospikeClientWithTxnSupport.setMaxInFlightCommands(AerospikeClientWithTxnSupport.DEFAULT_MAX_IN_FLIGHT_COMMANDS);
+        }
+
+        for(int i=0;i<keys.length;i++){
+            Assert.assertTrue(aerospikeClientWithTxnSupport.get(testReadPolicy,keys[i]).getInt("Bin-01") == i);
+            Assert.assertFalse(aerospikeClientWithTxnSupport.lockExists(keys[i]));
+        }
+        Assert.assertTrue(getTransactions(aerospikeClientWithTxnSupport).size() == 0);
+    }
+
+    /**
+     * A generation check failure during a parallel commit should roll back all records
+     */
+    @Test
+    public void checkRollbackWithGenFailDuringParallelCommit() throws TxnSupport.LockAcquireException{
+        aerospikeClientWithTxnSupport.setParallelCommit(true);
+
+        aerospikeClientWithTxnSupport.put(testWritePolicy,TEST_KEY_1,new Bin("Bin-01",1));
+        aerospikeClientWithTxnSupport.put(testWritePolicy,TEST_KEY_2,new Bin("Bin-01",2));
+        int key2Generation = aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_2).generation;
+
+        HashMap<Key,Bin[]> recordUpdates = new HashMap<Key, Bin[]>();
+        recordUpdates.put(TEST_KEY_1,new Bin[]{new Bin("Bin-01",3)});
+        recordUpdates.put(TEST_KEY_2,new Bin[]{new Bin("Bin-01",4)});
+        HashMap<Key,Integer> generationCheckMap = new HashMap<Key, Integer>();
+        generationCheckMap.put(TEST_KEY_2,key2Generation + 1);
+
+        try {
+            aerospikeClientWithTxnSupport.put(testWritePolicy, recordUpdates, generationCheckMap);
+            Assert.fail("Should throw a GenFailException - did not - test failed");
+        }
+        catch(TxnSupport.GenFailException e){
+            Assert.assertTrue(e.getKey().equals(TEST_KEY_2));
+        }
+
+        Assert.assertTrue(aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_1).getInt("Bin-01") == 1);
+        Assert.assertTrue(aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_2).getInt("Bin-01") == 2);
+        Assert.assertFalse(aerospikeClientWithTxnSupport.lockExists(TEST_KEY_1));
+        Assert.assertFalse(aerospikeClientWithTxnSupport.lockExists(TEST_KEY_2));
+        Assert.assertTrue(getTransactions(aerospikeClientWithTxnSupport).size() == 0);
+    }
+
+    /**
+     * With parallel lock release, locks should be removed after commit
+     * and a failed txn should not remove locks held by other txns
+     */
+    @Test
+    public void checkParallelLockRelease() throws TxnSupport.LockAcquireException{
+        aerospikeClientWithTxnSupport.setParallelLockRelease(true);
+
+        HashMap<Key,Bin[]> recordUpdates = new HashMap<Key, Bin[]>();
+        recordUpdates.put(TEST_KEY_1,new Bin[]{new Bin("Bin-01",1)});
+        recordUpdates.put(TEST_KEY_2,new Bin[]{new Bin("Bin-01",2)});
+        recordUpdates.put(TEST_KEY_3,new Bin[]{new Bin("Bin-01",3)});
+
+        aerospikeClientWithTxnSupport.put(testWritePolicy, recordUpdates);
+
+        Assert.assertFalse(aerospikeClientWithTxnSupport.lockExists(TEST_KEY_1));
+        Assert.assertFalse(aerospikeClientWithTxnSupport.lockExists(TEST_KEY_2));
+        Assert.assertFalse(aerospikeClientWithTxnSupport.lockExists(TEST_KEY_3));
+
+        // Now have a different txn hold one of the locks
+        String differentTxnID = TxnSupport.uniqueTxnID();
+        aerospikeClientWithTxnSupport.createLock(TEST_KEY_3,differentTxnID);
+        try {
+            aerospikeClientWithTxnSupport.put(testWritePolicy, recordUpdates);
+            Assert.fail("Should throw a Lock Exception - did not - test failed");
+        }
+        catch(TxnSupport.LockAcquireException e){}
+
+        Assert.assertFalse(aerospikeClientWithTxnSupport.lockExists(TEST_KEY_1));
+        Assert.assertFalse(aerospikeClientWithTxnSupport.lockExists(TEST_KEY_2));
+        Assert.assertTrue(aerospikeClientWithTxnSupport.lockExists(TEST_KEY_3));
+
+        aerospikeClientWithTxnSupport.removeLock(TEST_KEY_3,differentTxnID);
+    }
+
+    /**
+     * putAsync should give the same result as put
+     */
+    @Test
+    public void checkCorrectResultWithPutAsync() throws Exception{
+        HashMap<Key,Bin[]> recordUpdates = new HashMap<Key, Bin[]>();
+        recordUpdates.put(TEST_KEY_1,new Bin[]{new Bin("Bin-01",1)});
+        recordUpdates.put(TEST_KEY_2,new Bin[]{new Bin("Bin-01",2)});
+
+        aerospikeClientWithTxnSupport.putAsync(testWritePolicy, recordUpdates).get();
+
+        Assert.assertTrue(aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_1).getInt("Bin-01") == 1);
+        Assert.assertTrue(aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_2).getInt("Bin-01") == 2);
+        Assert.assertFalse(aerospikeClientWithTxnSupport.lockExistsAsync(TEST_KEY_1).get());
+        Assert.assertFalse(aerospikeClientWithTxnSupport.lockExistsAsync(TEST_KEY_2).get());
+        Assert.assertTrue(getTransactions(aerospikeClientWithTxnSupport).size() == 0);
+    }
+
+    /**
+     * putAsync should fail with LockAcquireException if a record is locked, leaving other records untouched
+     */
+    @Test
+    public void putAsyncFailsIfLocked() throws Exception{
+        String differentTxnID = TxnSupport.uniqueTxnID();
+        aerospikeClientWithTxnSupport.createLockAsync(TEST_KEY_2,differentTxnID).get();
+
+        HashMap<Key,Bin[]> recordUpdates = new HashMap<Key, Bin[]>();
+        recordUpdates.put(TEST_KEY_1,new Bin[]{new Bin("Bin-01",1)});
+        recordUpdates.put(TEST_KEY_2,new Bin[]{new Bin("Bin-01",2)});
+
+        try {
+            aerospikeClientWithTxnSupport.putAsync(testWritePolicy, recordUpdates).get();
+            Assert.fail("Should throw a Lock Exception - did not - test failed");
+        }
+        catch(ExecutionException e){
+            Assert.assertTrue(e.getCause() instanceof TxnSupport.LockAcquireException);
+        }
+
+        Assert.assertNull(aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_1));
+        Assert.assertFalse(aerospikeClientWithTxnSupport.lockExists(TEST_KEY_1));
+        Assert.assertTrue(aerospikeClientWithTxnSupport.lockExists(TEST_KEY_2));
+
+        aerospikeClientWithTxnSupport.removeLock(TEST_KEY_2,differentTxnID);
+    }
+
+    /**
+     * rollbackAsync should fail as rollback does if there is no such txn, releasing the lock on its txn record
+     */
+    @Test
+    public void rollbackAsyncFailsIfNoTxnRecord() throws Exception{
+        String txnID = TxnSupport.uniqueTxnID();
+        try {
+            aerospikeClientWithTxnSupport.rollbackAsync(txnID).get();
+            Assert.fail("Should fail as the txn record does not exist");
+        }
+        catch(ExecutionException e){
+            Assert.assertTrue(e.getCause() instanceof TxnSupport.TxnException);
+            Assert.assertEquals(ResultCode.KEY_NOT_FOUND_ERROR,((TxnSupport.TxnException)e.getCause()).getResultCode());
+        }
+        try {
+            aerospikeClientWithTxnSupport.rollback(txnID);
+            Assert.fail("Should fail as the txn record does not exist");
+        }
+        catch(TxnSupport.TxnException e){
+            Assert.assertEquals(ResultCode.KEY_NOT_FOUND_ERROR,e.getResultCode());
+        }
+        Assert.assertFalse(aerospikeClientWithTxnSupport.lockExists(aerospikeClientWithTxnSupport.keyForTxnID(txnID)));
+    }
+
+    /**
+     * putAsync with a failing generation check should roll back and fail with GenFailException
+     */
+    @Test
+    public void checkRollbackWithGenFailDuringPutAsync() throws Exception{
+        aerospikeClientWithTxnSupport.put(testWritePolicy,TEST_KEY_1,new Bin("Bin-01",1));
+        aerospikeClientWithTxnSupport.put(testWritePolicy,TEST_KEY_2,new Bin("Bin-01",2));
+        int key2Generation = aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_2).generation;
+
+        HashMap<Key,Bin[]> recordUpdates = new HashMap<Key, Bin[]>();
+        recordUpdates.put(TEST_KEY_1,new Bin[]{new Bin("Bin-01",3)});
+        recordUpdates.put(TEST_KEY_2,new Bin[]{new Bin("Bin-01",4)});
+        HashMap<Key,Integer> generationCheckMap = new HashMap<Key, Integer>();
+        generationCheckMap.put(TEST_KEY_2,key2Generation + 1);
+
+        try {
+            aerospikeClientWithTxnSupport.putAsync(testWritePolicy, recordUpdates, generationCheckMap).get();
+            Assert.fail("Should throw a GenFailException - did not - test failed");
+        }
+        catch(ExecutionException e){
+            Assert.assertTrue(e.getCause() instanceof TxnSupport.GenFailException);
+            Assert.assertTrue(((TxnSupport.GenFailException)e.getCause()).getKey().equals(TEST_KEY_2));
+        }
+
+        Assert.assertTrue(aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_1).getInt("Bin-01") == 1);
+        Assert.assertTrue(aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_2).getInt("Bin-01") == 2);
+        Assert.assertFalse(aerospikeClientWithTxnSupport.lockExists(TEST_KEY_1));
+        Assert.assertFalse(aerospikeClientWithTxnSupport.lockExists(TEST_KEY_2));
+        Assert.assertTrue(getTransactions(aerospikeClientWithTxnSupport).size() == 0);
+    }
+
+    /**
+     * Locks should be acquired in the same order regardless of the order keys are supplied in
+     */
+    @Test
+    public void lockOrderIsCanonical(){
+        Vector<Key> keys = new Vector<Key>();
+        keys.add(TEST_KEY_1);
+        keys.add(TEST_KEY_2);
+        keys.add(TEST_KEY_3);
+        keys.add(TEST_KEY_4);
+        Vector<Key> reversedKeys = new Vector<Key>(keys);
+        java.util.Collections.reverse(reversedKeys);
+
+        Assert.assertEquals(AerospikeClientWithTxnSupport.lockOrder(keys),AerospikeClientWithTxnSupport.lockOrder(reversedKeys));
+    }
+
+    /**
+     * With a lock wait policy, put should succeed if a conflicting lock is released while waiting
+     */
+    @Test
+    public void putWaitsForLockRelease() throws Exception{
+        aerospikeClientWithTxnSupport.setLockWaitPolicy(new LockWaitPolicy(5000));
+        String differentTxnID = TxnSupport.uniqueTxnID();
+        aerospikeClientWithTxnSupport.createLock(TEST_KEY_2,differentTxnID);
+
+        Thread lockReleaser = new Thread(() -> {
+            try {
+                Thread.sleep(300);
+            }
+            catch(InterruptedException e){}
+            aerospikeClientWithTxnSupport.removeLock(TEST_KEY_2,differentTxnID);
+        });
+        lockReleaser.start();
+
+        HashMap<Key,Bin[]> recordUpdates = new HashMap<Key, Bin[]>();
+        recordUpdates.put(TEST_KEY_1,new Bin[]{new Bin("Bin-01",1)});
+        recordUpdates.put(TEST_KEY_2,new Bin[]{new Bin("Bin-01",2)});
+        aerospikeClientWithTxnSupport.put(testWritePolicy, recordUpdates);
+        lockReleaser.join();
+
+        Assert.assertTrue(aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_1).getInt("Bin-01") == 1);
+        Assert.assertTrue(aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_2).getInt("Bin-01") == 2);
+        Assert.assertFalse(aerospikeClientWithTxnSupport.lockExists(TEST_KEY_1));
+        Assert.assertFalse(aerospikeClientWithTxnSupport.lockExists(TEST_KEY_2));
+    }
+
+    /**
+     * With a lock wait policy, put should give up with LockAcquireException once maxWaitMillis has passed
+     * Same check for serial and parallel lock acquisition
+     */
+    @Test
+    public void putGivesUpAfterLockWait() throws TxnSupport.LockAcquireException{
+        aerospikeClientWithTxnSupport.setLockWaitPolicy(new LockWaitPolicy(200));
+        String differentTxnID = TxnSupport.uniqueTxnID();
+        aerospikeClientWithTxnSupport.createLock(TEST_KEY_2,differentTxnID);
+
+        HashMap<Key,Bin[]> recordUpdates = new HashMap<Key, Bin[]>();
+        recordUpdates.put(TEST_KEY_1,new Bin[]{new Bin("Bin-01",1)});
+        recordUpdates.put(TEST_KEY_2,new Bin[]{new Bin("Bin-01",2)});
+
+        for(boolean parallel : new boolean[]{false,true}) {
+            aerospikeClientWithTxnSupport.setParallelLockAcquisition(parallel);
+            long startTime = System.currentTimeMillis();
+            try {
+                aerospikeClientWithTxnSupport.put(testWritePolicy, recordUpdates);
+                Assert.fail("Should throw a Lock Exception - did not - test failed");
+            }
+            catch (TxnSupport.LockAcquireException e) {
+                Assert.assertTrue(e.getKey().equals(TEST_KEY_2));
+            }
+            Assert.assertTrue(System.currentTimeMillis() - startTime >= 200);
+            Assert.assertFalse(aerospikeClientWithTxnSupport.lockExists(TEST_KEY_1));
+        }
+
+        aerospikeClientWithTxnSupport.removeLock(TEST_KEY_2,differentTxnID);
+    }
+
+    /**
+     * Compact txn record encoding should round trip keys, bins and non-existent records
+     */
+    @Test
+    public void compactTxnRecordRoundTrip(){
+        Key keyWithoutSet = new Key(TestConstants.TEST_NAMESPACE,(String)null,"key-without-set");
+        Map<String,Object> bins = new HashMap<String,Object>();
+        bins.put("Bin-01",1L);
+        bins.put("Bin-02","value");
+        bins.put("Bin-03",new byte[]{1,2,3});
+        HashMap<String,Object> mapBin = new HashMap<String,Object>();
+        mapBin.put("nested",2L);
+        bins.put("Bin-04",mapBin);
+
+        Map<Key,Map<String,Object>> previousVersions = new java.util.LinkedHashMap<Key,Map<String,Object>>();
+        previousVersions.put(TEST_KEY_1,bins);
+        previousVersions.put(TEST_KEY_2,null);
+        previousVersions.put(keyWithoutSet,bins);
+
+        Map<Key,Map<String,Object>> decoded = TxnRecordCodec.decode(TxnRecordCodec.encode(previousVersions));
+
+        Assert.assertEquals(previousVersions.keySet(),decoded.keySet());
+        Assert.assertNull(decoded.get(TEST_KEY_2));
+        for(Key key : new Key[]{TEST_KEY_1,keyWithoutSet}) {
+            Map<String,Object> decodedBins = decoded.get(key);
+            Assert.assertEquals(bins.size(),decodedBins.size());
+            Assert.assertEquals(1L,decodedBins.get("Bin-01"));
+            Assert.assertEquals("value",decodedBins.get("Bin-02"));
+            Assert.assertTrue(java.util.Arrays.equals(new byte[]{1,2,3},(byte[])decodedBins.get("Bin-03")));
+            Assert.assertEquals(mapBin,decodedBins.get("Bin-04"));
+        }
+        Assert.assertEquals(TEST_KEY_1.setName,decoded.keySet().iterator().next().setName);
+    }
+
+    /**
+     * Rollback should restore previous versions stored using the compact txn record encoding
+     */
+    @Test
+    public void rollbackWithCompactTxnRecords() throws TxnSupport.LockAcquireException{
+        aerospikeClientWithTxnSupport.setCompactTxnRecords(true);
+        Key[] keyArray = new Key[]{TEST_KEY_1,TEST_KEY_2};
+        aerospikeClientWithTxnSupport.put(testWritePolicy,TEST_KEY_1,new Bin("Bin-01",1),new Bin("Bin-02","a"));
+
+        String txnID = TxnSupport.uniqueTxnID();
+        HashMap<String,Map<String,Object>> txnRecords = aerospikeClientWithTxnSupport.existingVersionsOfRecordsForUpdate(keyArray, txnID);
+        aerospikeClientWithTxnSupport.createTransactionRecord(TestConstants.TEST_NAMESPACE,txnRecords,txnID);
+        aerospikeClientWithTxnSupport.createLock(TEST_KEY_1,txnID);
+        aerospikeClientWithTxnSupport.createLock(TEST_KEY_2,txnID);
+
+        aerospikeClientWithTxnSupport.put(testWritePolicy,TEST_KEY_1,new Bin("Bin-01",2),new Bin("Bin-02","b"));
+        aerospikeClientWithTxnSupport.put(testWritePolicy,TEST_KEY_2,new Bin("Bin-01",3));
+
+        // Switching format does not prevent rollback of txns written using the compact format
+        aerospikeClientWithTxnSupport.setCompactTxnRecords(false);
+        aerospikeClientWithTxnSupport.rollback(txnID);
+
+        Record record1 = aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_1);
+        Assert.assertTrue(record1.getInt("Bin-01") == 1);
+        Assert.assertTrue(record1.getString("Bin-02").equals("a"));
+        Assert.assertNull(aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_2));
+        Assert.assertFalse(aerospikeClientWithTxnSupport.lockExists(TEST_KEY_1));
+        Assert.assertFalse(aerospikeClientWithTxnSupport.lockExists(TEST_KEY_2));
+        Assert.assertFalse(aerospikeClientWithTxnSupport.txnIncomplete(txnID));
+    }
+
+    /**
+     * Lock keys should be derived from the record digest, remain in the same partition and not clash with the record itself
+     */
+    @Test
+    public void lockKeyDerivedFromDigest(){
+        Key lockKey = AerospikeClientWithTxnSupport.lockKey(TEST_KEY_1);
+        Key keyFromDigest = new Key(TEST_KEY_1.namespace,TEST_KEY_1.digest,TEST_KEY_1.setName,null);
+
+        Assert.assertEquals(AerospikeClientWithTxnSupport.LOCK_SET,lockKey.setName);
+        Assert.assertFalse(java.util.Arrays.equals(TEST_KEY_1.digest,lockKey.digest));
+        Assert.assertEquals(TEST_KEY_1.digest[0],lockKey.digest[0]);
+        Assert.assertEquals(TEST_KEY_1.digest[1],lockKey.digest[1]);
+        Assert.assertEquals(lockKey,AerospikeClientWithTxnSupport.lockKey(keyFromDigest));
+        Assert.assertFalse(lockKey.equals(AerospikeClientWithTxnSupport.lockKey(TEST_KEY_2)));
+    }
+
+    /**
+     * With legacy lock key compatibility, locks written by older clients should be respected
+     */
+    @Test
+    public void legacyLockKeyCompatibility() throws TxnSupport.LockAcquireException{
+        // Simulate a lock taken out by an older client
+        String differentTxnID = TxnSupport.uniqueTxnID();
+        aerospikeClientWithTxnSupport.put(testWritePolicy,AerospikeClientWithTxnSupport.legacyLockKey(TEST_KEY_1),
+                new Bin(AerospikeClientWithTxnSupport.TXN_ID_BIN_NAME,differentTxnID));
+
+        Assert.assertFalse(aerospikeClientWithTxnSupport.lockExists(TEST_KEY_1));
+        aerospikeClientWithTxnSupport.setLegacyLockKeyCompatibility(true);
+        Assert.assertTrue(aerospikeClientWithTxnSupport.lockExists(TEST_KEY_1));
+
+        String txnID = TxnSupport.uniqueTxnID();
+        try {
+            aerospikeClientWithTxnSupport.createLock(TEST_KEY_1, txnID);
+            Assert.fail("Should throw a Lock Exception - did not - test failed");
+        }
+        catch(TxnSupport.LockAcquireException e){}
+        aerospikeClientWithTxnSupport.removeLock(TEST_KEY_1,differentTxnID);
+
+        // Locks taken out in compatibility mode are visible to older clients, and are removed in both forms
+        aerospikeClientWithTxnSupport.createLock(TEST_KEY_1, txnID);
+        Assert.assertNotNull(aerospikeClientWithTxnSupport.get(testReadPolicy,AerospikeClientWithTxnSupport.legacyLockKey(TEST_KEY_1)));
+        Assert.assertNotNull(aerospikeClientWithTxnSupport.get(testReadPolicy,AerospikeClientWithTxnSupport.lockKey(TEST_KEY_1)));
+        aerospikeClientWithTxnSupport.removeLock(TEST_KEY_1,txnID);
+        Assert.assertNull(aerospikeClientWithTxnSupport.get(testReadPolicy,AerospikeClientWithTxnSupport.legacyLockKey(TEST_KEY_1)));
+        Assert.assertNull(aerospikeClientWithTxnSupport.get(testReadPolicy,AerospikeClientWithTxnSupport.lockKey(TEST_KEY_1)));
+    }
+
+    /**
+     * KeyAsString should round trip keys, and reject strings not in namespace::set::HEXDIGEST form
+     */
+    @Test
+    public void keyAsStringRoundTrip(){
+        String keyAsString = new AerospikeClientWithTxnSupport.KeyAsString(TEST_KEY_1).toString();
+        Assert.assertEquals(TEST_KEY_1.namespace + "::" + TEST_KEY_1.setName + "::" + AerospikeClientWithTxnSupport.byteArrayToString(TEST_KEY_1.digest),keyAsString);
+
+        Key key = new AerospikeClientWithTxnSupport.KeyAsString(keyAsString).getKey();
+        Assert.assertEquals(TEST_KEY_1,key);
+        Assert.assertEquals(TEST_KEY_1.setName,key.setName);
+
+        for(String invalidKey : new String[]{"ns","ns::set","ns::set::","ns::set::0G","ns::set::ABC"}){
+            try {
+                new AerospikeClientWithTxnSupport.KeyAsString(invalidKey);
+                Assert.fail("Should throw a KeyFormatException for " + invalidKey + " - did not - test failed");
+            }
+            catch (AerospikeClientWithTxnSupport.KeyFormatException e) {}
+        }
+    }
+
+    /**
+     * With inline locks, a txn should complete without creating lock records, leaving no lock bin on the records updated
+     */
+    @Test
+    public void checkCorrectResultWithInlineLocks() throws TxnSupport.LockAcquireException{
+        aerospikeClientWithTxnSupport.setLockStrategy(LockStrategy.INLINE);
+        aerospikeClientWithTxnSupport.put(testWritePolicy,TEST_KEY_1,new Bin("Bin-01",1));
+
+        HashMap<Key,Bin[]> recordUpdates = new HashMap<Key, Bin[]>();
+        recordUpdates.put(TEST_KEY_1,new Bin[]{new Bin("Bin-01",2)});
+        recordUpdates.put(TEST_KEY_2,new Bin[]{new Bin("Bin-01",3)});
+        recordUpdates.put(TEST_KEY_3,null);
+        aerospikeClientWithTxnSupport.put(testWritePolicy,recordUpdates);
+
+        Record record1 = aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_1);
+        Assert.assertTrue(record1.getInt("Bin-01") == 2);
+        Assert.assertNull(record1.getValue(AerospikeClientWithTxnSupport.LOCK_BIN_NAME));
+        Assert.assertTrue(aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_2).getInt("Bin-01") == 3);
+        Assert.assertNull(aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_3));
+        for(Key key : new Key[]{TEST_KEY_1,TEST_KEY_2,TEST_KEY_3}){
+            Assert.assertFalse(aerospikeClientWithTxnSupport.lockExists(key));
+            Assert.assertNull(aerospikeClientWithTxnSupport.get(testReadPolicy,AerospikeClientWithTxnSupport.lockKey(key)));
+        }
+        Assert.assertTrue(getTransactions(aerospikeClientWithTxnSupport).size() == 0);
+    }
+
+    /**
+     * Inline locks should exclude other txns, and a failed txn should leave both records and locks as they were
+     */
+    @Test
+    public void inlineLockHeldByOtherTxn() throws TxnSupport.LockAcquireException{
+        aerospikeClientWithTxnSupport.setLockStrategy(LockStrategy.INLINE);
+        aerospikeClientWithTxnSupport.put(testWritePolicy,TEST_KEY_1,new Bin("Bin-01",1));
+        aerospikeClientWithTxnSupport.put(testWritePolicy,TEST_KEY_2,new Bin("Bin-01",2));
+
+        String otherTxnID = TxnSupport.uniqueTxnID();
+        aerospikeClientWithTxnSupport.createLock(TEST_KEY_2,otherTxnID);
+        // Relocking with the same txnID is fine
+        aerospikeClientWithTxnSupport.createLock(TEST_KEY_2,otherTxnID);
+        Assert.assertTrue(aerospikeClientWithTxnSupport.lockExists(TEST_KEY_2));
+
+        HashMap<Key,Bin[]> recordUpdates = new HashMap<Key, Bin[]>();
+        recordUpdates.put(TEST_KEY_1,new Bin[]{new Bin("Bin-01",3)});
+        recordUpdates.put(TEST_KEY_2,new Bin[]{new Bin("Bin-01",4)});
+        try {
+            aerospikeClientWithTxnSupport.put(testWritePolicy,recordUpdates);
+            Assert.fail("Should throw a Lock Exception - did not - test failed");
+        }
+        catch(TxnSupport.LockAcquireException e){}
+
+        Assert.assertTrue(aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_1).getInt("Bin-01") == 1);
+        Assert.assertTrue(aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_2).getInt("Bin-01") == 2);
+        Assert.assertFalse(aerospikeClientWithTxnSupport.lockExists(TEST_KEY_1));
+
+        // A txn cannot remove another txn's inline lock
+        aerospikeClientWithTxnSupport.removeLock(TEST_KEY_2,TxnSupport.uniqueTxnID());
+        Assert.assertTrue(aerospikeClientWithTxnSupport.lockExists(TEST_KEY_2));
+        aerospikeClientWithTxnSupport.removeLock(TEST_KEY_2,otherTxnID);
+        Assert.assertFalse(aerospikeClientWithTxnSupport.lockExists(TEST_KEY_2));
+        Assert.assertTrue(aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_2).getInt("Bin-01") == 2);
+    }
+
+    /**
+     * With inline locks the generation check is made when locking, and a failure leaves records unchanged and unlocked
+     */
+    @Test
+    public void checkGenFailWithInlineLocks() throws TxnSupport.LockAcquireException{
+        aerospikeClientWithTxnSupport.setLockStrategy(LockStrategy.INLINE);
+        aerospikeClientWithTxnSupport.put(testWritePolicy,TEST_KEY_1,new Bin("Bin-01",1));
+        aerospikeClientWithTxnSupport.put(testWritePolicy,TEST_KEY_2,new Bin("Bin-01",2));
+        int key2Generation = aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_2).generation;
+
+        HashMap<Key,Bin[]> recordUpdates = new HashMap<Key, Bin[]>();
+        recordUpdates.put(TEST_KEY_1,new Bin[]{new Bin("Bin-01",3)});
+        recordUpdates.put(TEST_KEY_2,new Bin[]{new Bin("Bin-01",4)});
+        HashMap<Key,Integer> generationCheckMap = new HashMap<Key, Integer>();
+        generationCheckMap.put(TEST_KEY_2,key2Generation + 1);
+
+        try {
+            aerospikeClientWithTxnSupport.put(testWritePolicy, recordUpdates, generationCheckMap);
+            Assert.fail("Should throw a GenFailException - did not - test failed");
+        }
+        catch(TxnSupport.GenFailException e){
+            Assert.assertTrue(e.getKey().equals(TEST_KEY_2));
+        }
+
+        Assert.assertTrue(aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_1).getInt("Bin-01") == 1);
+        Assert.assertTrue(aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_2).getInt("Bin-01") == 2);
+        Assert.assertFalse(aerospikeClientWithTxnSupport.lockExists(TEST_KEY_1));
+        Assert.assertFalse(aerospikeClientWithTxnSupport.lockExists(TEST_KEY_2));
+        Assert.assertTrue(getTransactions(aerospikeClientWithTxnSupport).size() == 0);
+    }
+
+    /**
+     * An inline lock older than the inline lock timeout, whose txn has no txn record, should be reclaimed
+     */
+    @Test
+    public void orphanInlineLockReclaimed() throws Exception{
+        aerospikeClientWithTxnSupport.setLockStrategy(LockStrategy.INLINE);
+        aerospikeClientWithTxnSupport.put(testWritePolicy,TEST_KEY_1,new Bin("Bin-01",1));
+        aerospikeClientWithTxnSupport.createLock(TEST_KEY_1,TxnSupport.uniqueTxnID());
+
+        HashMap<Key,Bin[]> recordUpdates = new HashMap<Key, Bin[]>();
+        recordUpdates.put(TEST_KEY_1,new Bin[]{new Bin("Bin-01",2)});
+        try {
+            aerospikeClientWithTxnSupport.put(testWritePolicy,recordUpdates);
+            Assert.fail("Should throw a Lock Exception - did not - test failed");
+        }
+        catch(TxnSupport.LockAcquireException e){}
+
+        aerospikeClientWithTxnSupport.setInlineLockTimeoutMillis(100);
+        Thread.sleep(200);
+        aerospikeClientWithTxnSupport.put(testWritePolicy,recordUpdates);
+        Assert.assertTrue(aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_1).getInt("Bin-01") == 2);
+        Assert.assertFalse(aerospikeClientWithTxnSupport.lockExists(TEST_KEY_1));
+    }
+
+    /**
+     * Rollback of an inline locked txn should restore records whether or not the update was applied, and clear locks
+     * A record updated outside the txn since commit should not be overwritten
+     */
+    @Test
+    public void rollbackWithInlineLocks() throws TxnSupport.LockAcquireException{
+        aerospikeClientWithTxnSupport.setLockStrategy(LockStrategy.INLINE);
+        Key[] keyArray = new Key[]{TEST_KEY_1,TEST_KEY_2,TEST_KEY_3};
+        aerospikeClientWithTxnSupport.put(testWritePolicy,TEST_KEY_1,new Bin("Bin-01",1));
+        aerospikeClientWithTxnSupport.put(testWritePolicy,TEST_KEY_3,new Bin("Bin-01",3));
+
+        // Simulate a txn which failed part way through commit
+        String txnID = TxnSupport.uniqueTxnID();
+        HashMap<Key,Integer> lockedGenerations = new HashMap<Key, Integer>();
+        for(Key key : keyArray){
+            aerospikeClientWithTxnSupport.createLock(key,txnID);
+            lockedGenerations.put(key,aerospikeClientWithTxnSupport.get(testReadPolicy,key).generation);
+        }
+        HashMap<String,Map<String,Object>> txnRecords = aerospikeClientWithTxnSupport.existingVersionsOfRecordsForUpdate(keyArray, txnID);
+        Assert.assertNull(txnRecords.get(new AerospikeClientWithTxnSupport.KeyAsString(TEST_KEY_2).toString()));
+        aerospikeClientWithTxnSupport.createTransactionRecord(txnRecords,lockedGenerations,txnID);
+
+        aerospikeClientWithTxnSupport.put(testWritePolicy,TEST_KEY_1,new Bin("Bin-01",2),Bin.asNull(AerospikeClientWithTxnSupport.LOCK_BIN_NAME));
+        aerospikeClientWithTxnSupport.put(testWritePolicy,TEST_KEY_3,new Bin("Bin-01",4),Bin.asNull(AerospikeClientWithTxnSupport.LOCK_BIN_NAME));
+        // Non-transactional write after commit
+        aerospikeClientWithTxnSupport.put(testWritePolicy,TEST_KEY_3,new Bin("Bin-01",5));
+
+        aerospikeClientWithTxnSupport.rollback(txnID);
+
+        Assert.assertTrue(aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_1).getInt("Bin-01") == 1);
+        Assert.assertNull(aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_2));
+        Assert.assertTrue(aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_3).getInt("Bin-01") == 5);
+        for(Key key : keyArray){
+            Assert.assertFalse(aerospikeClientWithTxnSupport.lockExists(key));
+        }
+        Assert.assertFalse(aerospikeClientWithTxnSupport.txnIncomplete(txnID));
+    }
+
+    /**
+     * With inline locks, pre-images are captured when locking - a failed commit should restore records from them
+     * Records which did not exist should be removed, not left holding only a lock bin
+     */
+    @Test
+    public void rollbackFromPreImagesCapturedWhenLocking() throws TxnSupport.LockAcquireException{
+        aerospikeClientWithTxnSupport.setLockStrategy(LockStrategy.INLINE);
+        aerospikeClientWithTxnSupport.put(testWritePolicy,TEST_KEY_1,new Bin("Bin-01",1),new Bin("Bin-02","a"));
+
+        HashMap<Key,Bin[]> recordUpdates = new HashMap<Key, Bin[]>();
+        recordUpdates.put(TEST_KEY_1,new Bin[]{new Bin("Bin-01",2)});
+        // Bin names are only checked by the server when the update is written, after the txn record
+        recordUpdates.put(TEST_KEY_2,new Bin[]{new Bin("Bin-01",3),new Bin("Bin-name-too-long",3)});
+        try {
+            aerospikeClientWithTxnSupport.put(testWritePolicy,recordUpdates);
+            Assert.fail("Should throw a TxnException - did not - test failed");
+        }
+        catch(TxnSupport.TxnException e){}
+
+        Record record1 = aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_1);
+        Assert.assertTrue(record1.getInt("Bin-01") == 1);
+        Assert.assertTrue(record1.getString("Bin-02").equals("a"));
+        Assert.assertNull(record1.getValue(AerospikeClientWithTxnSupport.LOCK_BIN_NAME));
+        Assert.assertNull(aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_2));
+        Assert.assertTrue(getTransactions(aerospikeClientWithTxnSupport).size() == 0);
+    }
+
+    /**
+     * With inline locks, create only and update only policies should apply to records as they were before being locked
+     * A failure should leave records unchanged and unlocked
+     */
+    @Test
+    public void inlineLocksApplyRecordExistsAction() throws TxnSupport.LockAcquireException{
+        aerospikeClientWithTxnSupport.setLockStrategy(LockStrategy.INLINE);
+        aerospikeClientWithTxnSupport.put(testWritePolicy,TEST_KEY_1,new Bin("Bin-01",1));
+        WritePolicy createOnlyPolicy = new WritePolicy(testWritePolicy);
+        createOnlyPolicy.recordExistsAction = RecordExistsAction.CREATE_ONLY;
+        WritePolicy updateOnlyPolicy = new WritePolicy(testWritePolicy);
+        updateOnlyPolicy.recordExistsAction = RecordExistsAction.UPDATE_ONLY;
+
+        HashMap<Key,Bin[]> recordUpdates = new HashMap<Key, Bin[]>();
+        recordUpdates.put(TEST_KEY_2,new Bin[]{new Bin("Bin-01",2)});
+        aerospikeClientWithTxnSupport.put(createOnlyPolicy,recordUpdates);
+        Record record2 = aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_2);
+        Assert.assertTrue(record2.getInt("Bin-01") == 2);
+        Assert.assertNull(record2.getValue(AerospikeClientWithTxnSupport.LOCK_BIN_NAME));
+
+        recordUpdates = new HashMap<Key, Bin[]>();
+        recordUpdates.put(TEST_KEY_1,new Bin[]{new Bin("Bin-01",3)});
+        recordUpdates.put(TEST_KEY_3,new Bin[]{new Bin("Bin-01",3)});
+        try {
+            aerospikeClientWithTxnSupport.put(createOnlyPolicy,recordUpdates);
+            Assert.fail("Should throw a TxnException - did not - test failed");
+        }
+        catch(TxnSupport.TxnException e){
+            Assert.assertTrue(e.getResultCode() == ResultCode.KEY_EXISTS_ERROR);
+        }
+        try {
+            aerospikeClientWithTxnSupport.put(updateOnlyPolicy,recordUpdates);
+            Assert.fail("Should throw a TxnException - did not - test failed");
+        }
+        catch(TxnSupport.TxnException e){
+            Assert.assertTrue(e.getResultCode() == ResultCode.KEY_NOT_FOUND_ERROR);
+        }
+        Assert.assertTrue(aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_1).getInt("Bin-01") == 1);
+        Assert.assertNull(aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_3));
+        Assert.assertFalse(aerospikeClientWithTxnSupport.lockExists(TEST_KEY_1));
+        Assert.assertTrue(getTransactions(aerospikeClientWithTxnSupport).size() == 0);
+
+        recordUpdates.remove(TEST_KEY_3);
+        aerospikeClientWithTxnSupport.put(updateOnlyPolicy,recordUpdates);
+        Assert.assertTrue(aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_1).getInt("Bin-01") == 3);
+    }
+
+    /**
+     * Taking and releasing inline locks should leave the TTL of a record unchanged
+     */
+    @Test
+    public void inlineLocksLeaveTTLUnchanged() throws TxnSupport.LockAcquireException{
+        aerospikeClientWithTxnSupport.setLockStrategy(LockStrategy.INLINE);
+        WritePolicy ttlPolicy = new WritePolicy(testWritePolicy);
+        ttlPolicy.expiration = 10000;
+        aerospikeClientWithTxnSupport.put(ttlPolicy,TEST_KEY_1,new Bin("Bin-01",1));
+
+        String txnID = TxnSupport.uniqueTxnID();
+        aerospikeClientWithTxnSupport.createLock(TEST_KEY_1,txnID);
+        aerospikeClientWithTxnSupport.removeLock(TEST_KEY_1,txnID);
+
+        Record record = aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_1);
+        Assert.assertTrue(record.getTimeToLive() > 9000 && record.getTimeToLive() <= 10000);
+    }
+
+    /**
+     * With inline locks acquired in parallel, a generation check which passed should still pass when acquisition is retried
+     * after waiting for a lock, although taking and releasing the lock changed the generation
+     */
+    @Test
+    public void parallelInlineLockRetryKeepsGenerationCheck() throws Exception{
+        aerospikeClientWithTxnSupport.setLockStrategy(LockStrategy.INLINE);
+        aerospikeClientWithTxnSupport.setParallelLockAcquisition(true);
+        aerospikeClientWithTxnSupport.setLockWaitPolicy(new LockWaitPolicy(5000));
+        aerospikeClientWithTxnSupport.put(testWritePolicy,TEST_KEY_1,new Bin("Bin-01",1));
+        aerospikeClientWithTxnSupport.put(testWritePolicy,TEST_KEY_2,new Bin("Bin-01",2));
+        HashMap<Key,Integer> generationCheckMap = new HashMap<Key, Integer>();
+        generationCheckMap.put(TEST_KEY_1,aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_1).generation);
+
+        String differentTxnID = TxnSupport.uniqueTxnID();
+        aerospikeClientWithTxnSupport.createLock(TEST_KEY_2,differentTxnID);
+        Thread lockReleaser = new Thread(() -> {
+            try {
+                Thread.sleep(300);
+            }
+            catch(InterruptedException e){}
+            aerospikeClientWithTxnSupport.removeLock(TEST_KEY_2,differentTxnID);
+        });
+        lockReleaser.start();
+
+        HashMap<Key,Bin[]> recordUpdates = new HashMap<Key, Bin[]>();
+        recordUpdates.put(TEST_KEY_1,new Bin[]{new Bin("Bin-01",3)});
+        recordUpdates.put(TEST_KEY_2,new Bin[]{new Bin("Bin-01",4)});
+        aerospikeClientWithTxnSupport.put(testWritePolicy, recordUpdates, generationCheckMap);
+        lockReleaser.join();
+
+        Assert.assertTrue(aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_1).getInt("Bin-01") == 3);
+        Assert.assertTrue(aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_2).getInt("Bin-01") == 4);
+    }
+
+    /**
+     * With bin level undo, only the bins written should be stored, and rollback should restore just those bins
+     */
+    @Test
+    public void rollbackWithBinLevelUndo() throws TxnSupport.LockAcquireException{
+        aerospikeClientWithTxnSupport.setBinLevelUndo(true);
+        aerospikeClientWithTxnSupport.put(testWritePolicy,TEST_KEY_1,new Bin("Bin-01",1),new Bin("Bin-02","a"),new Bin("Bin-03","b"));
+        aerospikeClientWithTxnSupport.put(testWritePolicy,TEST_KEY_3,new Bin("Bin-01",3));
+
+        HashMap<Key,Bin[]> recordUpdates = new HashMap<Key, Bin[]>();
+        recordUpdates.put(TEST_KEY_1,new Bin[]{new Bin("Bin-01",2),new Bin("Bin-04","c")});
+        recordUpdates.put(TEST_KEY_2,new Bin[]{new Bin("Bin-01",4)});
+        recordUpdates.put(TEST_KEY_3,null);
+        Key[] keyArray = recordUpdates.keySet().toArray(new Key[0]);
+
+        String txnID = TxnSupport.uniqueTxnID();
+        HashMap<String,Map<String,Object>> txnRecords = aerospikeClientWithTxnSupport.existingVersionsOfRecordsForUpdate(keyArray, recordUpdates, txnID);
+        Map<String,Object> undoBins1 = txnRecords.get(new AerospikeClientWithTxnSupport.KeyAsString(TEST_KEY_1).toString());
+        Assert.assertEquals(2,undoBins1.size());
+        Assert.assertEquals(1L,undoBins1.get("Bin-01"));
+        Assert.assertTrue(undoBins1.containsKey("Bin-04"));
+        Assert.assertNull(undoBins1.get("Bin-04"));
+        Assert.assertNull(txnRecords.get(new AerospikeClientWithTxnSupport.KeyAsString(TEST_KEY_2).toString()));
+        // Deleted records are stored in full
+        Assert.assertEquals(3L,txnRecords.get(new AerospikeClientWithTxnSupport.KeyAsString(TEST_KEY_3).toString()).get("Bin-01"));
+
+        aerospikeClientWithTxnSupport.createTransactionRecord(TestConstants.TEST_NAMESPACE,txnRecords,txnID);
+        for(Key key : keyArray) aerospikeClientWithTxnSupport.createLock(key,txnID);
+        aerospikeClientWithTxnSupport.put(testWritePolicy,TEST_KEY_1,recordUpdates.get(TEST_KEY_1));
+        aerospikeClientWithTxnSupport.put(testWritePolicy,TEST_KEY_2,recordUpdates.get(TEST_KEY_2));
+        aerospikeClientWithTxnSupport.delete(testWritePolicy,TEST_KEY_3);
+        // Bins not written by the txn are not touched by rollback
+        aerospikeClientWithTxnSupport.put(testWritePolicy,TEST_KEY_1,new Bin("Bin-03","d"));
+
+        aerospikeClientWithTxnSupport.rollback(txnID);
+
+        Record record1 = aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_1);
+        Assert.assertTrue(record1.getInt("Bin-01") == 1);
+        Assert.assertTrue(record1.getString("Bin-02").equals("a"));
+        Assert.assertTrue(record1.getString("Bin-03").equals("d"));
+        Assert.assertNull(record1.getValue("Bin-04"));
+        Assert.assertNull(aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_2));
+        Assert.assertTrue(aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_3).getInt("Bin-01") == 3);
+        for(Key key : keyArray){
+            Assert.assertFalse(aerospikeClientWithTxnSupport.lockExists(key));
+        }
+        Assert.assertFalse(aerospikeClientWithTxnSupport.txnIncomplete(txnID));
+    }
+
+    /**
+     * With redo logging, a successful put should apply updates and leave no txn record or locks
+     */
+    @Test
+    public void putWithRedoLogging() throws TxnSupport.LockAcquireException, TxnSupport.GenFailException{
+        aerospikeClientWithTxnSupport.setRedoLogging(true);
+        aerospikeClientWithTxnSupport.put(testWritePolicy,TEST_KEY_1,new Bin("Bin-01",1),new Bin("Bin-02","a"));
+        aerospikeClientWithTxnSupport.put(testWritePolicy,TEST_KEY_3,new Bin("Bin-01",3));
+
+        HashMap<Key,Bin[]> recordUpdates = new HashMap<Key, Bin[]>();
+        recordUpdates.put(TEST_KEY_1,new Bin[]{new Bin("Bin-01",2)});
+        recordUpdates.put(TEST_KEY_2,new Bin[]{new Bin("Bin-01",4)});
+        recordUpdates.put(TEST_KEY_3,null);
+        aerospikeClientWithTxnSupport.put(testWritePolicy,recordUpdates);
+
+        Record record1 = aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_1);
+        Assert.assertTrue(record1.getInt("Bin-01") == 2);
+        Assert.assertTrue(record1.getString("Bin-02").equals("a"));
+        Assert.assertTrue(aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_2).getInt("Bin-01") == 4);
+        Assert.assertNull(aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_3));
+        for(Key key : recordUpdates.keySet()){
+            Assert.assertFalse(aerospikeClientWithTxnSupport.lockExists(key));
+        }
+        Assert.assertTrue(getTransactions(aerospikeClientWithTxnSupport).size() == 0);
+
+        // A generation mismatch should be detected before the commit point, leaving records untouched
+        HashMap<Key,Integer> generationCheckMap = new HashMap<Key,Integer>();
+        generationCheckMap.put(TEST_KEY_1,record1.generation - 1);
+        try {
+            aerospikeClientWithTxnSupport.put(testWritePolicy,recordUpdates,generationCheckMap);
+            Assert.fail("Should throw a GenFailException - did not - test failed");
+        }
+        catch(TxnSupport.GenFailException e){}
+        Assert.assertTrue(aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_1).generation == record1.generation);
+        for(Key key : recordUpdates.keySet()){
+            Assert.assertFalse(aerospikeClientWithTxnSupport.lockExists(key));
+        }
+        Assert.assertTrue(getTransactions(aerospikeClientWithTxnSupport).size() == 0);
+    }
+
+    /**
+     * With redo logging, a record which cannot be written however often it is retried should be skipped when rolling forward,
+     * and the failure reported once the rest of the txn is applied and its txn record and locks removed
+     */
+    @Test
+    public void rollForwardReportsRecordsWhichCannotBeWritten() throws TxnSupport.LockAcquireException, TxnSupport.GenFailException{
+        aerospikeClientWithTxnSupport.setRedoLogging(true);
+        aerospikeClientWithTxnSupport.put(testWritePolicy,TEST_KEY_1,new Bin("Bin-01",1));
+
+        HashMap<Key,Bin[]> recordUpdates = new HashMap<Key, Bin[]>();
+        recordUpdates.put(TEST_KEY_1,new Bin[]{new Bin("Bin-01",2)});
+        // Bin names are only checked by the server when the update is written, after the txn record
+        recordUpdates.put(TEST_KEY_3,new Bin[]{new Bin("Bin-01",3),new Bin("Bin-name-too-long",3)});
+        try {
+            aerospikeClientWithTxnSupport.put(testWritePolicy,recordUpdates);
+            Assert.fail("Should throw a TxnException - did not - test failed");
+        }
+        catch(TxnSupport.TxnException e){
+            Assert.assertTrue(e.getResultCode() == ResultCode.BIN_NAME_TOO_LONG);
+        }
+
+        Assert.assertTrue(aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_1).getInt("Bin-01") == 2);
+        Assert.assertNull(aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_3));
+        for(Key key : recordUpdates.keySet()){
+            Assert.assertFalse(aerospikeClientWithTxnSupport.lockExists(key));
+        }
+        Assert.assertTrue(getTransactions(aerospikeClientWithTxnSupport).size() == 0);
+    }
+
+    /**
+     * With redo logging and lock records, a put the record exists action does not allow should fail before the commit point,
+     * leaving every record unchanged, and a predExp should be rejected as it cannot be evaluated before the commit point
+     */
+    @Test
+    public void redoPutChecksRecordExistsActionBeforeCommit() throws Exception{
+        aerospikeClientWithTxnSupport.setRedoLogging(true);
+        aerospikeClientWithTxnSupport.put(testWritePolicy,TEST_KEY_1,new Bin("Bin-01",1));
+        WritePolicy createOnlyPolicy = new WritePolicy(testWritePolicy);
+        createOnlyPolicy.recordExistsAction = RecordExistsAction.CREATE_ONLY;
+
+        HashMap<Key,Bin[]> recordUpdates = new HashMap<Key, Bin[]>();
+        recordUpdates.put(TEST_KEY_1,new Bin[]{new Bin("Bin-01",2)});
+        recordUpdates.put(TEST_KEY_3,new Bin[]{new Bin("Bin-01",3)});
+        try {
+            aerospikeClientWithTxnSupport.put(createOnlyPolicy,recordUpdates);
+            Assert.fail("Should throw a TxnException - did not - test failed");
+        }
+        catch(TxnSupport.TxnException e){
+            Assert.assertTrue(e.getResultCode() == ResultCode.KEY_EXISTS_ERROR);
+        }
+        try {
+            aerospikeClientWithTxnSupport.putAsync(createOnlyPolicy,recordUpdates).get();
+            Assert.fail("Should throw a TxnException - did not - test failed");
+        }
+        catch(ExecutionException e){
+            Assert.assertTrue(e.getCause() instanceof TxnSupport.TxnException);
+            Assert.assertTrue(((TxnSupport.TxnException)e.getCause()).getResultCode() == ResultCode.KEY_EXISTS_ERROR);
+        }
+
+        WritePolicy predExpPolicy = new WritePolicy(testWritePolicy);
+        predExpPolicy.predExp = new PredExp[]{PredExp.integerBin("Bin-01"),PredExp.integerValue(1),PredExp.integerEqual()};
+        try {
+            aerospikeClientWithTxnSupport.put(predExpPolicy,recordUpdates);
+            Assert.fail("Should throw a TxnException - did not - test failed");
+        }
+        catch(TxnSupport.TxnException e){
+            Assert.assertTrue(e.getResultCode() == ResultCode.PARAMETER_ERROR);
+        }
+
+        Assert.assertTrue(aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_1).getInt("Bin-01") == 1);
+        Assert.assertNull(aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_3));
+        for(Key key : recordUpdates.keySet()){
+            Assert.assertFalse(aerospikeClientWithTxnSupport.lockExists(key));
+        }
+        Assert.assertTrue(getTransactions(aerospikeClientWithTxnSupport).size() == 0);
+    }
+
+    /**
+     * A redo txn interrupted after its txn record is written has committed, so rollback should roll it forward
+     */
+    @Test
+    public void rollForwardOfRedoTxn() throws TxnSupport.LockAcquireException{
+        aerospikeClientWithTxnSupport.put(testWritePolicy,TEST_KEY_1,new Bin("Bin-01",1),new Bin("Bin-02","a"));
+        aerospikeClientWithTxnSupport.put(testWritePolicy,TEST_KEY_3,new Bin("Bin-01",3));
+
+        HashMap<Key,Bin[]> recordUpdates = new HashMap<Key, Bin[]>();
+        recordUpdates.put(TEST_KEY_1,new Bin[]{new Bin("Bin-01",2),Bin.asNull("Bin-02")});
+        recordUpdates.put(TEST_KEY_2,new Bin[]{new Bin("Bin-01",4)});
+        recordUpdates.put(TEST_KEY_3,null);
+
+        String txnID = TxnSupport.uniqueTxnID();
+        for(Key key : recordUpdates.keySet()) aerospikeClientWithTxnSupport.createLock(key,txnID);
+        aerospikeClientWithTxnSupport.createRedoTransactionRecord(AerospikeClientWithTxnSupport.redoVersions(recordUpdates),null,txnID);
+        // Only part of the txn applied before interruption
+        aerospikeClientWithTxnSupport.put(testWritePolicy,TEST_KEY_2,recordUpdates.get(TEST_KEY_2));
+
+        aerospikeClientWithTxnSupport.rollback(txnID);
+
+        Record record1 = aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_1);
+        Assert.assertTrue(record1.getInt("Bin-01") == 2);
+        Assert.assertNull(record1.getValue("Bin-02"));
+        Assert.assertTrue(aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_2).getInt("Bin-01") == 4);
+        Assert.assertNull(aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_3));
+        for(Key key : recordUpdates.keySet()){
+            Assert.assertFalse(aerospikeClientWithTxnSupport.lockExists(key));
+        }
+        Assert.assertFalse(aerospikeClientWithTxnSupport.txnIncomplete(txnID));
+    }
+
+    /**
+     * Compressed txn record encoding should round trip, and small encodings should be left uncompressed
+     */
+    @Test
+    public void compressedTxnRecordRoundTrip(){
+        Map<Key,Map<String,Object>> previousVersions = new java.util.LinkedHashMap<Key,Map<String,Object>>();
+        for(int i=0;i<20;i++){
+            Map<String,Object> bins = new HashMap<String,Object>();
+            bins.put("Bin-01",(long)i);
+            bins.put("Bin-02",new String(new char[200]).replace('\0','x'));
+            previousVersions.put(new Key(TestConstants.TEST_NAMESPACE,TestConstants.AEROSPIKE_TEST_SET_NAME,"compress-" + i),bins);
+        }
+        previousVersions.put(TEST_KEY_2,null);
+
+        byte[] encoded = TxnRecordCodec.encode(previousVersions);
+        byte[] compressed = TxnRecordCodec.compress(encoded,0);
+        Assert.assertEquals(TxnRecordCodec.FORMAT_DEFLATE,compressed[0]);
+        Assert.assertTrue(compressed.length < encoded.length);
+        Assert.assertTrue(TxnRecordCodec.compress(encoded,encoded.length + 1) == encoded);
+
+        Map<Key,Map<String,Object>> decoded = TxnRecordCodec.decode(compressed);
+        Assert.assertEquals(previousVersions.keySet(),decoded.keySet());
+        Assert.assertNull(decoded.get(TEST_KEY_2));
+        for(Map.Entry<Key,Map<String,Object>> entry : previousVersions.entrySet()){
+            Assert.assertEquals(entry.getValue(),decoded.get(entry.getKey()));
+        }
+    }
+
+    /**
+     * A compressed txn record whose header gives a negative or implausibly large uncompressed length should be rejected
+     * before anything is allocated
+     */
+    @Test
+    public void decompressRejectsInvalidLength(){
+        Map<Key,Map<String,Object>> previousVersions = new HashMap<Key,Map<String,Object>>();
+        Map<String,Object> bins = new HashMap<String,Object>();
+        bins.put("Bin-01",new String(new char[1000]).replace('\0','x'));
+        previousVersions.put(TEST_KEY_1,bins);
+        byte[] compressed = TxnRecordCodec.compress(TxnRecordCodec.encode(previousVersions),0);
+
+        for(int length : new int[]{-1, Integer.MAX_VALUE, TxnRecordCodec.MAX_DECOMPRESSED_LENGTH + 1, compressed.length * 2000}){
+            byte[] corrupt = compressed.clone();
+            corrupt[1] = (byte)(length >>> 24);
+            corrupt[2] = (byte)(length >>> 16);
+            corrupt[3] = (byte)(length >>> 8);
+            corrupt[4] = (byte)length;
+            try {
+                TxnRecordCodec.decompress(corrupt);
+                Assert.fail("Should throw an AerospikeException - did not - test failed");
+            }
+            catch(AerospikeException e){
+                Assert.assertTrue(e.getResultCode() == ResultCode.PARSE_ERROR);
+            }
+        }
+    }
+
+    /**
+     * Rollback should restore previous versions stored in a compressed txn record
+     */
+    @Test
+    public void rollbackWithCompressedTxnRecords() throws TxnSupport.LockAcquireException{
+        aerospikeClientWithTxnSupport.setCompressTxnRecords(true);
+        aerospikeClientWithTxnSupport.setTxnRecordCompressionThreshold(0);
+        String largeValue = new String(new char[2000]).replace('\0','a');
+        Key[] keyArray = new Key[]{TEST_KEY_1,TEST_KEY_2};
+        aerospikeClientWithTxnSupport.put(testWritePolicy,TEST_KEY_1,new Bin("Bin-01",1),new Bin("Bin-02",largeValue));
+
+        String txnID = TxnSupport.uniqueTxnID();
+        HashMap<String,Map<String,Object>> txnRecords = aerospikeClientWithTxnSupport.existingVersionsOfRecordsForUpdate(keyArray, txnID);
+        aerospikeClientWithTxnSupport.createTransactionRecord(TestConstants.TEST_NAMESPACE,txnRecords,txnID);
+        aerospikeClientWithTxnSupport.createLock(TEST_KEY_1,txnID);
+        aerospikeClientWithTxnSupport.createLock(TEST_KEY_2,txnID);
+        byte[] storedVersions = (byte[])aerospikeClientWithTxnSupport.get(testReadPolicy,aerospikeClientWithTxnSupport.keyForTxnID(txnID))
+                .getValue(AerospikeClientWithTxnSupport.PREVIOUS_RECORD_VERSION_BIN_NAME);
+        Assert.assertEquals(TxnRecordCodec.FORMAT_DEFLATE,storedVersions[0]);
+        Assert.assertTrue(storedVersions.length < largeValue.length());
+
+        aerospikeClientWithTxnSupport.put(testWritePolicy,TEST_KEY_1,new Bin("Bin-01",2),new Bin("Bin-02","b"));
+        aerospikeClientWithTxnSupport.put(testWritePolicy,TEST_KEY_2,new Bin("Bin-01",3));
+
+        // Switching compression off does not prevent rollback of txns written compressed
+        aerospikeClientWithTxnSupport.setCompressTxnRecords(false);
+        aerospikeClientWithTxnSupport.rollback(txnID);
+
+        Record record1 = aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_1);
+        Assert.assertTrue(record1.getInt("Bin-01") == 1);
+        Assert.assertTrue(record1.getString("Bin-02").equals(largeValue));
+        Assert.assertNull(aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_2));
+        Assert.assertFalse(aerospikeClientWithTxnSupport.txnIncomplete(txnID));
+    }
+
+    /**
+     * A txn updating more records than the chunk size should succeed, leaving no header or chunk records
+     */
+    @Test
+    public void putWithChunkedTxnRecord() throws TxnSupport.LockAcquireException{
+        aerospikeClientWithTxnSupport.setTxnRecordChunkSize(2);
+        HashMap<Key,Bin[]> recordUpdates = new HashMap<Key, Bin[]>();
+        for(Key key : new Key[]{TEST_KEY_1,TEST_KEY_2,TEST_KEY_3,TEST_KEY_4,TEST_KEY_5}){
+            recordUpdates.put(key,new Bin[]{new Bin("Bin-01",key.userKey.toString())});
+        }
+        aerospikeClientWithTxnSupport.put(testWritePolicy,recordUpdates);
+
+        for(Key key : recordUpdates.keySet()){
+            Assert.assertEquals(key.userKey.toString(),aerospikeClientWithTxnSupport.get(testReadPolicy,key).getString("Bin-01"));
+            Assert.assertFalse(aerospikeClientWithTxnSupport.lockExists(key));
+        }
+        Assert.assertTrue(getTransactions(aerospikeClientWithTxnSupport).size() == 0);
+    }
+
+    /**
+     * Rollback should restore previous versions held across the chunks of a chunked txn record, then remove header and chunks
+     */
+    @Test
+    public void rollbackWithChunkedTxnRecord() throws TxnSupport.LockAcquireException{
+        aerospikeClientWithTxnSupport.setTxnRecordChunkSize(2);
+        Key[] keyArray = new Key[]{TEST_KEY_1,TEST_KEY_2,TEST_KEY_3,TEST_KEY_4,TEST_KEY_5};
+        aerospikeClientWithTxnSupport.put(testWritePolicy,TEST_KEY_1,new Bin("Bin-01",1));
+        aerospikeClientWithTxnSupport.put(testWritePolicy,TEST_KEY_4,new Bin("Bin-01",4));
+
+        String txnID = TxnSupport.uniqueTxnID();
+        HashMap<String,Map<String,Object>> txnRecords = aerospikeClientWithTxnSupport.existingVersionsOfRecordsForUpdate(keyArray, txnID);
+        Assert.assertEquals(3,aerospikeClientWithTxnSupport.createTransactionRecord(txnRecords,null,txnID));
+        for(int i=0;i<3;i++){
+            Assert.assertNotNull(aerospikeClientWithTxnSupport.get(testReadPolicy,aerospikeClientWithTxnSupport.keyForTxnChunk(txnID,i)));
+        }
+        Assert.assertTrue(aerospikeClientWithTxnSupport.txnIncomplete(txnID));
+        for(Key key : keyArray){
+            aerospikeClientWithTxnSupport.createLock(key,txnID);
+            aerospikeClientWithTxnSupport.put(testWritePolicy,key,new Bin("Bin-01",10));
+        }
+
+        // Chunk size can change without affecting txns in flight
+        aerospikeClientWithTxnSupport.setTxnRecordChunkSize(0);
+        aerospikeClientWithTxnSupport.rollback(txnID);
+
+        Assert.assertTrue(aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_1).getInt("Bin-01") == 1);
+        Assert.assertTrue(aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_4).getInt("Bin-01") == 4);
+        for(Key key : new Key[]{TEST_KEY_2,TEST_KEY_3,TEST_KEY_5}){
+            Assert.assertNull(aerospikeClientWithTxnSupport.get(testReadPolicy,key));
+        }
+        for(Key key : keyArray){
+            Assert.assertFalse(aerospikeClientWithTxnSupport.lockExists(key));
+        }
+        Assert.assertFalse(aerospikeClientWithTxnSupport.txnIncomplete(txnID));
+        Assert.assertTrue(getTransactions(aerospikeClientWithTxnSupport).size() == 0);
+    }
+
+    /**
+     * A started TransactionManager should roll back expired txns in the background, recording stats for each sweep
+     */
+    @Test
+    public void backgroundSweepRollsBackExpiredTxns() throws TxnSupport.LockAcquireException, InterruptedException{
+        aerospikeClientWithTxnSupport.put(testWritePolicy,TEST_KEY_1,new Bin("Bin-01","OLD-01"));
+
+        String txnID = TxnSupport.uniqueTxnID();
+        HashMap<String,Map<String,Object>> txnRecords = aerospikeClientWithTxnSupport.existingVersionsOfRecordsForUpdate(new Key[]{TEST_KEY_1},txnID);
+        aerospikeClientWithTxnSupport.createTransactionRecord(TestConstants.TEST_NAMESPACE,txnRecords,txnID);
+        aerospikeClientWithTxnSupport.createLock(TEST_KEY_1,txnID);
+        aerospikeClientWithTxnSupport.put(testWritePolicy,TEST_KEY_1,new Bin("Bin-01","NEW-01"));
+        aerospikeClientWithTxnSupport.put(testWritePolicy,aerospikeClientWithTxnSupport.keyForTxnID(txnID),
+                new Bin(AerospikeClientWithTxnSupport.TIMESTAMP_BIN_NAME,System.currentTimeMillis() - TransactionManager.DEFAULT_TXN_EXPIRY_PERIOD_MILLIS));
+
+        TransactionManager t = new TransactionManager(aerospikeClientWithTxnSupport);
+        t.setSweepIntervalMillis(50);
+        t.start();
+        try {
+            Assert.assertTrue(t.isRunning());
+            long giveUpTime = System.currentTimeMillis() + 5000;
+            while(aerospikeClientWithTxnSupport.txnIncomplete(txnID) && System.currentTimeMillis() < giveUpTime) Thread.sleep(20);
+        }
+        finally {
+            Assert.assertTrue(t.stop(5000));
+        }
+        Assert.assertFalse(t.isRunning());
+
+        Assert.assertEquals("OLD-01",aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_1).getString("Bin-01"));
+        Assert.assertFalse(aerospikeClientWithTxnSupport.lockExists(TEST_KEY_1));
+        Assert.assertFalse(aerospikeClientWithTxnSupport.txnIncomplete(txnID));
+        Assert.assertTrue(t.getSweepCount() > 0);
+        Assert.assertEquals(0,t.getFailedSweepCount());
+        Assert.assertTrue(t.getLastSweepStats().succeeded());
+    }
+
+    /**
+     * Stopping a TransactionManager should not run the sweep scheduled next, or wait for it
+     */
+    @Test
+    public void stopDiscardsScheduledSweep() throws InterruptedException{
+        TransactionManager t = new TransactionManager(aerospikeClientWithTxnSupport);
+        t.setSweepIntervalMillis(60000);
+        t.setSweepJitter(0);
+        t.start();
+        long stopTime = System.currentTimeMillis();
+        Assert.assertTrue(t.stop(5000));
+        Assert.assertTrue(System.currentTimeMillis() - stopTime < 5000);
+        Assert.assertEquals(0,t.getSweepCount());
+    }
+
+    /**
+     * With multiple rollback workers, expired txns should all be rolled back, skipping any being rolled back elsewhere
+     */
+    @Test
+    public void parallelRollbackOfExpiredTxns() throws TxnSupport.LockAcquireException{
+        Key[] keyArray = new Key[]{TEST_KEY_1,TEST_KEY_2,TEST_KEY_3,TEST_KEY_4,TEST_KEY_5,TEST_KEY_6};
+        String[] txnIDs = new String[keyArray.length];
+        for(int i=0;i<keyArray.length;i++){
+            aerospikeClientWithTxnSupport.put(testWritePolicy,keyArray[i],new Bin("Bin-01","OLD"));
+            txnIDs[i] = TxnSupport.uniqueTxnID();
+            HashMap<String,Map<String,Object>> txnRecords = aerospikeClientWithTxnSupport.existingVersionsOfRecordsForUpdate(new Key[]{keyArray[i]},txnIDs[i]);
+            aerospikeClientWithTxnSupport.createTransactionRecord(TestConstants.TEST_NAMESPACE,txnRecords,txnIDs[i]);
+            aerospikeClientWithTxnSupport.createLock(keyArray[i],txnIDs[i]);
+            aerospikeClientWithTxnSupport.put(testWritePolicy,keyArray[i],new Bin("Bin-01","NEW"));
+            aerospikeClientWithTxnSupport.put(testWritePolicy,aerospikeClientWithTxnSupport.keyForTxnID(txnIDs[i]),
+                    new Bin(AerospikeClientWithTxnSupport.TIMESTAMP_BIN_NAME,System.currentTimeMillis() - TransactionManager.DEFAULT_TXN_EXPIRY_PERIOD_MILLIS));
+        }
+        // Simulate another process rolling back the last txn
+        String inProgressRollbackTxnID = TxnSupport.uniqueTxnID();
+        aerospikeClientWithTxnSupport.createLock(aerospikeClientWithTxnSupport.keyForTxnID(txnIDs[keyArray.length - 1]),inProgressRollbackTxnID);
+
+        TransactionManager t = new TransactionManager(aerospikeClientWithTxnSupport);
+        t.setRollbackWorkers(4);
+        Assert.assertEquals(keyArray.length - 1,t.rollbackExpiredTxns());
+
+        for(int i=0;i<keyArray.length - 1;i++){
+            Assert.assertEquals("OLD",aerospikeClientWithTxnSupport.get(testReadPolicy,keyArray[i]).getString("Bin-01"));
+            Assert.assertFalse(aerospikeClientWithTxnSupport.lockExists(keyArray[i]));
+            Assert.assertFalse(aerospikeClientWithTxnSupport.txnIncomplete(txnIDs[i]));
+        }
+        Assert.assertTrue(aerospikeClientWithTxnSupport.txnIncomplete(txnIDs[keyArray.length - 1]));
+        aerospikeClientWithTxnSupport.removeLock(aerospikeClientWithTxnSupport.keyForTxnID(txnIDs[keyArray.length - 1]),inProgressRollbackTxnID);
+    }
+
+    /**
+     * Orphan locks should be found whether or not they fall in the same page as locks whose txn exists
+     */
+    @Test
+    public void orphanLockHarvestInPages() throws TxnSupport.LockAcquireException{
+        String txnID = TxnSupport.uniqueTxnID();
+        HashMap<String,Map<String,Object>> txnRecords = aerospikeClientWithTxnSupport.existingVersionsOfRecordsForUpdate(new Key[]{TEST_KEY_1},txnID);
+        aerospikeClientWithTxnSupport.createTransactionRecord(TestConstants.TEST_NAMESPACE,txnRecords,txnID);
+        aerospikeClientWithTxnSupport.createLock(TEST_KEY_1,txnID);
+        Key[] orphanKeys = new Key[]{TEST_KEY_2,TEST_KEY_3,TEST_KEY_4,TEST_KEY_5,TEST_KEY_6};
+        for(Key key : orphanKeys) aerospikeClientWithTxnSupport.createLock(key,UUID.randomUUID().toString());
+        for(Key key : new Key[]{TEST_KEY_1,TEST_KEY_2,TEST_KEY_3,TEST_KEY_4,TEST_KEY_5,TEST_KEY_6}){
+            aerospikeClientWithTxnSupport.put(testWritePolicy,AerospikeClientWithTxnSupport.lockKey(key),
+                    new Bin(AerospikeClientWithTxnSupport.TIMESTAMP_BIN_NAME,System.currentTimeMillis() - TransactionManager.DEFAULT_TXN_EXPIRY_PERIOD_MILLIS));
+        }
+
+        TransactionManager t = new TransactionManager(aerospikeClientWithTxnSupport);
+        t.setOrphanLockPageSize(2);
+        Assert.assertEquals(orphanKeys.length,t.removeOrphanLocks());
+
+        Assert.assertTrue(aerospikeClientWithTxnSupport.lockExists(TEST_KEY_1));
+        for(Key key : orphanKeys){
+            Assert.assertFalse(aerospikeClientWithTxnSupport.lockExists(key));
+        }
+    }
+
+    /**
+     * Chunks of a txn record whose header was never written, or has been removed, should be removed by TransactionManager once timed out
+     * Chunks of a txn record with a header should be left alone
+     */
+    @Test
+    public void orphanTxnRecordChunksRemoved(){
+        aerospikeClientWithTxnSupport.setTxnRecordChunkSize(1);
+        Key[] keyArray = new Key[]{TEST_KEY_1,TEST_KEY_2};
+        String orphanTxnID = TxnSupport.uniqueTxnID();
+        String txnID = TxnSupport.uniqueTxnID();
+        for(String id : new String[]{orphanTxnID,txnID}){
+            HashMap<String,Map<String,Object>> txnRecords = aerospikeClientWithTxnSupport.existingVersionsOfRecordsForUpdate(keyArray,id);
+            Assert.assertEquals(2,aerospikeClientWithTxnSupport.createTransactionRecord(txnRecords,null,id));
+            for(int i=0;i<2;i++){
+                Key chunkKey = aerospikeClientWithTxnSupport.keyForTxnChunk(id,i);
+                Assert.assertEquals(AerospikeClientWithTxnSupport.TXN_CHUNK_TYPE,aerospikeClientWithTxnSupport.get(testReadPolicy,chunkKey).getString(Constants.TYPE_BIN_NAME));
+                aerospikeClientWithTxnSupport.put(testWritePolicy,chunkKey,
+                        new Bin(AerospikeClientWithTxnSupport.TIMESTAMP_BIN_NAME,System.currentTimeMillis() - TransactionManager.DEFAULT_TXN_EXPIRY_PERIOD_MILLIS));
+            }
+        }
+        // As if the client failed before writing the header
+        aerospikeClientWithTxnSupport.delete(testWritePolicy,aerospikeClientWithTxnSupport.keyForTxnID(orphanTxnID));
+
+        TransactionManager t = new TransactionManager(aerospikeClientWithTxnSupport);
+        Assert.assertEquals(2,t.removeOrphanTxnRecordChunks());
+        for(int i=0;i<2;i++){
+            Assert.assertNull(aerospikeClientWithTxnSupport.get(testReadPolicy,aerospikeClientWithTxnSupport.keyForTxnChunk(orphanTxnID,i)));
+            Assert.assertNotNull(aerospikeClientWithTxnSupport.get(testReadPolicy,aerospikeClientWithTxnSupport.keyForTxnChunk(txnID,i)));
+        }
+        Assert.assertEquals(0,t.removeOrphanTxnRecordChunks());
+    }
+
+    /**
+     * Each shard should be swept by only one TransactionManager per lease, and the shards together should cover every partition
+     */
+    @Test
+    public void shardedSweepClaimsEachShardOnce() throws TxnSupport.LockAcquireException{
+        int shards = 4;
+        TransactionManager t1 = new TransactionManager(aerospikeClientWithTxnSupport);
+        TransactionManager t2 = new TransactionManager(aerospikeClientWithTxnSupport);
+        for(TransactionManager t : new TransactionManager[]{t1,t2}){
+            t.setShardCount(shards);
+            t.setShardLeaseMillis(60000);
+        }
+        for(int i=0;i<shards;i++) aerospikeClientWithTxnSupport.delete(testWritePolicy,t1.shardClaimKey(i,shards));
+
+        Assert.assertEquals(0,TransactionManager.firstPartitionOfShard(0,shards));
+        for(int i=0;i<shards;i++){
+            Assert.assertTrue(TransactionManager.firstPartitionOfShard(i + 1,shards) > TransactionManager.firstPartitionOfShard(i,shards));
+        }
+        Assert.assertEquals(Node.PARTITIONS,TransactionManager.firstPartitionOfShard(shards,shards));
+
+        Key[] keyArray = new Key[]{TEST_KEY_1,TEST_KEY_2,TEST_KEY_3,TEST_KEY_4};
+        String[] txnIDs = new String[keyArray.length];
+        for(int i=0;i<keyArray.length;i++){
+            aerospikeClientWithTxnSupport.put(testWritePolicy,keyArray[i],new Bin("Bin-01","OLD"));
+            txnIDs[i] = TxnSupport.uniqueTxnID();
+            HashMap<String,Map<String,Object>> txnRecords = aerospikeClientWithTxnSupport.existingVersionsOfRecordsForUpdate(new Key[]{keyArray[i]},txnIDs[i]);
+            aerospikeClientWithTxnSupport.createTransactionRecord(TestConstants.TEST_NAMESPACE,txnRecords,txnIDs[i]);
+            aerospikeClientWithTxnSupport.createLock(keyArray[i],txnIDs[i]);
+            aerospikeClientWithTxnSupport.put(testWritePolicy,keyArray[i],new Bin("Bin-01","NEW"));
+            aerospikeClientWithTxnSupport.put(testWritePolicy,aerospikeClientWithTxnSupport.keyForTxnID(txnIDs[i]),
+                    new Bin(AerospikeClientWithTxnSupport.TIMESTAMP_BIN_NAME,System.currentTimeMillis() - TransactionManager.DEFAULT_TXN_EXPIRY_PERIOD_MILLIS));
+        }
+
+        SweepStats stats = t1.sweep();
+        Assert.assertTrue(stats.succeeded());
+        Assert.assertEquals(shards,stats.claimedShards);
+        Assert.assertEquals(keyArray.length,stats.rolledBackTxns);
+        for(int i=0;i<keyArray.length;i++){
+            Assert.assertEquals("OLD",aerospikeClientWithTxnSupport.get(testReadPolicy,keyArray[i]).getString("Bin-01"));
+            Assert.assertFalse(aerospikeClientWithTxnSupport.txnIncomplete(txnIDs[i]));
+        }
+        Record claim = aerospikeClientWithTxnSupport.get(testReadPolicy,t1.shardClaimKey(0,shards));
+        Assert.assertEquals(t1.getInstanceID(),claim.getString(TransactionManager.LEASE_OWNER_BIN_NAME));
+        // Claim records expire once the lease is over
+        Assert.assertTrue(claim.getTimeToLive() > 0 && claim.getTimeToLive() <= 61);
+
+        // All leases are held by t1
+        Assert.assertEquals(0,t2.sweep().claimedShards);
+        Assert.assertEquals(0,t1.sweep().claimedShards);
+
+        // An expired lease can be taken over
+        aerospikeClientWithTxnSupport.put(testWritePolicy,t1.shardClaimKey(0,shards),new Bin(TransactionManager.LEASE_EXPIRY_BIN_NAME,System.currentTimeMillis() - 1));
+        Assert.assertEquals(1,t2.sweep().claimedShards);
+        Assert.assertEquals(t2.getInstanceID(),
+                aerospikeClientWithTxnSupport.get(testReadPolicy,t1.shardClaimKey(0,shards)).getString(TransactionManager.LEASE_OWNER_BIN_NAME));
+
+        for(int i=0;i<shards;i++) aerospikeClientWithTxnSupport.delete(testWritePolicy,t1.shardClaimKey(i,shards));
+    }
+
+    /**
+     * Only the leader should sweep. Leadership should be renewed by the leader, taken over once expired, and released on stop
+     */
+    @Test
+    public void leaderElectionAllowsOneActiveSweeper() throws InterruptedException{
+        TransactionManager t1 = new TransactionManager(aerospikeClientWithTxnSupport);
+        TransactionManager t2 = new TransactionManager(aerospikeClientWithTxnSupport);
+        for(TransactionManager t : new TransactionManager[]{t1,t2}) t.setLeaderElection(true);
+        aerospikeClientWithTxnSupport.delete(testWritePolicy,t1.leaderLeaseKey());
+
+        Assert.assertTrue(t1.sweep().active);
+        Assert.assertTrue(t1.isLeader());
+        Assert.assertFalse(t2.sweep().active);
+        Assert.assertFalse(t2.isLeader());
+        // Leader renews its lease
+        Assert.assertTrue(t1.sweep().active);
+
+        // Expired lease is taken over
+        aerospikeClientWithTxnSupport.put(testWritePolicy,t1.leaderLeaseKey(),new Bin(TransactionManager.LEASE_EXPIRY_BIN_NAME,System.currentTimeMillis() - 1));
+        Assert.assertTrue(t2.sweep().active);
+        Assert.assertFalse(t1.sweep().active);
+        Assert.assertEquals(t2.getInstanceID(),
+                aerospikeClientWithTxnSupport.get(testReadPolicy,t1.leaderLeaseKey()).getString(TransactionManager.LEASE_OWNER_BIN_NAME));
+
+        // Leadership released on stop
+        t2.setSweepIntervalMillis(20);
+        long sweepCount = t2.getSweepCount();
+        t2.start();
+        long giveUpTime = System.currentTimeMillis() + 5000;
+        while(t2.getSweepCount() == sweepCount && System.currentTimeMillis() < giveUpTime) Thread.sleep(20);
+        Assert.assertTrue(t2.stop(5000));
+        Assert.assertFalse(t2.isLeader());
+        Assert.assertNull(aerospikeClientWithTxnSupport.get(testReadPolicy,t1.leaderLeaseKey()));
+        Assert.assertTrue(t1.sweep().active);
+        aerospikeClientWithTxnSupport.delete(testWritePolicy,t1.leaderLeaseKey());
+    }
+
+    /**
+     * A txn whose lease has been renewed should not be rolled back until the lease expires, whatever the txn timeout
+     * A heartbeat should keep renewing the lease of a txn's locks until closed
+     */
+    @Test
+    public void renewedLeaseDefersExpiry() throws TxnSupport.LockAcquireException, InterruptedException{
+        aerospikeClientWithTxnSupport.put(testWritePolicy,TEST_KEY_1,new Bin("Bin-01","OLD"));
+        String txnID = TxnSupport.uniqueTxnID();
+        HashMap<String,Map<String,Object>> txnRecords = aerospikeClientWithTxnSupport.existingVersionsOfRecordsForUpdate(new Key[]{TEST_KEY_1},txnID);
+        aerospikeClientWithTxnSupport.createTransactionRecord(TestConstants.TEST_NAMESPACE,txnRecords,txnID);
+        aerospikeClientWithTxnSupport.createLock(TEST_KEY_1,txnID);
+        aerospikeClientWithTxnSupport.put(testWritePolicy,TEST_KEY_1,new Bin("Bin-01","NEW"));
+
+        TransactionManager t = new TransactionManager(aerospikeClientWithTxnSupport);
+        t.setTransactionTimeOutMillis(2000);
+        aerospikeClientWithTxnSupport.renewLease(txnID,Collections.singletonList(TEST_KEY_1),60000);
+        // Older than the txn timeout, but within the lease
+        for(Key key : new Key[]{aerospikeClientWithTxnSupport.keyForTxnID(txnID),AerospikeClientWithTxnSupport.lockKey(TEST_KEY_1)}){
+            Assert.assertTrue(aerospikeClientWithTxnSupport.get(testReadPolicy,key).getLong(AerospikeClientWithTxnSupport.EXPIRY_BIN_NAME) > System.currentTimeMillis());
+            aerospikeClientWithTxnSupport.put(testWritePolicy,key,new Bin(AerospikeClientWithTxnSupport.TIMESTAMP_BIN_NAME,System.currentTimeMillis() - 10000));
+        }
+        Assert.assertEquals(0,t.rollbackExpiredTxns());
+        Assert.assertTrue(aerospikeClientWithTxnSupport.txnIncomplete(txnID));
+
+        // Once the lease expires the txn is rolled back
+        aerospikeClientWithTxnSupport.put(testWritePolicy,aerospikeClientWithTxnSupport.keyForTxnID(txnID),
+                new Bin(AerospikeClientWithTxnSupport.EXPIRY_BIN_NAME,System.currentTimeMillis() - 1));
+        Assert.assertEquals(1,t.rollbackExpiredTxns());
+        Assert.assertEquals("OLD",aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_1).getString("Bin-01"));
+        Assert.assertFalse(aerospikeClientWithTxnSupport.lockExists(TEST_KEY_1));
+
+        // Heartbeat renews lock lease
+        String heartbeatTxnID = TxnSupport.uniqueTxnID();
+        aerospikeClientWithTxnSupport.createLock(TEST_KEY_2,heartbeatTxnID);
+        try (TxnHeartbeat heartbeat = aerospikeClientWithTxnSupport.startHeartbeat(heartbeatTxnID,Collections.singletonList(TEST_KEY_2),300)) {
+            long firstExpiry = aerospikeClientWithTxnSupport.get(testReadPolicy,AerospikeClientWithTxnSupport.lockKey(TEST_KEY_2)).getLong(AerospikeClientWithTxnSupport.EXPIRY_BIN_NAME);
+            Thread.sleep(500);
+            Assert.assertTrue(aerospikeClientWithTxnSupport.get(testReadPolicy,AerospikeClientWithTxnSupport.lockKey(TEST_KEY_2)).getLong(AerospikeClientWithTxnSupport.EXPIRY_BIN_NAME) > firstExpiry);
+            Assert.assertNull(heartbeat.getLastFailure());
+        }
+        aerospikeClientWithTxnSupport.removeLock(TEST_KEY_2,heartbeatTxnID);
+    }
+
+    /**
+     * Batch lock status should match lock status checked key by key, including with legacy lock key compatibility
+     */
+    @Test
+    public void batchLockStatus() throws TxnSupport.LockAcquireException{
+        Key[] keys = new Key[]{TEST_KEY_1,TEST_KEY_2,TEST_KEY_3};
+        String txnID1 = TxnSupport.uniqueTxnID();
+        String txnID3 = TxnSupport.uniqueTxnID();
+        aerospikeClientWithTxnSupport.createLock(TEST_KEY_1,txnID1);
+        aerospikeClientWithTxnSupport.setLegacyLockKeyCompatibility(true);
+        aerospikeClientWithTxnSupport.createLock(TEST_KEY_3,txnID3);
+
+        for(boolean legacyLockKeyCompatibility : new boolean[]{true,false}) {
+            aerospikeClientWithTxnSupport.setLegacyLockKeyCompatibility(legacyLockKeyCompatibility);
+            BitSet locked = aerospikeClientWithTxnSupport.lockExists(keys);
+            Assert.assertEquals(2,locked.cardinality());
+            Assert.assertTrue(locked.get(0));
+            Assert.assertFalse(locked.get(1));
+            Assert.assertTrue(locked.get(2));
+
+            String[] holders = aerospikeClientWithTxnSupport.lockHolders(keys);
+            Assert.assertEquals(txnID1,holders[0]);
+            Assert.assertNull(holders[1]);
+            Assert.assertEquals(txnID3,holders[2]);
+        }
+
+        aerospikeClientWithTxnSupport.setLegacyLockKeyCompatibility(true);
+        aerospikeClientWithTxnSupport.removeLock(TEST_KEY_1,txnID1);
+        aerospikeClientWithTxnSupport.removeLock(TEST_KEY_3,txnID3);
+        Assert.assertTrue(aerospikeClientWithTxnSupport.lockExists(keys).isEmpty());
+    }
+
+    /**
+     * Shared locks should be held by many readers at once, exclude exclusive locks until the last reader releases, and be excluded by them
+     */
+    @Test
+    public void sharedLocks() throws TxnSupport.LockAcquireException{
+        String reader1 = TxnSupport.uniqueTxnID();
+        String reader2 = TxnSupport.uniqueTxnID();
+        String writer = TxnSupport.uniqueTxnID();
+        aerospikeClientWithTxnSupport.createSharedLock(TEST_KEY_1,reader1);
+        aerospikeClientWithTxnSupport.createSharedLock(TEST_KEY_1,reader2);
+        // Idempotent for the same reader
+        aerospikeClientWithTxnSupport.createSharedLock(TEST_KEY_1,reader2);
+        Assert.assertTrue(aerospikeClientWithTxnSupport.lockExists(TEST_KEY_1));
+        Assert.assertEquals(AerospikeClientWithTxnSupport.SHARED_LOCK_TXN_ID,aerospikeClientWithTxnSupport.lockHolders(new Key[]{TEST_KEY_1})[0]);
+
+        try {
+            aerospikeClientWithTxnSupport.createLock(TEST_KEY_1,writer);
+            Assert.fail("Exclusive lock should not be granted while shared locks are held");
+        }
+        catch(TxnSupport.LockAcquireException e){}
+        // Removing an exclusive lock does not remove shared locks
+        aerospikeClientWithTxnSupport.removeLock(TEST_KEY_1,writer);
+
+        aerospikeClientWithTxnSupport.removeSharedLock(TEST_KEY_1,reader1);
+        Assert.assertTrue(aerospikeClientWithTxnSupport.lockExists(TEST_KEY_1));
+        aerospikeClientWithTxnSupport.removeSharedLock(TEST_KEY_1,reader2);
+        Assert.assertFalse(aerospikeClientWithTxnSupport.lockExists(TEST_KEY_1));
+
+        aerospikeClientWithTxnSupport.createLock(TEST_KEY_1,writer);
+        try {
+            aerospikeClientWithTxnSupport.createSharedLock(TEST_KEY_1,reader1);
+            Assert.fail("Shared lock should not be granted while an exclusive lock is held");
+        }
+        catch(TxnSupport.LockAcquireException e){}
+        aerospikeClientWithTxnSupport.removeSharedLock(TEST_KEY_1,reader1);
+        Assert.assertTrue(aerospikeClientWithTxnSupport.lockExists(TEST_KEY_1));
+        aerospikeClientWithTxnSupport.removeLock(TEST_KEY_1,writer);
+    }
+
+    /**
+     * Records locked by an in-flight txn should be read as they were before it, and others as they are
+     */
+    @Test
+    public void getCommittedReadsPreImagesOfLockedRecords() throws TxnSupport.LockAcquireException{
+        aerospikeClientWithTxnSupport.put(testWritePolicy,TEST_KEY_1,new Bin("Bin-01","OLD"));
+        aerospikeClientWithTxnSupport.put(testWritePolicy,TEST_KEY_2,new Bin("Bin-01","UNLOCKED"));
+        Key[] keys = new Key[]{TEST_KEY_1,TEST_KEY_2,TEST_KEY_3};
+
+        // In-flight txn updating TEST_KEY_1 and creating TEST_KEY_3
+        String txnID = TxnSupport.uniqueTxnID();
+        HashMap<String,Map<String,Object>> txnRecords = aerospikeClientWithTxnSupport.existingVersionsOfRecordsForUpdate(new Key[]{TEST_KEY_1,TEST_KEY_3},txnID);
+        aerospikeClientWithTxnSupport.createTransactionRecord(TestConstants.TEST_NAMESPACE,txnRecords,txnID);
+        aerospikeClientWithTxnSupport.createLock(TEST_KEY_1,txnID);
+        aerospikeClientWithTxnSupport.createLock(TEST_KEY_3,txnID);
+        aerospikeClientWithTxnSupport.put(testWritePolicy,TEST_KEY_1,new Bin("Bin-01","NEW"));
+        aerospikeClientWithTxnSupport.put(testWritePolicy,TEST_KEY_3,new Bin("Bin-01","NEW"));
+
+        Record[] committed = aerospikeClientWithTxnSupport.getCommitted(keys);
+        Assert.assertEquals("OLD",committed[0].getString("Bin-01"));
+        Assert.assertEquals("UNLOCKED",committed[1].getString("Bin-01"));
+        Assert.assertNull(committed[2]);
+
+        // Once the txn record is removed the txn has committed
+        aerospikeClientWithTxnSupport.delete(testWritePolicy,aerospikeClientWithTxnSupport.keyForTxnID(txnID));
+        committed = aerospikeClientWithTxnSupport.getCommitted(keys);
+        Assert.assertEquals("NEW",committed[0].getString("Bin-01"));
+        Assert.assertEquals("NEW",committed[2].getString("Bin-01"));
+
+        aerospikeClientWithTxnSupport.removeLock(TEST_KEY_1,txnID);
+        aerospikeClientWithTxnSupport.removeLock(TEST_KEY_3,txnID);
+    }
+
+    /**
+     * A record read part way through a txn which is rolled back before its lock is read should be read again, not returned as
+     * partly written
+     */
+    @Test
+    public void getCommittedRereadsRecordsRolledBackWhileReading() throws TxnSupport.LockAcquireException{
+        aerospikeClientWithTxnSupport.put(testWritePolicy,TEST_KEY_1,new Bin("Bin-01","OLD"));
+
+        // In-flight txn which has written TEST_KEY_1
+        String txnID = TxnSupport.uniqueTxnID();
+        HashMap<String,Map<String,Object>> txnRecords = aerospikeClientWithTxnSupport.existingVersionsOfRecordsForUpdate(new Key[]{TEST_KEY_1},txnID);
+        aerospikeClientWithTxnSupport.createTransactionRecord(TestConstants.TEST_NAMESPACE,txnRecords,txnID);
+        aerospikeClientWithTxnSupport.createLock(TEST_KEY_1,txnID);
+        aerospikeClientWithTxnSupport.put(testWritePolicy,TEST_KEY_1,new Bin("Bin-01","NEW"));
+
+        // Roll the txn back after the record is read but before its lock is
+        AtomicBoolean rolledBack = new AtomicBoolean(false);
+        AerospikeClientWithTxnSupport interleavingClient =
+                new AerospikeClientWithTxnSupport(clientPolicy, TestConstants.AEROSPIKE_SERVER_IP, TestConstants.AEROSPIKE_SERVER_PORT, TestConstants.TEST_TXN_NAMESPACE){
+            @Override
+            public String[] lockHolders(Key[] keys){
+                if(rolledBack.compareAndSet(false,true)){
+                    try {
+                        aerospikeClientWithTxnSupport.rollback(txnID);
+                    }
+                    catch(TxnSupport.LockAcquireException e){
+                        throw new IllegalStateException(e);
+                    }
+                }
+                return super.lockHolders(keys);
+            }
+        };
+        try {
+            Record[] committed = interleavingClient.getCommitted(new Key[]{TEST_KEY_1});
+            Assert.assertTrue(rolledBack.get());
+            Assert.assertEquals("OLD",committed[0].getString("Bin-01"));
+        }
+        finally {
+            interleavingClient.close();
+        }
+    }
+
+    /**
+     * A record locked by a txn which has not yet written its txn record has not been written by it, so should be returned as read
+     * rather than getCommitted failing
+     */
+    @Test
+    public void getCommittedReadsRecordsLockedBeforeTxnRecordWritten() throws TxnSupport.LockAcquireException{
+        aerospikeClientWithTxnSupport.put(testWritePolicy,TEST_KEY_1,new Bin("Bin-01","OLD"));
+        String txnID = TxnSupport.uniqueTxnID();
+        aerospikeClientWithTxnSupport.createLock(TEST_KEY_1,txnID);
+        aerospikeClientWithTxnSupport.createLock(TEST_KEY_2,txnID);
+
+        Record[] committed = aerospikeClientWithTxnSupport.getCommitted(new Key[]{TEST_KEY_1,TEST_KEY_2});
+        Assert.assertEquals("OLD",committed[0].getString("Bin-01"));
+        Assert.assertNull(committed[1]);
+
+        aerospikeClientWithTxnSupport.removeLock(TEST_KEY_1,txnID);
+        aerospikeClientWithTxnSupport.removeLock(TEST_KEY_2,txnID);
+    }
+
+    /**
+     * Optimistic txns should commit if nothing read has changed, and fail with GenFailException, leaving records unchanged and
+     * unlocked, if a record read has been updated, created or locked since
+     */
+    @Test
+    public void optimisticTxnValidatesReads() throws TxnSupport.LockAcquireException, TxnSupport.GenFailException{
+        aerospikeClientWithTxnSupport.put(testWritePolicy,TEST_KEY_1,new Bin("Bin-01","OLD"));
+        aerospikeClientWithTxnSupport.put(testWritePolicy,TEST_KEY_2,new Bin("Bin-01","OLD"));
+
+        HashMap<Key,Integer> readGenerations = new HashMap<Key,Integer>();
+        Record[] records = aerospikeClientWithTxnSupport.getForUpdate(new Key[]{TEST_KEY_1,TEST_KEY_2,TEST_KEY_3},readGenerations);
+        Assert.assertEquals("OLD",records[0].getString("Bin-01"));
+        Assert.assertNull(records[2]);
+        Assert.assertEquals(0,(int)readGenerations.get(TEST_KEY_3));
+
+        HashMap<Key,Bin[]> recordsForUpdate = new HashMap<Key,Bin[]>();
+        recordsForUpdate.put(TEST_KEY_1,new Bin[]{new Bin("Bin-01","NEW")});
+        recordsForUpdate.put(TEST_KEY_3,new Bin[]{new Bin("Bin-01","NEW")});
+        aerospikeClientWithTxnSupport.putOptimistic(testWritePolicy,recordsForUpdate,readGenerations,TxnSupport.uniqueTxnID());
+        Assert.assertEquals("NEW",aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_1).getString("Bin-01"));
+        Assert.assertEquals("NEW",aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_3).getString("Bin-01"));
+
+        // Updated since read
+        readGenerations.clear();
+        aerospikeClientWithTxnSupport.getForUpdate(new Key[]{TEST_KEY_1,TEST_KEY_2},readGenerations);
+        aerospikeClientWithTxnSupport.put(testWritePolicy,TEST_KEY_2,new Bin("Bin-01","CHANGED"));
+        recordsForUpdate.clear();
+        recordsForUpdate.put(TEST_KEY_1,new Bin[]{new Bin("Bin-01","NEWER")});
+        try {
+            aerospikeClientWithTxnSupport.putOptimistic(testWritePolicy,recordsForUpdate,readGenerations,TxnSupport.uniqueTxnID());
+            Assert.fail("Txn should fail as a record read has changed");
+        }
+        catch(TxnSupport.GenFailException e){}
+        Assert.assertEquals("NEW",aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_1).getString("Bin-01"));
+        Assert.assertFalse(aerospikeClientWithTxnSupport.lockExists(TEST_KEY_1));
+
+        // Read as absent, created since
+        readGenerations.clear();
+        aerospikeClientWithTxnSupport.getForUpdate(new Key[]{TEST_KEY_4},readGenerations);
+        aerospikeClientWithTxnSupport.put(testWritePolicy,TEST_KEY_4,new Bin("Bin-01","CREATED"));
+        recordsForUpdate.clear();
+        recordsForUpdate.put(TEST_KEY_4,new Bin[]{new Bin("Bin-01","NEW")});
+        try {
+            aerospikeClientWithTxnSupport.putOptimistic(testWritePolicy,recordsForUpdate,readGenerations,TxnSupport.uniqueTxnID());
+            Assert.fail("Txn should fail as a record read as absent has been created");
+        }
+        catch(TxnSupport.GenFailException e){}
+        Assert.assertEquals("CREATED",aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_4).getString("Bin-01"));
+
+        // Read but not updated, and locked by another txn
+        readGenerations.clear();
+        aerospikeClientWithTxnSupport.getForUpdate(new Key[]{TEST_KEY_1,TEST_KEY_2},readGenerations);
+        String otherTxnID = TxnSupport.uniqueTxnID();
+        aerospikeClientWithTxnSupport.createLock(TEST_KEY_2,otherTxnID);
+        recordsForUpdate.clear();
+        recordsForUpdate.put(TEST_KEY_1,new Bin[]{new Bin("Bin-01","NEWER")});
+        try {
+            aerospikeClientWithTxnSupport.putOptimistic(testWritePolicy,recordsForUpdate,readGenerations,TxnSupport.uniqueTxnID());
+            Assert.fail("Txn should fail as a record read is locked by another txn");
+        }
+        catch(TxnSupport.GenFailException e){}
+        Assert.assertFalse(aerospikeClientWithTxnSupport.lockExists(TEST_KEY_1));
+        aerospikeClientWithTxnSupport.removeLock(TEST_KEY_2,otherTxnID);
+    }
+
+    /**
+     * Transaction buffers writes until commit, coalescing them, reads see its own writes, and records read are validated at commit
+     */
+    @Test
+    public void transactionBuffersWritesUntilCommit() throws TxnSupport.LockAcquireException, TxnSupport.GenFailException{
+        aerospikeClientWithTxnSupport.put(testWritePolicy,TEST_KEY_1,new Bin("Bin-01","OLD"),new Bin("Bin-02","OLD"));
+        aerospikeClientWithTxnSupport.put(testWritePolicy,TEST_KEY_2,new Bin("Bin-01","OLD"));
+
+        Transaction txn = aerospikeClientWithTxnSupport.beginTransaction(testWritePolicy);
+        Assert.assertEquals("OLD",txn.read(TEST_KEY_1).getString("Bin-01"));
+        txn.write(TEST_KEY_1,new Bin("Bin-01","FIRST"));
+        txn.write(TEST_KEY_1,new Bin("Bin-01","SECOND"));
+        txn.write(TEST_KEY_3,new Bin("Bin-01","NEW"));
+        txn.delete(TEST_KEY_2);
+
+        // Reads see the txn's own writes, while nothing is written or locked until commit
+        Record[] records = txn.read(TEST_KEY_1,TEST_KEY_2,TEST_KEY_3);
+        Assert.assertEquals("SECOND",records[0].getString("Bin-01"));
+        Assert.assertEquals("OLD",records[0].getString("Bin-02"));
+        Assert.assertNull(records[1]);
+        Assert.assertEquals("NEW",records[2].getString("Bin-01"));
+        Assert.assertEquals("OLD",aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_1).getString("Bin-01"));
+        Assert.assertNull(aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_3));
+        Assert.assertFalse(aerospikeClientWithTxnSupport.lockExists(TEST_KEY_1));
+
+        txn.commit();
+        Assert.assertFalse(txn.isActive());
+        Record record = aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_1);
+        Assert.assertEquals("SECOND",record.getString("Bin-01"));
+        Assert.assertEquals("OLD",record.getString("Bin-02"));
+        Assert.assertNull(aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_2));
+        Assert.assertEquals("NEW",aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_3).getString("Bin-01"));
+        Assert.assertFalse(aerospikeClientWithTxnSupport.lockExists(TEST_KEY_1));
+        try {
+            txn.write(TEST_KEY_1,new Bin("Bin-01","AFTER"));
+            Assert.fail("Committed txn should not accept writes");
+        }
+        catch(IllegalStateException e){}
+
+        // Write after delete replaces the record
+        txn = aerospikeClientWithTxnSupport.beginTransaction(testWritePolicy);
+        txn.delete(TEST_KEY_1);
+        txn.write(TEST_KEY_1,new Bin("Bin-03","REPLACED"));
+        txn.commit();
+        record = aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_1);
+        Assert.assertEquals("REPLACED",record.getString("Bin-03"));
+        Assert.assertNull(record.getValue("Bin-01"));
+
+        // Record read has changed since - nothing is written
+        txn = aerospikeClientWithTxnSupport.beginTransaction(testWritePolicy);
+        txn.read(TEST_KEY_3);
+        txn.write(TEST_KEY_1,new Bin("Bin-03","NEWER"));
+        aerospikeClientWithTxnSupport.put(testWritePolicy,TEST_KEY_3,new Bin("Bin-01","CHANGED"));
+        try {
+            txn.commit();
+            Assert.fail("Txn should fail as a record read has changed");
+        }
+        catch(TxnSupport.GenFailException e){}
+        Assert.assertEquals("REPLACED",aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_1).getString("Bin-03"));
+        Assert.assertFalse(aerospikeClientWithTxnSupport.lockExists(TEST_KEY_1));
+
+        // Read only txn fails if a record read is being written by another txn, but not if it is only share locked
+        String otherTxnID = TxnSupport.uniqueTxnID();
+        txn = aerospikeClientWithTxnSupport.beginTransaction(testWritePolicy);
+        txn.read(TEST_KEY_1);
+        aerospikeClientWithTxnSupport.createSharedLock(TEST_KEY_1,otherTxnID);
+        txn.commit();
+        aerospikeClientWithTxnSupport.removeSharedLock(TEST_KEY_1,otherTxnID);
+        txn = aerospikeClientWithTxnSupport.beginTransaction(testWritePolicy);
+        txn.read(TEST_KEY_1);
+        aerospikeClientWithTxnSupport.createLock(TEST_KEY_1,otherTxnID);
+        try {
+            txn.commit();
+            Assert.fail("Read only txn should fail as a record read is locked by another txn");
+        }
+        catch(TxnSupport.GenFailException e){}
+        aerospikeClientWithTxnSupport.removeLock(TEST_KEY_1,otherTxnID);
+
+        // Aborted txn writes nothing
+        txn = aerospikeClientWithTxnSupport.beginTransaction(testWritePolicy);
+        txn.write(TEST_KEY_4,new Bin("Bin-01","ABORTED"));
+        txn.abort();
+        Assert.assertFalse(txn.isActive());
+        Assert.assertNull(aerospikeClientWithTxnSupport.get(testReadPolicy,TEST_KEY_4));
+    }
 }
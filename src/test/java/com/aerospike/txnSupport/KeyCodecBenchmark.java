@@ -0,0 +1,101 @@
+package com.aerospike.txnSupport;
+
+import com.aerospike.client.Key;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark for the key / hex conversions run for every record in a transaction
+ *
+ * The legacy* benchmarks reproduce the String.format / split based implementations these replaced, for comparison
+ *
+ * Run using main, or via the JMH runner with -prof gc to see allocation rates
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeyCodecBenchmark {
+    private Key key;
+    private String digestAsString;
+    private String keyAsString;
+
+    @Setup
+    public void setup(){
+        key = new Key(TestConstants.TEST_NAMESPACE,TestConstants.AEROSPIKE_TEST_SET_NAME,"benchmark-key");
+        digestAsString = AerospikeClientWithTxnSupport.byteArrayToString(key.digest);
+        keyAsString = new AerospikeClientWithTxnSupport.KeyAsString(key).toString();
+    }
+
+    @Benchmark
+    public String byteArrayToString(){
+        return AerospikeClientWithTxnSupport.byteArrayToString(key.digest);
+    }
+
+    @Benchmark
+    public String legacyByteArrayToString(){
+        String[] s = new String[key.digest.length];
+        for(int i=0;i<key.digest.length;i++){
+            s[i] = String.format("%02X",Byte.toUnsignedInt(key.digest[i]));
+        }
+        return String.join("",s);
+    }
+
+    @Benchmark
+    public byte[] stringToByteArray(){
+        return AerospikeClientWithTxnSupport.stringToByteArray(digestAsString);
+    }
+
+    @Benchmark
+    public byte[] legacyStringToByteArray(){
+        return legacyHexToBytes(digestAsString);
+    }
+
+    @Benchmark
+    public String keyToString(){
+        return new AerospikeClientWithTxnSupport.KeyAsString(key).toString();
+    }
+
+    @Benchmark
+    public Key stringToKey(){
+        return new AerospikeClientWithTxnSupport.KeyAsString(keyAsString).getKey();
+    }
+
+    @Benchmark
+    public Key legacyStringToKey(){
+        String[] parts = keyAsString.split(AerospikeClientWithTxnSupport.RECORD_KEY_SET_DELIMITER);
+        String lastPart = String.join("",Arrays.copyOfRange(parts,2,parts.length));
+        return new Key(parts[0],legacyHexToBytes(lastPart),parts[1],null);
+    }
+
+    @Benchmark
+    public Key lockKey(){
+        return AerospikeClientWithTxnSupport.lockKey(key);
+    }
+
+    @Benchmark
+    public Key legacyLockKey(){
+        return AerospikeClientWithTxnSupport.legacyLockKey(key);
+    }
+
+    private static byte[] legacyHexToBytes(String byteArrayAsString){
+        byte[] bytes = new byte[byteArrayAsString.length() /2];
+        for(int i=0;i<byteArrayAsString.length() / 2;i++){
+            bytes[i] = (byte)Integer.parseInt(byteArrayAsString.substring(i*2,i*2+2),16);
+        }
+        return bytes;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder().include(KeyCodecBenchmark.class.getSimpleName()).build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,125 @@
+package com.aerospike.txnSupport;
+
+import com.aerospike.client.policy.ClientPolicy;
+
+import java.util.Random;
+
+/**
+ * Compares optimistic and pessimistic transactions on the account transfer workload at different levels of contention
+ *
+ * Contention is varied through the number of accounts transfers are made between - fewer accounts means transfers are more
+ * likely to touch the same account at the same time. For each level, the same number of transfers is attempted using
+ * AccountTransferSimulationTest.transfer ( locks taken before reading ) and transferOptimistic ( reads validated at commit ).
+ * Throughput and the proportion of transfers which failed with LockAcquireException or GenFailException are printed, together
+ * with the number which failed with any other error. The first such error seen by each thread is printed to stderr
+ *
+ * Requires a running server - see TestConstants
+ */
+public class OptimisticTransferBenchmark {
+    private static final int[] ACCOUNT_COUNTS = {10, 100, 1000, 10000};
+    private static final int CONCURRENT_ACTIONS = 50;
+    private static final int ITERATIONS = 200;
+
+    public static void main(String[] args) throws AccountTransferSimulationTest.AccountExistsException, InterruptedException, AccountTransferSimulationTest.TestFailedException {
+        ClientPolicy clientPolicy = new ClientPolicy();
+        clientPolicy.maxConnsPerNode = CONCURRENT_ACTIONS * 2;
+        AerospikeClientWithTxnSupport client =
+                new AerospikeClientWithTxnSupport(clientPolicy, TestConstants.AEROSPIKE_SERVER_IP, TestConstants.AEROSPIKE_SERVER_PORT, TestConstants.TEST_TXN_NAMESPACE);
+        client.setEnterprise(false);
+
+        System.out.println(String.format("%-10s %-12s %12s %12s %12s %12s", "Accounts", "Mode", "Txns/sec", "Failed %", "Lock fails", "Errors"));
+        for(int noOfAccounts : ACCOUNT_COUNTS){
+            for(boolean optimistic : new boolean[]{false, true}){
+                AccountTransferSimulationTest simulation = new AccountTransferSimulationTest(client, TestConstants.TEST_NAMESPACE, noOfAccounts,
+                        AccountTransferSimulationTest.DEFAULT_BALANCE_AMOUNT_PENCE);
+                simulation.batchInitializeAccountBalances();
+                try {
+                    run(simulation, noOfAccounts, optimistic);
+                    if(simulation.getTotalMoneyInSimulation() != simulation.getExpectedMoneyInSimulation()){
+                        throw new AccountTransferSimulationTest.TestFailedException("Starting money " + simulation.getExpectedMoneyInSimulation() +
+                                " != ending money " + simulation.getTotalMoneyInSimulation());
+                    }
+                }
+                finally {
+                    simulation.removeAccounts();
+                }
+            }
+        }
+        client.close();
+    }
+
+    /**
+     * Run CONCURRENT_ACTIONS threads each attempting ITERATIONS transfers, and print the results
+     */
+    private static void run(AccountTransferSimulationTest simulation, int noOfAccounts, boolean optimistic) throws InterruptedException {
+        Transfers[] transfers = new Transfers[CONCURRENT_ACTIONS];
+        Thread[] threads = new Thread[CONCURRENT_ACTIONS];
+        for(int i=0;i<CONCURRENT_ACTIONS;i++){
+            transfers[i] = new Transfers(simulation, optimistic);
+            threads[i] = new Thread(transfers[i]);
+        }
+        long startTime = System.nanoTime();
+        for(Thread thread : threads) thread.start();
+        for(Thread thread : threads) thread.join();
+        long elapsedNanos = System.nanoTime() - startTime;
+
+        int total = 0, failed = 0, lockFailed = 0, errors = 0;
+        for(Transfers t : transfers){
+            total += t.total;
+            failed += t.lockFailed + t.genFailed;
+            lockFailed += t.lockFailed;
+            errors += t.errors;
+        }
+        System.out.println(String.format("%-10d %-12s %12.0f %12.1f %12d %12d", noOfAccounts, optimistic ? "optimistic" : "pessimistic",
+                total * 1e9 / elapsedNanos, 100.0 * failed / total, lockFailed, errors));
+        for(Transfers t : transfers){
+            if(t.firstError != null) t.firstError.printStackTrace();
+        }
+    }
+
+    /**
+     * Attempts ITERATIONS transfers between randomly chosen accounts
+     */
+    private static class Transfers implements Runnable {
+        private final AccountTransferSimulationTest simulation;
+        private final boolean optimistic;
+        private final Random random = new Random();
+        int total = 0;
+        int lockFailed = 0;
+        int genFailed = 0;
+        int errors = 0;
+        RuntimeException firstError = null;
+
+        Transfers(AccountTransferSimulationTest simulation, boolean optimistic){
+            this.simulation = simulation;
+            this.optimistic = optimistic;
+        }
+
+        public void run(){
+            for(int i=0;i<ITERATIONS;i++){
+                int accountNo1 = random.nextInt(simulation.getNoOfAccounts()) + 1;
+                int accountNo2 = random.nextInt(simulation.getNoOfAccounts()) + 1;
+                while (accountNo1 == accountNo2) accountNo2 = random.nextInt(simulation.getNoOfAccounts()) + 1;
+                String from = simulation.accountIDFromInt(accountNo1);
+                String to = simulation.accountIDFromInt(accountNo2);
+                int transferAmount = random.nextInt(simulation.getMaxTransferAmount()) + 1;
+                try {
+                    if(optimistic) simulation.transferOptimistic(from, to, transferAmount);
+                    else simulation.transfer(from, to, transferAmount);
+                }
+                catch(TxnSupport.LockAcquireException e){
+                    lockFailed++;
+                }
+                catch(TxnSupport.GenFailException e){
+                    genFailed++;
+                }
+                // Count other errors rather than letting them end the thread, which would skew the results
+                catch(RuntimeException e){
+                    errors++;
+                    if(firstError == null) firstError = e;
+                }
+                total++;
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.aerospike.txnSupport;
+
+import com.aerospike.client.Key;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark for the CPU cost of compressing transaction records, against the bytes saved
+ *
+ * Each txn record holds recordCount previous versions, each with a numeric bin and a string bin of valueLength characters
+ * drawn from a small alphabet, approximating typical application data. Encoded and compressed sizes are printed by main
+ * before the run, so the cost per byte saved can be read off the results
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TxnRecordCompressionBenchmark {
+    @Param({"10", "100"})
+    public int recordCount;
+
+    @Param({"100", "1000"})
+    public int valueLength;
+
+    private Map<Key,Map<String,Object>> previousVersions;
+    private byte[] encoded;
+    private byte[] compressed;
+
+    @Setup
+    public void setup(){
+        previousVersions = previousVersions(recordCount, valueLength);
+        encoded = TxnRecordCodec.encode(previousVersions);
+        compressed = TxnRecordCodec.compress(encoded, 0);
+    }
+
+    @Benchmark
+    public byte[] encode(){
+        return TxnRecordCodec.encode(previousVersions);
+    }
+
+    @Benchmark
+    public byte[] encodeAndCompress(){
+        return TxnRecordCodec.compress(TxnRecordCodec.encode(previousVersions), 0);
+    }
+
+    @Benchmark
+    public Map<Key,Map<String,Object>> decode(){
+        return TxnRecordCodec.decode(encoded);
+    }
+
+    @Benchmark
+    public Map<Key,Map<String,Object>> decompressAndDecode(){
+        return TxnRecordCodec.decode(compressed);
+    }
+
+    private static Map<Key,Map<String,Object>> previousVersions(int recordCount, int valueLength){
+        Random random = new Random(recordCount * 31 + valueLength);
+        Map<Key,Map<String,Object>> previousVersions = new LinkedHashMap<Key,Map<String,Object>>(recordCount * 2);
+        for(int i=0;i<recordCount;i++){
+            char[] value = new char[valueLength];
+            for(int j=0;j<valueLength;j++) value[j] = (char)('a' + random.nextInt(16));
+            Map<String,Object> bins = new HashMap<String,Object>();
+            bins.put("balance", random.nextLong());
+            bins.put("description", new String(value));
+            previousVersions.put(new Key(TestConstants.TEST_NAMESPACE,TestConstants.AEROSPIKE_TEST_SET_NAME,"benchmark-" + i), bins);
+        }
+        return previousVersions;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for(int recordCount : new int[]{10, 100}){
+            for(int valueLength : new int[]{100, 1000}){
+                byte[] encoded = TxnRecordCodec.encode(previousVersions(recordCount, valueLength));
+                byte[] compressed = TxnRecordCodec.compress(encoded, 0);
+                System.out.println(String.format("recordCount=%d valueLength=%d encoded=%d bytes compressed=%d bytes",
+                        recordCount, valueLength, encoded.length, compressed.length));
+            }
+        }
+        Options options = new OptionsBuilder().include(TxnRecordCompressionBenchmark.class.getSimpleName()).build();
+        new Runner(options).run();
+    }
+}